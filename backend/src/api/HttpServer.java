@@ -3,6 +3,7 @@ package api;
 import api.controllers.DatabaseController;
 import api.controllers.EmployeeController;
 import util.JsonUtil;
+import api.dto.StreamingResponse;
 import api.dto.UserSession;
 import api.controllers.BackupController;
 import api.controllers.ExportController;
@@ -10,6 +11,7 @@ import service.AuthService;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
@@ -99,6 +101,31 @@ public class HttpServer {
         System.out.println("✅ Response sent successfully! Length: " + responseBytes.length);
     }
 
+    // Длина тела заранее неизвестна: ответ пишется по мере чтения записей,
+    // а его конец обозначается закрытием соединения (Connection: close)
+    private void sendStreamingResponse(OutputStream out, StreamingResponse responseBody) throws IOException {
+        String response = "HTTP/1.1 200 OK\r\n" +
+                        "Content-Type: application/json; charset=utf-8\r\n" +
+                        "Access-Control-Allow-Origin: http://localhost:3000\r\n" +
+                        "Access-Control-Allow-Methods: GET, POST, PUT, DELETE, OPTIONS\r\n" +
+                        "Access-Control-Allow-Headers: Content-Type, Authorization, X-Requested-With\r\n" +
+                        "Access-Control-Allow-Credentials: true\r\n" +
+                        "Access-Control-Max-Age: 3600\r\n" +
+                        "Connection: close\r\n" +
+                        "\r\n";
+        
+        out.write(response.getBytes(StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        try {
+            responseBody.writeTo(writer);
+            writer.flush();
+            System.out.println("✅ Streaming response sent successfully!");
+        } catch (Exception e) {
+            // Заголовки уже ушли - ответ 500 отправить нельзя, клиент увидит оборванный JSON
+            System.out.println("Error while streaming response: " + e.getMessage());
+        }
+    }
+
     private boolean handleOptionsRequest(OutputStream out, Map<String, String> headers) throws IOException {
         // 🔥 ФИКСИРУЕМ ORIGIN ДЛЯ OPTIONS
         String allowOrigin = "http://localhost:3000";
@@ -196,10 +223,14 @@ public class HttpServer {
             UserSession userSession = getUserSession(headers);
             
             // Process request with session
-            String responseBody = processRequest(method, path, requestBody, headers, userSession);
+            Object responseBody = processRequest(method, path, requestBody, headers, userSession);
             
             // Send response with proper CORS headers
-            sendResponse(out, responseBody, userSession, method, headers);
+            if (responseBody instanceof StreamingResponse) {
+                sendStreamingResponse(out, (StreamingResponse) responseBody);
+            } else {
+                sendResponse(out, (String) responseBody, userSession, method, headers);
+            }
             
         } catch (Exception e) {
             // Send error response with CORS headers
@@ -229,7 +260,7 @@ public class HttpServer {
     }
     
     // Обновляем processRequest для принятия userSession
-    private String processRequest(String method, String path, String requestBody, 
+    private Object processRequest(String method, String path, String requestBody, 
                         Map<String, String> headers, UserSession userSession) {
         try {
             System.out.println("=== PROCESSING REQUEST ===");
@@ -316,6 +347,10 @@ public class HttpServer {
                 case "/employees":
                     return handleEmployeesEndpoint(method, queryParams, requestBody, userSession);
                     
+                case "/employees/count":
+                    if ("GET".equals(method)) return employeeController.countEmployees(queryParams, userSession);
+                    break;
+                    
                 case "/database/create":
                     if ("POST".equals(method)) return databaseController.createDatabase(requestBody, userSession);
                     break;
@@ -336,6 +371,14 @@ public class HttpServer {
                     if ("DELETE".equals(method)) return databaseController.clearDatabase(userSession);
                     break;
                     
+                case "/database/compact":
+                    if ("POST".equals(method)) return databaseController.compactDatabase(userSession);
+                    break;
+                    
+                case "/database/rebuild-index":
+                    if ("POST".equals(method)) return databaseController.rebuildIndex(userSession);
+                    break;
+                    
                 default:
                     if (endpoint.startsWith("/employees/")) {
                         String idParam = endpoint.substring("/employees/".length());
@@ -467,7 +510,7 @@ public class HttpServer {
     }
     
     // Обновляем обработчики endpoint'ов для передачи userSession
-    private String handleEmployeesEndpoint(String method, Map<String, String> queryParams, String requestBody, UserSession userSession) {
+    private Object handleEmployeesEndpoint(String method, Map<String, String> queryParams, String requestBody, UserSession userSession) {
         switch (method) {
             case "GET":
                 if (!queryParams.isEmpty()) {
@@ -516,12 +559,15 @@ public class HttpServer {
         System.out.println("  PUT  /employees/{id}");
         System.out.println("  DELETE /employees/{id}");
         System.out.println("  GET  /employees/search");
+        System.out.println("  GET  /employees/count");
         System.out.println("  DELETE /employees");
         System.out.println("  POST /database/create");
         System.out.println("  POST /database/load");
         System.out.println("  GET  /database/info");
         System.out.println("  POST /database/backup");
         System.out.println("  DELETE /database/clear");
+        System.out.println("  POST /database/compact");
+        System.out.println("  POST /database/rebuild-index");
         System.out.println("==============================");
         
         while (isRunning) {
@@ -602,6 +648,8 @@ public class HttpServer {
         try {
             int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
             HttpServer server = new HttpServer(port);
+            // При остановке процесса закрываем БД, чтобы сбросить буферы на диск
+            Runtime.getRuntime().addShutdownHook(new Thread(server.databaseController::closeCurrentDatabase));
             server.start();
         } catch (Exception e) {
             System.err.println("Failed to start server: " + e.getMessage());
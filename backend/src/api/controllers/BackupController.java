@@ -35,6 +35,8 @@ public class BackupController {
                 return "{\"success\":false,\"error\":\"DATABASE_NOT_LOADED\",\"message\":\"Cannot determine current database path\"}";
             }
             
+            // Контрольная точка: meta.db и страницы из пула попадают в копируемые файлы
+            databaseController.getCurrentDatabase().flush();
             String backupPath = backupManager.createBackup(currentDatabasePath);
             
             Map<String, Object> data = new HashMap<>();
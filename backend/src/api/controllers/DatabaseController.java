@@ -3,9 +3,15 @@ package api.controllers;
 import api.dto.ErrorResponse;
 import api.dto.SuccessResponse;
 import api.dto.UserSession;
+import core.DatabaseCompactor;
 import core.DatabaseEngine;
 import core.DatabaseInitializer;
+import core.IndexRebuilder;
 import exceptions.DatabaseException;
+import storage.IOMode;
+import storage.Durability;
+import storage.IndexType;
+import storage.StorageConfig;
 import util.JsonUtil;
 
 import java.time.LocalDateTime;
@@ -37,6 +43,16 @@ public class DatabaseController {
             Map<String, Object> request = JsonUtil.parseJson(requestBody);
             String databasePath = (String) request.get("databasePath");
             Boolean overwrite = (Boolean) request.getOrDefault("overwrite", false);
+            
+            // Тип первичного индекса (HASH / DENSE) задается при создании
+            IndexType indexType;
+            try {
+                indexType = IndexType.fromString((String) request.get("indexType"));
+            } catch (IllegalArgumentException e) {
+                ErrorResponse error = new ErrorResponse("INVALID_INDEX_TYPE",
+                    "Unknown index type: " + request.get("indexType"));
+                return JsonUtil.toJson(error);
+            }
 
             System.out.println("Database path: " + databasePath); // ------------
             System.out.println("Overwrite: " + overwrite); // ----------------
@@ -57,11 +73,12 @@ public class DatabaseController {
             
             // Create database
             System.out.println("Creating database at: " + databasePath); // ---------------
-            DatabaseInitializer.createDatabase(databasePath);
+            DatabaseInitializer.createDatabase(databasePath, indexType);
             System.out.println("Database created successfully"); // -------------
             
             Map<String, Object> data = new HashMap<>();
             data.put("databasePath", databasePath);
+            data.put("indexType", indexType.name());
             data.put("createdAt", getCurrentTimestamp());
             
             SuccessResponse<Map<String, Object>> response = new SuccessResponse<>(
@@ -101,8 +118,31 @@ public class DatabaseController {
                 currentDatabase.close();
             }
             
+            // Режим ввода-вывода можно выбрать при загрузке (STANDARD / MAPPED)
+            StorageConfig config = new StorageConfig();
+            try {
+                config.setIoMode(IOMode.fromString((String) request.get("ioMode")));
+            } catch (IllegalArgumentException e) {
+                ErrorResponse error = new ErrorResponse("INVALID_IO_MODE",
+                    "Unknown I/O mode: " + request.get("ioMode"));
+                return JsonUtil.toJson(error);
+            }
+            
+            // Ленивая загрузка индекса: база открывается сразу, индекс догружается в фоне
+            Boolean lazyIndex = (Boolean) request.getOrDefault("lazyIndex", false);
+            config.setIndexLazyLoad(Boolean.TRUE.equals(lazyIndex));
+            
+            // Подтверждение записи: SYNC (по умолчанию), BATCHED или NONE
+            try {
+                config.setDurability(Durability.fromString((String) request.get("durability")));
+            } catch (IllegalArgumentException e) {
+                ErrorResponse error = new ErrorResponse("INVALID_DURABILITY",
+                    "Unknown durability mode: " + request.get("durability"));
+                return JsonUtil.toJson(error);
+            }
+            
             // Load new database
-            currentDatabase = new DatabaseEngine(databasePath);
+            currentDatabase = new DatabaseEngine(databasePath, config);
             currentDatabase.open(false);
             
             // Update server state
@@ -118,6 +158,14 @@ public class DatabaseController {
                 data.put("recordCount", 0);
             }
             data.put("loadedAt", serverState.get("loadedAt"));
+            data.put("ioMode", config.getIoMode().name());
+            data.put("lazyIndex", config.isIndexLazyLoad());
+            data.put("durability", config.getDurability().name());
+            if (currentDatabase.getLastRecovery() != null) {
+                // База не была закрыта штатно - операции повторены по журналу
+                data.put("recoveredOperations", currentDatabase.getLastRecovery().getReplayedOperations());
+            }
+            data.put("indexType", currentDatabase.getIndexType().name());
             
             SuccessResponse<Map<String, Object>> response = new SuccessResponse<>(
                 "Database loaded successfully",
@@ -144,6 +192,12 @@ public class DatabaseController {
             try {
                 info.put("recordCount", currentDatabase.getEmployeeCount());
                 info.put("databaseSize", currentDatabase.getDatabaseSize());
+                info.put("freeRecordCount", currentDatabase.getFreeRecordCount());
+                info.put("indexType", currentDatabase.getIndexType().name());
+                if (currentDatabase.getBufferPool() != null) {
+                    info.put("bufferPoolPages", currentDatabase.getBufferPool().getPageCount());
+                    info.put("bufferPoolHitRatio", currentDatabase.getBufferPool().getHitRatio());
+                }
             } catch (Exception e) {
                 info.put("recordCount", 0);
                 info.put("databaseSize", 0);
@@ -171,14 +225,15 @@ public class DatabaseController {
             
             // Close current database
             String databasePath = (String) serverState.get("loadedDatabasePath");
+            IndexType indexType = currentDatabase.getIndexType();
             currentDatabase.close();
             
-            // Delete and recreate database
+            // Delete and recreate database (с тем же типом индекса)
             DatabaseInitializer.deleteDatabase(databasePath);
-            DatabaseInitializer.createDatabase(databasePath);
+            DatabaseInitializer.createDatabase(databasePath, indexType);
             
-            // Reload database
-            currentDatabase = new DatabaseEngine(databasePath);
+            // Reload database (с теми же настройками хранения)
+            currentDatabase = new DatabaseEngine(databasePath, currentDatabase.getConfig());
             currentDatabase.open(false);
             
             Map<String, Object> data = new HashMap<>();
@@ -196,6 +251,61 @@ public class DatabaseController {
         }
     }
     
+    public String compactDatabase(UserSession session) {
+        try {
+            if (!session.canCompactDatabase()) {
+                return "{\"success\":false,\"error\":\"ACCESS_DENIED\",\"message\":\"Недостаточно прав для уплотнения БД. Требуется роль: Администратор\"}";
+            }
+            checkDatabaseLoaded();
+            
+            DatabaseCompactor.CompactionResult result = currentDatabase.compact();
+            
+            Map<String, Object> data = new HashMap<>();
+            data.put("liveRecords", result.getLiveRecords());
+            data.put("removedRecords", result.getRemovedRecords());
+            data.put("sizeBefore", result.getSizeBefore());
+            data.put("sizeAfter", result.getSizeAfter());
+            data.put("durationMs", result.getDurationMs());
+            
+            SuccessResponse<Map<String, Object>> response = new SuccessResponse<>(
+                "Database compacted successfully",
+                data
+            );
+            
+            return JsonUtil.toJson(response);
+            
+        } catch (Exception e) {
+            return handleException(e);
+        }
+    }
+    
+    public String rebuildIndex(UserSession session) {
+        try {
+            if (!session.canCompactDatabase()) {
+                return "{\"success\":false,\"error\":\"ACCESS_DENIED\",\"message\":\"Недостаточно прав для перестройки индекса. Требуется роль: Администратор\"}";
+            }
+            checkDatabaseLoaded();
+            
+            IndexRebuilder.RebuildResult result = currentDatabase.rebuildIndex();
+            
+            Map<String, Object> data = new HashMap<>();
+            data.put("indexedRecords", result.getIndexedRecords());
+            data.put("deletedRecords", result.getDeletedRecords());
+            data.put("duplicateRecords", result.getDuplicateRecords());
+            data.put("durationMs", result.getDurationMs());
+            
+            SuccessResponse<Map<String, Object>> response = new SuccessResponse<>(
+                "Index rebuilt successfully",
+                data
+            );
+            
+            return JsonUtil.toJson(response);
+            
+        } catch (Exception e) {
+            return handleException(e);
+        }
+    }
+    
     public String backupDatabase(UserSession session) {
         try {
             if (!session.canCreateBackup()) {
@@ -263,6 +373,17 @@ public class DatabaseController {
         return LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
     }
     
+    // Закрывает текущую БД (грязные страницы пула записываются на диск)
+    public void closeCurrentDatabase() {
+        if (currentDatabase != null && currentDatabase.isOpen()) {
+            try {
+                currentDatabase.close();
+            } catch (Exception e) {
+                System.err.println("Warning: Error closing database: " + e.getMessage());
+            }
+        }
+    }
+    
     public DatabaseEngine getCurrentDatabase() {
         return currentDatabase;
     }
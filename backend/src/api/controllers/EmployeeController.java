@@ -3,6 +3,7 @@ package api.controllers;
 import api.dto.EmployeeRequest;
 import api.dto.EmployeeResponse;
 import api.dto.ErrorResponse;
+import api.dto.StreamingResponse;
 import api.dto.SuccessResponse;
 import api.dto.UserSession;
 import core.DatabaseEngine;
@@ -11,10 +12,14 @@ import model.Employee;
 import util.JsonUtil;
 import util.ValidationUtil;
 
+import java.io.IOException;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class EmployeeController {
     private final DatabaseController databaseController;
@@ -23,30 +28,20 @@ public class EmployeeController {
         this.databaseController = databaseController;
     }
     
-    public String getAllEmployees(UserSession session) {
+    // Список пишется в ответ прямо из потока записей (см. employeeList)
+    public StreamingResponse getAllEmployees(UserSession session) {
         try {
             if (!session.canViewEmployees()) {
-                return "{\"success\":false,\"error\":\"ACCESS_DENIED\",\"message\":\"Недостаточно прав для просмотра сотрудников\"}";
+                return StreamingResponse.of("{\"success\":false,\"error\":\"ACCESS_DENIED\",\"message\":\"Недостаточно прав для просмотра сотрудников\"}");
             }
             
             checkDatabaseLoaded();
             DatabaseEngine db = databaseController.getCurrentDatabase();
             
-            List<Employee> employees = db.getAllEmployees();
-            List<EmployeeResponse> responseData = employees.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
-            
-            SuccessResponse<List<EmployeeResponse>> response = new SuccessResponse<>(
-                "Employees retrieved successfully",
-                responseData,
-                responseData.size()
-            );
-            
-            return JsonUtil.toJson(response);
+            return employeeList("Employees retrieved successfully", db::streamAllEmployees);
             
         } catch (Exception e) {
-            return handleException(e);
+            return StreamingResponse.of(handleException(e));
         }
     }
     
@@ -177,35 +172,91 @@ public class EmployeeController {
         }
     }
     
-    public String searchEmployees(Map<String, String> queryParams, UserSession session) {
+    public StreamingResponse searchEmployees(Map<String, String> queryParams, UserSession session) {
         try {
             if (!session.canSearchEmployees()) {
-                return "{\"success\":false,\"error\":\"ACCESS_DENIED\",\"message\":\"Недостаточно прав для добавления сотрудников. Требуется роль: Администратор или Оператор\"}";
+                return StreamingResponse.of("{\"success\":false,\"error\":\"ACCESS_DENIED\",\"message\":\"Недостаточно прав для добавления сотрудников. Требуется роль: Администратор или Оператор\"}");
             }
             checkDatabaseLoaded();
             DatabaseEngine db = databaseController.getCurrentDatabase();
             
-            List<Employee> employees;
-            
-            if (queryParams.containsKey("department")) {
-                employees = db.findEmployeesByDepartment(queryParams.get("department"));
-            } else if (queryParams.containsKey("position")) {
-                employees = db.findEmployeesByPosition(queryParams.get("position"));
+            EmployeeSource employees;
+            
+            if (queryParams.containsKey("department") || queryParams.containsKey("position")) {
+                // Оба параметра - И; несколько значений через запятую - ИЛИ
+                List<String> departments = parseList(queryParams.get("department"));
+                List<String> positions = parseList(queryParams.get("position"));
+                employees = () -> db.streamEmployees(departments, positions);
+            } else if (queryParams.containsKey("minSalary") || queryParams.containsKey("maxSalary")) {
+                // Отсутствующая граница диапазона - открытая
+                float minSalary = parseSalary(queryParams.getOrDefault("minSalary", "0"));
+                float maxSalary = queryParams.containsKey("maxSalary")
+                    ? parseSalary(queryParams.get("maxSalary")) : Float.MAX_VALUE;
+                employees = () -> db.streamEmployeesBySalaryRange(minSalary, maxSalary);
+            } else if (queryParams.containsKey("hiredFrom") || queryParams.containsKey("hiredTo")) {
+                LocalDate from = queryParams.containsKey("hiredFrom")
+                    ? parseDate(queryParams.get("hiredFrom")) : LocalDate.MIN;
+                LocalDate to = queryParams.containsKey("hiredTo")
+                    ? parseDate(queryParams.get("hiredTo")) : LocalDate.MAX;
+                employees = () -> db.streamEmployeesByHireDateRange(from, to);
             } else if (queryParams.containsKey("name")) {
-                employees = db.findEmployeesByName(queryParams.get("name"));
+                String name = queryParams.get("name");
+                employees = () -> db.streamEmployeesByName(name);
             } else {
                 // Если нет параметров, возвращаем всех
-                employees = db.getAllEmployees();
+                employees = db::streamAllEmployees;
+            }
+            
+            return employeeList("Search completed successfully", employees);
+            
+        } catch (Exception e) {
+            return StreamingResponse.of(handleException(e));
+        }
+    }
+    
+    private interface EmployeeSource {
+        Stream<Employee> open() throws IOException;
+    }
+    
+    // Поток записей открывается только при записи ответа и закрывается сразу после нее.
+    // Блокировку чтения база берет только на чтение очередного блока, а не на запись в сокет.
+    // В памяти - один блок записей, а не весь список.
+    // Ошибка открытия потока (например, неверные условия) отдается обычным ответом с ошибкой.
+    private StreamingResponse employeeList(String message, EmployeeSource source) {
+        return out -> {
+            Stream<Employee> employees;
+            try {
+                employees = source.open();
+            } catch (Exception e) {
+                out.write(handleException(e));
+                return;
+            }
+            try (employees) {
+                JsonUtil.writeEmployeeList(out, message, employees.map(this::convertToResponse).iterator());
+            }
+        };
+    }
+    
+    public String countEmployees(Map<String, String> queryParams, UserSession session) {
+        try {
+            if (!session.canSearchEmployees()) {
+                return "{\"success\":false,\"error\":\"ACCESS_DENIED\",\"message\":\"Недостаточно прав для поиска сотрудников. Требуется роль: Администратор или Оператор\"}";
             }
+            checkDatabaseLoaded();
+            DatabaseEngine db = databaseController.getCurrentDatabase();
             
-            List<EmployeeResponse> responseData = employees.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+            int count;
+            if (queryParams.containsKey("department") || queryParams.containsKey("position")) {
+                count = db.countEmployees(parseList(queryParams.get("department")),
+                                          parseList(queryParams.get("position")));
+            } else {
+                count = db.getEmployeeCount();
+            }
             
-            SuccessResponse<List<EmployeeResponse>> response = new SuccessResponse<>(
-                "Search completed successfully",
-                responseData,
-                responseData.size()
+            SuccessResponse<Map<String, Object>> response = new SuccessResponse<>(
+                "Count completed successfully",
+                Map.of("count", count),
+                count
             );
             
             return JsonUtil.toJson(response);
@@ -323,6 +374,32 @@ public class EmployeeController {
         }
     }
     
+    private List<String> parseList(String listParam) {
+        if (listParam == null) {
+            return null;
+        }
+        return Arrays.stream(listParam.split(","))
+            .map(String::trim)
+            .filter(value -> !value.isEmpty())
+            .collect(Collectors.toList());
+    }
+    
+    private float parseSalary(String salaryParam) {
+        try {
+            return Float.parseFloat(salaryParam);
+        } catch (NumberFormatException e) {
+            throw new DatabaseException("INVALID_SALARY", "Invalid salary format: " + salaryParam);
+        }
+    }
+    
+    private LocalDate parseDate(String dateParam) {
+        try {
+            return LocalDate.parse(dateParam);
+        } catch (DateTimeParseException e) {
+            throw new DatabaseException("INVALID_DATE", "Invalid date format, expected YYYY-MM-DD: " + dateParam);
+        }
+    }
+    
     private void validateEmployeeRequest(EmployeeRequest request) {
         System.out.println("=== VALIDATING EMPLOYEE REQUEST ===");
         System.out.println("Request to validate: " + request);
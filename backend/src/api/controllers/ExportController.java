@@ -10,8 +10,8 @@ import util.JsonUtil;
 
 import java.io.File;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 public class ExportController {
     private final DatabaseController databaseController;
@@ -33,21 +33,25 @@ public class ExportController {
             }
             
             DatabaseEngine db = databaseController.getCurrentDatabase();
-            List<Employee> employees = db.getAllEmployees();
-            
-            if (employees.isEmpty()) {
-                return "{\"success\":false,\"error\":\"NO_DATA\",\"message\":\"Нет данных для экспорта\"}";
-            }
             
             // Генерируем имя файла
             String databaseName = getCurrentDatabaseName();
             String fileName = excelExporter.generateFileName(databaseName);
             
-            // Экспортируем в CSV
-            String filePath = excelExporter.exportToExcel(employees, fileName);
+            // Экспортируем в CSV, читая записи потоком
+            String filePath = excelExporter.getExportPath(fileName);
+            int recordCount;
+            try (Stream<Employee> employees = db.streamAllEmployees()) {
+                recordCount = excelExporter.writeCsv(employees, filePath);
+            }
             
-            // Проверяем что файл создан
             File exportedFile = new File(filePath);
+            if (recordCount == 0) {
+                exportedFile.delete();
+                return "{\"success\":false,\"error\":\"NO_DATA\",\"message\":\"Нет данных для экспорта\"}";
+            }
+            
+            // Проверяем что файл создан
             if (!exportedFile.exists()) {
                 return "{\"success\":false,\"error\":\"EXPORT_FAILED\",\"message\":\"Не удалось создать файл\"}";
             }
@@ -55,7 +59,7 @@ public class ExportController {
             Map<String, Object> data = new HashMap<>();
             data.put("filePath", filePath);
             data.put("fileName", new File(filePath).getName());
-            data.put("recordCount", employees.size());
+            data.put("recordCount", recordCount);
             data.put("fileSize", exportedFile.length());
             data.put("format", "CSV"); // Указываем что это CSV
             
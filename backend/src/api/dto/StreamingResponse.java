@@ -0,0 +1,17 @@
+package api.dto;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// Тело ответа, которое пишется в соединение по мере формирования (например, список
+// сотрудников прямо из потока записей), а не собирается в строку целиком
+@FunctionalInterface
+public interface StreamingResponse {
+    
+    void writeTo(Writer out) throws IOException;
+    
+    // Готовый ответ (ошибка, отказ в доступе) в том же виде
+    static StreamingResponse of(String body) {
+        return out -> out.write(body);
+    }
+}
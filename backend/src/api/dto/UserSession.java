@@ -42,6 +42,10 @@ public class UserSession {
         return role == UserRole.ADMIN; 
     }
     
+    public boolean canCompactDatabase() { 
+        return role == UserRole.ADMIN; 
+    }
+    
     public boolean canCreateEmployee() { 
         return role == UserRole.ADMIN || role == UserRole.OPERATOR; 
     }
@@ -0,0 +1,91 @@
+package core;
+
+import java.io.IOException;
+
+// Фоновая синхронизация для Durability.BATCHED: операции подтверждаются сразу,
+// а fsync выполняется раз в intervalMillis или после maxOps неподтвержденных операций.
+// Потеря при сбое питания ограничена этим окном.
+class BatchFlusher implements AutoCloseable {
+    interface SyncAction {
+        void sync() throws IOException;
+    }
+    
+    private final SyncAction action;
+    private final long intervalMillis;
+    private final int maxOps;
+    private final Thread thread;
+    
+    // Доступ к полям ниже - только под this
+    private int pendingOps;
+    private boolean running;
+    private long syncCount;
+    
+    BatchFlusher(SyncAction action, long intervalMillis, int maxOps, String name) {
+        this.action = action;
+        this.intervalMillis = intervalMillis;
+        this.maxOps = maxOps;
+        this.running = true;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    // Операция выполнена и ждет fsync
+    synchronized void opCompleted() {
+        pendingOps++;
+        if (pendingOps >= maxOps) {
+            notifyAll();
+        }
+    }
+    
+    synchronized long getSyncCount() {
+        return syncCount;
+    }
+    
+    private void run() {
+        while (true) {
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + intervalMillis;
+                while (running && pendingOps < maxOps) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) break;
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) return;
+                if (pendingOps == 0) continue;
+                pendingOps = 0;
+            }
+            
+            try {
+                action.sync();
+                synchronized (this) {
+                    syncCount++;
+                }
+            } catch (Exception e) {
+                // Операции остаются несинхронизированными - повтор на следующем такте
+                synchronized (this) {
+                    pendingOps++;
+                }
+                System.err.println("Warning: Background sync failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    // Останавливает поток; последний fsync делает владелец при закрытии
+    @Override
+    public void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
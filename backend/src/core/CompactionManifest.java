@@ -0,0 +1,161 @@
+package core;
+
+import exceptions.DatabaseException;
+import model.DatabaseMeta;
+import storage.FileManager;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// Подмена файлов базы уплотненными копиями, которая переживает падение процесса.
+// До первого переименования в compact.pending пишутся пары "копия -> файл базы"
+// и метаданные новой базы; файл и каталог синхронизируются с диском. Пока файл есть,
+// подмена не закончена: при открытии базы оставшиеся копии переносятся на место,
+// метаданные берутся из файла, вторичные индексы перестраиваются.
+// Копии к этому моменту уже целиком на диске, поэтому отсутствующая копия означает,
+// что ее уже перенесли. Файл удаляется последним, когда новое состояние базы на диске.
+class CompactionManifest {
+    static final String FILE_NAME = "compact.pending";
+    
+    private static final byte[] SIGNATURE = "MFCP".getBytes(StandardCharsets.US_ASCII);
+    private static final short VERSION = 1;
+    
+    private final Path directory;
+    private final String[] sources;
+    private final String[] targets;
+    private final DatabaseMeta meta;
+    
+    CompactionManifest(Path directory, String[] sources, String[] targets, DatabaseMeta meta) {
+        this.directory = directory;
+        this.sources = sources;
+        this.targets = targets;
+        this.meta = meta;
+    }
+    
+    DatabaseMeta getMeta() {
+        return meta;
+    }
+    
+    static boolean exists(Path directory) {
+        return Files.exists(directory.resolve(FILE_NAME));
+    }
+    
+    // Незаконченная подмена или null. Файл с неверной контрольной суммой не успел
+    // синхронизироваться - переименований еще не было, и он просто удаляется.
+    static CompactionManifest read(Path directory) throws IOException {
+        Path path = directory.resolve(FILE_NAME);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        
+        byte[] data = Files.readAllBytes(path);
+        CompactionManifest manifest = data.length > SIGNATURE.length + 8 ? parse(directory, data) : null;
+        if (manifest == null) {
+            System.err.println("Warning: Ignoring incomplete " + path + ", compaction swap had not started");
+            Files.delete(path);
+            FileManager.syncDirectory(directory);
+        }
+        return manifest;
+    }
+    
+    private static CompactionManifest parse(Path directory, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        if (buffer.getLong(data.length - 8) != crc.getValue()) {
+            return null;
+        }
+        
+        byte[] signature = new byte[SIGNATURE.length];
+        buffer.get(signature);
+        if (!Arrays.equals(signature, SIGNATURE) || buffer.getShort() != VERSION) {
+            throw new DatabaseException("INVALID_DATABASE_FORMAT", "Unknown compaction manifest format");
+        }
+        
+        int count = buffer.getInt();
+        String[] sources = new String[count];
+        String[] targets = new String[count];
+        for (int i = 0; i < count; i++) {
+            sources[i] = getName(buffer);
+            targets[i] = getName(buffer);
+        }
+        DatabaseMeta meta = new DatabaseMeta(buffer.getShort(), buffer.getInt(), buffer.getLong(),
+                                             buffer.getInt(), buffer.getInt());
+        return new CompactionManifest(directory, sources, targets, meta);
+    }
+    
+    void write() throws IOException {
+        int size = SIGNATURE.length + 2 + 4;
+        for (int i = 0; i < sources.length; i++) {
+            size += 2 + nameBytes(sources[i]).length + 2 + nameBytes(targets[i]).length;
+        }
+        size += 2 + 4 + 8 + 4 + 4 + 8;
+        
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(SIGNATURE);
+        buffer.putShort(VERSION);
+        buffer.putInt(sources.length);
+        for (int i = 0; i < sources.length; i++) {
+            putName(buffer, sources[i]);
+            putName(buffer, targets[i]);
+        }
+        buffer.putShort(meta.getVersion());
+        buffer.putInt(meta.getRecordCount());
+        buffer.putLong(meta.getFirstFreeOffset());
+        buffer.putInt(meta.getRecordSize());
+        buffer.putInt(meta.getFreeRecordCount());
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+        
+        try (FileChannel channel = FileChannel.open(directory.resolve(FILE_NAME), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        FileManager.syncDirectory(directory);
+    }
+    
+    // Переносит на место копии, которые еще не перенесены
+    void moveFiles() throws IOException {
+        for (int i = 0; i < sources.length; i++) {
+            Path source = directory.resolve(sources[i]);
+            if (Files.exists(source)) {
+                Files.move(source, directory.resolve(targets[i]),
+                           StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        FileManager.syncDirectory(directory);
+    }
+    
+    void delete() throws IOException {
+        Files.deleteIfExists(directory.resolve(FILE_NAME));
+        FileManager.syncDirectory(directory);
+    }
+    
+    private static byte[] nameBytes(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static void putName(ByteBuffer buffer, String name) {
+        byte[] bytes = nameBytes(name);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+    
+    private static String getName(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
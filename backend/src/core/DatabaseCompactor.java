@@ -0,0 +1,345 @@
+package core;
+
+import exceptions.DatabaseException;
+import model.DatabaseMeta;
+import storage.DataFileHandler;
+import storage.FileManager;
+import storage.PrimaryIndex;
+import storage.RecordFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Онлайн-уплотнение data.db: живые записи переписываются подряд в новый файл,
+// для него строится новый index.db, затем файлы подменяются.
+// Основное копирование идет под короткими блокировками чтения на каждый блок,
+// поэтому запись в базу не останавливается. Сессия запоминает смещения записей,
+// измененных за это время; они догоняются под блокировкой записи прямо перед подменой.
+public class DatabaseCompactor {
+    private static final int NO_SLOT = -1;
+    
+    private final DatabaseSession session;
+    private final AtomicBoolean running;
+    private volatile boolean aborted; // база закрывается: копирование прерывается на границе блока
+    
+    // Состояние текущего уплотнения
+    private FileManager target;
+    private PrimaryIndex targetIndex;
+    private int[] newSlotByOldSlot; // старый номер записи -> новый, NO_SLOT - не скопирована
+    private int[] idByNewSlot;      // 0 - запись в новом файле удалена
+    private int newSlotCount;
+    private int liveCount;
+    private long newFreeHead;
+    private int newFreeCount;
+    
+    public DatabaseCompactor(DatabaseSession session) {
+        this.session = session;
+        this.running = new AtomicBoolean(false);
+    }
+    
+    public boolean isRunning() {
+        return running.get();
+    }
+    
+    // Просит идущее уплотнение прерваться и ждет его завершения. До reset() новые
+    // уплотнения сразу прерываются - так не начнется и задача, ждущая в очереди.
+    // Уже начатая подмена файлов доводится до конца.
+    public synchronized void abort() throws InterruptedException {
+        aborted = true;
+        while (running.get()) {
+            wait();
+        }
+    }
+    
+    // Перед повторным открытием базы
+    public void reset() {
+        aborted = false;
+    }
+    
+    private void checkAborted() {
+        if (aborted) {
+            throw new DatabaseException("COMPACTION_ABORTED", "Compaction aborted: database is closing");
+        }
+    }
+    
+    public CompactionResult compact() throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            throw new DatabaseException("COMPACTION_IN_PROGRESS", "Compaction is already running");
+        }
+        
+        long startTime = System.currentTimeMillis();
+        Path dataPath = Paths.get(session.getDatabasePath(), "data.db.compact");
+        Path indexPath = Paths.get(session.getDatabasePath(), "index.db.compact");
+        
+        try {
+            checkAborted();
+            if (session.hasPendingSwap()) {
+                throw new DatabaseException("COMPACTION_FAILED",
+                    "Previous compaction swap is unfinished, reopen the database to complete it");
+            }
+            Files.deleteIfExists(dataPath);
+            Files.deleteIfExists(indexPath);
+            
+            long copiedEnd;
+            session.beginWrite();
+            try {
+                session.startTrackingModifications();
+                copiedEnd = session.getDataHandler().getFileSize();
+            } finally {
+                session.endWrite();
+            }
+            
+            long recordSlots = copiedEnd / RecordFormat.RECORD_SIZE;
+            if (recordSlots > Integer.MAX_VALUE) {
+                throw new DatabaseException("COMPACTION_FAILED", "Data file is too large to compact: " + copiedEnd);
+            }
+            newSlotByOldSlot = new int[(int) recordSlots];
+            Arrays.fill(newSlotByOldSlot, NO_SLOT);
+            idByNewSlot = new int[Math.max(16, (int) recordSlots)];
+            newSlotCount = 0;
+            liveCount = 0;
+            newFreeHead = RecordFormat.NO_FREE_OFFSET;
+            newFreeCount = 0;
+            
+            target = new FileManager(dataPath.toString());
+            // Новый индекс того же типа, что и текущий
+            targetIndex = PrimaryIndex.create(session.getIndexManager().getType(), indexPath.toString(),
+                                              session.getConfig(), null);
+            target.open(true);
+            targetIndex.open(true);
+            
+            // Основная часть - параллельно с работой базы
+            copyLiveRecords(0, copiedEnd, true);
+            
+            session.beginWrite();
+            try {
+                checkAborted();
+                long sizeBefore = session.getDataHandler().getFileSize();
+                
+                // Догоняем изменения, сделанные во время копирования, и хвост, дописанный за это время.
+                // Таблица номеров растет на хвост: по ней подмена переводит вторичные индексы.
+                applyModifications(session.stopTrackingModifications(), copiedEnd);
+                int oldSlots = newSlotByOldSlot.length;
+                newSlotByOldSlot = Arrays.copyOf(newSlotByOldSlot, (int) (sizeBefore / RecordFormat.RECORD_SIZE));
+                Arrays.fill(newSlotByOldSlot, oldSlots, newSlotByOldSlot.length, NO_SLOT);
+                copyLiveRecords(copiedEnd, sizeBefore, false);
+                
+                targetIndex.flush();
+                targetIndex.close();
+                target.flush();
+                target.close();
+                
+                DatabaseMeta oldMeta = session.getMetaHandler().getMeta();
+                DatabaseMeta newMeta = new DatabaseMeta(oldMeta.getVersion(), liveCount, newFreeHead,
+                                                        oldMeta.getRecordSize(), newFreeCount);
+                session.replaceDataFiles(dataPath, indexPath, newMeta, newSlotByOldSlot);
+                
+                long sizeAfter = (long) newSlotCount * RecordFormat.RECORD_SIZE;
+                int removedRecords = (int) ((sizeBefore - sizeAfter) / RecordFormat.RECORD_SIZE);
+                return new CompactionResult(liveCount, removedRecords, sizeBefore, sizeAfter,
+                                            System.currentTimeMillis() - startTime);
+            } finally {
+                session.endWrite();
+            }
+        } finally {
+            cleanup(dataPath, indexPath);
+            finished();
+        }
+    }
+    
+    private synchronized void finished() {
+        running.set(false);
+        notifyAll();
+    }
+    
+    // Копирует живые записи диапазона старого файла в конец нового блоками
+    private void copyLiveRecords(long startOffset, long endOffset, boolean lockEachChunk) throws IOException {
+        int chunkSize = session.getConfig().getScanChunkSize();
+        ByteBuffer chunk = ByteBuffer.allocate(chunkSize);
+        ByteBuffer out = ByteBuffer.allocate(chunkSize);
+        long outOffset = (long) newSlotCount * RecordFormat.RECORD_SIZE;
+        
+        long offset = startOffset;
+        while (offset < endOffset) {
+            checkAborted();
+            int length = (int) Math.min(chunkSize, endOffset - offset);
+            int bytesRead;
+            if (lockEachChunk) {
+                session.beginRead();
+                try {
+                    bytesRead = session.getDataHandler().readChunk(offset, chunk, length);
+                } finally {
+                    session.endRead();
+                }
+            } else {
+                bytesRead = session.getDataHandler().readChunk(offset, chunk, length);
+            }
+            
+            int records = bytesRead / RecordFormat.RECORD_SIZE;
+            if (records == 0) {
+                break;
+            }
+            
+            for (int i = 0; i < records; i++) {
+                int position = i * RecordFormat.RECORD_SIZE;
+                int id = chunk.getInt(position + RecordFormat.ID_OFFSET);
+                if (!isLive(chunk, position)) {
+                    continue;
+                }
+                
+                int newSlot = allocateSlot(id);
+                setNewSlot(offset + position, newSlot);
+                targetIndex.add(id, (long) newSlot * RecordFormat.RECORD_SIZE);
+                
+                out.put(chunk.array(), position, RecordFormat.RECORD_SIZE);
+                if (!out.hasRemaining()) {
+                    outOffset += writeOut(out, outOffset);
+                }
+            }
+            offset += (long) records * RecordFormat.RECORD_SIZE;
+        }
+        writeOut(out, outOffset);
+    }
+    
+    // Применяет к новому файлу изменения записей, уже скопированных или пропущенных при копировании
+    private void applyModifications(Set<Long> modified, long copiedEnd) throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        for (Long offset : modified) {
+            if (offset < copiedEnd) {
+                offsets.add(offset);
+            }
+        }
+        Collections.sort(offsets);
+        
+        // Сначала убираем из нового индекса все затронутые записи: ID мог переехать
+        // в другую запись, и при повторном добавлении он не должен встретиться дважды
+        for (long offset : offsets) {
+            int newSlot = newSlotByOldSlot[(int) (offset / RecordFormat.RECORD_SIZE)];
+            if (newSlot != NO_SLOT && idByNewSlot[newSlot] != 0) {
+                targetIndex.remove(idByNewSlot[newSlot]);
+                idByNewSlot[newSlot] = 0;
+                liveCount--;
+            }
+        }
+        
+        DataFileHandler dataHandler = session.getDataHandler();
+        ByteBuffer record = ByteBuffer.allocate(RecordFormat.RECORD_SIZE);
+        for (long offset : offsets) {
+            dataHandler.readRecord(offset, record);
+            int newSlot = newSlotByOldSlot[(int) (offset / RecordFormat.RECORD_SIZE)];
+            
+            if (isLive(record, 0)) {
+                int id = record.getInt(RecordFormat.ID_OFFSET);
+                if (newSlot == NO_SLOT) {
+                    newSlot = allocateSlot(id);
+                    setNewSlot(offset, newSlot);
+                } else {
+                    idByNewSlot[newSlot] = id;
+                    liveCount++;
+                }
+                long newOffset = (long) newSlot * RecordFormat.RECORD_SIZE;
+                target.write(newOffset, copyOf(record));
+                targetIndex.add(id, newOffset);
+            } else if (newSlot != NO_SLOT) {
+                // Запись удалили после копирования - в новом файле она тоже становится свободной
+                long newOffset = (long) newSlot * RecordFormat.RECORD_SIZE;
+                byte[] tombstone = copyOf(record);
+                ByteBuffer.wrap(tombstone).putLong(RecordFormat.NEXT_FREE_OFFSET, newFreeHead);
+                target.write(newOffset, tombstone);
+                newFreeHead = newOffset;
+                newFreeCount++;
+            }
+        }
+    }
+    
+    private boolean isLive(ByteBuffer buffer, int position) {
+        return buffer.get(position + RecordFormat.IS_DELETED_OFFSET) == 0
+            && buffer.getInt(position + RecordFormat.ID_OFFSET) > 0;
+    }
+    
+    private int allocateSlot(int id) {
+        if (newSlotCount == idByNewSlot.length) {
+            idByNewSlot = Arrays.copyOf(idByNewSlot, idByNewSlot.length * 2);
+        }
+        idByNewSlot[newSlotCount] = id;
+        liveCount++;
+        return newSlotCount++;
+    }
+    
+    private void setNewSlot(long oldOffset, int newSlot) {
+        int oldSlot = (int) (oldOffset / RecordFormat.RECORD_SIZE);
+        if (oldSlot < newSlotByOldSlot.length) {
+            newSlotByOldSlot[oldSlot] = newSlot;
+        }
+    }
+    
+    private int writeOut(ByteBuffer out, long outOffset) throws IOException {
+        int length = out.position();
+        if (length > 0) {
+            target.write(outOffset, Arrays.copyOf(out.array(), length));
+            out.clear();
+        }
+        return length;
+    }
+    
+    private byte[] copyOf(ByteBuffer record) {
+        return Arrays.copyOf(record.array(), RecordFormat.RECORD_SIZE);
+    }
+    
+    private void cleanup(Path dataPath, Path indexPath) {
+        // Если уплотнение прервалось до подмены - прекращаем отслеживание и удаляем копии.
+        // Начатая подмена (есть compact.pending) заканчивается при открытии базы - копии нужны ей.
+        try {
+            session.beginWrite();
+            try {
+                session.stopTrackingModifications();
+            } finally {
+                session.endWrite();
+            }
+            if (targetIndex != null) targetIndex.close();
+            if (target != null) target.close();
+            if (!session.hasPendingSwap()) {
+                Files.deleteIfExists(dataPath);
+                Files.deleteIfExists(indexPath);
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Could not clean up compaction files: " + e.getMessage());
+        } finally {
+            target = null;
+            targetIndex = null;
+            newSlotByOldSlot = null;
+            idByNewSlot = null;
+        }
+    }
+    
+    public static class CompactionResult {
+        private final int liveRecords;
+        private final int removedRecords;
+        private final long sizeBefore;
+        private final long sizeAfter;
+        private final long durationMs;
+        
+        public CompactionResult(int liveRecords, int removedRecords,
+                                long sizeBefore, long sizeAfter, long durationMs) {
+            this.liveRecords = liveRecords;
+            this.removedRecords = removedRecords;
+            this.sizeBefore = sizeBefore;
+            this.sizeAfter = sizeAfter;
+            this.durationMs = durationMs;
+        }
+        
+        public int getLiveRecords() { return liveRecords; }
+        public int getRemovedRecords() { return removedRecords; }
+        public long getSizeBefore() { return sizeBefore; }
+        public long getSizeAfter() { return sizeAfter; }
+        public long getDurationMs() { return durationMs; }
+    }
+}
@@ -2,28 +2,68 @@ package core;
 
 import exceptions.DatabaseException;
 import model.Employee;
+import storage.BufferPool;
+import storage.Durability;
+import storage.IndexType;
+import storage.PrimaryIndex;
+import storage.RecordFormat;
+import storage.RecordPredicate;
+import storage.RoaringBitmap;
+import storage.SecondaryIndex;
+import storage.StorageConfig;
+import storage.WriteAheadLog;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 public class DatabaseEngine implements AutoCloseable {
+    private static final Predicate<Employee> ANY = emp -> true;
+    
     private DatabaseSession session;
+    private final DatabaseCompactor compactor;
+    private ExecutorService compactionExecutor; // фоновое автоуплотнение, создается по необходимости
+    private volatile boolean compactionScheduled;
     private boolean isOpen;
     
     public DatabaseEngine(String databasePath) {
-        this.session = new DatabaseSession(databasePath);
+        this(databasePath, StorageConfig.defaults());
+    }
+    
+    public DatabaseEngine(String databasePath, StorageConfig config) {
+        this.session = new DatabaseSession(databasePath, config);
+        this.compactor = new DatabaseCompactor(session);
         this.isOpen = false;
     }
     
     public void open(boolean createIfNotExists) throws IOException {
         if (isOpen) return;
         
+        compactor.reset();
         session.open(createIfNotExists);
         isOpen = true;
     }
     
     // CREATE - Добавление сотрудника
+    // Операция пишется в журнал до изменения файлов; подтверждение (commit журнала)
+    // ждется после снятия блокировки, чтобы параллельные записи попали в один fsync.
+    // Без параметра durability действует режим из конфигурации базы.
     public void addEmployee(Employee employee) throws IOException {
+        addEmployee(employee, session.getConfig().getDurability());
+    }
+    
+    public void addEmployee(Employee employee, Durability durability) throws IOException {
         checkOpen();
+        long lsn;
         session.beginWrite();
         
         try {
@@ -36,21 +76,47 @@ public class DatabaseEngine implements AutoCloseable {
                     "Employee with ID " + employee.getId() + " already exists");
             }
             
-            // Ищем свободное место
-            long offset = session.getDataHandler().findFreeSpace();
+            // Ищем свободное место: запись из списка свободных или конец файла
+            long firstFreeOffset = session.getMetaHandler().getMeta().getFirstFreeOffset();
+            long offset = session.getDataHandler().findFreeSpace(firstFreeOffset);
+            boolean reuseFreeRecord = offset == firstFreeOffset;
+            long nextFreeOffset = reuseFreeRecord
+                ? session.getDataHandler().readNextFreeOffset(offset)
+                : RecordFormat.NO_FREE_OFFSET;
+            
+            lsn = session.logOperation(WriteAheadLog.OP_INSERT,
+                                       RecoveryManager.insertRecord(offset, nextFreeOffset, employee));
             
             // Записываем данные
             session.getDataHandler().writeEmployee(offset, employee);
+            session.markModified(offset);
             
-            // Добавляем в индекс
+            // Добавляем в индексы
             session.getIndexManager().add(employee.getId(), offset);
+            session.getDeletedIndex().markLive(offset);
+            session.getDepartmentIndex().add(employee.getDepartment(), offset);
+            session.getPositionIndex().add(employee.getPosition(), offset);
+            session.getNameIndex().add(employee.getName(), offset);
+            session.getSalaryIndex().insert(DatabaseSession.salaryKey(employee.getSalary()), offset);
+            session.getHireDateIndex().insert(DatabaseSession.hireDateKey(employee.getHireDate()), offset);
             
             // Обновляем метаданные
-            session.getMetaHandler().incrementRecordCount();
+            if (reuseFreeRecord) {
+                session.getMetaHandler().popFreeRecord(nextFreeOffset);
+            } else {
+                if (firstFreeOffset != RecordFormat.NO_FREE_OFFSET) {
+                    System.err.println("Warning: Invalid free list head at offset " + firstFreeOffset
+                        + ", free list dropped");
+                    session.getMetaHandler().resetFreeList();
+                }
+                session.getMetaHandler().incrementRecordCount();
+            }
             
+            session.checkpointIfNeeded();
         } finally {
             session.endWrite();
         }
+        session.commit(lsn, durability);
     }
     
     // READ - Поиск по ID (ключевое поле)
@@ -59,8 +125,8 @@ public class DatabaseEngine implements AutoCloseable {
         session.beginRead();
         
         try {
-            Long offset = session.getIndexManager().find(id);
-            if (offset == null) {
+            long offset = session.getIndexManager().findOffset(id);
+            if (offset == PrimaryIndex.NOT_FOUND) {
                 return null;
             }
             
@@ -72,81 +138,389 @@ public class DatabaseEngine implements AutoCloseable {
         }
     }
     
-    // READ - Поиск по неключевым полям
+    // READ - Поиск по неключевым полям.
+    // Отдел и должность ищутся по вторичным индексам: читаются только подходящие записи.
+    // Имя ищется по триграммному индексу: читаются только записи-кандидаты,
+    // и каждая затем проверяется по самому имени (индекс дает кандидатов с запасом).
     public List<Employee> findEmployeesByDepartment(String department) throws IOException {
         checkOpen();
-        return session.getDataHandler().scanEmployees(
-            emp -> department.equals(emp.getDepartment()) && !emp.isDeleted());
+        return lookup(() -> session.getDepartmentIndex().find(department));
     }
     
+    // Кандидаты из триграммного индекса проверяются по имени из записи
     public List<Employee> findEmployeesByName(String name) throws IOException {
         checkOpen();
-        return session.getDataHandler().scanEmployees(
-            emp -> emp.getName().toLowerCase().contains(name.toLowerCase()) && !emp.isDeleted());
+        if (name.isEmpty()) {
+            return scan(RecordPredicate.notDeleted(), ANY);
+        }
+        return lookup(() -> session.getNameIndex().findCandidates(name), byName(name));
     }
     
     public List<Employee> findEmployeesByPosition(String position) throws IOException {
         checkOpen();
-        return session.getDataHandler().scanEmployees(
-            emp -> position.equals(emp.getPosition()) && !emp.isDeleted());
+        return lookup(() -> session.getPositionIndex().find(position));
+    }
+    
+    // Комбинированный фильтр по битовым индексам: отдел из departments И должность из positions.
+    // Пустой или null список - без условия на это поле, но хотя бы одно условие обязательно
+    public List<Employee> findEmployees(Collection<String> departments, Collection<String> positions) throws IOException {
+        checkOpen();
+        return lookup(() -> SecondaryIndex.offsetsOf(filterSlots(departments, positions)));
+    }
+    
+    public Stream<Employee> streamEmployees(Collection<String> departments, Collection<String> positions) throws IOException {
+        checkOpen();
+        return lookupStream(() -> SecondaryIndex.offsetsOf(filterSlots(departments, positions)),
+                            byCriteria(departments, positions));
+    }
+    
+    // Подсчет только по битовым картам, data.db не читается
+    public int countEmployees(Collection<String> departments, Collection<String> positions) {
+        checkOpen();
+        session.beginRead();
+        try {
+            return filterSlots(departments, positions).getCardinality();
+        } finally {
+            session.endRead();
+        }
+    }
+    
+    // Вызывается под блокировкой чтения
+    private RoaringBitmap filterSlots(Collection<String> departments, Collection<String> positions) {
+        boolean byDepartment = departments != null && !departments.isEmpty();
+        boolean byPosition = positions != null && !positions.isEmpty();
+        if (!byDepartment && !byPosition) {
+            throw new DatabaseException("INVALID_CRITERIA", "At least one department or position is required");
+        }
+        
+        RoaringBitmap slots;
+        if (byDepartment && byPosition) {
+            slots = union(session.getDepartmentIndex(), departments).and(union(session.getPositionIndex(), positions));
+        } else if (byDepartment) {
+            slots = union(session.getDepartmentIndex(), departments);
+        } else {
+            slots = union(session.getPositionIndex(), positions);
+        }
+        return slots.andNot(session.getDeletedIndex().getBitmap());
+    }
+    
+    private static RoaringBitmap union(SecondaryIndex index, Collection<String> values) {
+        RoaringBitmap result = new RoaringBitmap();
+        for (String value : values) {
+            result = result.or(index.getBitmap(value));
+        }
+        return result;
+    }
+    
+    // Диапазонные запросы по B+деревьям, границы включаются; результат упорядочен по значению
+    public List<Employee> findEmployeesBySalaryRange(float minSalary, float maxSalary) throws IOException {
+        checkOpen();
+        return lookup(() -> session.getSalaryIndex().rangeScan(
+            DatabaseSession.salaryKey(minSalary), DatabaseSession.salaryKey(maxSalary)));
+    }
+    
+    public List<Employee> findEmployeesByHireDateRange(LocalDate from, LocalDate to) throws IOException {
+        checkOpen();
+        return lookup(() -> session.getHireDateIndex().rangeScan(
+            DatabaseSession.hireDateKey(from), DatabaseSession.hireDateKey(to)));
     }
     
     // READ - Получить всех сотрудников
     public List<Employee> getAllEmployees() throws IOException {
         checkOpen();
-        return session.getDataHandler().scanEmployees(emp -> !emp.isDeleted());
+        return scan(RecordPredicate.notDeleted(), ANY);
+    }
+    
+    // READ - Ленивые варианты поиска: записи читаются по мере потребления потока
+    // блоками по scanChunkSize, каждый под своей короткой блокировкой чтения.
+    // Между блоками блокировка не держится: медленный потребитель (например, запись
+    // ответа в сокет) не задерживает писателей, а база может меняться, пока поток открыт.
+    // Каждый блок видит базу на момент своего чтения. Если во время чтения потока
+    // уплотнение подменило data.db, очередной блок бросает STREAM_INVALIDATED.
+    public Stream<Employee> streamAllEmployees() throws IOException {
+        checkOpen();
+        return stream(RecordPredicate.notDeleted(), ANY);
+    }
+    
+    public Stream<Employee> streamEmployeesByDepartment(String department) throws IOException {
+        checkOpen();
+        return lookupStream(() -> session.getDepartmentIndex().find(department),
+                            emp -> emp.getDepartment().equals(department));
+    }
+    
+    public Stream<Employee> streamEmployeesByName(String name) throws IOException {
+        checkOpen();
+        if (name.isEmpty()) {
+            return stream(RecordPredicate.notDeleted(), ANY);
+        }
+        return lookupStream(() -> session.getNameIndex().findCandidates(name), byName(name));
+    }
+    
+    public Stream<Employee> streamEmployeesByPosition(String position) throws IOException {
+        checkOpen();
+        return lookupStream(() -> session.getPositionIndex().find(position),
+                            emp -> emp.getPosition().equals(position));
+    }
+    
+    public Stream<Employee> streamEmployeesBySalaryRange(float minSalary, float maxSalary) throws IOException {
+        checkOpen();
+        long minKey = DatabaseSession.salaryKey(minSalary);
+        long maxKey = DatabaseSession.salaryKey(maxSalary);
+        return lookupStream(() -> session.getSalaryIndex().rangeScan(minKey, maxKey), emp -> {
+            long key = DatabaseSession.salaryKey(emp.getSalary());
+            return key >= minKey && key <= maxKey;
+        });
+    }
+    
+    public Stream<Employee> streamEmployeesByHireDateRange(LocalDate from, LocalDate to) throws IOException {
+        checkOpen();
+        long fromKey = DatabaseSession.hireDateKey(from);
+        long toKey = DatabaseSession.hireDateKey(to);
+        return lookupStream(() -> session.getHireDateIndex().rangeScan(fromKey, toKey), emp -> {
+            long key = DatabaseSession.hireDateKey(emp.getHireDate());
+            return key >= fromKey && key <= toKey;
+        });
+    }
+    
+    private static Predicate<Employee> byName(String name) {
+        String lowerName = name.toLowerCase();
+        return emp -> emp.getName().toLowerCase().contains(lowerName);
+    }
+    
+    // Та же проверка, что и у filterSlots, но по самой записи
+    private static Predicate<Employee> byCriteria(Collection<String> departments, Collection<String> positions) {
+        boolean byDepartment = departments != null && !departments.isEmpty();
+        boolean byPosition = positions != null && !positions.isEmpty();
+        return emp -> (!byDepartment || departments.contains(emp.getDepartment()))
+                   && (!byPosition || positions.contains(emp.getPosition()));
+    }
+    
+    // Полный просмотр под блокировкой чтения: параллельные читатели не мешают друг другу
+    private List<Employee> scan(RecordPredicate rawFilter, Predicate<Employee> filter) throws IOException {
+        session.beginRead();
+        try {
+            return session.getDataHandler().scanEmployees(rawFilter, filter);
+        } finally {
+            session.endRead();
+        }
+    }
+    
+    // Источник смещений записей: вторичный индекс или диапазон B+дерева.
+    // Вызывается уже под блокировкой чтения
+    @FunctionalInterface
+    private interface OffsetSource {
+        long[] offsets() throws IOException;
+    }
+    
+    // Чтение записей по смещениям из индекса в порядке, который вернул индекс
+    private List<Employee> lookup(OffsetSource source) throws IOException {
+        return lookup(source, ANY);
+    }
+    
+    // filter отсеивает кандидатов, которые индекс вернул с запасом
+    private List<Employee> lookup(OffsetSource source, Predicate<Employee> filter) throws IOException {
+        session.beginRead();
+        try {
+            long[] offsets = source.offsets();
+            List<Employee> result = new ArrayList<>(offsets.length);
+            for (long offset : offsets) {
+                Employee employee = session.getDataHandler().readEmployee(offset);
+                if (filter.test(employee)) {
+                    result.add(employee);
+                }
+            }
+            return result;
+        } finally {
+            session.endRead();
+        }
+    }
+    
+    // Смещения копируются из индекса под блокировкой чтения, записи затем читаются блоками.
+    // К моменту чтения блока запись могли удалить или занять ее место другой записью,
+    // поэтому каждая запись заново проверяется: не удалена и подходит под match
+    private Stream<Employee> lookupStream(OffsetSource source, Predicate<Employee> match) throws IOException {
+        long[] offsets;
+        long generation;
+        session.beginRead();
+        try {
+            offsets = source.offsets();
+            generation = session.getDataGeneration();
+        } finally {
+            session.endRead();
+        }
+        
+        int batchSize = session.getConfig().getScanChunkSize() / RecordFormat.RECORD_SIZE;
+        int batches = (offsets.length + batchSize - 1) / batchSize;
+        return IntStream.range(0, batches)
+            .mapToObj(batch -> readBatch(offsets, batch * batchSize,
+                                         Math.min(offsets.length, (batch + 1) * batchSize), generation, match))
+            .flatMap(List::stream);
+    }
+    
+    private List<Employee> readBatch(long[] offsets, int from, int to, long generation, Predicate<Employee> match) {
+        session.beginRead();
+        try {
+            checkGeneration(generation);
+            List<Employee> result = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                Employee employee = session.getDataHandler().readEmployee(offsets[i]);
+                if (!employee.isDeleted() && match.test(employee)) {
+                    result.add(employee);
+                }
+            }
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            session.endRead();
+        }
+    }
+    
+    // Полный просмотр окна [0, размер файла на момент создания потока) блоками;
+    // записи, дописанные позже, в поток не попадают
+    private Stream<Employee> stream(RecordPredicate rawFilter, Predicate<Employee> filter) throws IOException {
+        long endOffset;
+        long generation;
+        session.beginRead();
+        try {
+            endOffset = session.getDataHandler().getFileSize();
+            generation = session.getDataGeneration();
+        } finally {
+            session.endRead();
+        }
+        
+        int chunkSize = session.getConfig().getScanChunkSize();
+        return LongStream.range(0, (endOffset + chunkSize - 1) / chunkSize)
+            .mapToObj(chunk -> scanBatch(rawFilter, filter, chunk * chunkSize,
+                                         Math.min(endOffset, (chunk + 1) * chunkSize), generation))
+            .flatMap(List::stream);
+    }
+    
+    private List<Employee> scanBatch(RecordPredicate rawFilter, Predicate<Employee> filter,
+                                     long startOffset, long endOffset, long generation) {
+        session.beginRead();
+        try {
+            checkGeneration(generation);
+            return session.getDataHandler().scanRange(rawFilter, filter, startOffset, endOffset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            session.endRead();
+        }
+    }
+    
+    // Вызывается под блокировкой чтения
+    private void checkGeneration(long generation) {
+        checkOpen();
+        if (session.getDataGeneration() != generation) {
+            throw new DatabaseException("STREAM_INVALIDATED", "Data file was compacted while the stream was open");
+        }
     }
     
     // UPDATE - Редактирование сотрудника
     public void updateEmployee(Employee updatedEmployee) throws IOException {
+        updateEmployee(updatedEmployee, session.getConfig().getDurability());
+    }
+    
+    public void updateEmployee(Employee updatedEmployee, Durability durability) throws IOException {
         checkOpen();
+        long lsn;
         session.beginWrite();
         
         try {
             updatedEmployee.validate();
             
             // Находим существующую запись
-            Long offset = session.getIndexManager().find(updatedEmployee.getId());
-            if (offset == null) {
+            long offset = session.getIndexManager().findOffset(updatedEmployee.getId());
+            if (offset == PrimaryIndex.NOT_FOUND) {
                 throw new DatabaseException("EMPLOYEE_NOT_FOUND", 
                     "Employee with ID " + updatedEmployee.getId() + " not found");
             }
+            Employee oldEmployee = session.getDataHandler().readEmployee(offset);
+            
+            lsn = session.logOperation(WriteAheadLog.OP_UPDATE,
+                                       RecoveryManager.updateRecord(offset, oldEmployee, updatedEmployee));
             
             // Перезаписываем данные
             session.getDataHandler().updateEmployee(offset, updatedEmployee);
+            session.markModified(offset);
+            
+            // Переносим запись во вторичных индексах, если поле изменилось
+            if (!oldEmployee.getDepartment().equals(updatedEmployee.getDepartment())) {
+                session.getDepartmentIndex().remove(oldEmployee.getDepartment(), offset);
+                session.getDepartmentIndex().add(updatedEmployee.getDepartment(), offset);
+            }
+            if (!oldEmployee.getPosition().equals(updatedEmployee.getPosition())) {
+                session.getPositionIndex().remove(oldEmployee.getPosition(), offset);
+                session.getPositionIndex().add(updatedEmployee.getPosition(), offset);
+            }
+            if (!oldEmployee.getName().equals(updatedEmployee.getName())) {
+                session.getNameIndex().remove(oldEmployee.getName(), offset);
+                session.getNameIndex().add(updatedEmployee.getName(), offset);
+            }
+            long oldSalary = DatabaseSession.salaryKey(oldEmployee.getSalary());
+            long newSalary = DatabaseSession.salaryKey(updatedEmployee.getSalary());
+            if (oldSalary != newSalary) {
+                session.getSalaryIndex().delete(oldSalary, offset);
+                session.getSalaryIndex().insert(newSalary, offset);
+            }
+            if (!oldEmployee.getHireDate().equals(updatedEmployee.getHireDate())) {
+                session.getHireDateIndex().delete(DatabaseSession.hireDateKey(oldEmployee.getHireDate()), offset);
+                session.getHireDateIndex().insert(DatabaseSession.hireDateKey(updatedEmployee.getHireDate()), offset);
+            }
             
+            session.checkpointIfNeeded();
         } finally {
             session.endWrite();
         }
+        session.commit(lsn, durability);
     }
     
     // DELETE - Удаление по ID
     public boolean deleteEmployeeById(int id) throws IOException {
+        return deleteEmployeeById(id, session.getConfig().getDurability());
+    }
+    
+    public boolean deleteEmployeeById(int id, Durability durability) throws IOException {
         checkOpen();
+        long lsn;
         session.beginWrite();
         
         try {
-            Long offset = session.getIndexManager().find(id);
-            if (offset == null) {
+            long offset = session.getIndexManager().findOffset(id);
+            if (offset == PrimaryIndex.NOT_FOUND) {
                 return false;
             }
             
-            // Логическое удаление
             Employee employee = session.getDataHandler().readEmployee(offset);
-            employee.setDeleted(true);
-            session.getDataHandler().updateEmployee(offset, employee);
             
-            // Удаляем из индекса
+            // Логическое удаление: запись становится головой списка свободных
+            long firstFreeOffset = session.getMetaHandler().getMeta().getFirstFreeOffset();
+            lsn = session.logOperation(WriteAheadLog.OP_DELETE,
+                                       RecoveryManager.deleteRecord(offset, firstFreeOffset, employee));
+            
+            session.getDataHandler().markDeleted(offset, firstFreeOffset);
+            session.markModified(offset);
+            
+            // Удаляем из индексов
             session.getIndexManager().remove(id);
+            session.getDepartmentIndex().remove(employee.getDepartment(), offset);
+            session.getPositionIndex().remove(employee.getPosition(), offset);
+            session.getDeletedIndex().markDeleted(offset);
+            session.getNameIndex().remove(employee.getName(), offset);
+            session.getSalaryIndex().delete(DatabaseSession.salaryKey(employee.getSalary()), offset);
+            session.getHireDateIndex().delete(DatabaseSession.hireDateKey(employee.getHireDate()), offset);
             
             // Обновляем метаданные
-            session.getMetaHandler().decrementRecordCount();
-            
-            return true;
+            session.getMetaHandler().pushFreeRecord(offset);
             
+            scheduleCompactionIfNeeded();
+            session.checkpointIfNeeded();
         } finally {
             session.endWrite();
         }
+        session.commit(lsn, durability);
+        return true;
     }
     
     // DELETE - Удаление по неключевому полю
@@ -162,12 +536,93 @@ public class DatabaseEngine implements AutoCloseable {
         return employeesToDelete.size();
     }
     
+    // Уплотнение: переписывает data.db без удаленных записей и перестраивает index.db.
+    // Запись в базу блокируется только на время финальной подмены файлов.
+    public DatabaseCompactor.CompactionResult compact() throws IOException {
+        checkOpen();
+        return compactor.compact();
+    }
+    
+    // Перестройка index.db (и счетчиков meta.db) параллельным просмотром data.db,
+    // если индекс поврежден или разошелся с данными. Запись блокируется на все время.
+    public IndexRebuilder.RebuildResult rebuildIndex() throws IOException {
+        checkOpen();
+        if (compactor.isRunning()) {
+            throw new DatabaseException("COMPACTION_IN_PROGRESS", "Cannot rebuild index while compaction is running");
+        }
+        IndexRebuilder.RebuildResult result = new IndexRebuilder(session).rebuild();
+        flush();
+        return result;
+    }
+    
+    public boolean isCompactionRunning() {
+        return compactionScheduled || compactor.isRunning();
+    }
+    
+    // Автоуплотнение в фоне, когда доля удаленных записей превышает порог из настроек.
+    // Вызывается под блокировкой записи.
+    private void scheduleCompactionIfNeeded() {
+        StorageConfig config = session.getConfig();
+        if (config.getCompactionThreshold() <= 0 || compactionScheduled || compactor.isRunning()) {
+            return;
+        }
+        
+        int freeRecords = session.getMetaHandler().getMeta().getFreeRecordCount();
+        int totalRecords = session.getMetaHandler().getMeta().getRecordCount() + freeRecords;
+        if (totalRecords < config.getCompactionMinRecords()
+                || (float) freeRecords / totalRecords < config.getCompactionThreshold()) {
+            return;
+        }
+        
+        if (compactionExecutor == null) {
+            compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "db-compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        compactionScheduled = true;
+        compactionExecutor.submit(() -> {
+            try {
+                if (isOpen && !compactor.isRunning()) {
+                    compactor.compact();
+                }
+            } catch (DatabaseException e) {
+                // Прерывание при закрытии базы - не ошибка
+                if (!"COMPACTION_ABORTED".equals(e.getErrorCode())) {
+                    System.err.println("Warning: Automatic compaction failed: " + e.getMessage());
+                }
+            } catch (Exception e) {
+                System.err.println("Warning: Automatic compaction failed: " + e.getMessage());
+            } finally {
+                compactionScheduled = false;
+            }
+        });
+    }
+    
+    // Принудительная запись всех изменений на диск
+    public void flush() throws IOException {
+        checkOpen();
+        session.beginWrite();
+        try {
+            session.flush();
+        } finally {
+            session.endWrite();
+        }
+    }
+    
     // Статистика
     public int getEmployeeCount() throws IOException {
         checkOpen();
         return session.getMetaHandler().getMeta().getRecordCount();
     }
     
+    // Удаленные записи, которые будут заняты новыми
+    public int getFreeRecordCount() throws IOException {
+        checkOpen();
+        return session.getMetaHandler().getMeta().getFreeRecordCount();
+    }
+    
     public long getDatabaseSize() throws IOException {
         checkOpen();
         return session.getDataHandler().getFileSize();
@@ -177,14 +632,57 @@ public class DatabaseEngine implements AutoCloseable {
         return session.getDatabasePath();
     }
     
+    public StorageConfig getConfig() {
+        return session.getConfig();
+    }
+    
+    public IndexType getIndexType() {
+        checkOpen();
+        return session.getIndexManager().getType();
+    }
+    
+    public BufferPool getBufferPool() {
+        checkOpen();
+        return session.getBufferPool();
+    }
+    
+    // null - журнал выключен
+    public WriteAheadLog getWriteAheadLog() {
+        checkOpen();
+        return session.getWriteAheadLog();
+    }
+    
+    // Результат повтора журнала при открытии; null - база была закрыта штатно
+    public RecoveryManager.RecoveryResult getLastRecovery() {
+        checkOpen();
+        return session.getLastRecovery();
+    }
+    
     @Override
     public void close() throws IOException {
         if (isOpen) {
+            stopCompaction();
             session.close();
             isOpen = false;
         }
     }
     
+    // Уплотнение (фоновое или запущенное вызовом compact) не должно работать с файлами
+    // после закрытия сессии: оно прерывается, и закрытие ждет его завершения
+    private void stopCompaction() throws IOException {
+        try {
+            compactor.abort();
+            if (compactionExecutor != null) {
+                compactionExecutor.shutdown();
+                compactionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                compactionExecutor = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction to stop", e);
+        }
+    }
+    
     public boolean isOpen() {
         return isOpen;
     }
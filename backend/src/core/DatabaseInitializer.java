@@ -1,9 +1,16 @@
 package core;
 
 import exceptions.DatabaseException;
+import storage.BPlusTree;
 import storage.DataFileHandler;
-import storage.IndexManager;
+import storage.DeletedRecordIndex;
+import storage.IndexType;
 import storage.MetaFileHandler;
+import storage.PrimaryIndex;
+import storage.RecordFormat;
+import storage.SecondaryIndex;
+import storage.StorageConfig;
+import storage.TrigramIndex;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -12,6 +19,10 @@ import java.nio.file.Paths;
 public class DatabaseInitializer {
     
     public static void createDatabase(String databasePath) throws IOException {
+        createDatabase(databasePath, IndexType.HASH);
+    }
+    
+    public static void createDatabase(String databasePath, IndexType indexType) throws IOException {
         // Создаем директорию если нужно
         Path path = Paths.get(databasePath);
         if (!Files.exists(path)) {
@@ -21,11 +32,26 @@ public class DatabaseInitializer {
         // Инициализируем все файлы БД
         try (MetaFileHandler metaHandler = new MetaFileHandler(databasePath + "/meta.db");
              DataFileHandler dataHandler = new DataFileHandler(databasePath + "/data.db");
-             IndexManager indexManager = new IndexManager(databasePath + "/index.db")) {
+             PrimaryIndex indexManager = PrimaryIndex.create(indexType, databasePath + "/index.db",
+                                                             StorageConfig.defaults(), null);
+             SecondaryIndex departmentIndex = new SecondaryIndex(databasePath + "/department.idx",
+                                                                 RecordFormat.MAX_DEPARTMENT_LENGTH);
+             SecondaryIndex positionIndex = new SecondaryIndex(databasePath + "/position.idx",
+                                                               RecordFormat.MAX_POSITION_LENGTH);
+             DeletedRecordIndex deletedIndex = new DeletedRecordIndex(databasePath + "/deleted.idx");
+             TrigramIndex nameIndex = new TrigramIndex(databasePath + "/name.idx", RecordFormat.MAX_NAME_LENGTH);
+             BPlusTree salaryIndex = new BPlusTree(databasePath + "/salary.idx");
+             BPlusTree hireDateIndex = new BPlusTree(databasePath + "/hire_date.idx")) {
             
             metaHandler.open(true);
             dataHandler.open(true);
             indexManager.open(true);
+            departmentIndex.open(true);
+            positionIndex.open(true);
+            deletedIndex.open(true);
+            nameIndex.open(true);
+            salaryIndex.open(true);
+            hireDateIndex.open(true);
             
             // Файлы автоматически инициализируются при открытии с create=true
             
@@ -62,7 +88,14 @@ public class DatabaseInitializer {
         String[] filesToDelete = {
             databasePath + "/meta.db",
             databasePath + "/data.db",
-            databasePath + "/index.db"
+            databasePath + "/index.db",
+            databasePath + "/department.idx",
+            databasePath + "/position.idx",
+            databasePath + "/wal.log",
+            databasePath + "/deleted.idx",
+            databasePath + "/name.idx",
+            databasePath + "/salary.idx",
+            databasePath + "/hire_date.idx"
         };
         
         for (String filePath : filesToDelete) {
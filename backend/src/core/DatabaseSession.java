@@ -1,23 +1,67 @@
 package core;
 
 import exceptions.DatabaseException;
+import model.DatabaseMeta;
+import storage.BPlusTree;
+import storage.BufferPool;
 import storage.DataFileHandler;
-import storage.IndexManager;
+import storage.DeletedRecordIndex;
+import storage.Durability;
+import storage.IndexType;
 import storage.MetaFileHandler;
+import storage.PrimaryIndex;
+import storage.RecordFormat;
+import storage.RecordPredicate;
+import storage.RoaringBitmap;
+import storage.SecondaryIndex;
+import storage.StorageConfig;
+import storage.TrigramIndex;
+import storage.WriteAheadLog;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DatabaseSession implements AutoCloseable {
     private final String databasePath;
+    private final StorageConfig config;
     private DataFileHandler dataHandler;
-    private IndexManager indexManager;
+    private PrimaryIndex indexManager;
     private MetaFileHandler metaHandler;
+    private SecondaryIndex departmentIndex; // отдел -> смещения записей
+    private SecondaryIndex positionIndex;   // должность -> смещения записей
+    private DeletedRecordIndex deletedIndex; // номера удаленных записей
+    private TrigramIndex nameIndex;         // триграммы имени -> номера записей
+    private BPlusTree salaryIndex;          // зарплата в копейках -> смещения записей
+    private BPlusTree hireDateIndex;        // дата приема (день эпохи) -> смещения записей
+    private WriteAheadLog wal;     // null - журнал выключен
+    private BatchFlusher batchFlusher; // создается первой операцией с Durability.BATCHED
+    private BufferPool bufferPool; // общий для data.db и index.db
+    private RecoveryManager.RecoveryResult lastRecovery; // null - база была закрыта штатно
     private boolean isOpen;
     private final ReadWriteLock lock;
     
+    // Смещения записей data.db, измененных во время уплотнения (null - не отслеживаются).
+    // Доступ только под блокировкой записи.
+    private Set<Long> modifiedOffsets;
+    // Меняется при каждой подмене data.db: смещения, запомненные до нее, больше не действительны.
+    // Читается под блокировкой чтения, меняется под блокировкой записи.
+    private long dataGeneration;
+    
     public DatabaseSession(String databasePath) {
+        this(databasePath, StorageConfig.defaults());
+    }
+    
+    public DatabaseSession(String databasePath, StorageConfig config) {
         this.databasePath = databasePath;
+        this.config = config;
         this.lock = new ReentrantReadWriteLock();
         this.isOpen = false;
     }
@@ -27,27 +71,135 @@ public class DatabaseSession implements AutoCloseable {
         
         lock.writeLock().lock();
         try {
-            this.dataHandler = new DataFileHandler(databasePath + "/data.db");
-            this.indexManager = new IndexManager(databasePath + "/index.db");
-            this.metaHandler = new MetaFileHandler(databasePath + "/meta.db");
-            
-            dataHandler.open(createIfNotExists);
-            indexManager.open(createIfNotExists);
-            metaHandler.open(createIfNotExists);
+            this.bufferPool = config.getBufferPoolPages() > 0
+                ? new BufferPool(config.getBufferPoolPages()) : null;
+            this.dataHandler = new DataFileHandler(databasePath + "/data.db", config, bufferPool);
+            this.metaHandler = new MetaFileHandler(databasePath + "/meta.db", config.getMetaCheckpointInterval());
+            this.departmentIndex = new SecondaryIndex(databasePath + "/department.idx",
+                                                      RecordFormat.MAX_DEPARTMENT_LENGTH);
+            this.positionIndex = new SecondaryIndex(databasePath + "/position.idx",
+                                                    RecordFormat.MAX_POSITION_LENGTH);
+            this.deletedIndex = new DeletedRecordIndex(databasePath + "/deleted.idx");
+            this.nameIndex = new TrigramIndex(databasePath + "/name.idx", RecordFormat.MAX_NAME_LENGTH);
+            this.salaryIndex = new BPlusTree(databasePath + "/salary.idx", bufferPool);
+            this.hireDateIndex = new BPlusTree(databasePath + "/hire_date.idx", bufferPool);
+            this.wal = config.isWalEnabled() ? new WriteAheadLog(databasePath + "/wal.log") : null;
             
-            isOpen = true;
+            WriteAheadLog log = null;
+            try {
+                // Подмена файлов уплотнением прервалась - сначала переносим оставшиеся копии
+                CompactionManifest pendingSwap = createIfNotExists ? null
+                    : CompactionManifest.read(Paths.get(databasePath));
+                if (pendingSwap != null) {
+                    pendingSwap.moveFiles();
+                }
+                
+                dataHandler.open(createIfNotExists);
+                boolean indexUnusable = false;
+                try {
+                    indexManager = PrimaryIndex.forFile(databasePath + "/index.db", config, bufferPool,
+                                                        createIfNotExists);
+                    indexManager.open(createIfNotExists);
+                } catch (DatabaseException e) {
+                    if (createIfNotExists) {
+                        throw e;
+                    }
+                    // index.db отсутствует или поврежден - перестраивается по data.db ниже
+                    System.err.println("Warning: " + e.getMessage() + ", rebuilding index from data.db");
+                    indexManager = PrimaryIndex.create(config.getIndexType(), databasePath + "/index.db",
+                                                       config, bufferPool);
+                    indexUnusable = true;
+                }
+                metaHandler.open(createIfNotExists);
+                departmentIndex.open(createIfNotExists);
+                positionIndex.open(createIfNotExists);
+                deletedIndex.open(createIfNotExists);
+                nameIndex.open(createIfNotExists);
+                salaryIndex.open(createIfNotExists);
+                hireDateIndex.open(createIfNotExists);
+                if (wal != null) {
+                    wal.open();
+                }
+                
+                isOpen = true;
+                // Журнал с записями - база не была закрыта штатно. Журнал прошлого сеанса
+                // повторяется, даже если сейчас журнал выключен.
+                log = wal != null ? wal : openLeftoverLog();
+                // Перестроенный индекс соответствует data.db; журнал затем повторяется поверх него
+                if (indexUnusable) {
+                    new IndexRebuilder(this).rebuild();
+                }
+                // Журнал перед подменой был пуст (контрольная точка), поэтому подмена доводится до конца первой
+                if (pendingSwap != null) {
+                    completeSwap(pendingSwap, null);
+                }
+                if (log != null && log.hasRecords()) {
+                    lastRecovery = new RecoveryManager(this).recover(log);
+                    flush();
+                    if (log != wal) {
+                        log.checkpoint();
+                    }
+                } else {
+                    if (departmentIndex.needsRebuild() || positionIndex.needsRebuild()
+                            || deletedIndex.needsRebuild() || nameIndex.needsRebuild()
+                            || salaryIndex.needsRebuild() || hireDateIndex.needsRebuild()) {
+                        rebuildSecondaryIndexes();
+                    }
+                    if (metaHandler.needsRecovery()) {
+                        recoverMeta();
+                    }
+                    if (indexUnusable) {
+                        flush();
+                    }
+                }
+                if (log != null && log != wal) {
+                    log.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                // Все, что успело открыться, закрывается (иначе файлы остаются занятыми)
+                isOpen = false;
+                closeAfterFailure(e, log);
+                throw e;
+            }
             
         } finally {
             lock.writeLock().unlock();
         }
     }
     
+    // Закрытие после неудачного открытия. Контрольная точка не делается: журнал
+    // остается для следующей попытки. Ошибки закрытия добавляются к исходной.
+    private void closeAfterFailure(Exception failure, WriteAheadLog leftoverLog) {
+        AutoCloseable[] handlers = { leftoverLog, wal, dataHandler, indexManager, metaHandler,
+                                     departmentIndex, positionIndex, deletedIndex, nameIndex,
+                                     salaryIndex, hireDateIndex };
+        for (AutoCloseable handler : handlers) {
+            if (handler == null) {
+                continue;
+            }
+            try {
+                handler.close();
+            } catch (Exception e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+    
+    private WriteAheadLog openLeftoverLog() throws IOException {
+        if (!Files.exists(Paths.get(databasePath, "wal.log"))) {
+            return null;
+        }
+        WriteAheadLog log = new WriteAheadLog(databasePath + "/wal.log");
+        log.open();
+        return log;
+    }
+    
     public DataFileHandler getDataHandler() {
         checkOpen();
         return dataHandler;
     }
     
-    public IndexManager getIndexManager() {
+    public PrimaryIndex getIndexManager() {
         checkOpen();
         return indexManager;
     }
@@ -57,6 +209,337 @@ public class DatabaseSession implements AutoCloseable {
         return metaHandler;
     }
     
+    public SecondaryIndex getDepartmentIndex() {
+        checkOpen();
+        return departmentIndex;
+    }
+    
+    public SecondaryIndex getPositionIndex() {
+        checkOpen();
+        return positionIndex;
+    }
+    
+    public DeletedRecordIndex getDeletedIndex() {
+        checkOpen();
+        return deletedIndex;
+    }
+    
+    public TrigramIndex getNameIndex() {
+        checkOpen();
+        return nameIndex;
+    }
+    
+    public BPlusTree getSalaryIndex() {
+        checkOpen();
+        return salaryIndex;
+    }
+    
+    public BPlusTree getHireDateIndex() {
+        checkOpen();
+        return hireDateIndex;
+    }
+    
+    // Ключи упорядоченных индексов: зарплата хранится с точностью до копеек
+    static long salaryKey(float salary) {
+        return Math.round(salary * 100.0);
+    }
+    
+    static long hireDateKey(LocalDate hireDate) {
+        return hireDate.toEpochDay();
+    }
+    
+    // Перестройка вторичных индексов одним просмотром data.db: индексы отсутствовали,
+    // база не была закрыта штатно или подмена файлов после уплотнения прервалась
+    // B+деревья строятся массовой загрузкой из собранных пар (ключ, смещение)
+    void rebuildSecondaryIndexes() throws IOException {
+        departmentIndex.clear();
+        positionIndex.clear();
+        nameIndex.clear();
+        deletedIndex.clear();
+        
+        // Запись индексируется по своему смещению и только если первичный индекс ссылается
+        // именно на нее: повторная запись с тем же ID (см. IndexRebuilder) считается удаленной
+        RecordKeyBuffer keys = new RecordKeyBuffer();
+        dataHandler.forEachEmployee(RecordPredicate.notDeleted(), (offset, employee) -> {
+            if (indexManager.findOffset(employee.getId()) == offset) {
+                departmentIndex.add(employee.getDepartment(), offset);
+                positionIndex.add(employee.getPosition(), offset);
+                nameIndex.add(employee.getName(), offset);
+                keys.add(offset, salaryKey(employee.getSalary()), hireDateKey(employee.getHireDate()));
+            }
+        });
+        int count = keys.count;
+        long[] offsets = keys.offsets;
+        long[] salaries = keys.salaries;
+        long[] hireDates = keys.hireDates;
+        
+        // Удаленные - все записи файла, на которые не ссылается первичный индекс
+        RoaringBitmap live = new RoaringBitmap();
+        for (int i = 0; i < count; i++) {
+            live.add((int) (offsets[i] / RecordFormat.RECORD_SIZE));
+        }
+        long recordSlots = dataHandler.getFileSize() / RecordFormat.RECORD_SIZE;
+        for (int slot = 0; slot < recordSlots; slot++) {
+            if (!live.contains(slot)) {
+                deletedIndex.markDeleted((long) slot * RecordFormat.RECORD_SIZE);
+            }
+        }
+        
+        salaryIndex.bulkLoad(salaries, offsets, count);
+        hireDateIndex.bulkLoad(hireDates, offsets, count);
+        
+        departmentIndex.rebuildFinished();
+        positionIndex.rebuildFinished();
+        deletedIndex.rebuildFinished();
+        nameIndex.rebuildFinished();
+        salaryIndex.rebuildFinished();
+        hireDateIndex.rebuildFinished();
+    }
+    
+    // Ключи B+деревьев, собранные за просмотр, для массовой загрузки
+    private static final class RecordKeyBuffer {
+        int count;
+        long[] offsets = new long[1024];
+        long[] salaries = new long[1024];
+        long[] hireDates = new long[1024];
+        
+        void add(long offset, long salary, long hireDate) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                salaries = Arrays.copyOf(salaries, count * 2);
+                hireDates = Arrays.copyOf(hireDates, count * 2);
+            }
+            offsets[count] = offset;
+            salaries[count] = salary;
+            hireDates[count] = hireDate;
+            count++;
+        }
+    }
+    
+    // Метаданные не дошли до контрольной точки перед сбоем: число записей берется из первичного
+    // индекса, список свободных записей заново связывается по битовой карте удаленных
+    void recoverMeta() throws IOException {
+        int[] freeSlots = deletedIndex.getBitmap().toArray();
+        long nextFreeOffset = RecordFormat.NO_FREE_OFFSET;
+        for (int i = freeSlots.length - 1; i >= 0; i--) {
+            long offset = (long) freeSlots[i] * RecordFormat.RECORD_SIZE;
+            dataHandler.markDeleted(offset, nextFreeOffset);
+            nextFreeOffset = offset;
+        }
+        
+        metaHandler.updateMeta(new DatabaseMeta(RecordFormat.DATABASE_VERSION, indexManager.getSize(),
+                                                nextFreeOffset, RecordFormat.RECORD_SIZE, freeSlots.length));
+    }
+    
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+    
+    // Журнал: запись операции до изменения файлов. Возвращает LSN для commit (0 - журнал выключен).
+    // Запись сразу передается в файл (без fsync): страницы data.db и index.db могут попасть
+    // на диск в любой момент, и после падения процесса журнал должен содержать их операции.
+    // Вызывается под блокировкой записи.
+    public long logOperation(byte type, byte[] data) throws IOException {
+        checkOpen();
+        if (wal == null) {
+            return 0;
+        }
+        long lsn = wal.append(type, data);
+        wal.write(lsn);
+        return lsn;
+    }
+    
+    // Подтверждение операции после снятия блокировки записи.
+    // С журналом: SYNC ждет fsync журнала, NONE передает записи в файл без fsync,
+    // BATCHED оставляет fsync фоновому потоку.
+    // Без журнала синхронизируются сами файлы БД (SYNC - каждый раз, BATCHED - в фоне).
+    public void commit(long lsn, Durability durability) throws IOException {
+        switch (durability) {
+            case SYNC:
+                if (wal != null) {
+                    if (lsn > 0) wal.commit(lsn);
+                } else {
+                    syncFiles();
+                }
+                break;
+            case BATCHED:
+                batchFlusher().opCompleted();
+                break;
+            case NONE:
+                if (wal != null && lsn > 0) {
+                    wal.write(lsn);
+                }
+                break;
+        }
+    }
+    
+    private synchronized BatchFlusher batchFlusher() {
+        if (batchFlusher == null) {
+            batchFlusher = new BatchFlusher(wal != null ? wal::commitAll : this::syncFiles,
+                                            config.getBatchSyncMillis(), config.getBatchSyncOps(),
+                                            "batch-sync");
+        }
+        return batchFlusher;
+    }
+    
+    // Без журнала подтверждение требует fsync только data.db, index.db и meta.db.
+    // Снимки вторичных индексов и деревьев остаются в состоянии STALE до контрольной
+    // точки: после сбоя они перестраиваются по data.db.
+    private void syncFiles() throws IOException {
+        beginWrite();
+        try {
+            if (isOpen) {
+                dataHandler.flush();
+                indexManager.flush();
+                metaHandler.flush();
+            }
+        } finally {
+            endWrite();
+        }
+    }
+    
+    // Число фоновых fsync режима BATCHED
+    public synchronized long getBatchSyncCount() {
+        return batchFlusher != null ? batchFlusher.getSyncCount() : 0;
+    }
+    
+    // Ленивая контрольная точка: файлы БД синхронизируются, только когда журнал вырос.
+    // Вызывается под блокировкой записи.
+    public void checkpointIfNeeded() throws IOException {
+        if (wal != null && wal.getSize() >= config.getWalCheckpointSize()) {
+            flush();
+        }
+    }
+    
+    public WriteAheadLog getWriteAheadLog() {
+        return wal;
+    }
+    
+    public RecoveryManager.RecoveryResult getLastRecovery() {
+        return lastRecovery;
+    }
+    
+    // Сбрасывает грязные страницы и синхронизирует все файлы БД с диском.
+    // Это контрольная точка: после нее журнал обрезается.
+    public void flush() throws IOException {
+        checkOpen();
+        dataHandler.flush();
+        indexManager.flush();
+        metaHandler.flush();
+        departmentIndex.flush();
+        positionIndex.flush();
+        deletedIndex.flush();
+        nameIndex.flush();
+        salaryIndex.flush();
+        hireDateIndex.flush();
+        if (wal != null) {
+            wal.checkpoint();
+        }
+    }
+    
+    // Отслеживание изменений на время уплотнения
+    public void startTrackingModifications() {
+        modifiedOffsets = new HashSet<>();
+    }
+    
+    public Set<Long> stopTrackingModifications() {
+        Set<Long> result = modifiedOffsets;
+        modifiedOffsets = null;
+        return result;
+    }
+    
+    public void markModified(long offset) {
+        if (modifiedOffsets != null) {
+            modifiedOffsets.add(offset);
+        }
+    }
+    
+    // Подменяет data.db и index.db уплотненными копиями, обновляет метаданные
+    // и переводит вторичные индексы на новые смещения по таблице номеров записей
+    // "старый -> новый" (отрицательный - записи в новом файле нет).
+    // Вызывается под блокировкой записи. Страницы старых файлов сбрасываются
+    // и выбрасываются из пула при закрытии обработчиков.
+    // Подмена начинается с записи compact.pending (см. CompactionManifest): если процесс
+    // упадет посередине, она будет доведена до конца при следующем открытии.
+    public void replaceDataFiles(Path compactedData, Path compactedIndex, DatabaseMeta meta,
+                                 int[] newSlotByOldSlot) throws IOException {
+        checkOpen();
+        // Смещения в журнале относятся к старому data.db: контрольная точка до подмены
+        if (wal != null) {
+            flush();
+        }
+        
+        CompactionManifest manifest = new CompactionManifest(Paths.get(databasePath),
+            new String[] { compactedData.getFileName().toString(), compactedIndex.getFileName().toString() },
+            new String[] { "data.db", "index.db" }, meta);
+        manifest.write();
+        
+        IndexType indexType = indexManager.getType();
+        dataHandler.close();
+        indexManager.close();
+        
+        manifest.moveFiles();
+        
+        dataHandler = new DataFileHandler(databasePath + "/data.db", config, bufferPool);
+        indexManager = PrimaryIndex.create(indexType, databasePath + "/index.db", config, bufferPool);
+        dataHandler.open(false);
+        indexManager.open(false);
+        dataGeneration++;
+        
+        completeSwap(manifest, newSlotByOldSlot);
+    }
+    
+    // Последний шаг подмены: метаданные и вторичные индексы новых файлов попадают
+    // на диск, только потом удаляется compact.pending.
+    // При открытии базы таблицы номеров уже нет (null) - индексы перестраиваются по data.db.
+    private void completeSwap(CompactionManifest manifest, int[] newSlotByOldSlot) throws IOException {
+        metaHandler.updateMeta(manifest.getMeta());
+        if (newSlotByOldSlot != null) {
+            remapSecondaryIndexes(newSlotByOldSlot);
+        } else {
+            rebuildSecondaryIndexes();
+        }
+        flush();
+        manifest.delete();
+    }
+    
+    // Вторичные индексы уже соответствуют старому файлу: номера записей в них
+    // переводятся на новые без чтения data.db
+    private void remapSecondaryIndexes(int[] newSlotByOldSlot) throws IOException {
+        departmentIndex.remapSlots(newSlotByOldSlot);
+        positionIndex.remapSlots(newSlotByOldSlot);
+        deletedIndex.remapSlots(newSlotByOldSlot);
+        nameIndex.remapSlots(newSlotByOldSlot);
+        salaryIndex.remapOffsets(newSlotByOldSlot);
+        hireDateIndex.remapOffsets(newSlotByOldSlot);
+    }
+    
+    public long getDataGeneration() {
+        return dataGeneration;
+    }
+    
+    // Подмена файлов прервалась и будет закончена при следующем открытии базы
+    public boolean hasPendingSwap() {
+        return CompactionManifest.exists(Paths.get(databasePath));
+    }
+    
+    // Подменяет index.db индексом, перестроенным по data.db, и перестраивает по нему
+    // вторичные индексы и метаданные. Вызывается под блокировкой записи.
+    // Открытый индекс закрывается; неоткрывшийся (поврежденный) просто заменяется.
+    public void replaceIndexFile(Path rebuiltIndex, IndexType indexType) throws IOException {
+        checkOpen();
+        indexManager.close();
+        
+        Files.move(rebuiltIndex, Paths.get(databasePath, "index.db"),
+                   StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        
+        indexManager = PrimaryIndex.create(indexType, databasePath + "/index.db", config, bufferPool);
+        indexManager.open(false);
+        
+        rebuildSecondaryIndexes();
+        recoverMeta();
+    }
+    
     public void beginRead() {
         lock.readLock().lock();
     }
@@ -76,11 +559,29 @@ public class DatabaseSession implements AutoCloseable {
     @Override
     public void close() throws IOException {
         if (isOpen) {
+            // Фоновый fsync останавливается до блокировки: он сам ее берет без журнала
+            synchronized (this) {
+                if (batchFlusher != null) {
+                    batchFlusher.close();
+                    batchFlusher = null;
+                }
+            }
             lock.writeLock().lock();
             try {
+                // Контрольная точка при штатном закрытии: журнал остается пустым
+                if (wal != null && wal.isOpen()) {
+                    flush();
+                    wal.close();
+                }
                 if (dataHandler != null) dataHandler.close();
                 if (indexManager != null) indexManager.close();
                 if (metaHandler != null) metaHandler.close();
+                if (departmentIndex != null) departmentIndex.close();
+                if (positionIndex != null) positionIndex.close();
+                if (deletedIndex != null) deletedIndex.close();
+                if (nameIndex != null) nameIndex.close();
+                if (salaryIndex != null) salaryIndex.close();
+                if (hireDateIndex != null) hireDateIndex.close();
                 isOpen = false;
             } finally {
                 lock.writeLock().unlock();
@@ -96,6 +597,10 @@ public class DatabaseSession implements AutoCloseable {
         return databasePath;
     }
     
+    public StorageConfig getConfig() {
+        return config;
+    }
+    
     private void checkOpen() {
         if (!isOpen) {
             throw new DatabaseException("SESSION_NOT_OPEN", "Database session is not open");
@@ -0,0 +1,73 @@
+package core;
+
+import storage.DataFileHandler;
+import storage.IndexType;
+import storage.PrimaryIndex;
+import storage.RecordKeys;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Перестройка первичного индекса по data.db: index.db отсутствует, поврежден
+// или разошелся с данными после сбоя.
+// Живые записи просматриваются параллельно блоками по границам записей (читаются только
+// ID и флаг удаления), новый индекс оптимальной емкости пишется одним последовательным
+// проходом в index.db.rebuild и подменяет index.db. По нему затем перестраиваются
+// вторичные индексы и метаданные. Запись в базу на это время блокируется.
+public class IndexRebuilder {
+    private final DatabaseSession session;
+    
+    public IndexRebuilder(DatabaseSession session) {
+        this.session = session;
+    }
+    
+    public RebuildResult rebuild() throws IOException {
+        long startTime = System.currentTimeMillis();
+        Path indexPath = Paths.get(session.getDatabasePath(), "index.db.rebuild");
+        
+        session.beginWrite();
+        try {
+            DataFileHandler dataHandler = session.getDataHandler();
+            // Новый индекс не должен ссылаться на записи, которых еще нет на диске
+            dataHandler.flush();
+            RecordKeys keys = dataHandler.scanKeys();
+            
+            IndexType indexType = session.getIndexManager().getType();
+            Files.deleteIfExists(indexPath);
+            int indexed = PrimaryIndex.writeFile(indexType, indexPath.toString(), keys);
+            if (indexed < keys.size()) {
+                System.err.println("Warning: " + (keys.size() - indexed)
+                    + " records with duplicate IDs were left out of the rebuilt index");
+            }
+            
+            session.replaceIndexFile(indexPath, indexType);
+            
+            int deleted = session.getDeletedIndex().getDeletedCount();
+            return new RebuildResult(indexed, deleted, keys.size() - indexed,
+                                     System.currentTimeMillis() - startTime);
+        } finally {
+            Files.deleteIfExists(indexPath);
+            session.endWrite();
+        }
+    }
+    
+    public static class RebuildResult {
+        private final int indexedRecords;
+        private final int deletedRecords;
+        private final int duplicateRecords;
+        private final long durationMs;
+        
+        public RebuildResult(int indexedRecords, int deletedRecords, int duplicateRecords, long durationMs) {
+            this.indexedRecords = indexedRecords;
+            this.deletedRecords = deletedRecords;
+            this.duplicateRecords = duplicateRecords;
+            this.durationMs = durationMs;
+        }
+        
+        public int getIndexedRecords() { return indexedRecords; }
+        public int getDeletedRecords() { return deletedRecords; }
+        public int getDuplicateRecords() { return duplicateRecords; }
+        public long getDurationMs() { return durationMs; }
+    }
+}
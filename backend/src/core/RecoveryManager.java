@@ -0,0 +1,277 @@
+package core;
+
+import exceptions.DatabaseException;
+import model.DatabaseMeta;
+import model.Employee;
+import storage.BPlusTree;
+import storage.DataFileHandler;
+import storage.DeletedRecordIndex;
+import storage.PrimaryIndex;
+import storage.RecordFormat;
+import storage.SecondaryIndex;
+import storage.TrigramIndex;
+import storage.WriteAheadLog;
+import util.SerializationUtil;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Восстановление после сбоя повтором журнала упреждающей записи.
+// Контрольная точка синхронизирует все файлы и обрезает журнал, поэтому после сбоя
+// снимки вторичных индексов и B+деревьев на диске соответствуют последней контрольной
+// точке, а журнал содержит все операции после нее. data.db и index.db пишутся по ходу
+// работы, и в них может оказаться любая часть этих операций.
+// Повтор идемпотентен: каждая запись журнала приводит запись data.db и все индексы
+// к состоянию после операции, что бы из нее ни успело попасть на диск. Время
+// восстановления зависит от длины журнала, а не от размера базы.
+// После повтора согласованность первичного индекса с data.db проверяется по счетчикам;
+// при расхождении или поврежденном снимке все индексы, включая первичный, перестраиваются
+// полным просмотром (IndexRebuilder).
+public class RecoveryManager {
+    private final DatabaseSession session;
+    private long freeListHead;
+    private int replayedOperations;
+    
+    RecoveryManager(DatabaseSession session) {
+        this.session = session;
+    }
+    
+    // Данные записей журнала (см. WriteAheadLog.OP_*)
+    
+    static byte[] insertRecord(long offset, long freeListHeadAfter, Employee employee) {
+        return ByteBuffer.allocate(16 + RecordFormat.RECORD_SIZE)
+            .putLong(offset)
+            .putLong(freeListHeadAfter)
+            .put(SerializationUtil.serializeEmployee(employee))
+            .array();
+    }
+    
+    static byte[] updateRecord(long offset, Employee oldEmployee, Employee newEmployee) {
+        return ByteBuffer.allocate(8 + 2 * RecordFormat.RECORD_SIZE)
+            .putLong(offset)
+            .put(SerializationUtil.serializeEmployee(oldEmployee))
+            .put(SerializationUtil.serializeEmployee(newEmployee))
+            .array();
+    }
+    
+    static byte[] deleteRecord(long offset, long freeListHeadBefore, Employee oldEmployee) {
+        return ByteBuffer.allocate(16 + RecordFormat.RECORD_SIZE)
+            .putLong(offset)
+            .putLong(freeListHeadBefore)
+            .put(SerializationUtil.serializeEmployee(oldEmployee))
+            .array();
+    }
+    
+    // Вызывается при открытии сессии под блокировкой записи, до первой новой операции
+    RecoveryResult recover(WriteAheadLog log) throws IOException {
+        long startTime = System.currentTimeMillis();
+        
+        // Снимки последней контрольной точки догоняются журналом
+        if (session.getDepartmentIndex().isStale()) session.getDepartmentIndex().acceptStaleSnapshot();
+        if (session.getPositionIndex().isStale()) session.getPositionIndex().acceptStaleSnapshot();
+        if (session.getDeletedIndex().isStale()) session.getDeletedIndex().acceptStaleSnapshot();
+        if (session.getNameIndex().isStale()) session.getNameIndex().acceptStaleSnapshot();
+        if (session.getSalaryIndex().isStale()) session.getSalaryIndex().acceptStaleSnapshot();
+        if (session.getHireDateIndex().isStale()) session.getHireDateIndex().acceptStaleSnapshot();
+        
+        freeListHead = session.getMetaHandler().getMeta().getFirstFreeOffset();
+        replayedOperations = 0;
+        log.replay(this::apply);
+        
+        boolean fullRebuild = !isConsistent();
+        if (fullRebuild) {
+            // data.db после повтора верен, а первичный индекс мог остаться с разорванными цепочками
+            System.err.println("Warning: Indexes are inconsistent after log replay, rebuilding from data.db");
+            new IndexRebuilder(session).rebuild();
+        } else {
+            DeletedRecordIndex deletedIndex = session.getDeletedIndex();
+            int freeCount = freeListHead == RecordFormat.NO_FREE_OFFSET ? 0 : deletedIndex.getDeletedCount();
+            session.getMetaHandler().updateMeta(new DatabaseMeta(RecordFormat.DATABASE_VERSION,
+                session.getIndexManager().getSize(), freeListHead, RecordFormat.RECORD_SIZE, freeCount));
+        }
+        
+        return new RecoveryResult(replayedOperations, fullRebuild, System.currentTimeMillis() - startTime);
+    }
+    
+    private void apply(long lsn, byte type, ByteBuffer data) throws IOException {
+        long offset = data.getLong(0);
+        switch (type) {
+            case WriteAheadLog.OP_INSERT:
+                redoInsert(offset, data.getLong(8), employeeAt(data, 16));
+                break;
+            case WriteAheadLog.OP_UPDATE:
+                redoUpdate(offset, employeeAt(data, 8), employeeAt(data, 8 + RecordFormat.RECORD_SIZE));
+                break;
+            case WriteAheadLog.OP_DELETE:
+                redoDelete(offset, data.getLong(8), employeeAt(data, 16));
+                break;
+            default:
+                throw new DatabaseException("INVALID_LOG_RECORD", "Unknown operation " + type + " at LSN " + lsn);
+        }
+        replayedOperations++;
+    }
+    
+    private static Employee employeeAt(ByteBuffer data, int position) {
+        data.position(position);
+        return SerializationUtil.deserializeEmployee(data);
+    }
+    
+    private void redoInsert(long offset, long freeListHeadAfter, Employee employee) throws IOException {
+        session.getDataHandler().writeEmployee(offset, employee);
+        ensureIndexed(employee.getId(), offset);
+        
+        DeletedRecordIndex deletedIndex = session.getDeletedIndex();
+        if (!deletedIndex.needsRebuild()) {
+            deletedIndex.markLive(offset);
+        }
+        addValue(session.getDepartmentIndex(), employee.getDepartment(), offset);
+        addValue(session.getPositionIndex(), employee.getPosition(), offset);
+        addName(employee.getName(), offset);
+        addKey(session.getSalaryIndex(), DatabaseSession.salaryKey(employee.getSalary()), offset);
+        addKey(session.getHireDateIndex(), DatabaseSession.hireDateKey(employee.getHireDate()), offset);
+        
+        freeListHead = freeListHeadAfter;
+    }
+    
+    private void redoUpdate(long offset, Employee oldEmployee, Employee newEmployee) throws IOException {
+        session.getDataHandler().writeEmployee(offset, newEmployee);
+        ensureIndexed(newEmployee.getId(), offset);
+        
+        // Прежние значения снимаются, только если поле изменилось: иначе повтор
+        // удалил бы запись из индекса, в котором она уже есть
+        if (!oldEmployee.getDepartment().equals(newEmployee.getDepartment())) {
+            removeValue(session.getDepartmentIndex(), oldEmployee.getDepartment(), offset);
+        }
+        if (!oldEmployee.getPosition().equals(newEmployee.getPosition())) {
+            removeValue(session.getPositionIndex(), oldEmployee.getPosition(), offset);
+        }
+        if (!oldEmployee.getName().equals(newEmployee.getName())) {
+            removeName(oldEmployee.getName(), offset);
+        }
+        long oldSalary = DatabaseSession.salaryKey(oldEmployee.getSalary());
+        long newSalary = DatabaseSession.salaryKey(newEmployee.getSalary());
+        if (oldSalary != newSalary) {
+            removeKey(session.getSalaryIndex(), oldSalary, offset);
+        }
+        long oldHireDate = DatabaseSession.hireDateKey(oldEmployee.getHireDate());
+        long newHireDate = DatabaseSession.hireDateKey(newEmployee.getHireDate());
+        if (oldHireDate != newHireDate) {
+            removeKey(session.getHireDateIndex(), oldHireDate, offset);
+        }
+        
+        addValue(session.getDepartmentIndex(), newEmployee.getDepartment(), offset);
+        addValue(session.getPositionIndex(), newEmployee.getPosition(), offset);
+        addName(newEmployee.getName(), offset);
+        addKey(session.getSalaryIndex(), newSalary, offset);
+        addKey(session.getHireDateIndex(), newHireDate, offset);
+    }
+    
+    private void redoDelete(long offset, long freeListHeadBefore, Employee employee) throws IOException {
+        session.getDataHandler().markDeleted(offset, freeListHeadBefore);
+        PrimaryIndex index = session.getIndexManager();
+        if (index.findOffset(employee.getId()) == offset) {
+            index.remove(employee.getId());
+        }
+        
+        DeletedRecordIndex deletedIndex = session.getDeletedIndex();
+        if (!deletedIndex.needsRebuild()) {
+            deletedIndex.markDeleted(offset);
+        }
+        removeValue(session.getDepartmentIndex(), employee.getDepartment(), offset);
+        removeValue(session.getPositionIndex(), employee.getPosition(), offset);
+        removeName(employee.getName(), offset);
+        removeKey(session.getSalaryIndex(), DatabaseSession.salaryKey(employee.getSalary()), offset);
+        removeKey(session.getHireDateIndex(), DatabaseSession.hireDateKey(employee.getHireDate()), offset);
+        
+        freeListHead = offset;
+    }
+    
+    private void ensureIndexed(int id, long offset) throws IOException {
+        PrimaryIndex index = session.getIndexManager();
+        long current = index.findOffset(id);
+        if (current == PrimaryIndex.NOT_FOUND) {
+            index.add(id, offset);
+        } else if (current != offset) {
+            index.update(id, offset);
+        }
+    }
+    
+    // Индексы, которые все равно будут перестроены, не трогаем
+    
+    private static void addValue(SecondaryIndex index, String value, long offset) throws IOException {
+        if (!index.needsRebuild()) {
+            index.add(value, offset);
+        }
+    }
+    
+    private static void removeValue(SecondaryIndex index, String value, long offset) throws IOException {
+        if (!index.needsRebuild()) {
+            index.remove(value, offset);
+        }
+    }
+    
+    private void addName(String name, long offset) throws IOException {
+        TrigramIndex index = session.getNameIndex();
+        if (!index.needsRebuild()) {
+            index.add(name, offset);
+        }
+    }
+    
+    private void removeName(String name, long offset) throws IOException {
+        TrigramIndex index = session.getNameIndex();
+        if (!index.needsRebuild()) {
+            index.remove(name, offset);
+        }
+    }
+    
+    private static void addKey(BPlusTree tree, long key, long offset) throws IOException {
+        if (tree.needsRebuild()) {
+            return;
+        }
+        try {
+            tree.insert(key, offset);
+        } catch (DatabaseException e) {
+            if (!"DUPLICATE_KEY".equals(e.getErrorCode())) {
+                throw e;
+            }
+        }
+    }
+    
+    private static void removeKey(BPlusTree tree, long key, long offset) throws IOException {
+        if (!tree.needsRebuild()) {
+            tree.delete(key, offset);
+        }
+    }
+    
+    // Проверка по счетчикам: каждая запись data.db либо удалена, либо есть в первичном
+    // индексе, и деревья содержат столько же элементов, сколько первичный индекс
+    private boolean isConsistent() throws IOException {
+        if (session.getDepartmentIndex().needsRebuild() || session.getPositionIndex().needsRebuild()
+                || session.getDeletedIndex().needsRebuild() || session.getNameIndex().needsRebuild()
+                || session.getSalaryIndex().needsRebuild() || session.getHireDateIndex().needsRebuild()) {
+            return false;
+        }
+        
+        DataFileHandler dataHandler = session.getDataHandler();
+        long recordSlots = dataHandler.getFileSize() / RecordFormat.RECORD_SIZE;
+        long indexed = session.getIndexManager().getSize();
+        return recordSlots - session.getDeletedIndex().getDeletedCount() == indexed
+            && session.getSalaryIndex().getEntryCount() == indexed
+            && session.getHireDateIndex().getEntryCount() == indexed;
+    }
+    
+    public static class RecoveryResult {
+        private final int replayedOperations;
+        private final boolean fullRebuild;
+        private final long durationMs;
+        
+        public RecoveryResult(int replayedOperations, boolean fullRebuild, long durationMs) {
+            this.replayedOperations = replayedOperations;
+            this.fullRebuild = fullRebuild;
+            this.durationMs = durationMs;
+        }
+        
+        public int getReplayedOperations() { return replayedOperations; }
+        public boolean isFullRebuild() { return fullRebuild; }
+        public long getDurationMs() { return durationMs; }
+    }
+}
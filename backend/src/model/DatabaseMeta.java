@@ -5,12 +5,18 @@ public class DatabaseMeta {
     private int recordCount;
     private long firstFreeOffset;
     private int recordSize;
+    private int freeRecordCount;
     
     public DatabaseMeta(short version, int recordCount, long firstFreeOffset, int recordSize) {
+        this(version, recordCount, firstFreeOffset, recordSize, 0);
+    }
+    
+    public DatabaseMeta(short version, int recordCount, long firstFreeOffset, int recordSize, int freeRecordCount) {
         this.version = version;
         this.recordCount = recordCount;
         this.firstFreeOffset = firstFreeOffset;
         this.recordSize = recordSize;
+        this.freeRecordCount = freeRecordCount;
     }
     
     // Геттеры и сеттеры
@@ -18,11 +24,27 @@ public class DatabaseMeta {
     public int getRecordCount() { return recordCount; }
     public long getFirstFreeOffset() { return firstFreeOffset; }
     public int getRecordSize() { return recordSize; }
+    public int getFreeRecordCount() { return freeRecordCount; }
     
     public void setRecordCount(int recordCount) { this.recordCount = recordCount; }
     public void setFirstFreeOffset(long firstFreeOffset) { this.firstFreeOffset = firstFreeOffset; }
+    public void setFreeRecordCount(int freeRecordCount) { this.freeRecordCount = freeRecordCount; }
     
     // Бизнес-методы
     public void incrementRecordCount() { recordCount++; }
     public void decrementRecordCount() { recordCount--; }
+    
+    // Удаленная запись становится головой списка свободных
+    public void pushFreeRecord(long offset) {
+        firstFreeOffset = offset;
+        freeRecordCount++;
+        recordCount--;
+    }
+    
+    // Голова списка занята новой записью, следующая свободная становится головой
+    public void popFreeRecord(long nextFreeOffset) {
+        firstFreeOffset = nextFreeOffset;
+        freeRecordCount--;
+        recordCount++;
+    }
 }
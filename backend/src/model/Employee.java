@@ -3,8 +3,11 @@ package model;
 import exceptions.ValidationException;
 import java.time.LocalDate;
 import java.util.Objects;
+import java.util.regex.Pattern;
 
 public class Employee {
+    private static final Pattern NAME_PATTERN = Pattern.compile("^[A-Za-zА-Яа-яёЁ\\s\\-']+$");
+    
     private int id;
     private String name;
     private String department;
@@ -45,7 +48,7 @@ public class Employee {
         if (name.length() > 100) {
             throw new ValidationException("name", "max_length", "Name cannot exceed 100 characters");
         }
-        if (!name.matches("^[A-Za-zА-Яа-яёЁ\\s\\-']+$")) {
+        if (!NAME_PATTERN.matcher(name).matches()) {
             throw new ValidationException("name", "pattern", "Name can only contain letters, spaces, hyphens and apostrophes");
         }
         
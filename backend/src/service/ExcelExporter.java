@@ -5,23 +5,37 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class ExcelExporter {
     
     public String exportToExcel(List<Employee> employees, String fileName) throws Exception {
+        String filePath = getExportPath(fileName);
+        writeCsv(employees.stream(), filePath);
+        return filePath;
+    }
+    
+    public String getExportPath(String fileName) throws IOException {
         // Создаем CSV вместо Excel (проще и не требует библиотек)
         String csvFileName = fileName + ".csv";  // Просто добавляем .csv
-        String filePath = "exports/" + csvFileName;
         
         // Создаем директорию если не существует
         Files.createDirectories(Paths.get("exports"));
         
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
+        return "exports/" + csvFileName;
+    }
+    
+    // Пишет записи по мере чтения из потока, не собирая их в памяти.
+    // Возвращает количество записанных строк данных.
+    public int writeCsv(Stream<Employee> employees, String filePath) throws IOException {
+        int[] count = {0};
+        
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(filePath)))) {
             // Заголовки
             writer.println("ID,Name,Department,Position,Salary,HireDate");
             
             // Данные
-            for (Employee emp : employees) {
+            employees.forEachOrdered(emp -> {
                 writer.printf("%d,%s,%s,%s,%.2f,%s%n",
                     emp.getId(),
                     escapeCsv(emp.getName()),
@@ -30,10 +44,15 @@ public class ExcelExporter {
                     emp.getSalary(),
                     emp.getHireDate()
                 );
+                count[0]++;
+            });
+            
+            if (writer.checkError()) {
+                throw new IOException("Failed to write export file: " + filePath);
             }
         }
         
-        return filePath;
+        return count[0];
     }
     
     public String generateFileName(String databaseName) {
@@ -0,0 +1,639 @@
+package storage;
+
+import exceptions.DatabaseException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+// B+дерево на диске: упорядоченный индекс (ключ long -> смещение записи) для поиска по диапазону.
+// Элементы упорядочены по паре (ключ, смещение), поэтому одинаковые ключи допустимы,
+// а удаление находит ровно нужный элемент.
+// Страницы фиксированного размера; листья связаны в список для последовательного обхода.
+// Удаление не объединяет страницы: недозаполненные и пустые листья остаются в дереве,
+// пока индекс не будет перестроен (например, после уплотнения).
+// Измененные страницы держатся в памяти и пишутся в файл только при flush, поэтому
+// на диске всегда целое дерево последней контрольной точки. Как и SecondaryIndex,
+// первое изменение после flush помечает файл устаревшим: после сбоя дерево
+// перестраивается по data.db или догоняется повтором журнала.
+public class BPlusTree implements AutoCloseable {
+    public static final int PAGE_SIZE = 4096;
+    
+    private static final short VERSION = 1;
+    private static final short STATE_DIRTY = 0;
+    private static final short STATE_CLEAN = 1;
+    private static final short STATE_STALE = 2; // дерево цело, но после него были изменения
+    private static final int STATE_OFFSET = 2;
+    private static final int NO_PAGE = -1;
+    
+    // Заголовок страницы: тип (1 байт), резерв (1), количество элементов (2), следующий лист (4)
+    private static final byte LEAF = 1;
+    private static final byte INTERNAL = 0;
+    private static final int PAGE_HEADER_SIZE = 8;
+    private static final int LEAF_ENTRY_SIZE = 16;     // ключ + смещение
+    private static final int INTERNAL_ENTRY_SIZE = 20; // ключ + смещение разделителя + правый потомок
+    // У внутренней страницы после заголовка идет самый левый потомок
+    private static final int INTERNAL_ENTRIES_OFFSET = PAGE_HEADER_SIZE + 4;
+    private static final int LEAF_CAPACITY = (PAGE_SIZE - PAGE_HEADER_SIZE) / LEAF_ENTRY_SIZE;
+    private static final int INTERNAL_CAPACITY = (PAGE_SIZE - INTERNAL_ENTRIES_OFFSET) / INTERNAL_ENTRY_SIZE;
+    // При массовой загрузке листья заполняются не до конца, чтобы вставки не делили их сразу
+    private static final int BULK_LEAF_FILL = LEAF_CAPACITY * 3 / 4;
+    private static final int BULK_INTERNAL_FILL = INTERNAL_CAPACITY * 3 / 4;
+    
+    private final FileManager fileManager;
+    // Страницы, измененные после последнего flush (номер -> содержимое)
+    private final TreeMap<Integer, byte[]> dirtyPages;
+    
+    // Заголовок файла (страница 0)
+    private int rootPage;
+    private int pageCount;
+    private int height;
+    private long entryCount;
+    
+    private boolean modified;
+    private boolean needsRebuild;
+    private boolean stale; // загружено дерево последней контрольной точки, изменения после нее потеряны
+    private boolean isOpen;
+    
+    // Разделение страницы: первый элемент новой правой страницы поднимается в родителя
+    private static final class Split {
+        final long key;
+        final long offset;
+        final int rightPage;
+        
+        Split(long key, long offset, int rightPage) {
+            this.key = key;
+            this.offset = offset;
+            this.rightPage = rightPage;
+        }
+    }
+    
+    public BPlusTree(String filePath) {
+        this(filePath, null);
+    }
+    
+    public BPlusTree(String filePath, BufferPool bufferPool) {
+        this.fileManager = new FileManager(filePath, IOMode.STANDARD, bufferPool);
+        this.dirtyPages = new TreeMap<>();
+        this.isOpen = false;
+    }
+    
+    // createNew - новая база: дерево создается пустым
+    public void open(boolean createNew) throws IOException {
+        if (isOpen) return;
+        
+        // У баз, созданных до появления индекса, файла нет - он создается и перестраивается
+        fileManager.open(true);
+        isOpen = true;
+        
+        if (createNew) {
+            reset();
+            flush();
+        } else if (fileManager.getFileSize() < PAGE_SIZE) {
+            reset();
+            needsRebuild = true;
+        } else {
+            readHeader();
+        }
+    }
+    
+    private void reset() throws IOException {
+        fileManager.setFileSize(0);
+        dirtyPages.clear();
+        modified = true;
+        pageCount = 1; // страница 0 - заголовок
+        rootPage = allocatePage();
+        writePage(rootPage, newPage(LEAF));
+        height = 1;
+        entryCount = 0;
+    }
+    
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(fileManager.read(0, PAGE_SIZE));
+        short version = header.getShort();
+        short state = header.getShort();
+        rootPage = header.getInt();
+        pageCount = header.getInt();
+        height = header.getInt();
+        entryCount = header.getLong();
+        
+        if (version != VERSION || (state != STATE_CLEAN && state != STATE_STALE)) {
+            reset();
+            needsRebuild = true;
+        } else if (state == STATE_STALE) {
+            needsRebuild = true;
+            stale = true;
+        }
+    }
+    
+    private void writeHeader(short state) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(24);
+        header.putShort(VERSION);
+        header.putShort(state);
+        header.putInt(rootPage);
+        header.putInt(pageCount);
+        header.putInt(height);
+        header.putLong(entryCount);
+        fileManager.write(0, header.array());
+    }
+    
+    // Первое изменение после flush: файл на диске больше не соответствует индексу,
+    // но страницы в нем не меняются до следующего flush
+    private void markModified() throws IOException {
+        if (!modified) {
+            fileManager.write(STATE_OFFSET, ByteBuffer.allocate(2).putShort(STATE_STALE).array());
+            fileManager.flush();
+            modified = true;
+        }
+    }
+    
+    public void insert(long key, long offset) throws IOException {
+        checkOpen();
+        markModified();
+        
+        Split split = insertInto(rootPage, key, offset);
+        if (split != null) {
+            // Корень разделился - дерево растет на уровень
+            ByteBuffer root = newPage(INTERNAL);
+            root.putInt(PAGE_HEADER_SIZE, rootPage);
+            setInternalEntry(root, 0, split.key, split.offset, split.rightPage);
+            setCount(root, 1);
+            rootPage = allocatePage();
+            writePage(rootPage, root);
+            height++;
+        }
+        entryCount++;
+    }
+    
+    private Split insertInto(int pageId, long key, long offset) throws IOException {
+        ByteBuffer page = readPage(pageId);
+        int count = getCount(page);
+        
+        if (page.get(0) == LEAF) {
+            int pos = leafLowerBound(page, count, key, offset);
+            if (pos < count && leafKey(page, pos) == key && leafOffset(page, pos) == offset) {
+                throw new DatabaseException("DUPLICATE_KEY", "Entry already exists: " + key + " -> " + offset);
+            }
+            
+            if (count < LEAF_CAPACITY) {
+                shift(page, leafPosition(pos), leafPosition(pos + 1), (count - pos) * LEAF_ENTRY_SIZE);
+                setLeafEntry(page, pos, key, offset);
+                setCount(page, count + 1);
+                writePage(pageId, page);
+                return null;
+            }
+            return splitLeaf(pageId, page, pos, key, offset);
+        }
+        
+        int childIndex = internalChildIndex(page, count, key, offset);
+        Split childSplit = insertInto(internalChild(page, childIndex), key, offset);
+        if (childSplit == null) {
+            return null;
+        }
+        
+        // Разделитель встает сразу за потомком, который разделился
+        if (count < INTERNAL_CAPACITY) {
+            shift(page, internalPosition(childIndex), internalPosition(childIndex + 1),
+                  (count - childIndex) * INTERNAL_ENTRY_SIZE);
+            setInternalEntry(page, childIndex, childSplit.key, childSplit.offset, childSplit.rightPage);
+            setCount(page, count + 1);
+            writePage(pageId, page);
+            return null;
+        }
+        return splitInternal(pageId, page, childIndex, childSplit);
+    }
+    
+    private Split splitLeaf(int pageId, ByteBuffer page, int pos, long key, long offset) throws IOException {
+        // Все элементы вместе с новым - во временные массивы
+        int total = LEAF_CAPACITY + 1;
+        long[] keys = new long[total];
+        long[] offsets = new long[total];
+        for (int i = 0, j = 0; i < total; i++) {
+            if (i == pos) {
+                keys[i] = key;
+                offsets[i] = offset;
+            } else {
+                keys[i] = leafKey(page, j);
+                offsets[i] = leafOffset(page, j);
+                j++;
+            }
+        }
+        
+        int leftCount = total / 2;
+        int rightId = allocatePage();
+        ByteBuffer right = newPage(LEAF);
+        for (int i = leftCount; i < total; i++) {
+            setLeafEntry(right, i - leftCount, keys[i], offsets[i]);
+        }
+        setCount(right, total - leftCount);
+        setNextLeaf(right, getNextLeaf(page));
+        
+        for (int i = 0; i < leftCount; i++) {
+            setLeafEntry(page, i, keys[i], offsets[i]);
+        }
+        setCount(page, leftCount);
+        setNextLeaf(page, rightId);
+        
+        writePage(rightId, right);
+        writePage(pageId, page);
+        return new Split(keys[leftCount], offsets[leftCount], rightId);
+    }
+    
+    private Split splitInternal(int pageId, ByteBuffer page, int pos, Split inserted) throws IOException {
+        int total = INTERNAL_CAPACITY + 1;
+        long[] keys = new long[total];
+        long[] offsets = new long[total];
+        int[] children = new int[total];
+        for (int i = 0, j = 0; i < total; i++) {
+            if (i == pos) {
+                keys[i] = inserted.key;
+                offsets[i] = inserted.offset;
+                children[i] = inserted.rightPage;
+            } else {
+                keys[i] = internalKey(page, j);
+                offsets[i] = internalOffset(page, j);
+                children[i] = page.getInt(internalPosition(j) + 16);
+                j++;
+            }
+        }
+        
+        // Средний разделитель уходит в родителя, его правый потомок становится самым левым справа
+        int mid = total / 2;
+        int rightId = allocatePage();
+        ByteBuffer right = newPage(INTERNAL);
+        right.putInt(PAGE_HEADER_SIZE, children[mid]);
+        for (int i = mid + 1; i < total; i++) {
+            setInternalEntry(right, i - mid - 1, keys[i], offsets[i], children[i]);
+        }
+        setCount(right, total - mid - 1);
+        
+        for (int i = 0; i < mid; i++) {
+            setInternalEntry(page, i, keys[i], offsets[i], children[i]);
+        }
+        setCount(page, mid);
+        
+        writePage(rightId, right);
+        writePage(pageId, page);
+        return new Split(keys[mid], offsets[mid], rightId);
+    }
+    
+    // Удаляет элемент; false, если его нет
+    public boolean delete(long key, long offset) throws IOException {
+        checkOpen();
+        
+        int pageId = findLeaf(key, offset);
+        ByteBuffer page = readPage(pageId);
+        int count = getCount(page);
+        int pos = leafLowerBound(page, count, key, offset);
+        if (pos >= count || leafKey(page, pos) != key || leafOffset(page, pos) != offset) {
+            return false;
+        }
+        
+        markModified();
+        shift(page, leafPosition(pos + 1), leafPosition(pos), (count - pos - 1) * LEAF_ENTRY_SIZE);
+        setCount(page, count - 1);
+        writePage(pageId, page);
+        entryCount--;
+        return true;
+    }
+    
+    // Смещения записей с ключами из [minKey, maxKey] в порядке возрастания ключа
+    public long[] rangeScan(long minKey, long maxKey) throws IOException {
+        checkOpen();
+        if (minKey > maxKey) {
+            return new long[0];
+        }
+        
+        long[] result = new long[16];
+        int size = 0;
+        int pageId = findLeaf(minKey, Long.MIN_VALUE);
+        while (pageId != NO_PAGE) {
+            ByteBuffer page = readPage(pageId);
+            int count = getCount(page);
+            int pos = leafLowerBound(page, count, minKey, Long.MIN_VALUE);
+            for (; pos < count; pos++) {
+                if (leafKey(page, pos) > maxKey) {
+                    return Arrays.copyOf(result, size);
+                }
+                if (size == result.length) {
+                    result = Arrays.copyOf(result, size * 2);
+                }
+                result[size++] = leafOffset(page, pos);
+            }
+            pageId = getNextLeaf(page);
+        }
+        return Arrays.copyOf(result, size);
+    }
+    
+    // Спуск от корня к листу, в котором должен находиться элемент (key, offset)
+    private int findLeaf(long key, long offset) throws IOException {
+        int pageId = rootPage;
+        for (int level = 1; level < height; level++) {
+            ByteBuffer page = readPage(pageId);
+            pageId = internalChild(page, internalChildIndex(page, getCount(page), key, offset));
+        }
+        return pageId;
+    }
+    
+    // Массовая загрузка: дерево строится заново снизу вверх. Элементы сортируются
+    // по (ключ, смещение), затем листья и внутренние страницы пишутся последовательно.
+    public void bulkLoad(long[] unsortedKeys, long[] unsortedOffsets, int count) throws IOException {
+        checkOpen();
+        markModified();
+        
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> compare(unsortedKeys[a], unsortedOffsets[a], unsortedKeys[b], unsortedOffsets[b]));
+        long[] keys = new long[count];
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = unsortedKeys[order[i]];
+            offsets[i] = unsortedOffsets[order[i]];
+        }
+        
+        fileManager.setFileSize(0);
+        dirtyPages.clear();
+        pageCount = 1;
+        entryCount = count;
+        
+        // Листья
+        int leafCount = Math.max(1, (count + BULK_LEAF_FILL - 1) / BULK_LEAF_FILL);
+        int firstLeaf = pageCount;
+        long[] levelKeys = new long[leafCount];
+        long[] levelOffsets = new long[leafCount];
+        for (int leaf = 0; leaf < leafCount; leaf++) {
+            int from = leaf * BULK_LEAF_FILL;
+            int to = Math.min(from + BULK_LEAF_FILL, count);
+            ByteBuffer page = newPage(LEAF);
+            for (int i = from; i < to; i++) {
+                setLeafEntry(page, i - from, keys[i], offsets[i]);
+            }
+            setCount(page, to - from);
+            setNextLeaf(page, leaf + 1 < leafCount ? firstLeaf + leaf + 1 : NO_PAGE);
+            writePage(allocatePage(), page);
+            if (from < count) {
+                levelKeys[leaf] = keys[from];
+                levelOffsets[leaf] = offsets[from];
+            }
+        }
+        
+        // Внутренние уровни, пока не останется один корень
+        int levelFirst = firstLeaf;
+        int levelSize = leafCount;
+        height = 1;
+        while (levelSize > 1) {
+            int parents = (levelSize + BULK_INTERNAL_FILL) / (BULK_INTERNAL_FILL + 1);
+            int parentFirst = pageCount;
+            long[] parentKeys = new long[parents];
+            long[] parentOffsets = new long[parents];
+            for (int parent = 0; parent < parents; parent++) {
+                int from = parent * levelSize / parents;
+                int to = (parent + 1) * levelSize / parents;
+                ByteBuffer page = newPage(INTERNAL);
+                page.putInt(PAGE_HEADER_SIZE, levelFirst + from);
+                for (int child = from + 1; child < to; child++) {
+                    setInternalEntry(page, child - from - 1, levelKeys[child], levelOffsets[child], levelFirst + child);
+                }
+                setCount(page, to - from - 1);
+                writePage(allocatePage(), page);
+                parentKeys[parent] = levelKeys[from];
+                parentOffsets[parent] = levelOffsets[from];
+            }
+            levelFirst = parentFirst;
+            levelSize = parents;
+            levelKeys = parentKeys;
+            levelOffsets = parentOffsets;
+            height++;
+        }
+        rootPage = levelFirst;
+    }
+    
+    // Уплотнение переставило записи: смещения переводятся по таблице номеров записей
+    // "старый -> новый" (см. SecondaryIndex.remap), и дерево строится заново массовой загрузкой.
+    // Листья читаются подряд по цепочке - data.db не нужен.
+    public void remapOffsets(int[] newSlotByOldSlot) throws IOException {
+        checkOpen();
+        long[] keys = new long[(int) Math.max(16, entryCount)];
+        long[] offsets = new long[keys.length];
+        int count = 0;
+        int pageId = findLeaf(Long.MIN_VALUE, Long.MIN_VALUE);
+        while (pageId != NO_PAGE) {
+            ByteBuffer page = readPage(pageId);
+            int entries = getCount(page);
+            for (int pos = 0; pos < entries; pos++) {
+                int slot = (int) (leafOffset(page, pos) / RecordFormat.RECORD_SIZE);
+                if (slot >= newSlotByOldSlot.length || newSlotByOldSlot[slot] < 0) {
+                    continue;
+                }
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                keys[count] = leafKey(page, pos);
+                offsets[count] = (long) newSlotByOldSlot[slot] * RecordFormat.RECORD_SIZE;
+                count++;
+            }
+            pageId = getNextLeaf(page);
+        }
+        bulkLoad(keys, offsets, count);
+    }
+    
+    public long getEntryCount() {
+        return entryCount;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public boolean needsRebuild() {
+        return needsRebuild;
+    }
+    
+    // Файл не закрыт штатно, но дерево последней контрольной точки цело
+    public boolean isStale() {
+        return stale;
+    }
+    
+    // Дерево догоняется повтором журнала вместо перестройки по data.db
+    public void acceptStaleSnapshot() {
+        checkOpen();
+        needsRebuild = false;
+        stale = false;
+        modified = true; // на диске уже STATE_STALE
+    }
+    
+    // Перестройка закончена - дерево снова соответствует data.db
+    public void rebuildFinished() throws IOException {
+        checkOpen();
+        needsRebuild = false;
+        stale = false;
+        flush();
+    }
+    
+    public void flush() throws IOException {
+        checkOpen();
+        if (modified) {
+            // Страницы - на диск по возрастанию номеров, затем заголовок с пометкой "чистый"
+            writeHeader(STATE_DIRTY);
+            fileManager.flush();
+            for (Map.Entry<Integer, byte[]> page : dirtyPages.entrySet()) {
+                fileManager.write((long) page.getKey() * PAGE_SIZE, page.getValue());
+            }
+            writeHeader(STATE_CLEAN);
+            fileManager.flush();
+            dirtyPages.clear();
+            modified = false;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (isOpen) {
+            try {
+                // Дерево, которое так и не перестроили, остается помеченным на перестройку
+                if (!needsRebuild) {
+                    flush();
+                }
+            } finally {
+                fileManager.close();
+                isOpen = false;
+            }
+        }
+    }
+    
+    // Работа со страницами
+    
+    private int allocatePage() {
+        return pageCount++;
+    }
+    
+    // Страница возвращается копией: вызывающий меняет ее и сохраняет через writePage
+    private ByteBuffer readPage(int pageId) throws IOException {
+        byte[] dirty = dirtyPages.get(pageId);
+        if (dirty != null) {
+            return ByteBuffer.wrap(dirty.clone());
+        }
+        return ByteBuffer.wrap(fileManager.read((long) pageId * PAGE_SIZE, PAGE_SIZE));
+    }
+    
+    private void writePage(int pageId, ByteBuffer page) {
+        dirtyPages.put(pageId, page.array().clone());
+    }
+    
+    private static ByteBuffer newPage(byte type) {
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        page.put(0, type);
+        setNextLeaf(page, NO_PAGE);
+        return page;
+    }
+    
+    private static int getCount(ByteBuffer page) {
+        return page.getShort(2);
+    }
+    
+    private static void setCount(ByteBuffer page, int count) {
+        page.putShort(2, (short) count);
+    }
+    
+    private static int getNextLeaf(ByteBuffer page) {
+        return page.getInt(4);
+    }
+    
+    private static void setNextLeaf(ByteBuffer page, int nextLeaf) {
+        page.putInt(4, nextLeaf);
+    }
+    
+    private static int leafPosition(int index) {
+        return PAGE_HEADER_SIZE + index * LEAF_ENTRY_SIZE;
+    }
+    
+    private static long leafKey(ByteBuffer page, int index) {
+        return page.getLong(leafPosition(index));
+    }
+    
+    private static long leafOffset(ByteBuffer page, int index) {
+        return page.getLong(leafPosition(index) + 8);
+    }
+    
+    private static void setLeafEntry(ByteBuffer page, int index, long key, long offset) {
+        page.putLong(leafPosition(index), key);
+        page.putLong(leafPosition(index) + 8, offset);
+    }
+    
+    private static int internalPosition(int index) {
+        return INTERNAL_ENTRIES_OFFSET + index * INTERNAL_ENTRY_SIZE;
+    }
+    
+    private static long internalKey(ByteBuffer page, int index) {
+        return page.getLong(internalPosition(index));
+    }
+    
+    private static long internalOffset(ByteBuffer page, int index) {
+        return page.getLong(internalPosition(index) + 8);
+    }
+    
+    private static void setInternalEntry(ByteBuffer page, int index, long key, long offset, int rightChild) {
+        page.putLong(internalPosition(index), key);
+        page.putLong(internalPosition(index) + 8, offset);
+        page.putInt(internalPosition(index) + 16, rightChild);
+    }
+    
+    // Потомок номер childIndex: 0 - самый левый, i - справа от разделителя i - 1
+    private static int internalChild(ByteBuffer page, int childIndex) {
+        return childIndex == 0
+            ? page.getInt(PAGE_HEADER_SIZE)
+            : page.getInt(internalPosition(childIndex - 1) + 16);
+    }
+    
+    // Число разделителей, не больших (key, offset): номер потомка, в котором лежит элемент
+    private static int internalChildIndex(ByteBuffer page, int count, long key, long offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(internalKey(page, mid), internalOffset(page, mid), key, offset) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    // Первый элемент листа, не меньший (key, offset)
+    private static int leafLowerBound(ByteBuffer page, int count, long key, long offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(leafKey(page, mid), leafOffset(page, mid), key, offset) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private static int compare(long key1, long offset1, long key2, long offset2) {
+        int result = Long.compare(key1, key2);
+        return result != 0 ? result : Long.compare(offset1, offset2);
+    }
+    
+    private static void shift(ByteBuffer page, int from, int to, int length) {
+        if (length > 0) {
+            byte[] data = page.array();
+            System.arraycopy(data, from, data, to, length);
+        }
+    }
+    
+    private void checkOpen() {
+        if (!isOpen) {
+            throw new DatabaseException("INDEX_NOT_OPEN", "B+tree index is not open");
+        }
+    }
+}
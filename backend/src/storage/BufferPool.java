@@ -0,0 +1,354 @@
+package storage;
+
+import exceptions.DatabaseException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Общий пул страниц для data.db и index.db.
+// Страницы фиксированного размера вытесняются по LRU, закрепленные (pinned)
+// страницы не вытесняются, грязные страницы пишутся на диск при вытеснении
+// или при flush соответствующего файла.
+// Таблица страниц - открытая адресация по long-ключу, список LRU - интрузивный,
+// поэтому обращение к странице не создает объектов.
+public class BufferPool {
+    public static final int PAGE_SIZE = 8192; // 8KB
+    
+    private static final long EMPTY_KEY = -1L;
+    
+    private final int capacity;
+    private final Map<FileManager, Integer> fileIds;
+    private int nextFileId;
+    
+    // Таблица страниц: ключ (fileId, pageNumber) -> страница
+    private final long[] tableKeys;
+    private final Page[] tablePages;
+    private final int tableMask;
+    private int pageCount;
+    
+    // Список LRU: head - давно не использованная, tail - последняя использованная
+    private Page head;
+    private Page tail;
+    
+    // Статистика
+    private long hits;
+    private long misses;
+    private long evictions;
+    
+    public static class Page {
+        private final FileManager owner;
+        private final long key;
+        private final long pageNumber;
+        private final byte[] data;
+        private int pinCount;
+        private boolean dirty;
+        private boolean loaded;
+        private IOException loadError;
+        private Page prev;
+        private Page next;
+        
+        private Page(FileManager owner, long key, long pageNumber) {
+            this.owner = owner;
+            this.key = key;
+            this.pageNumber = pageNumber;
+            this.data = new byte[PAGE_SIZE];
+        }
+        
+        public byte[] getData() { return data; }
+        public long getPageNumber() { return pageNumber; }
+        public long getFileOffset() { return pageNumber * PAGE_SIZE; }
+        public boolean isDirty() { return dirty; }
+        public int getPinCount() { return pinCount; }
+    }
+    
+    public BufferPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Buffer pool capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.fileIds = new IdentityHashMap<>();
+        this.nextFileId = 0;
+        
+        // Заполнение таблицы страниц не больше 50%
+        int tableSize = Integer.highestOneBit(capacity) << 2;
+        this.tableKeys = new long[tableSize];
+        this.tablePages = new Page[tableSize];
+        this.tableMask = tableSize - 1;
+        Arrays.fill(tableKeys, EMPTY_KEY);
+    }
+    
+    synchronized int register(FileManager fileManager) {
+        Integer fileId = fileIds.get(fileManager);
+        if (fileId == null) {
+            fileId = nextFileId++;
+            fileIds.put(fileManager, fileId);
+        }
+        return fileId;
+    }
+    
+    // Отключает файл от пула: грязные страницы записываются, остальные выбрасываются
+    synchronized void release(FileManager fileManager) throws IOException {
+        if (fileIds.containsKey(fileManager)) {
+            flush(fileManager);
+            discard(fileManager);
+            fileIds.remove(fileManager);
+        }
+    }
+    
+    // Закрепляет страницу в пуле, при необходимости загружая ее с диска.
+    // Каждому pin должен соответствовать unpin.
+    // Чтение с диска выполняется вне блокировки пула, поэтому промахи
+    // разных потоков по разным страницам идут параллельно.
+    public Page pin(FileManager owner, long pageNumber) throws IOException {
+        Page page;
+        boolean mustLoad = false;
+        
+        synchronized (this) {
+            long key = pageKey(owner, pageNumber);
+            page = lookup(key);
+            
+            if (page != null) {
+                hits++;
+                moveToTail(page);
+            } else {
+                misses++;
+                if (pageCount >= capacity) {
+                    evictOne();
+                }
+                page = new Page(owner, key, pageNumber);
+                insert(page);
+                mustLoad = true;
+            }
+            page.pinCount++;
+        }
+        
+        if (mustLoad) {
+            loadPage(page);
+        } else {
+            awaitLoaded(page);
+        }
+        return page;
+    }
+    
+    private void loadPage(Page page) throws IOException {
+        IOException error = null;
+        try {
+            page.owner.readPage(page.getFileOffset(), page.data);
+        } catch (IOException e) {
+            error = e;
+        }
+        
+        synchronized (page) {
+            page.loaded = true;
+            page.loadError = error;
+            page.notifyAll();
+        }
+        
+        if (error != null) {
+            // Не оставляем в пуле страницу, которую не удалось прочитать
+            synchronized (this) {
+                page.pinCount--;
+                if (lookup(page.key) == page) {
+                    remove(page);
+                }
+            }
+            throw error;
+        }
+    }
+    
+    private void awaitLoaded(Page page) throws IOException {
+        synchronized (page) {
+            while (!page.loaded) {
+                try {
+                    page.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for page " + page.pageNumber, e);
+                }
+            }
+            if (page.loadError != null) {
+                unpin(page, false);
+                throw page.loadError;
+            }
+        }
+    }
+    
+    public synchronized void unpin(Page page, boolean dirty) {
+        if (page.pinCount <= 0) {
+            throw new IllegalStateException("Page is not pinned: " + page.pageNumber);
+        }
+        page.pinCount--;
+        if (dirty) {
+            page.dirty = true;
+        }
+    }
+    
+    // Записывает все грязные страницы файла на диск
+    public synchronized void flush(FileManager owner) throws IOException {
+        flushRange(owner, 0, Long.MAX_VALUE);
+    }
+    
+    // Записывает грязные страницы файла, пересекающиеся с диапазоном [offset, offset + length)
+    public synchronized void flushRange(FileManager owner, long offset, long length) throws IOException {
+        long end = length == Long.MAX_VALUE ? Long.MAX_VALUE : offset + length;
+        for (Page page = head; page != null; page = page.next) {
+            if (page.owner == owner && page.dirty
+                    && page.getFileOffset() < end && page.getFileOffset() + PAGE_SIZE > offset) {
+                writeBack(page);
+            }
+        }
+    }
+    
+    public synchronized void flushAll() throws IOException {
+        for (Page page = head; page != null; page = page.next) {
+            if (page.dirty) {
+                writeBack(page);
+            }
+        }
+    }
+    
+    // Выбрасывает страницы файла без записи (после flush или усечения файла)
+    public synchronized void discard(FileManager owner) {
+        Page page = head;
+        while (page != null) {
+            Page next = page.next;
+            if (page.owner == owner) {
+                if (page.pinCount > 0) {
+                    throw new DatabaseException("PAGE_PINNED",
+                        "Cannot discard pinned page " + page.pageNumber + " of " + owner.getFilePath());
+                }
+                remove(page);
+            }
+            page = next;
+        }
+    }
+    
+    private void evictOne() throws IOException {
+        for (Page page = head; page != null; page = page.next) {
+            if (page.pinCount == 0) {
+                if (page.dirty) {
+                    writeBack(page);
+                }
+                remove(page);
+                evictions++;
+                return;
+            }
+        }
+        throw new DatabaseException("BUFFER_POOL_EXHAUSTED",
+            "All " + capacity + " buffer pool pages are pinned");
+    }
+    
+    private void writeBack(Page page) throws IOException {
+        page.owner.writePage(page.getFileOffset(), page.data);
+        page.dirty = false;
+    }
+    
+    private long pageKey(FileManager owner, long pageNumber) {
+        int fileId = register(owner);
+        return ((long) fileId << 48) | pageNumber;
+    }
+    
+    // Таблица страниц с линейным пробированием
+    
+    private int slotFor(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & tableMask;
+    }
+    
+    private Page lookup(long key) {
+        int slot = slotFor(key);
+        while (tableKeys[slot] != EMPTY_KEY) {
+            if (tableKeys[slot] == key) {
+                return tablePages[slot];
+            }
+            slot = (slot + 1) & tableMask;
+        }
+        return null;
+    }
+    
+    private void insert(Page page) {
+        int slot = slotFor(page.key);
+        while (tableKeys[slot] != EMPTY_KEY) {
+            slot = (slot + 1) & tableMask;
+        }
+        tableKeys[slot] = page.key;
+        tablePages[slot] = page;
+        pageCount++;
+        linkAtTail(page);
+    }
+    
+    private void remove(Page page) {
+        int slot = slotFor(page.key);
+        while (tableKeys[slot] != page.key) {
+            slot = (slot + 1) & tableMask;
+        }
+        
+        // Удаление со сдвигом назад, чтобы не рвать цепочки пробирования
+        int hole = slot;
+        int next = (hole + 1) & tableMask;
+        while (tableKeys[next] != EMPTY_KEY) {
+            int home = slotFor(tableKeys[next]);
+            if (((next - home) & tableMask) >= ((next - hole) & tableMask)) {
+                tableKeys[hole] = tableKeys[next];
+                tablePages[hole] = tablePages[next];
+                hole = next;
+            }
+            next = (next + 1) & tableMask;
+        }
+        tableKeys[hole] = EMPTY_KEY;
+        tablePages[hole] = null;
+        pageCount--;
+        unlink(page);
+    }
+    
+    private void linkAtTail(Page page) {
+        page.prev = tail;
+        page.next = null;
+        if (tail != null) {
+            tail.next = page;
+        } else {
+            head = page;
+        }
+        tail = page;
+    }
+    
+    private void unlink(Page page) {
+        if (page.prev != null) {
+            page.prev.next = page.next;
+        } else {
+            head = page.next;
+        }
+        if (page.next != null) {
+            page.next.prev = page.prev;
+        } else {
+            tail = page.prev;
+        }
+        page.prev = null;
+        page.next = null;
+    }
+    
+    private void moveToTail(Page page) {
+        if (page != tail) {
+            unlink(page);
+            linkAtTail(page);
+        }
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    public synchronized int getPageCount() {
+        return pageCount;
+    }
+    
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+    
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+}
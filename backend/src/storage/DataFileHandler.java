@@ -4,25 +4,106 @@ import exceptions.DatabaseException;
 import model.Employee;
 import util.SerializationUtil;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class DataFileHandler implements AutoCloseable {
     private FileManager fileManager;
     private boolean isOpen;
     
+    // Параметры последовательного просмотра
+    private final int scanChunkSize;
+    private final boolean scanReadAhead;
+    private final int scanParallelism;
+    private ExecutorService readAheadExecutor;
+    private ForkJoinPool scanPool;
+    
     public DataFileHandler(String filePath) {
-        this.fileManager = new FileManager(filePath);
+        this(filePath, StorageConfig.defaults());
+    }
+    
+    public DataFileHandler(String filePath, StorageConfig config) {
+        this(filePath, config, null);
+    }
+    
+    public DataFileHandler(String filePath, StorageConfig config, BufferPool bufferPool) {
+        this.fileManager = new FileManager(filePath, config.getIoMode(), bufferPool);
+        this.scanChunkSize = config.getScanChunkSize();
+        this.scanReadAhead = config.isScanReadAhead();
+        this.scanParallelism = config.getScanParallelism();
         this.isOpen = false;
     }
     
     public void open(boolean createIfNotExists) throws IOException {
         if (isOpen) return;
         fileManager.open(createIfNotExists);
+        if (fileManager.getIoMode() == IOMode.MAPPED) {
+            trimZeroTail();
+        }
+        if (scanReadAhead) {
+            readAheadExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "data-read-ahead");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (scanParallelism > 1) {
+            scanPool = new ForkJoinPool(scanParallelism);
+        }
         isOpen = true;
     }
     
+    // В режиме MAPPED файл растет с запасом нулей, который обрезается при закрытии.
+    // После сбоя запас остается в файле; нулевая запись не бывает ни живой, ни удаленной
+    // (ID > 0), поэтому хвост из нулевых записей отрезается, иначе новые записи
+    // дописывались бы за ним.
+    private void trimZeroTail() throws IOException {
+        long fileSize = fileManager.getFileSize();
+        long end = fileSize - fileSize % RecordFormat.RECORD_SIZE;
+        ByteBuffer chunk = ByteBuffer.allocate(scanChunkSize);
+        
+        // Неполная запись в конце должна быть нулевой, иначе это поврежденная запись
+        if (end < fileSize) {
+            readChunk(end, chunk, (int) (fileSize - end));
+            for (int i = 0; i < chunk.limit(); i++) {
+                if (chunk.get(i) != 0) {
+                    return;
+                }
+            }
+        }
+        
+        while (end > 0) {
+            long start = Math.max(0, end - scanChunkSize);
+            readChunk(start, chunk, (int) (end - start));
+            int record = (int) ((end - start) / RecordFormat.RECORD_SIZE) - 1;
+            while (record >= 0 && isZeroRecord(chunk, record * RecordFormat.RECORD_SIZE)) {
+                record--;
+            }
+            end = start + (long) (record + 1) * RecordFormat.RECORD_SIZE;
+            if (record >= 0) {
+                break;
+            }
+        }
+        
+        if (end < fileSize) {
+            System.err.println("Warning: Trimmed " + (fileSize - end) + " zero bytes from the end of data.db");
+            fileManager.setFileSize(end);
+        }
+    }
+    
+    private static boolean isZeroRecord(ByteBuffer chunk, int position) {
+        return chunk.getInt(position + RecordFormat.ID_OFFSET) == 0
+            && chunk.get(position + RecordFormat.IS_DELETED_OFFSET) == 0;
+    }
+    
     public long writeEmployee(long offset, Employee employee) throws IOException {
         checkOpen();
         
@@ -44,6 +125,23 @@ public class DataFileHandler implements AutoCloseable {
         return SerializationUtil.deserializeEmployee(recordData);
     }
     
+    // Чтение через переиспользуемый буфер вызывающего (например, RecordBuffers.recordBuffer())
+    public Employee readEmployee(long offset, ByteBuffer buffer) throws IOException {
+        readRecord(offset, buffer);
+        return SerializationUtil.deserializeEmployee(buffer);
+    }
+    
+    // Читает сырые байты записи в буфер; после вызова буфер готов к чтению с позиции 0
+    public ByteBuffer readRecord(long offset, ByteBuffer buffer) throws IOException {
+        checkOpen();
+        
+        buffer.clear();
+        buffer.limit(RecordFormat.RECORD_SIZE);
+        fileManager.read(offset, buffer);
+        buffer.flip();
+        return buffer;
+    }
+    
     public void updateEmployee(long offset, Employee employee) throws IOException {
         checkOpen();
         
@@ -51,44 +149,211 @@ public class DataFileHandler implements AutoCloseable {
         fileManager.write(offset, recordData);
     }
     
+    // Полный просмотр data.db крупными блоками. Пока текущий блок разбирается и фильтруется,
+    // следующий уже читается в фоне (двойная буферизация).
     public List<Employee> scanEmployees(Predicate<Employee> filter) throws IOException {
+        return scanEmployees(RecordPredicate.ALL, filter);
+    }
+    
+    // rawFilter проверяется на байтах записи, filter - на декодированных записях, прошедших rawFilter
+    public List<Employee> scanEmployees(RecordPredicate rawFilter, Predicate<Employee> filter) throws IOException {
         checkOpen();
         
+        long fileSize = fileManager.getFileSize();
+        if (scanPool != null && fileSize > scanChunkSize) {
+            return parallelScan(rawFilter, filter, fileSize);
+        }
+        
         List<Employee> results = new ArrayList<>();
+        try (RecordScanner scanner = newScanner(rawFilter, filter, RecordBuffers.chunkPair(scanChunkSize))) {
+            scanner.forEachRemaining(results::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return results;
+    }
+    
+    // Параллельный просмотр: файл делится на диапазоны по границам записей,
+    // примерно по четыре на поток пула, чтобы потоки не простаивали на неравных диапазонах
+    private List<Employee> parallelScan(RecordPredicate rawFilter, Predicate<Employee> filter,
+                                        long fileSize) throws IOException {
+        long recordsPerLeaf = fileSize / RecordFormat.RECORD_SIZE / (scanParallelism * 4L) + 1;
+        long leafSize = Math.max(scanChunkSize, recordsPerLeaf * RecordFormat.RECORD_SIZE);
+        long endOffset = fileSize - fileSize % RecordFormat.RECORD_SIZE;
+        
+        List<Employee> results;
+        try {
+            results = scanPool.invoke(new ParallelScanTask(this, rawFilter, filter, scanChunkSize,
+                                                           leafSize, 0, endOffset));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        
+        if (endOffset != fileSize) {
+            System.err.println("Warning: Corrupted record at offset " + endOffset);
+        }
+        return results;
+    }
+    
+    // Пары (ID, смещение) всех живых записей в порядке смещений - для перестройки первичного
+    // индекса. Записи не декодируются; при пуле просмотра диапазоны читаются параллельно.
+    public RecordKeys scanKeys() throws IOException {
+        checkOpen();
+        
         long fileSize = fileManager.getFileSize();
-        long currentOffset = 0;
+        long endOffset = fileSize - fileSize % RecordFormat.RECORD_SIZE;
         
-        while (currentOffset < fileSize) {
-            try {
-                Employee employee = readEmployee(currentOffset);
-                if (filter.test(employee)) {
-                    results.add(employee);
-                }
-            } catch (Exception e) {
-                // Пропускаем битые записи, но логируем
-                System.err.println("Warning: Corrupted record at offset " + currentOffset);
+        RecordKeys keys;
+        try {
+            if (scanPool != null && fileSize > scanChunkSize) {
+                long recordsPerLeaf = fileSize / RecordFormat.RECORD_SIZE / (scanParallelism * 4L) + 1;
+                long leafSize = Math.max(scanChunkSize, recordsPerLeaf * RecordFormat.RECORD_SIZE);
+                keys = scanPool.invoke(new KeyScanTask(this, scanChunkSize, leafSize, 0, endOffset));
+            } else {
+                keys = new KeyScanTask(this, scanChunkSize, endOffset, 0, endOffset).compute();
             }
-            
-            currentOffset += RecordFormat.RECORD_SIZE;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        
+        if (endOffset != fileSize) {
+            System.err.println("Warning: Corrupted record at offset " + endOffset);
         }
+        return keys;
+    }
+    
+    // Просмотр диапазона [startOffset, endOffset) по границам записей - для ленивых потоков,
+    // которые читают файл блоками, каждый под своей блокировкой чтения
+    public List<Employee> scanRange(RecordPredicate rawFilter, Predicate<Employee> filter,
+                                    long startOffset, long endOffset) throws IOException {
+        checkOpen();
         
+        List<Employee> results = new ArrayList<>();
+        try (RecordScanner scanner = new RecordScanner(this, null, rawFilter, filter,
+                                                       RecordBuffers.chunkPair(scanChunkSize), scanChunkSize,
+                                                       startOffset, Math.min(endOffset, fileManager.getFileSize()))) {
+            scanner.forEachRemaining(results::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
         return results;
     }
     
-    public long findFreeSpace() throws IOException {
-        // Пока всегда возвращаем конец файла
-        // В будущем можно реализовать поиск в списке свободных блоков
+    public interface RecordVisitor {
+        void visit(long offset, Employee employee) throws IOException;
+    }
+    
+    // Последовательный просмотр с передачей смещения каждой записи - для построения индексов,
+    // где запись нужно отнести именно к ее месту в файле
+    public void forEachEmployee(RecordPredicate rawFilter, RecordVisitor visitor) throws IOException {
+        checkOpen();
+        
+        Employee[] next = new Employee[1];
+        try (RecordScanner scanner = newScanner(rawFilter, emp -> true, RecordBuffers.chunkPair(scanChunkSize))) {
+            while (scanner.tryAdvance(employee -> next[0] = employee)) {
+                visitor.visit(scanner.lastOffset(), next[0]);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    // Ленивый просмотр: блоки читаются по мере потребления потока, память не зависит от размера файла.
+    // У потока собственные буферы; его нужно закрывать (try-with-resources).
+    public Stream<Employee> streamEmployees(Predicate<Employee> filter) throws IOException {
+        return streamEmployees(RecordPredicate.ALL, filter);
+    }
+    
+    public Stream<Employee> streamEmployees(RecordPredicate rawFilter, Predicate<Employee> filter) throws IOException {
+        checkOpen();
+        
+        ByteBuffer[] chunks = { ByteBuffer.allocate(scanChunkSize), ByteBuffer.allocate(scanChunkSize) };
+        RecordScanner scanner = newScanner(rawFilter, filter, chunks);
+        return StreamSupport.stream(scanner, false).onClose(scanner::close);
+    }
+    
+    private RecordScanner newScanner(RecordPredicate rawFilter, Predicate<Employee> filter,
+                                     ByteBuffer[] chunks) throws IOException {
+        return new RecordScanner(this, readAheadExecutor, rawFilter, filter, chunks, scanChunkSize,
+                                 0, fileManager.getFileSize());
+    }
+    
+    // Читает блок в буфер; после вызова буфер готов к чтению с позиции 0
+    public int readChunk(long offset, ByteBuffer chunk, int length) throws IOException {
+        chunk.clear();
+        chunk.limit(length);
+        int bytesRead = fileManager.readChunk(offset, chunk);
+        chunk.flip();
+        return bytesRead;
+    }
+    
+    // Место под новую запись: голова списка свободных записей или конец файла.
+    // Список проходит через удаленные записи - в каждой по смещению NEXT_FREE_OFFSET
+    // лежит смещение следующей свободной. Если голова не похожа на свободную запись
+    // (например, после сбоя между записью данных и meta.db), возвращается конец файла.
+    public long findFreeSpace(long firstFreeOffset) throws IOException {
+        checkOpen();
+        
+        if (firstFreeOffset != RecordFormat.NO_FREE_OFFSET && isFreeRecord(firstFreeOffset)) {
+            return firstFreeOffset;
+        }
         return fileManager.getFileSize();
     }
     
+    public long readNextFreeOffset(long offset) throws IOException {
+        checkOpen();
+        
+        ByteBuffer buffer = readRecord(offset, RecordBuffers.recordBuffer());
+        return buffer.getLong(RecordFormat.NEXT_FREE_OFFSET);
+    }
+    
+    // Логическое удаление: ставим флаг и связываем запись со списком свободных.
+    // Остальные поля записи не трогаем.
+    public void markDeleted(long offset, long nextFreeOffset) throws IOException {
+        checkOpen();
+        
+        byte[] tail = new byte[1 + Long.BYTES];
+        ByteBuffer.wrap(tail)
+            .put((byte) 1)
+            .putLong(nextFreeOffset);
+        fileManager.write(offset + RecordFormat.IS_DELETED_OFFSET, tail);
+    }
+    
+    private boolean isFreeRecord(long offset) throws IOException {
+        long fileSize = fileManager.getFileSize();
+        if (offset < 0 || offset % RecordFormat.RECORD_SIZE != 0
+                || offset + RecordFormat.RECORD_SIZE > fileSize) {
+            return false;
+        }
+        
+        ByteBuffer buffer = readRecord(offset, RecordBuffers.recordBuffer());
+        long next = buffer.getLong(RecordFormat.NEXT_FREE_OFFSET);
+        return buffer.get(RecordFormat.IS_DELETED_OFFSET) != 0
+            && (next == RecordFormat.NO_FREE_OFFSET
+                || (next >= 0 && next % RecordFormat.RECORD_SIZE == 0 && next < fileSize));
+    }
+    
     public long getFileSize() throws IOException {
         checkOpen();
         return fileManager.getFileSize();
     }
     
+    public void flush() throws IOException {
+        checkOpen();
+        fileManager.flush();
+    }
+    
     @Override
     public void close() throws IOException {
         if (isOpen) {
+            if (readAheadExecutor != null) {
+                readAheadExecutor.shutdown();
+                readAheadExecutor = null;
+            }
+            if (scanPool != null) {
+                scanPool.shutdown();
+                scanPool = null;
+            }
             fileManager.close();
             isOpen = false;
         }
@@ -0,0 +1,193 @@
+package storage;
+
+import exceptions.DatabaseException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Битовая карта удаленных записей data.db (номер записи = смещение / RECORD_SIZE).
+// Позволяет маскировать удаленные записи в результатах битовых индексов и считать
+// их без чтения data.db. Хранение на диске и перестройка после сбоя - как у SecondaryIndex.
+public class DeletedRecordIndex implements AutoCloseable {
+    private static final short VERSION = 1;
+    private static final short STATE_DIRTY = 0;
+    private static final short STATE_CLEAN = 1;
+    private static final short STATE_STALE = 2; // снимок цел, но после него были изменения
+    private static final int HEADER_SIZE = 4; // version, state
+    private static final int STATE_OFFSET = 2;
+    
+    private final FileManager fileManager;
+    private RoaringBitmap deleted;
+    private boolean modified;     // есть изменения после последнего снимка
+    private boolean needsRebuild; // файл отсутствовал или не был закрыт штатно
+    private boolean stale;        // загружен снимок последней контрольной точки, изменения после нее потеряны
+    private boolean isOpen;
+    
+    public DeletedRecordIndex(String filePath) {
+        this.fileManager = new FileManager(filePath);
+        this.deleted = new RoaringBitmap();
+        this.isOpen = false;
+    }
+    
+    // createNew - новая база: удаленных записей нет
+    public void open(boolean createNew) throws IOException {
+        if (isOpen) return;
+        
+        // У баз, созданных до появления индекса, файла нет - он создается и перестраивается
+        fileManager.open(true);
+        isOpen = true;
+        
+        if (createNew) {
+            writeSnapshot();
+        } else if (fileManager.getFileSize() < HEADER_SIZE) {
+            needsRebuild = true;
+        } else {
+            load();
+        }
+    }
+    
+    private void load() throws IOException {
+        byte[] data = fileManager.read(0, (int) fileManager.getFileSize());
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        
+        short version = buffer.getShort();
+        short state = buffer.getShort();
+        if (version != VERSION || (state != STATE_CLEAN && state != STATE_STALE)) {
+            needsRebuild = true;
+            return;
+        }
+        if (state == STATE_STALE) {
+            needsRebuild = true;
+            stale = true;
+        }
+        deleted = RoaringBitmap.readFrom(buffer);
+    }
+    
+    // Снимок пишется с пометкой "грязный", синхронизируется, затем помечается чистым
+    private void writeSnapshot() throws IOException {
+        int size = HEADER_SIZE + deleted.serializedSize();
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putShort(VERSION);
+        buffer.putShort(STATE_DIRTY);
+        deleted.writeTo(buffer);
+        
+        fileManager.write(0, buffer.array());
+        fileManager.setFileSize(size);
+        fileManager.flush();
+        writeState(STATE_CLEAN);
+        fileManager.flush();
+        modified = false;
+    }
+    
+    private void writeState(short state) throws IOException {
+        fileManager.write(STATE_OFFSET, ByteBuffer.allocate(2).putShort(state).array());
+    }
+    
+    // Первое изменение после снимка: файл на диске больше не соответствует индексу
+    private void markModified() throws IOException {
+        if (!modified) {
+            writeState(STATE_STALE);
+            fileManager.flush();
+            modified = true;
+        }
+    }
+    
+    public void markDeleted(long offset) throws IOException {
+        checkOpen();
+        markModified();
+        deleted.add(SecondaryIndex.slotOf(offset));
+    }
+    
+    // Запись из списка свободных снова занята
+    public void markLive(long offset) throws IOException {
+        checkOpen();
+        if (deleted.contains(SecondaryIndex.slotOf(offset))) {
+            markModified();
+            deleted.remove(SecondaryIndex.slotOf(offset));
+        }
+    }
+    
+    public boolean isDeleted(long offset) {
+        checkOpen();
+        return deleted.contains(SecondaryIndex.slotOf(offset));
+    }
+    
+    // Карта принадлежит индексу - ее нельзя изменять, только комбинировать
+    public RoaringBitmap getBitmap() {
+        checkOpen();
+        return deleted;
+    }
+    
+    public int getDeletedCount() {
+        checkOpen();
+        return deleted.getCardinality();
+    }
+    
+    public boolean needsRebuild() {
+        return needsRebuild;
+    }
+    
+    // Файл не закрыт штатно, но снимок последней контрольной точки цел
+    public boolean isStale() {
+        return stale;
+    }
+    
+    // Снимок догоняется повтором журнала вместо перестройки по data.db
+    public void acceptStaleSnapshot() {
+        checkOpen();
+        needsRebuild = false;
+        stale = false;
+        modified = true; // на диске уже STATE_STALE
+    }
+    
+    // Перед перестройкой по data.db
+    public void clear() throws IOException {
+        checkOpen();
+        markModified();
+        deleted = new RoaringBitmap();
+    }
+    
+    // Уплотнение переставило записи: удаленными остаются только записи, которые
+    // удалили уже после копирования - в новом файле они свободны
+    public void remapSlots(int[] newSlotByOldSlot) throws IOException {
+        checkOpen();
+        markModified();
+        deleted = SecondaryIndex.remap(deleted, newSlotByOldSlot);
+    }
+    
+    // Перестройка закончена - индекс снова соответствует data.db
+    public void rebuildFinished() throws IOException {
+        checkOpen();
+        writeSnapshot();
+        needsRebuild = false;
+        stale = false;
+    }
+    
+    public void flush() throws IOException {
+        checkOpen();
+        if (modified) {
+            writeSnapshot();
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (isOpen) {
+            try {
+                // Индекс, который так и не перестроили, остается помеченным на перестройку
+                if (modified && !needsRebuild) {
+                    writeSnapshot();
+                }
+            } finally {
+                fileManager.close();
+                deleted = new RoaringBitmap();
+                isOpen = false;
+            }
+        }
+    }
+    
+    private void checkOpen() {
+        if (!isOpen) {
+            throw new DatabaseException("INDEX_NOT_OPEN", "Deleted record index is not open");
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package storage;
+
+import exceptions.DatabaseException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+
+// Первичный индекс с прямой адресацией: ID ограничены сверху (Employee.validate),
+// поэтому смещение записи хранится в слоте с номером ID - без хэширования,
+// пробирования и рехэширования. Файл индекса (~8MB) отображается в память целиком,
+// поиск - одно чтение из отображения, открытие - только отображение файла.
+public class DenseIndexManager implements PrimaryIndex {
+    public static final int MAX_KEY = 999999; // как в Employee.validate
+    
+    private static final int SLOT_COUNT = MAX_KEY + 1;
+    private static final int SLOT_SIZE = 8;
+    // Смещения хранятся увеличенными на 1: нули нового (разреженного) файла - пустые слоты
+    private static final long EMPTY_SLOT = 0L;
+    private static final int UNKNOWN_SIZE = -1;
+    private static final int BLOCK_SLOTS = 65536; // 512KB за одну запись при writeFile
+    
+    private final FileManager fileManager;
+    private MappedByteBuffer slots;
+    private int size; // считается по слотам при первом запросе
+    private boolean isOpen;
+    
+    public DenseIndexManager(String filePath) {
+        this.fileManager = new FileManager(filePath);
+        this.size = UNKNOWN_SIZE;
+        this.isOpen = false;
+    }
+    
+    @Override
+    public void open(boolean createIfNotExists) throws IOException {
+        if (isOpen) return;
+        
+        fileManager.open(createIfNotExists);
+        
+        long fileSize = (long) RecordFormat.INDEX_HEADER_SIZE + (long) SLOT_COUNT * SLOT_SIZE;
+        if (createIfNotExists || fileManager.getFileSize() == 0) {
+            // Пустой файл нужной длины: все слоты нулевые
+            fileManager.setFileSize(0);
+            fileManager.setFileSize(fileSize);
+            size = 0;
+            writeHeader();
+        } else {
+            try {
+                readHeader();
+                if (fileManager.getFileSize() < fileSize) {
+                    throw new DatabaseException("INVALID_INDEX_FORMAT", "Dense index file is truncated");
+                }
+            } catch (IOException | RuntimeException e) {
+                fileManager.close();
+                throw e;
+            }
+        }
+        
+        slots = fileManager.mapForWrite(RecordFormat.INDEX_HEADER_SIZE, SLOT_COUNT * SLOT_SIZE);
+        isOpen = true;
+    }
+    
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(fileManager.read(0, RecordFormat.INDEX_HEADER_SIZE));
+        header.getShort(); // version
+        short type = header.getShort();
+        int capacity = header.getInt();
+        
+        if (type != RecordFormat.INDEX_TYPE_DENSE) {
+            throw new DatabaseException("INDEX_TYPE_MISMATCH", "Index file is not a dense index");
+        }
+        if (capacity != SLOT_COUNT) {
+            throw new DatabaseException("INVALID_INDEX_FORMAT", "Unexpected dense index capacity: " + capacity);
+        }
+        // Размер в заголовке может быть устаревшим после сбоя - пересчитывается по слотам
+    }
+    
+    // Новый файл индекса по парам (ID, смещение): слоты пишутся подряд блоками, без add.
+    // Повторный ID пропускается (остается первое смещение). Возвращает число ключей в индексе.
+    public static int writeFile(String filePath, RecordKeys keys) throws IOException {
+        long[] table = new long[SLOT_COUNT];
+        int size = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            int key = keys.idAt(i);
+            checkKey(key);
+            if (table[key] == EMPTY_SLOT) {
+                table[key] = keys.offsetAt(i) + 1;
+                size++;
+            }
+        }
+        
+        FileManager file = new FileManager(filePath);
+        file.open(true);
+        try {
+            file.setFileSize(0);
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SLOTS * SLOT_SIZE);
+            for (int from = 0; from < SLOT_COUNT; from += BLOCK_SLOTS) {
+                int to = Math.min(from + BLOCK_SLOTS, SLOT_COUNT);
+                block.clear();
+                for (int key = from; key < to; key++) {
+                    block.putLong(table[key]);
+                }
+                file.write(RecordFormat.INDEX_HEADER_SIZE + (long) from * SLOT_SIZE,
+                           Arrays.copyOf(block.array(), block.position()));
+            }
+            
+            writeHeader(file, size);
+            file.flush();
+        } finally {
+            file.close();
+        }
+        return size;
+    }
+    
+    private void writeHeader() throws IOException {
+        writeHeader(fileManager, size == UNKNOWN_SIZE ? countSize() : size);
+    }
+    
+    private static void writeHeader(FileManager file, int size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RecordFormat.INDEX_HEADER_SIZE);
+        header.putShort(RecordFormat.INDEX_VERSION);
+        header.putShort(RecordFormat.INDEX_TYPE_DENSE);
+        header.putInt(SLOT_COUNT);
+        header.putInt(size);
+        header.putFloat(0f); // порог заполнения не используется
+        
+        file.write(0, header.array());
+    }
+    
+    @Override
+    public void add(int key, long offset) throws IOException {
+        checkOpen();
+        checkKey(key);
+        
+        if (slots.getLong(slotPosition(key)) != EMPTY_SLOT) {
+            throw new DatabaseException("DUPLICATE_KEY", 
+                "Index already contains key: " + key);
+        }
+        
+        slots.putLong(slotPosition(key), offset + 1);
+        if (size != UNKNOWN_SIZE) {
+            size++;
+        }
+    }
+    
+    @Override
+    public Long find(int key) {
+        long offset = findOffset(key);
+        return offset == NOT_FOUND ? null : offset;
+    }
+    
+    @Override
+    public long findOffset(int key) {
+        checkOpen();
+        if (key < 0 || key > MAX_KEY) {
+            return NOT_FOUND;
+        }
+        return slots.getLong(slotPosition(key)) - 1;
+    }
+    
+    @Override
+    public boolean contains(int key) {
+        return findOffset(key) != NOT_FOUND;
+    }
+    
+    @Override
+    public void remove(int key) throws IOException {
+        checkOpen();
+        
+        if (!contains(key)) {
+            return;
+        }
+        
+        slots.putLong(slotPosition(key), EMPTY_SLOT);
+        if (size != UNKNOWN_SIZE) {
+            size--;
+        }
+    }
+    
+    @Override
+    public void update(int key, long newOffset) throws IOException {
+        checkOpen();
+        
+        if (!contains(key)) {
+            throw new DatabaseException("KEY_NOT_FOUND", 
+                "Cannot update, key not found: " + key);
+        }
+        
+        slots.putLong(slotPosition(key), newOffset + 1);
+    }
+    
+    @Override
+    public int getSize() {
+        checkOpen();
+        return size == UNKNOWN_SIZE ? countSize() : size;
+    }
+    
+    private int countSize() {
+        int count = 0;
+        for (int key = 0; key < SLOT_COUNT; key++) {
+            if (slots.getLong(slotPosition(key)) != EMPTY_SLOT) {
+                count++;
+            }
+        }
+        size = count;
+        return count;
+    }
+    
+    @Override
+    public IndexType getType() {
+        return IndexType.DENSE;
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        slots.force();
+        writeHeader();
+        fileManager.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (isOpen) {
+            slots.force();
+            writeHeader();
+            slots = null;
+            fileManager.close();
+            isOpen = false;
+        }
+    }
+    
+    private static int slotPosition(int key) {
+        return key * SLOT_SIZE;
+    }
+    
+    private static void checkKey(int key) {
+        if (key < 0 || key > MAX_KEY) {
+            throw new DatabaseException("INVALID_KEY", 
+                "Key is out of dense index range 0.." + MAX_KEY + ": " + key);
+        }
+    }
+    
+    private void checkOpen() {
+        if (!isOpen) {
+            throw new DatabaseException("INDEX_NOT_OPEN", "Index is not open");
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package storage;
+
+// Момент подтверждения записи относительно fsync
+public enum Durability {
+    // Запись передана ОС (кэш страниц), fsync - только на контрольной точке
+    NONE,
+    // Фоновый поток делает fsync раз в N мс или после N операций
+    BATCHED,
+    // fsync до подтверждения операции
+    SYNC;
+    
+    public static Durability fromString(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return SYNC;
+        }
+        return Durability.valueOf(value.trim().toUpperCase());
+    }
+}
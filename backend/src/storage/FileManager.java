@@ -4,29 +4,49 @@ import exceptions.DatabaseException;
 import exceptions.FileAccessException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 public class FileManager implements AutoCloseable {
     private RandomAccessFile file;
     private FileChannel channel;
     private final String filePath;
+    private final IOMode ioMode;
     private boolean isOpen;
     
-    // Буфер для оптимизации операций
-    private byte[] readBuffer;
-    private long readBufferOffset;
-    private boolean readBufferValid;
+    // Общий пул страниц (null - работа без кэширования)
+    private final BufferPool bufferPool;
+    // Логический размер файла: с учетом грязных страниц, еще не записанных на диск
+    private volatile long fileSize;
     
-    private static final int BUFFER_SIZE = 8192; // 8KB
+    // Сегменты отображения файла в память (только для IOMode.MAPPED)
+    private volatile MappedByteBuffer[] segments;
+    private volatile long mappedSize;
+    
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024; // 64MB на сегмент отображения
+    private static final int MIN_MAPPED_GROWTH = 1024 * 1024;   // 1MB - наименьший шаг роста
     
     public FileManager(String filePath) {
+        this(filePath, IOMode.STANDARD);
+    }
+    
+    public FileManager(String filePath, IOMode ioMode) {
+        this(filePath, ioMode, null);
+    }
+    
+    public FileManager(String filePath, IOMode ioMode, BufferPool bufferPool) {
         this.filePath = filePath;
-        this.readBuffer = new byte[BUFFER_SIZE];
-        this.readBufferOffset = -1;
-        this.readBufferValid = false;
+        this.ioMode = ioMode != null ? ioMode : IOMode.STANDARD;
+        // Отображенный файл уже кэшируется ОС, пул для него не нужен
+        this.bufferPool = this.ioMode == IOMode.MAPPED ? null : bufferPool;
+        this.segments = new MappedByteBuffer[0];
+        this.mappedSize = 0;
         this.isOpen = false;
     }
     
@@ -54,6 +74,13 @@ public class FileManager implements AutoCloseable {
         try {
             this.file = new RandomAccessFile(filePath, "rw");
             this.channel = file.getChannel();
+            this.fileSize = file.length();
+            if (ioMode == IOMode.MAPPED) {
+                remap(fileSize);
+            }
+            if (bufferPool != null) {
+                bufferPool.register(this);
+            }
             this.isOpen = true;
         } catch (IOException e) {
             throw new FileAccessException("Cannot open file", filePath, e);
@@ -71,15 +98,19 @@ public class FileManager implements AutoCloseable {
             throw new IllegalArgumentException("Data cannot be null");
         }
         
+        if (ioMode == IOMode.MAPPED) {
+            writeMapped(offset, data);
+            return;
+        }
+        
+        if (bufferPool != null) {
+            writePooled(offset, data);
+            return;
+        }
+        
         try {
-            file.seek(offset);
-            file.write(data);
-            
-            // Инвалидируем буфер если он перекрывается с записью
-            if (isBufferAffected(offset, data.length)) {
-                readBufferValid = false;
-            }
-            
+            writeFully(ByteBuffer.wrap(data), offset);
+            fileSize = Math.max(fileSize, offset + data.length);
         } catch (IOException e) {
             throw new FileAccessException("Failed to write data", filePath, e);
         }
@@ -96,16 +127,18 @@ public class FileManager implements AutoCloseable {
             throw new IllegalArgumentException("Length must be positive: " + length);
         }
         
-        // Пытаемся прочитать из буфера если возможно
-        if (readBufferValid && isInBuffer(offset, length)) {
-            return readFromBuffer(offset, length);
+        if (ioMode == IOMode.MAPPED) {
+            return readMapped(offset, length);
+        }
+        
+        if (bufferPool != null) {
+            return readPooled(offset, length);
         }
         
-        // Читаем напрямую с диска
+        // Читаем напрямую с диска позиционным чтением (без общего указателя файла)
         try {
-            file.seek(offset);
             byte[] data = new byte[length];
-            int bytesRead = file.read(data);
+            int bytesRead = readFully(ByteBuffer.wrap(data), offset);
             
             if (bytesRead != length) {
                 throw new FileAccessException(
@@ -119,68 +152,308 @@ public class FileManager implements AutoCloseable {
         }
     }
     
-    public byte[] readBuffered(long offset, int length) throws IOException {
+    // Чтение в буфер вызывающего без выделения памяти: заполняет dst от position до limit
+    public void read(long offset, ByteBuffer dst) throws IOException {
+        checkOpen();
+        
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset cannot be negative: " + offset);
+        }
+        
+        int length = dst.remaining();
+        if (length <= 0) {
+            throw new IllegalArgumentException("Length must be positive: " + length);
+        }
+        
+        if (ioMode == IOMode.MAPPED) {
+            readMapped(offset, dst);
+            return;
+        }
+        
+        if (bufferPool != null) {
+            readPooled(offset, dst);
+            return;
+        }
+        
+        try {
+            int bytesRead = readFully(dst, offset);
+            if (bytesRead != length) {
+                throw new FileAccessException(
+                    "Expected to read " + length + " bytes but got " + bytesRead, filePath);
+            }
+        } catch (IOException e) {
+            throw new FileAccessException("Failed to read data", filePath, e);
+        }
+    }
+    
+    // Крупноблочное чтение для последовательного просмотра: читает до dst.remaining() байт,
+    // у конца файла - меньше. Пул страниц не засоряется: перекрывающиеся грязные страницы
+    // сначала записываются на диск, затем блок читается напрямую.
+    public int readChunk(long offset, ByteBuffer dst) throws IOException {
         checkOpen();
         
-        if (length > BUFFER_SIZE) {
-            // Для больших блоков читаем напрямую
-            return read(offset, length);
+        long available = fileSize - offset;
+        if (ioMode != IOMode.MAPPED && bufferPool == null) {
+            available = channel.size() - offset;
+        }
+        if (available <= 0) {
+            return 0;
         }
+        if (available < dst.remaining()) {
+            dst.limit(dst.position() + (int) available);
+        }
+        int length = dst.remaining();
         
-        // Определяем блок для буферизации
-        long blockOffset = offset - (offset % BUFFER_SIZE);
+        if (ioMode == IOMode.MAPPED) {
+            readMapped(offset, dst);
+            return length;
+        }
+        
+        if (bufferPool != null) {
+            bufferPool.flushRange(this, offset, length);
+        }
+        
+        try {
+            return readFully(dst, offset);
+        } catch (IOException e) {
+            throw new FileAccessException("Failed to read data", filePath, e);
+        }
+    }
+    
+    // Отображение участка файла в память только для чтения - для массовой загрузки
+    // без копирования через пул страниц. Участок должен целиком лежать в файле.
+    public MappedByteBuffer mapForRead(long offset, int length) throws IOException {
+        checkOpen();
         
-        // Если нужный блок не в буфере, загружаем его
-        if (!readBufferValid || readBufferOffset != blockOffset) {
-            loadBuffer(blockOffset);
+        if (offset + length > getFileSize()) {
+            throw new FileAccessException("Mapped region exceeds file size", filePath);
+        }
+        if (bufferPool != null) {
+            bufferPool.flushRange(this, offset, length);
         }
         
-        return readFromBuffer(offset, length);
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException e) {
+            throw new FileAccessException("Failed to map data", filePath, e);
+        }
     }
     
-    private void loadBuffer(long blockOffset) throws IOException {
+    // Отображение участка файла для чтения и записи. Запись идет мимо пула страниц,
+    // поэтому для файлов с пулом не используется.
+    public MappedByteBuffer mapForWrite(long offset, int length) throws IOException {
+        checkOpen();
+        
+        if (bufferPool != null) {
+            throw new DatabaseException("MAPPING_NOT_SUPPORTED",
+                "Cannot map a file that uses the buffer pool: " + filePath);
+        }
+        if (offset + length > getFileSize()) {
+            throw new FileAccessException("Mapped region exceeds file size", filePath);
+        }
+        
         try {
-            file.seek(blockOffset);
-            int bytesRead = file.read(readBuffer);
-            
-            if (bytesRead < BUFFER_SIZE) {
-                // Достигнут конец файла - заполняем остаток нулями
-                for (int i = bytesRead; i < BUFFER_SIZE; i++) {
-                    readBuffer[i] = 0;
-                }
+            return channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+        } catch (IOException e) {
+            throw new FileAccessException("Failed to map data", filePath, e);
+        }
+    }
+    
+    // Оставлен для совместимости: кэширование теперь выполняет общий BufferPool
+    public byte[] readBuffered(long offset, int length) throws IOException {
+        return read(offset, length);
+    }
+    
+    private byte[] readPooled(long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        readPooled(offset, ByteBuffer.wrap(data));
+        return data;
+    }
+    
+    private void readPooled(long offset, ByteBuffer dst) throws IOException {
+        int length = dst.remaining();
+        if (offset + length > fileSize) {
+            throw new FileAccessException(
+                "Expected to read " + length + " bytes but got " + Math.max(0, fileSize - offset), filePath);
+        }
+        
+        int copied = 0;
+        while (copied < length) {
+            long position = offset + copied;
+            BufferPool.Page page = bufferPool.pin(this, position / BufferPool.PAGE_SIZE);
+            try {
+                int pagePos = (int) (position % BufferPool.PAGE_SIZE);
+                int chunk = Math.min(length - copied, BufferPool.PAGE_SIZE - pagePos);
+                dst.put(page.getData(), pagePos, chunk);
+                copied += chunk;
+            } finally {
+                bufferPool.unpin(page, false);
             }
-            
-            readBufferOffset = blockOffset;
-            readBufferValid = true;
-            
+        }
+    }
+    
+    private void writePooled(long offset, byte[] data) throws IOException {
+        // Размер обновляем заранее: страница может быть вытеснена до конца записи
+        fileSize = Math.max(fileSize, offset + data.length);
+        int written = 0;
+        while (written < data.length) {
+            long position = offset + written;
+            BufferPool.Page page = bufferPool.pin(this, position / BufferPool.PAGE_SIZE);
+            try {
+                int pagePos = (int) (position % BufferPool.PAGE_SIZE);
+                int chunk = Math.min(data.length - written, BufferPool.PAGE_SIZE - pagePos);
+                System.arraycopy(data, written, page.getData(), pagePos, chunk);
+                written += chunk;
+            } finally {
+                bufferPool.unpin(page, true);
+            }
+        }
+    }
+    
+    // Загрузка страницы для BufferPool в обход кэша; хвост за концом файла заполняется нулями
+    void readPage(long offset, byte[] page) throws IOException {
+        try {
+            int total = readFully(ByteBuffer.wrap(page), offset);
+            Arrays.fill(page, Math.max(total, 0), page.length, (byte) 0);
+        } catch (IOException e) {
+            throw new FileAccessException("Failed to load page", filePath, e);
+        }
+    }
+    
+    // Запись грязной страницы из BufferPool; за логический конец файла не пишем
+    void writePage(long offset, byte[] page) throws IOException {
+        int length = (int) Math.min(page.length, fileSize - offset);
+        if (length <= 0) {
+            return;
+        }
+        try {
+            writeFully(ByteBuffer.wrap(page, 0, length), offset);
         } catch (IOException e) {
-            readBufferValid = false;
-            throw new FileAccessException("Failed to load buffer", filePath, e);
+            throw new FileAccessException("Failed to write page", filePath, e);
         }
     }
     
-    private boolean isInBuffer(long offset, int length) {
-        return offset >= readBufferOffset && 
-               (offset + length) <= (readBufferOffset + BUFFER_SIZE);
+    // Позиционное чтение: не трогает указатель файла, безопасно для параллельных читателей.
+    // Возвращает число прочитанных байт (меньше запрошенного только у конца файла).
+    private int readFully(ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int bytesRead = channel.read(buffer, position + total);
+            if (bytesRead < 0) {
+                break;
+            }
+            total += bytesRead;
+        }
+        return total;
     }
     
-    private boolean isBufferAffected(long offset, int length) {
-        return readBufferValid && 
-               offset < (readBufferOffset + BUFFER_SIZE) && 
-               (offset + length) > readBufferOffset;
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            current += channel.write(buffer, current);
+        }
     }
     
-    private byte[] readFromBuffer(long offset, int length) {
-        int bufferPos = (int)(offset - readBufferOffset);
-        byte[] result = new byte[length];
-        System.arraycopy(readBuffer, bufferPos, result, 0, length);
-        return result;
+    private byte[] readMapped(long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        readMapped(offset, ByteBuffer.wrap(data));
+        return data;
+    }
+    
+    private void readMapped(long offset, ByteBuffer dst) throws IOException {
+        int length = dst.remaining();
+        if (offset + length > fileSize) {
+            // Файл мог вырасти в обход этого менеджера - обновляем отображение.
+            // Если в отображении есть запас за логическим концом, файл растил сам менеджер.
+            long currentSize = mappedSize > fileSize ? fileSize : channel.size();
+            if (offset + length > currentSize) {
+                throw new FileAccessException(
+                    "Expected to read " + length + " bytes but got " + Math.max(0, currentSize - offset), filePath);
+            }
+            remap(currentSize);
+        }
+        
+        MappedByteBuffer[] segments = this.segments;
+        int copied = 0;
+        while (copied < length) {
+            long position = offset + copied;
+            MappedByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)];
+            int segmentPos = (int) (position % SEGMENT_SIZE);
+            int chunk = Math.min(length - copied, segment.limit() - segmentPos);
+            // Абсолютное копирование не меняет позицию общего сегмента
+            dst.put(dst.position(), segment, segmentPos, chunk);
+            dst.position(dst.position() + chunk);
+            copied += chunk;
+        }
+    }
+    
+    // Файл и отображение растут с запасом: удвоением (не меньше MIN_MAPPED_GROWTH и не больше
+    // сегмента за раз), а не на каждую дописанную запись. Запас - нули за логическим концом
+    // fileSize; при закрытии и в setFileSize файл обрезается до логического размера.
+    private void writeMapped(long offset, byte[] data) throws IOException {
+        try {
+            long end = offset + data.length;
+            if (end > mappedSize) {
+                long growth = Math.min(Math.max(mappedSize, MIN_MAPPED_GROWTH), SEGMENT_SIZE);
+                long newSize = Math.max(end, mappedSize + growth);
+                if (newSize > file.length()) {
+                    file.setLength(newSize);
+                }
+                remap(newSize, false);
+            }
+            
+            int written = 0;
+            while (written < data.length) {
+                long position = offset + written;
+                MappedByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)];
+                int segmentPos = (int) (position % SEGMENT_SIZE);
+                int chunk = Math.min(data.length - written, segment.limit() - segmentPos);
+                segment.put(segmentPos, data, written, chunk);
+                written += chunk;
+            }
+            fileSize = Math.max(fileSize, end);
+        } catch (IOException e) {
+            throw new FileAccessException("Failed to write data", filePath, e);
+        }
+    }
+    
+    // Приводит отображение в соответствие с размером файла.
+    // Полные сегменты переиспользуются, заново отображается только хвост.
+    // Читатели видят либо старый, либо новый массив сегментов целиком.
+    private void remap(long newSize) throws IOException {
+        remap(newSize, true);
+    }
+    
+    // extendsFile = false: отображается запас роста, логический размер не меняется
+    private synchronized void remap(long newSize, boolean extendsFile) throws IOException {
+        int fullSegments = (int) Math.min(newSize / SEGMENT_SIZE, mappedSize / SEGMENT_SIZE);
+        int segmentCount = (int) ((newSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        
+        MappedByteBuffer[] newSegments = new MappedByteBuffer[segmentCount];
+        System.arraycopy(segments, 0, newSegments, 0, Math.min(fullSegments, segmentCount));
+        
+        for (int i = fullSegments; i < segmentCount; i++) {
+            long start = (long) i * SEGMENT_SIZE;
+            long size = Math.min(SEGMENT_SIZE, newSize - start);
+            newSegments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        }
+        
+        segments = newSegments;
+        mappedSize = newSize;
+        if (extendsFile) {
+            fileSize = Math.max(fileSize, newSize);
+        }
     }
     
     public long getFileSize() throws IOException {
         checkOpen();
+        if (bufferPool != null || ioMode == IOMode.MAPPED) {
+            // Часть данных может находиться только в грязных страницах пула,
+            // а отображенный файл может быть длиннее на запас роста
+            return fileSize;
+        }
         try {
-            return file.length();
+            return channel.size();
         } catch (IOException e) {
             throw new FileAccessException("Cannot get file size", filePath, e);
         }
@@ -189,9 +462,21 @@ public class FileManager implements AutoCloseable {
     public void setFileSize(long newSize) throws IOException {
         checkOpen();
         try {
+            if (bufferPool != null) {
+                // Сбрасываем страницы файла, чтобы не записать их за новым концом
+                bufferPool.flush(this);
+                bufferPool.discard(this);
+            }
             file.setLength(newSize);
-            // Инвалидируем буфер так как размер файла изменился
-            readBufferValid = false;
+            fileSize = newSize;
+            if (ioMode == IOMode.MAPPED) {
+                // При усечении старые сегменты отбрасываются целиком
+                if (newSize < mappedSize) {
+                    segments = new MappedByteBuffer[0];
+                    mappedSize = 0;
+                }
+                remap(newSize);
+            }
         } catch (IOException e) {
             throw new FileAccessException("Cannot resize file", filePath, e);
         }
@@ -200,6 +485,12 @@ public class FileManager implements AutoCloseable {
     public void flush() throws IOException {
         if (isOpen) {
             try {
+                if (bufferPool != null) {
+                    bufferPool.flush(this);
+                }
+                for (MappedByteBuffer segment : segments) {
+                    segment.force();
+                }
                 file.getFD().sync(); // Принудительная запись на диск
             } catch (IOException e) {
                 throw new FileAccessException("Cannot flush file", filePath, e);
@@ -211,6 +502,16 @@ public class FileManager implements AutoCloseable {
     public void close() {
         if (isOpen) {
             try {
+                // Грязные страницы пула должны попасть в файл до его закрытия
+                if (bufferPool != null) {
+                    bufferPool.release(this);
+                }
+                // Запас роста отображения обрезается до логического размера
+                if (ioMode == IOMode.MAPPED && mappedSize > fileSize) {
+                    segments = new MappedByteBuffer[0];
+                    mappedSize = 0;
+                    trimToSize();
+                }
                 // Сначала закрываем канал, потом файл
                 if (channel != null && channel.isOpen()) {
                     channel.close();
@@ -219,7 +520,9 @@ public class FileManager implements AutoCloseable {
                     file.close();
                 }
                 isOpen = false;
-                readBufferValid = false;
+                // Отображение освобождается сборщиком мусора
+                segments = new MappedByteBuffer[0];
+                mappedSize = 0;
             } catch (IOException e) {
                 // Логируем ошибку но не бросаем исключение в close()
                 System.err.println("Warning: Error closing file " + filePath + ": " + e.getMessage());
@@ -227,6 +530,29 @@ public class FileManager implements AutoCloseable {
         }
     }
     
+    // В Windows файл нельзя укоротить, пока отображение не освобождено сборщиком мусора;
+    // тогда запас остается нулевым хвостом (DataFileHandler отрезает его при открытии)
+    private void trimToSize() {
+        try {
+            file.setLength(fileSize);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not trim mapped file " + filePath + ": " + e.getMessage());
+        }
+    }
+    
+    // fsync каталога: создание, удаление и переименование файлов попадают на диск
+    // только вместе с записью каталога. В Windows каталог так открыть нельзя,
+    // а изменения каталогов NTFS журналирует сама - там ошибка открытия не важна.
+    public static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (!System.getProperty("os.name").startsWith("Windows")) {
+                throw new FileAccessException("Cannot sync directory", directory.toString(), e);
+            }
+        }
+    }
+    
     public boolean isOpen() {
         return isOpen;
     }
@@ -235,6 +561,14 @@ public class FileManager implements AutoCloseable {
         return filePath;
     }
     
+    public IOMode getIoMode() {
+        return ioMode;
+    }
+    
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+    
     private void checkOpen() {
         if (!isOpen) {
             throw new DatabaseException("FILE_NOT_OPEN", "File is not open: " + filePath);
@@ -0,0 +1,15 @@
+package storage;
+
+public enum IOMode {
+    // Обычный режим: seek + read/write для каждой операции
+    STANDARD,
+    // Файл отображается в память сегментами через FileChannel.map
+    MAPPED;
+    
+    public static IOMode fromString(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return STANDARD;
+        }
+        return IOMode.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -1,264 +1,416 @@
 package storage;
 
 import exceptions.DatabaseException;
-import model.IndexSlot;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-public class IndexManager implements AutoCloseable {
+public class IndexManager implements PrimaryIndex {
+    // Шаги инкрементального рехэширования на одну операцию
+    private static final int MIGRATE_SLOTS_PER_OP = 8192;
+    private static final int WRITE_SLOTS_PER_OP = IndexSlotTable.SLOTS_PER_IO;
+    // Если старая таблица все же заполнилась, рехэширование доводится до конца сразу
+    private static final float MAX_RESIZE_LOAD = 0.95f;
+    
+    private final String filePath;
+    private final IOMode ioMode;
+    private final BufferPool bufferPool;
     private FileManager fileManager;
-    private Map<Integer, Long> ramIndex; // In-memory копия для скорости
+    private final boolean offHeap; // таблица слотов вне кучи
+    private final boolean parallelLoad;
+    private final boolean lazyLoad;
+    
+    // Фоновая загрузка таблицы при ленивом открытии; операции ждут ее завершения
+    private CompletableFuture<Void> loading;
+    
+    // Таблица слотов index.db в памяти - единственная копия индекса: поиск идет
+    // по ней, на диск пишутся только слоты, измененные операцией
+    private IndexSlotTable table;
+    
+    // Инкрементальное рехэширование. Пока оно идет, основной остается старая таблица
+    // (все изменения по-прежнему пишутся в index.db), а новая таблица вдвое большей
+    // емкости строится рядом: сначала в нее по частям переносятся слоты старой,
+    // затем она по частям последовательно пишется в index.db.resize, после чего
+    // файлы подменяются. Каждая операция делает ограниченный шаг этой работы.
+    private IndexSlotTable resizeTable;
+    private int migrateCursor;      // следующий слот старой таблицы для переноса
+    private int writeCursor;        // слоты новой таблицы до него уже записаны в файл
+    private FileManager resizeFile; // открыт на этапе записи
+    
     private boolean isOpen;
     
     // Заголовок индекса
     private int capacity;
-    private int size;
     private float loadFactorThreshold;
     
     public IndexManager(String filePath) {
-        this.fileManager = new FileManager(filePath);
-        this.ramIndex = new HashMap<>();
+        this(filePath, StorageConfig.defaults());
+    }
+    
+    public IndexManager(String filePath, StorageConfig config) {
+        this(filePath, config, null);
+    }
+    
+    public IndexManager(String filePath, StorageConfig config, BufferPool bufferPool) {
+        this.filePath = filePath;
+        this.ioMode = config.getIoMode();
+        this.bufferPool = bufferPool;
+        this.fileManager = new FileManager(filePath, ioMode, bufferPool);
+        this.offHeap = config.isIndexOffHeap();
+        this.parallelLoad = config.getScanParallelism() > 1;
+        this.lazyLoad = config.isIndexLazyLoad();
         this.isOpen = false;
         this.capacity = 16; // Начальная емкость по умолчанию
-        this.size = 0;
         this.loadFactorThreshold = 0.75f;
     }
     
+    @Override
     public void open(boolean createIfNotExists) throws IOException {
         if (isOpen) return;
         
+        // Недописанная новая таблица от прерванного рехэширования не нужна
+        Files.deleteIfExists(resizePath());
+        
         fileManager.open(createIfNotExists);
+        try {
+            openTable(createIfNotExists);
+        } catch (IOException | RuntimeException e) {
+            fileManager.close();
+            throw e;
+        }
         
+        isOpen = true;
+    }
+    
+    private void openTable(boolean createIfNotExists) throws IOException {
         if (createIfNotExists || fileManager.getFileSize() == 0) {
             initializeNewIndex();
+        } else if (lazyLoad) {
+            // Заголовок читается сразу, таблица - в фоне; open возвращается без ожидания
+            short version = readHeader();
+            loading = CompletableFuture.runAsync(() -> {
+                try {
+                    loadSlots(version);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, runnable -> {
+                Thread thread = new Thread(runnable, "index-loader");
+                thread.setDaemon(true);
+                thread.start();
+            });
         } else {
-            loadIndexFromFile();
+            loadSlots(readHeader());
         }
-        
-        isOpen = true;
     }
     
     private void initializeNewIndex() throws IOException {
-        // Записываем заголовок
-        writeHeader();
-        
-        // Инициализируем пустые слоты
-        for (int i = 0; i < capacity; i++) {
-            writeSlot(i, IndexSlot.emptySlot());
-        }
-        
-        ramIndex.clear();
-        size = 0;
+        // Пустая таблица в памяти и на диске
+        table = new IndexSlotTable(capacity, offHeap);
+        writeHeader(fileManager, table);
+        table.writeRange(fileManager, 0, capacity);
     }
     
-    private void loadIndexFromFile() throws IOException {
-        // Читаем заголовок
+    // Читает заголовок и возвращает версию формата
+    private short readHeader() throws IOException {
         byte[] headerData = fileManager.read(0, RecordFormat.INDEX_HEADER_SIZE);
         ByteBuffer header = ByteBuffer.wrap(headerData);
         
-        // Пропускаем сигнатуру и версию
-        header.getShort(); // version
-        header.getShort(); // reserved
+        short version = header.getShort();
+        if (header.getShort() != RecordFormat.INDEX_TYPE_HASH) {
+            throw new DatabaseException("INDEX_TYPE_MISMATCH", "Index file is not a hash index");
+        }
         
         capacity = header.getInt();
-        size = header.getInt();
+        header.getInt(); // size - пересчитывается по слотам, в заголовке может быть устаревшим
         loadFactorThreshold = header.getFloat();
         
-        // Загружаем данные в RAM
-        ramIndex.clear();
+        // Поврежденный заголовок или обрезанный файл: индекс придется перестроить по data.db
+        if (version < 1 || version > RecordFormat.INDEX_VERSION || capacity <= 0
+                || !(loadFactorThreshold > 0 && loadFactorThreshold < 1)
+                || fileManager.getFileSize() < slotsEnd(capacity)) {
+            throw new DatabaseException("INVALID_INDEX_FORMAT", "Hash index file is corrupted: " + filePath);
+        }
+        return version;
+    }
+    
+    private static long slotsEnd(int capacity) {
+        return RecordFormat.INDEX_HEADER_SIZE + (long) capacity * RecordFormat.INDEX_SLOT_SIZE;
+    }
+    
+    // Новый файл индекса по парам (ID, смещение) одним последовательным проходом, без add:
+    // емкость сразу наименьшая степень двойки, при которой заполнение ниже порога,
+    // таблица строится в памяти и пишется целиком, заголовок - последним.
+    // Повторный ID пропускается (остается первое смещение). Возвращает число ключей в индексе.
+    public static int writeFile(String filePath, RecordKeys keys) throws IOException {
+        float loadFactor = 0.75f;
+        int capacity = 16;
+        while ((float) keys.size() / capacity >= loadFactor) {
+            capacity *= 2;
+        }
+        
+        IndexSlotTable table = new IndexSlotTable(capacity);
+        for (int i = 0; i < keys.size(); i++) {
+            if (!table.contains(keys.idAt(i))) {
+                table.insert(keys.idAt(i), keys.offsetAt(i));
+            }
+        }
+        table.discardDirty();
+        
+        FileManager file = new FileManager(filePath);
+        file.open(true);
+        try {
+            file.setFileSize(0);
+            table.writeRange(file, 0, capacity);
+            writeHeader(file, table, loadFactor);
+            file.flush();
+        } finally {
+            file.close();
+        }
+        return table.getSize();
+    }
+    
+    private void loadSlots(short version) throws IOException {
+        // Область слотов отображается в память и разбирается целиком
+        IndexSlotTable stored = new IndexSlotTable(capacity, offHeap);
+        stored.load(fileManager, parallelLoad);
+        
+        if (version < RecordFormat.INDEX_VERSION) {
+            table = convertFromVersion1(stored);
+        } else {
+            table = stored;
+        }
+    }
+    
+    // В версии 1 слоты разложены другой хэш-функцией, а в цепочках бывают дыры от удалений.
+    // Ключи раскладываются заново и файл переписывается целиком; заголовок пишется
+    // последним, так что прерванное преобразование просто повторится.
+    private IndexSlotTable convertFromVersion1(IndexSlotTable stored) throws IOException {
+        IndexSlotTable converted = new IndexSlotTable(capacity, offHeap);
         for (int i = 0; i < capacity; i++) {
-            IndexSlot slot = readSlot(i);
-            if (!slot.isEmpty()) {
-                ramIndex.put(slot.getKey(), slot.getOffset());
+            if (stored.keyAt(i) != IndexSlotTable.EMPTY_KEY) {
+                converted.insert(stored.keyAt(i), stored.offsetAt(i));
             }
         }
+        converted.discardDirty();
+        
+        converted.writeRange(fileManager, 0, capacity);
+        writeHeader(fileManager, converted);
+        return converted;
     }
     
+    @Override
     public void add(int key, long offset) throws IOException {
         checkOpen();
         
-        if (ramIndex.containsKey(key)) {
+        if (table.contains(key)) {
             throw new DatabaseException("DUPLICATE_KEY", 
                 "Index already contains key: " + key);
         }
         
-        // Проверяем是否需要 рехэширование
-        if ((float) size / capacity >= loadFactorThreshold) {
-            rehash();
+        // Проверяем, нужно ли рехэширование
+        if (resizeTable == null && (float) table.getSize() / capacity >= loadFactorThreshold) {
+            startResize();
+        } else if (resizeTable != null && (float) (table.getSize() + 1) / capacity >= MAX_RESIZE_LOAD) {
+            finishResize();
         }
         
-        int hash = hashFunction(key);
-        int attempts = 0;
-        
-        // Линейное пробирование
-        while (attempts < capacity) {
-            IndexSlot slot = readSlot(hash);
-            
-            if (slot.isEmpty()) {
-                // Нашли свободный слот
-                writeSlot(hash, new IndexSlot(key, offset));
-                ramIndex.put(key, offset);
-                size++;
-                return;
-            }
-            
-            hash = (hash + 1) % capacity;
-            attempts++;
+        if (!table.insert(key, offset)) {
+            throw new DatabaseException("INDEX_FULL", "Index is full, cannot add key: " + key);
         }
         
-        throw new DatabaseException("INDEX_FULL", "Index is full, cannot add key: " + key);
+        completeOperation();
     }
     
+    @Override
     public Long find(int key) {
+        long offset = findOffset(key);
+        return offset == NOT_FOUND ? null : offset;
+    }
+    
+    // Поиск без упаковки результата; NOT_FOUND, если ключа нет.
+    // Во время рехэширования основной остается старая таблица - в ней все ключи.
+    @Override
+    public long findOffset(int key) {
         checkOpen();
-        return ramIndex.get(key);
+        return table.get(key);
     }
     
+    @Override
     public boolean contains(int key) {
         checkOpen();
-        return ramIndex.containsKey(key);
+        return table.contains(key);
     }
     
+    @Override
     public void remove(int key) throws IOException {
         checkOpen();
         
-        if (!ramIndex.containsKey(key)) {
+        if (!table.remove(key)) {
             return;
         }
-        
-        int hash = hashFunction(key);
-        int attempts = 0;
-        
-        // Находим слот для удаления
-        while (attempts < capacity) {
-            IndexSlot slot = readSlot(hash);
-            
-            if (slot.getKey() == key) {
-                // Удаляем запись
-                writeSlot(hash, IndexSlot.emptySlot());
-                ramIndex.remove(key);
-                size--;
-                return;
-            }
-            
-            hash = (hash + 1) % capacity;
-            attempts++;
+        if (resizeTable != null) {
+            resizeTable.remove(key);
         }
+        
+        completeOperation();
     }
     
+    @Override
     public void update(int key, long newOffset) throws IOException {
         checkOpen();
         
-        if (!ramIndex.containsKey(key)) {
+        if (!table.update(key, newOffset)) {
             throw new DatabaseException("KEY_NOT_FOUND", 
                 "Cannot update, key not found: " + key);
         }
         
-        int hash = hashFunction(key);
-        int attempts = 0;
-        
-        // Находим слот для обновления
-        while (attempts < capacity) {
-            IndexSlot slot = readSlot(hash);
-            
-            if (slot.getKey() == key) {
-                writeSlot(hash, new IndexSlot(key, newOffset));
-                ramIndex.put(key, newOffset);
-                return;
+        completeOperation();
+    }
+    
+    // Измененные слоты - на диск, затем очередной шаг рехэширования
+    private void completeOperation() throws IOException {
+        if (resizeTable != null) {
+            mirrorMigratedSlots();
+        }
+        table.flushDirty(fileManager);
+        if (resizeTable != null) {
+            if (resizeFile != null) {
+                // Слоты за курсором запишет последовательная запись
+                resizeTable.flushDirty(resizeFile, writeCursor);
+            } else {
+                resizeTable.discardDirty();
             }
-            
-            hash = (hash + 1) % capacity;
-            attempts++;
+            resizeStep();
         }
     }
     
-    private void rehash() throws IOException {
-        int newCapacity = capacity * 2;
-        
-        // Сохраняем текущие данные
-        Map<Integer, Long> oldData = new HashMap<>(ramIndex);
-        
-        // Обновляем емкость
-        capacity = newCapacity;
-        size = 0;
-        ramIndex.clear();
-        
-        // Перезаписываем заголовок
-        writeHeader();
-        
-        // Инициализируем новые пустые слоты
-        for (int i = 0; i < capacity; i++) {
-            writeSlot(i, IndexSlot.emptySlot());
+    private void startResize() {
+        resizeTable = new IndexSlotTable(capacity * 2, offHeap);
+        migrateCursor = 0;
+        writeCursor = 0;
+    }
+    
+    private void resizeStep() throws IOException {
+        if (resizeFile == null) {
+            migrateSlots(MIGRATE_SLOTS_PER_OP);
+        } else {
+            writeSlots(WRITE_SLOTS_PER_OP);
         }
-        
-        // Перестраиваем индекс с новой емкостью
-        for (Map.Entry<Integer, Long> entry : oldData.entrySet()) {
-            addWithoutRehash(entry.getKey(), entry.getValue());
+    }
+    
+    // Доводит рехэширование до конца без ограничения шага
+    private void finishResize() throws IOException {
+        while (resizeTable != null) {
+            if (resizeFile == null) {
+                migrateSlots(table.getCapacity());
+            } else {
+                writeSlots(resizeTable.getCapacity());
+            }
         }
     }
     
-    // Внутренний метод для добавления без проверки рехэширования
-    private void addWithoutRehash(int key, long offset) throws IOException {
-        int hash = hashFunction(key);
-        int attempts = 0;
-        
-        while (attempts < capacity) {
-            IndexSlot slot = readSlot(hash);
-            
-            if (slot.isEmpty()) {
-                writeSlot(hash, new IndexSlot(key, offset));
-                ramIndex.put(key, offset);
-                size++;
-                return;
+    // Слоты старой таблицы до курсора уже перенесены, поэтому их изменения повторяются
+    // в новой таблице. Вставка и удаление сдвигают ключи между слотами, и ключ может
+    // перейти из еще не перенесенного слота в перенесенный - он тоже попадет в новую
+    // таблицу здесь. Удаленные ключи удаляются из новой таблицы сразу в remove.
+    private void mirrorMigratedSlots() {
+        for (int i = 0; i < table.getDirtyCount(); i++) {
+            int slot = table.dirtySlotAt(i);
+            int key = table.keyAt(slot);
+            if (key != IndexSlotTable.EMPTY_KEY && (resizeFile != null || slot < migrateCursor)) {
+                resizeTable.put(key, table.offsetAt(slot));
             }
-            
-            hash = (hash + 1) % capacity;
-            attempts++;
         }
+    }
+    
+    private void migrateSlots(int maxSlots) throws IOException {
+        int end = Math.min(migrateCursor + maxSlots, table.getCapacity());
+        for (int i = migrateCursor; i < end; i++) {
+            int key = table.keyAt(i);
+            // Сдвинутый назад ключ мог уже попасть в новую таблицу
+            if (key != IndexSlotTable.EMPTY_KEY && !resizeTable.contains(key)) {
+                resizeTable.insert(key, table.offsetAt(i));
+            }
+        }
+        resizeTable.discardDirty();
+        migrateCursor = end;
         
-        throw new DatabaseException("INDEX_FULL", "Index is full during rehash");
+        if (migrateCursor == table.getCapacity()) {
+            // Перенос закончен - начинаем запись новой таблицы
+            resizeFile = new FileManager(resizePath().toString());
+            resizeFile.open(true);
+            writeHeader(resizeFile, resizeTable);
+        }
     }
     
-    private int hashFunction(int key) {
-        // Простая хэш-функция с умножением на простое число
-        return (key * 31) % capacity;
+    private void writeSlots(int maxSlots) throws IOException {
+        int count = Math.min(maxSlots, resizeTable.getCapacity() - writeCursor);
+        resizeTable.writeRange(resizeFile, writeCursor, count);
+        writeCursor += count;
+        
+        if (writeCursor == resizeTable.getCapacity()) {
+            switchToResizedTable();
+        }
     }
     
-    private IndexSlot readSlot(int slotIndex) throws IOException {
-        long offset = RecordFormat.INDEX_HEADER_SIZE + (long) slotIndex * RecordFormat.INDEX_SLOT_SIZE;
-        byte[] slotData = fileManager.read(offset, RecordFormat.INDEX_SLOT_SIZE);
-        ByteBuffer buffer = ByteBuffer.wrap(slotData);
+    // Подмена index.db новой таблицей: файл сначала синхронизируется с диском,
+    // затем атомарно переименовывается поверх старого
+    private void switchToResizedTable() throws IOException {
+        writeHeader(resizeFile, resizeTable);
+        resizeFile.flush();
+        resizeFile.close();
+        resizeFile = null;
         
-        int key = buffer.getInt();
-        long value = buffer.getLong();
+        fileManager.close();
+        Files.move(resizePath(), Paths.get(filePath),
+                   StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        fileManager = new FileManager(filePath, ioMode, bufferPool);
+        fileManager.open(false);
         
-        return new IndexSlot(key, value);
+        table = resizeTable;
+        capacity = table.getCapacity();
+        resizeTable = null;
     }
     
-    private void writeSlot(int slotIndex, IndexSlot slot) throws IOException {
-        long fileOffset = RecordFormat.INDEX_HEADER_SIZE + (long) slotIndex * RecordFormat.INDEX_SLOT_SIZE;
-        ByteBuffer buffer = ByteBuffer.allocate(RecordFormat.INDEX_SLOT_SIZE);
-        buffer.putInt(slot.getKey());
-        buffer.putLong(slot.getOffset());
-        
-        fileManager.write(fileOffset, buffer.array());
+    private void abortResize() throws IOException {
+        if (resizeFile != null) {
+            resizeFile.close();
+            resizeFile = null;
+        }
+        resizeTable = null;
+        Files.deleteIfExists(resizePath());
+    }
+    
+    private Path resizePath() {
+        return Paths.get(filePath + ".resize");
     }
     
-    private void writeHeader() throws IOException {
+    private void writeHeader(FileManager file, IndexSlotTable slots) throws IOException {
+        writeHeader(file, slots, loadFactorThreshold);
+    }
+    
+    private static void writeHeader(FileManager file, IndexSlotTable slots, float loadFactor) throws IOException {
         ByteBuffer header = ByteBuffer.allocate(RecordFormat.INDEX_HEADER_SIZE);
-        header.putShort((short) 1); // version
-        header.putShort((short) 0); // reserved
-        header.putInt(capacity);
-        header.putInt(size);
-        header.putFloat(loadFactorThreshold);
+        header.putShort(RecordFormat.INDEX_VERSION);
+        header.putShort(RecordFormat.INDEX_TYPE_HASH); // в версии 1 поле было зарезервировано (0)
+        header.putInt(slots.getCapacity());
+        header.putInt(slots.getSize());
+        header.putFloat(loadFactor);
         
-        fileManager.write(0, header.array());
+        file.write(0, header.array());
     }
     
+    @Override
     public int getSize() {
-        return size;
+        awaitLoaded();
+        return table.getSize();
     }
     
     public int getCapacity() {
@@ -266,14 +418,61 @@ public class IndexManager implements AutoCloseable {
     }
     
     public float getLoadFactor() {
-        return (float) size / capacity;
+        return (float) getSize() / capacity;
+    }
+    
+    // Наибольшая длина пробирования в таблице (для диагностики)
+    public int getMaxProbeDistance() {
+        checkOpen();
+        return table.maxProbeDistance();
+    }
+    
+    @Override
+    public IndexType getType() {
+        return IndexType.HASH;
+    }
+    
+    public boolean isResizing() {
+        return resizeTable != null;
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        // Размер в заголовке иначе обновляется только при смене таблицы
+        writeHeader(fileManager, table);
+        fileManager.flush();
     }
     
     @Override
     public void close() throws IOException {
         if (isOpen) {
-            fileManager.close();
-            isOpen = false;
+            try {
+                awaitLoaded();
+                // Незаконченное рехэширование начнется заново при следующей вставке
+                abortResize();
+                writeHeader(fileManager, table);
+            } finally {
+                fileManager.close();
+                loading = null;
+                isOpen = false;
+            }
+        }
+    }
+    
+    public boolean isLoaded() {
+        return loading == null || loading.isDone();
+    }
+    
+    private void awaitLoaded() {
+        if (loading == null) {
+            return;
+        }
+        try {
+            loading.join();
+        } catch (CompletionException e) {
+            throw new DatabaseException("INDEX_LOAD_FAILED",
+                "Failed to load index " + filePath + ": " + e.getCause().getMessage(), e.getCause());
         }
     }
     
@@ -281,5 +480,6 @@ public class IndexManager implements AutoCloseable {
         if (!isOpen) {
             throw new DatabaseException("INDEX_NOT_OPEN", "Index is not open");
         }
+        awaitLoaded();
     }
 }
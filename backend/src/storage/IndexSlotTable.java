@@ -0,0 +1,304 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Таблица слотов хэш-индекса в памяти (ключ -> смещение записи), Robin Hood hashing.
+// Ключ, ушедший дальше от своего слота, вытесняет более "близкий" ключ, поэтому
+// длины пробирования выравниваются, а поиск отсутствующего ключа останавливается,
+// как только встречен ключ ближе к своему слоту. Удаление сдвигает хвост цепочки
+// назад и не оставляет дыр.
+// Слоты, измененные операцией, запоминаются и записываются в файл индекса
+// одной записью на каждый непрерывный участок.
+// Ключи и смещения лежат в массивах или, в режиме offHeap, в прямых буферах вне кучи -
+// это единственная копия индекса в памяти, сборщик мусора ее тогда не просматривает.
+class IndexSlotTable {
+    static final int EMPTY_KEY = -1;          // как в IndexSlot.emptySlot()
+    static final int SLOTS_PER_IO = 65536;    // 768KB за одно обращение к файлу
+    static final int SLOTS_PER_MAP = 64 * SLOTS_PER_IO; // 48MB на участок отображения при загрузке
+    
+    private final int capacity;
+    private final boolean offHeap;
+    private final int[] keys;
+    private final long[] offsets;
+    private final IntBuffer offHeapKeys;
+    private final LongBuffer offHeapOffsets;
+    private int size;
+    
+    private int[] dirtySlots = new int[8];
+    private int dirtyCount;
+    
+    IndexSlotTable(int capacity) {
+        this(capacity, false);
+    }
+    
+    IndexSlotTable(int capacity, boolean offHeap) {
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+        if (offHeap) {
+            if ((long) capacity * Long.BYTES > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Off-heap index table is too large: " + capacity + " slots");
+            }
+            this.keys = null;
+            this.offsets = null;
+            this.offHeapKeys = ByteBuffer.allocateDirect(capacity * Integer.BYTES)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+            this.offHeapOffsets = ByteBuffer.allocateDirect(capacity * Long.BYTES)
+                .order(ByteOrder.nativeOrder()).asLongBuffer();
+            for (int slot = 0; slot < capacity; slot++) {
+                offHeapKeys.put(slot, EMPTY_KEY);
+            }
+        } else {
+            this.keys = new int[capacity];
+            this.offsets = new long[capacity];
+            this.offHeapKeys = null;
+            this.offHeapOffsets = null;
+            Arrays.fill(keys, EMPTY_KEY);
+        }
+    }
+    
+    int getCapacity() { return capacity; }
+    int getSize() { return size; }
+    boolean isOffHeap() { return offHeap; }
+    
+    int keyAt(int slot) {
+        return offHeap ? offHeapKeys.get(slot) : keys[slot];
+    }
+    
+    long offsetAt(int slot) {
+        return offHeap ? offHeapOffsets.get(slot) : offsets[slot];
+    }
+    
+    private void store(int slot, int key, long offset) {
+        if (offHeap) {
+            offHeapKeys.put(slot, key);
+            offHeapOffsets.put(slot, offset);
+        } else {
+            keys[slot] = key;
+            offsets[slot] = offset;
+        }
+    }
+    
+    // Вставка нового ключа; false, если свободных слотов нет
+    boolean insert(int key, long offset) {
+        if (size == capacity) {
+            return false;
+        }
+        
+        int slot = homeSlot(key);
+        int distance = 0;
+        while (keyAt(slot) != EMPTY_KEY) {
+            int existingDistance = probeDistance(slot);
+            if (existingDistance < distance) {
+                // Забираем слот у более "богатого" ключа и дальше размещаем его
+                int displacedKey = keyAt(slot);
+                long displacedOffset = offsetAt(slot);
+                set(slot, key, offset);
+                key = displacedKey;
+                offset = displacedOffset;
+                distance = existingDistance;
+            }
+            slot = next(slot);
+            distance++;
+        }
+        set(slot, key, offset);
+        size++;
+        return true;
+    }
+    
+    // Вставка или замена смещения существующего ключа
+    void put(int key, long offset) {
+        if (!update(key, offset)) {
+            insert(key, offset);
+        }
+    }
+    
+    boolean update(int key, long offset) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return false;
+        }
+        set(slot, key, offset);
+        return true;
+    }
+    
+    boolean remove(int key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return false;
+        }
+        
+        // Сдвиг назад: ключи после удаленного, стоящие не на своем слоте, сдвигаются на один
+        int nextSlot = next(slot);
+        while (keyAt(nextSlot) != EMPTY_KEY && probeDistance(nextSlot) > 0) {
+            set(slot, keyAt(nextSlot), offsetAt(nextSlot));
+            slot = nextSlot;
+            nextSlot = next(nextSlot);
+        }
+        set(slot, EMPTY_KEY, 0);
+        size--;
+        return true;
+    }
+    
+    boolean contains(int key) {
+        return findSlot(key) >= 0;
+    }
+    
+    // Смещение записи с ключом или PrimaryIndex.NOT_FOUND
+    long get(int key) {
+        int slot = findSlot(key);
+        return slot < 0 ? PrimaryIndex.NOT_FOUND : offsetAt(slot);
+    }
+    
+    private int findSlot(int key) {
+        int slot = homeSlot(key);
+        for (int distance = 0; keyAt(slot) != EMPTY_KEY && probeDistance(slot) >= distance; distance++) {
+            if (keyAt(slot) == key) {
+                return slot;
+            }
+            slot = next(slot);
+        }
+        return -1;
+    }
+    
+    // Наибольшее расстояние ключа от своего слота
+    int maxProbeDistance() {
+        int max = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (keyAt(slot) != EMPTY_KEY) {
+                max = Math.max(max, probeDistance(slot));
+            }
+        }
+        return max;
+    }
+    
+    private int homeSlot(int key) {
+        return Math.floorMod(mix(key), capacity);
+    }
+    
+    // Перемешивание битов (финальный шаг murmur3): последовательные ID не образуют кластеров
+    static int mix(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+    
+    private int probeDistance(int slot) {
+        return Math.floorMod(slot - homeSlot(keyAt(slot)), capacity);
+    }
+    
+    private int next(int slot) {
+        return slot + 1 == capacity ? 0 : slot + 1;
+    }
+    
+    private void set(int slot, int key, long offset) {
+        store(slot, key, offset);
+        
+        if (dirtyCount == dirtySlots.length) {
+            dirtySlots = Arrays.copyOf(dirtySlots, dirtyCount * 2);
+        }
+        dirtySlots[dirtyCount++] = slot;
+    }
+    
+    // Записывает измененные слоты с номером меньше limit: соседние - одной записью.
+    // Остальные изменения забываются (их запишет последовательная запись таблицы).
+    void flushDirty(FileManager file, int limit) throws IOException {
+        if (dirtyCount == 0) {
+            return;
+        }
+        
+        Arrays.sort(dirtySlots, 0, dirtyCount);
+        int runStart = -1;
+        int runEnd = -1;
+        for (int i = 0; i < dirtyCount && dirtySlots[i] < limit; i++) {
+            int slot = dirtySlots[i];
+            if (slot > runEnd) {
+                if (runStart >= 0) {
+                    writeRange(file, runStart, runEnd - runStart);
+                }
+                runStart = slot;
+            }
+            runEnd = Math.max(runEnd, slot + 1);
+        }
+        if (runStart >= 0) {
+            writeRange(file, runStart, runEnd - runStart);
+        }
+        dirtyCount = 0;
+    }
+    
+    void flushDirty(FileManager file) throws IOException {
+        flushDirty(file, capacity);
+    }
+    
+    int getDirtyCount() { return dirtyCount; }
+    int dirtySlotAt(int i) { return dirtySlots[i]; }
+    
+    void discardDirty() {
+        dirtyCount = 0;
+    }
+    
+    void writeRange(FileManager file, int fromSlot, int count) throws IOException {
+        for (int start = fromSlot; start < fromSlot + count; start += SLOTS_PER_IO) {
+            int slots = Math.min(SLOTS_PER_IO, fromSlot + count - start);
+            ByteBuffer buffer = ByteBuffer.allocate(slots * RecordFormat.INDEX_SLOT_SIZE);
+            for (int i = start; i < start + slots; i++) {
+                buffer.putInt(keyAt(i));
+                buffer.putLong(offsetAt(i));
+            }
+            file.write(slotPosition(start), buffer.array());
+        }
+    }
+    
+    // Загружает все слоты из файла и пересчитывает размер. Файл отображается в память
+    // участками по SLOTS_PER_MAP слотов, слоты разбираются из отображения напрямую;
+    // при parallel участки разбираются параллельно.
+    void load(FileManager file, boolean parallel) throws IOException {
+        int segments = (capacity + SLOTS_PER_MAP - 1) / SLOTS_PER_MAP;
+        MappedByteBuffer[] mapped = new MappedByteBuffer[segments];
+        for (int i = 0; i < segments; i++) {
+            int from = i * SLOTS_PER_MAP;
+            int slots = Math.min(SLOTS_PER_MAP, capacity - from);
+            mapped[i] = file.mapForRead(slotPosition(from), slots * RecordFormat.INDEX_SLOT_SIZE);
+        }
+        
+        int chunks = (capacity + SLOTS_PER_IO - 1) / SLOTS_PER_IO;
+        IntStream chunkIds = IntStream.range(0, chunks);
+        if (parallel && chunks > 1) {
+            chunkIds = chunkIds.parallel();
+        }
+        size = chunkIds.map(chunk -> decodeChunk(mapped, chunk * SLOTS_PER_IO)).sum();
+    }
+    
+    // Разбирает до SLOTS_PER_IO слотов с номера from; возвращает число занятых
+    private int decodeChunk(MappedByteBuffer[] mapped, int from) {
+        int to = Math.min(from + SLOTS_PER_IO, capacity);
+        // Граница участка отображения всегда совпадает с границей блока
+        ByteBuffer segment = mapped[from / SLOTS_PER_MAP];
+        int position = (from % SLOTS_PER_MAP) * RecordFormat.INDEX_SLOT_SIZE;
+        
+        int used = 0;
+        for (int i = from; i < to; i++) {
+            int key = segment.getInt(position);
+            store(i, key, segment.getLong(position + 4));
+            position += RecordFormat.INDEX_SLOT_SIZE;
+            if (key != EMPTY_KEY) {
+                used++;
+            }
+        }
+        return used;
+    }
+    
+    private static long slotPosition(int slot) {
+        return RecordFormat.INDEX_HEADER_SIZE + (long) slot * RecordFormat.INDEX_SLOT_SIZE;
+    }
+}
@@ -0,0 +1,15 @@
+package storage;
+
+public enum IndexType {
+    // Хэш-таблица с Robin Hood hashing (IndexManager)
+    HASH,
+    // Прямая адресация id -> смещение в отображенном файле (DenseIndexManager)
+    DENSE;
+    
+    public static IndexType fromString(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return HASH;
+        }
+        return IndexType.valueOf(value.trim().toUpperCase());
+    }
+}
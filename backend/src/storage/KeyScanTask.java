@@ -0,0 +1,75 @@
+package storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveTask;
+
+// Параллельный сбор пар (ID, смещение) живых записей диапазона data.db для перестройки
+// первичного индекса. Диапазон делится по границам записей, как в ParallelScanTask,
+// но записи не декодируются: из блока читаются только ID и флаг удаления.
+class KeyScanTask extends RecursiveTask<RecordKeys> {
+    private final DataFileHandler handler;
+    private final int chunkSize;
+    private final long leafSize;
+    private final long startOffset;
+    private final long endOffset;
+    
+    KeyScanTask(DataFileHandler handler, int chunkSize, long leafSize, long startOffset, long endOffset) {
+        this.handler = handler;
+        this.chunkSize = chunkSize;
+        this.leafSize = leafSize;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+    }
+    
+    @Override
+    protected RecordKeys compute() {
+        long length = endOffset - startOffset;
+        
+        if (length <= leafSize) {
+            return scanRange();
+        }
+        
+        long records = length / RecordFormat.RECORD_SIZE;
+        long middle = startOffset + (records / 2) * RecordFormat.RECORD_SIZE;
+        
+        KeyScanTask left = new KeyScanTask(handler, chunkSize, leafSize, startOffset, middle);
+        KeyScanTask right = new KeyScanTask(handler, chunkSize, leafSize, middle, endOffset);
+        right.fork();
+        
+        RecordKeys keys = left.compute();
+        keys.addAll(right.join());
+        return keys;
+    }
+    
+    private RecordKeys scanRange() {
+        long slots = (endOffset - startOffset) / RecordFormat.RECORD_SIZE;
+        RecordKeys keys = new RecordKeys((int) Math.min(1024, slots + 1));
+        ByteBuffer chunk = RecordBuffers.chunkBuffer(chunkSize);
+        
+        long offset = startOffset;
+        try {
+            while (offset < endOffset) {
+                int length = (int) Math.min(chunkSize, endOffset - offset);
+                int records = handler.readChunk(offset, chunk, length) / RecordFormat.RECORD_SIZE;
+                if (records == 0) {
+                    break;
+                }
+                
+                for (int i = 0; i < records; i++) {
+                    int position = i * RecordFormat.RECORD_SIZE;
+                    int id = chunk.getInt(position + RecordFormat.ID_OFFSET);
+                    // Как в DatabaseCompactor: нулевая запись (недописанный хвост) не живая
+                    if (chunk.get(position + RecordFormat.IS_DELETED_OFFSET) == 0 && id > 0) {
+                        keys.add(id, offset + position);
+                    }
+                }
+                offset += (long) records * RecordFormat.RECORD_SIZE;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return keys;
+    }
+}
@@ -5,15 +5,28 @@ import model.DatabaseMeta;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+// Метаданные хранятся в памяти и пишутся в meta.db контрольными точками: каждые
+// checkpointInterval изменений, при flush и при закрытии. Первое изменение после
+// контрольной точки помечает файл как "грязный" - если база не была закрыта штатно,
+// счетчики восстанавливаются по индексам при открытии (needsRecovery).
 public class MetaFileHandler implements AutoCloseable {
     private FileManager fileManager;
     private DatabaseMeta meta;
+    private final int checkpointInterval; // 1 - каждое изменение пишется сразу
+    private int pendingChanges;           // изменений после последней контрольной точки
+    private boolean needsRecovery;
     private boolean isOpen;
     
-    private static final int META_FILE_SIZE = 22; // Размер meta.db файла
-    
     public MetaFileHandler(String filePath) {
+        this(filePath, 1);
+    }
+    
+    public MetaFileHandler(String filePath, int checkpointInterval) {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("Meta checkpoint interval must be at least 1: " + checkpointInterval);
+        }
         this.fileManager = new FileManager(filePath);
+        this.checkpointInterval = checkpointInterval;
         this.isOpen = false;
     }
     
@@ -32,12 +45,17 @@ public class MetaFileHandler implements AutoCloseable {
     }
     
     private void initializeNewMeta() throws IOException {
-        this.meta = new DatabaseMeta((short)1, 0, 0, RecordFormat.RECORD_SIZE);
+        this.meta = new DatabaseMeta(RecordFormat.DATABASE_VERSION, 0, RecordFormat.NO_FREE_OFFSET,
+                                     RecordFormat.RECORD_SIZE, 0);
         writeMetaToFile();
     }
     
     private void loadMetaFromFile() throws IOException {
-        byte[] metaData = fileManager.read(0, META_FILE_SIZE);
+        int metaSize = (int) Math.min(fileManager.getFileSize(), RecordFormat.META_FILE_SIZE);
+        if (metaSize < RecordFormat.META_FILE_SIZE_V1) {
+            throw new DatabaseException("INVALID_DATABASE_FORMAT", "Meta file is truncated");
+        }
+        byte[] metaData = fileManager.read(0, metaSize);
         ByteBuffer buffer = ByteBuffer.wrap(metaData);
         
         // Сигнатура формата
@@ -52,11 +70,36 @@ public class MetaFileHandler implements AutoCloseable {
         long firstFreeOffset = buffer.getLong();
         int recordSize = buffer.getInt();
         
-        this.meta = new DatabaseMeta(version, recordCount, firstFreeOffset, recordSize);
+        if (version < 2) {
+            // В версии 1 список свободных записей не велся (firstFreeOffset всегда 0),
+            // удаленные записи в нем не связаны - начинаем с пустого списка.
+            this.meta = new DatabaseMeta(RecordFormat.DATABASE_VERSION, recordCount,
+                                         RecordFormat.NO_FREE_OFFSET, recordSize, 0);
+            writeMetaToFile();
+            return;
+        }
+        
+        int requiredSize = version < 3 ? RecordFormat.META_FILE_SIZE_V2 : RecordFormat.META_FILE_SIZE;
+        if (metaSize < requiredSize) {
+            throw new DatabaseException("INVALID_DATABASE_FORMAT", "Meta file is truncated");
+        }
+        int freeRecordCount = buffer.getInt();
+        
+        // Версия 2 писала метаданные при каждом изменении - файл всегда актуален
+        if (version >= 3) {
+            needsRecovery = buffer.getShort() != RecordFormat.META_STATE_CLEAN;
+        }
+        
+        this.meta = new DatabaseMeta(RecordFormat.DATABASE_VERSION, recordCount, firstFreeOffset,
+                                     recordSize, freeRecordCount);
+        if (version < 3) {
+            // Старый формат переписывается сразу: признак контрольной точки должен быть в файле
+            writeMetaToFile();
+        }
     }
     
     private void writeMetaToFile() throws IOException {
-        ByteBuffer buffer = ByteBuffer.allocate(META_FILE_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(RecordFormat.META_FILE_SIZE);
         
         // Сигнатура формата
         buffer.put("MFDB".getBytes());
@@ -68,8 +111,39 @@ public class MetaFileHandler implements AutoCloseable {
         buffer.putLong(meta.getFirstFreeOffset());
         // Размер записи
         buffer.putInt(meta.getRecordSize());
+        // Количество записей в списке свободных
+        buffer.putInt(meta.getFreeRecordCount());
+        // Файл соответствует памяти
+        buffer.putShort(RecordFormat.META_STATE_CLEAN);
         
         fileManager.write(0, buffer.array());
+        pendingChanges = 0;
+    }
+    
+    // Изменение в памяти; на диск - только на контрольной точке
+    private void changed() throws IOException {
+        if (checkpointInterval > 1 && pendingChanges == 0) {
+            fileManager.write(RecordFormat.META_STATE_OFFSET,
+                              ByteBuffer.allocate(2).putShort(RecordFormat.META_STATE_DIRTY).array());
+            fileManager.flush();
+        }
+        pendingChanges++;
+        if (pendingChanges >= checkpointInterval) {
+            writeMetaToFile();
+        }
+    }
+    
+    // Контрольная точка: метаданные из памяти пишутся в meta.db
+    public void checkpoint() throws IOException {
+        checkOpen();
+        if (pendingChanges > 0) {
+            writeMetaToFile();
+        }
+    }
+    
+    // База не была закрыта штатно после изменений - счетчики на диске могут быть устаревшими
+    public boolean needsRecovery() {
+        return needsRecovery;
     }
     
     public DatabaseMeta getMeta() {
@@ -77,29 +151,66 @@ public class MetaFileHandler implements AutoCloseable {
         return meta;
     }
     
+    // Новые метаданные (уплотнение, восстановление) пишутся сразу
     public void updateMeta(DatabaseMeta newMeta) throws IOException {
         checkOpen();
         this.meta = newMeta;
         writeMetaToFile();
+        needsRecovery = false;
     }
     
     public void incrementRecordCount() throws IOException {
         checkOpen();
         meta.incrementRecordCount();
-        writeMetaToFile();
+        changed();
     }
     
     public void decrementRecordCount() throws IOException {
         checkOpen();
         meta.decrementRecordCount();
-        writeMetaToFile();
+        changed();
+    }
+    
+    // Удаление записи: она становится головой списка свободных
+    public void pushFreeRecord(long offset) throws IOException {
+        checkOpen();
+        meta.pushFreeRecord(offset);
+        changed();
+    }
+    
+    // Новая запись заняла голову списка свободных
+    public void popFreeRecord(long nextFreeOffset) throws IOException {
+        checkOpen();
+        meta.popFreeRecord(nextFreeOffset);
+        changed();
+    }
+    
+    // Список свободных записей оказался испорчен - отказываемся от него, новые записи идут в конец файла
+    public void resetFreeList() throws IOException {
+        checkOpen();
+        meta.setFirstFreeOffset(RecordFormat.NO_FREE_OFFSET);
+        meta.setFreeRecordCount(0);
+        changed();
+    }
+    
+    public void flush() throws IOException {
+        checkOpen();
+        checkpoint();
+        fileManager.flush();
     }
     
     @Override
     public void close() throws IOException {
         if (isOpen) {
-            fileManager.close();
-            isOpen = false;
+            try {
+                // Не восстановленные метаданные остаются помеченными на восстановление
+                if (!needsRecovery) {
+                    checkpoint();
+                }
+            } finally {
+                fileManager.close();
+                isOpen = false;
+            }
         }
     }
     
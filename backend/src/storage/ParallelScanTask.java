@@ -0,0 +1,67 @@
+package storage;
+
+import model.Employee;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+// Параллельный просмотр диапазона data.db на fork/join пуле.
+// Записи фиксированного размера, поэтому диапазон делится пополам по границе записи,
+// пока не станет не больше leafSize. Результаты половин склеиваются слева направо,
+// так что итоговый список идет в порядке смещений, как при последовательном просмотре.
+class ParallelScanTask extends RecursiveTask<List<Employee>> {
+    private final DataFileHandler handler;
+    private final RecordPredicate rawFilter;
+    private final Predicate<Employee> filter;
+    private final int chunkSize;
+    private final long leafSize;
+    private final long startOffset;
+    private final long endOffset;
+    
+    ParallelScanTask(DataFileHandler handler, RecordPredicate rawFilter, Predicate<Employee> filter,
+                     int chunkSize, long leafSize, long startOffset, long endOffset) {
+        this.handler = handler;
+        this.rawFilter = rawFilter;
+        this.filter = filter;
+        this.chunkSize = chunkSize;
+        this.leafSize = leafSize;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+    }
+    
+    @Override
+    protected List<Employee> compute() {
+        long length = endOffset - startOffset;
+        
+        if (length <= leafSize) {
+            return scanRange();
+        }
+        
+        long records = length / RecordFormat.RECORD_SIZE;
+        long middle = startOffset + (records / 2) * RecordFormat.RECORD_SIZE;
+        
+        ParallelScanTask left = new ParallelScanTask(handler, rawFilter, filter, chunkSize, leafSize,
+                                                     startOffset, middle);
+        ParallelScanTask right = new ParallelScanTask(handler, rawFilter, filter, chunkSize, leafSize,
+                                                      middle, endOffset);
+        right.fork();
+        
+        List<Employee> results = left.compute();
+        results.addAll(right.join());
+        return results;
+    }
+    
+    // Лист не ждет других задач, поэтому потоко-локальные буферы рабочего потока
+    // заняты только им. Упреждающее чтение не нужно - файл и так читают все потоки пула.
+    private List<Employee> scanRange() {
+        List<Employee> results = new ArrayList<>();
+        ByteBuffer[] chunks = RecordBuffers.chunkPair(chunkSize);
+        try (RecordScanner scanner = new RecordScanner(handler, null, rawFilter, filter, chunks,
+                                                       chunkSize, startOffset, endOffset)) {
+            scanner.forEachRemaining(results::add);
+        }
+        return results;
+    }
+}
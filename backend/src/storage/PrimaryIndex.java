@@ -0,0 +1,86 @@
+package storage;
+
+import exceptions.DatabaseException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Первичный индекс: ID сотрудника -> смещение записи в data.db
+public interface PrimaryIndex extends AutoCloseable {
+    long NOT_FOUND = -1L;
+    
+    void open(boolean createIfNotExists) throws IOException;
+    
+    void add(int key, long offset) throws IOException;
+    
+    Long find(int key);
+    
+    // Поиск без упаковки результата; NOT_FOUND, если ключа нет
+    long findOffset(int key);
+    
+    boolean contains(int key);
+    
+    void remove(int key) throws IOException;
+    
+    void update(int key, long newOffset) throws IOException;
+    
+    int getSize();
+    
+    IndexType getType();
+    
+    void flush() throws IOException;
+    
+    @Override
+    void close() throws IOException;
+    
+    static PrimaryIndex create(IndexType type, String filePath, StorageConfig config, BufferPool bufferPool) {
+        if (type == IndexType.DENSE) {
+            // Файл отображается в память целиком, пул страниц ему не нужен
+            return new DenseIndexManager(filePath);
+        }
+        return new IndexManager(filePath, config, bufferPool);
+    }
+    
+    // Новый файл индекса заданного типа по парам (ID, смещение), записанный целиком за один проход.
+    // Возвращает число ключей в индексе.
+    static int writeFile(IndexType type, String filePath, RecordKeys keys) throws IOException {
+        if (type == IndexType.DENSE) {
+            return DenseIndexManager.writeFile(filePath, keys);
+        }
+        return IndexManager.writeFile(filePath, keys);
+    }
+    
+    // Индекс для файла базы: тип существующего файла берется из его заголовка,
+    // тип нового файла - из настроек
+    static PrimaryIndex forFile(String filePath, StorageConfig config, BufferPool bufferPool,
+                                boolean createIfNotExists) throws IOException {
+        IndexType type = config.getIndexType();
+        if (!createIfNotExists) {
+            type = detectType(Paths.get(filePath), type);
+        }
+        return create(type, filePath, config, bufferPool);
+    }
+    
+    private static IndexType detectType(Path path, IndexType defaultType) throws IOException {
+        if (!Files.exists(path) || Files.size(path) < RecordFormat.INDEX_HEADER_SIZE) {
+            return defaultType;
+        }
+        
+        // Версия и тип - первые два поля заголовка
+        byte[] header = new byte[4];
+        try (InputStream in = Files.newInputStream(path)) {
+            in.readNBytes(header, 0, header.length);
+        }
+        short typeCode = ByteBuffer.wrap(header).getShort(2);
+        
+        switch (typeCode) {
+            case RecordFormat.INDEX_TYPE_HASH: return IndexType.HASH;
+            case RecordFormat.INDEX_TYPE_DENSE: return IndexType.DENSE;
+            default:
+                throw new DatabaseException("INVALID_INDEX_FORMAT", "Unknown index type " + typeCode + " in " + path);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package storage;
+
+import java.nio.ByteBuffer;
+
+// Потоко-локальные переиспользуемые буферы для пути чтения без выделения памяти.
+// Буфер принадлежит текущему потоку и действителен до следующего вызова того же метода.
+public final class RecordBuffers {
+    private static final int MAX_STRING_LENGTH = RecordFormat.MAX_NAME_LENGTH;
+    
+    private static final ThreadLocal<ByteBuffer> RECORD_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(RecordFormat.RECORD_SIZE));
+    
+    private static final ThreadLocal<byte[]> STRING_SCRATCH =
+        ThreadLocal.withInitial(() -> new byte[MAX_STRING_LENGTH]);
+    
+    private static final ThreadLocal<ByteBuffer> CHUNK_BUFFER = new ThreadLocal<>();
+    private static final ThreadLocal<ByteBuffer[]> CHUNK_PAIR = new ThreadLocal<>();
+    
+    private RecordBuffers() {
+        // Utility class
+    }
+    
+    // Прямой буфер под одну запись, очищенный и ограниченный RECORD_SIZE
+    public static ByteBuffer recordBuffer() {
+        ByteBuffer buffer = RECORD_BUFFER.get();
+        buffer.clear();
+        return buffer;
+    }
+    
+    // Прямой буфер под блок записей; переиспользуется, пока хватает емкости
+    public static ByteBuffer chunkBuffer(int size) {
+        ByteBuffer buffer = CHUNK_BUFFER.get();
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size);
+            CHUNK_BUFFER.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+    
+    // Два блока для двойной буферизации: один разбирается, второй заполняется упреждающим чтением
+    public static ByteBuffer[] chunkPair(int size) {
+        ByteBuffer[] pair = CHUNK_PAIR.get();
+        if (pair == null || pair[0].capacity() < size) {
+            pair = new ByteBuffer[] { ByteBuffer.allocateDirect(size), ByteBuffer.allocateDirect(size) };
+            CHUNK_PAIR.set(pair);
+        }
+        return pair;
+    }
+    
+    // Массив для декодирования строковых полей записи
+    public static byte[] stringScratch() {
+        return STRING_SCRATCH.get();
+    }
+}
@@ -19,17 +19,29 @@ public class RecordFormat {
     public static final int IS_DELETED_OFFSET = 216; // 1 byte
     // Остальные 39 байт - padding
     
+    // Список свободных записей: в удаленной записи после флага лежит смещение следующей свободной
+    public static final int NEXT_FREE_OFFSET = 217;  // 8 bytes, только у удаленных записей
+    public static final long NO_FREE_OFFSET = -1L;   // конец списка
+    
     // Кодировки
     public static final String STRING_ENCODING = "UTF-8";
     
     // Формат файла meta.db
-    public static final int META_FILE_SIZE = 22;
+    public static final int META_FILE_SIZE = 28;
+    public static final int META_FILE_SIZE_V2 = 26; // версия 2 - без признака контрольной точки
+    public static final int META_FILE_SIZE_V1 = 22; // версия 1 - без счетчика свободных записей
+    public static final int META_STATE_OFFSET = 26;
+    public static final short META_STATE_DIRTY = 0; // есть изменения после контрольной точки
+    public static final short META_STATE_CLEAN = 1;
     public static final String DATABASE_SIGNATURE = "MFDB";
-    public static final short DATABASE_VERSION = 1;
+    public static final short DATABASE_VERSION = 3;
     
     // Формат файла index.db
     public static final int INDEX_HEADER_SIZE = 16;
     public static final int INDEX_SLOT_SIZE = 12; // 4 bytes key + 8 bytes offset
+    public static final short INDEX_VERSION = 2; // версия 1 - линейное пробирование с хэшем key * 31
+    public static final short INDEX_TYPE_HASH = 0;  // тип индекса во втором поле заголовка
+    public static final short INDEX_TYPE_DENSE = 1;
     
     private RecordFormat() {
         // Utility class
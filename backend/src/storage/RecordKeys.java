@@ -0,0 +1,47 @@
+package storage;
+
+import java.util.Arrays;
+
+// Пары (ID, смещение) живых записей data.db в порядке смещений - результат просмотра
+// для перестройки первичного индекса. Массивы примитивов: на миллион записей ~12MB.
+public final class RecordKeys {
+    private int[] ids;
+    private long[] offsets;
+    private int count;
+    
+    public RecordKeys() {
+        this(64);
+    }
+    
+    RecordKeys(int initialCapacity) {
+        this.ids = new int[initialCapacity];
+        this.offsets = new long[initialCapacity];
+    }
+    
+    public void add(int id, long offset) {
+        ensureCapacity(count + 1);
+        ids[count] = id;
+        offsets[count] = offset;
+        count++;
+    }
+    
+    // Дописывает пары другого набора (следующего диапазона файла)
+    void addAll(RecordKeys other) {
+        ensureCapacity(count + other.count);
+        System.arraycopy(other.ids, 0, ids, count, other.count);
+        System.arraycopy(other.offsets, 0, offsets, count, other.count);
+        count += other.count;
+    }
+    
+    private void ensureCapacity(int required) {
+        if (required > ids.length) {
+            int newCapacity = Math.max(required, ids.length * 2);
+            ids = Arrays.copyOf(ids, newCapacity);
+            offsets = Arrays.copyOf(offsets, newCapacity);
+        }
+    }
+    
+    public int size() { return count; }
+    public int idAt(int i) { return ids[i]; }
+    public long offsetAt(int i) { return offsets[i]; }
+}
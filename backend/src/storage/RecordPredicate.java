@@ -0,0 +1,22 @@
+package storage;
+
+import java.nio.ByteBuffer;
+
+// Условие на сырые байты записи: проверяется до декодирования в Employee,
+// поэтому при выборочном поиске объекты создаются только для подходящих записей.
+// base - абсолютная позиция начала записи в буфере.
+@FunctionalInterface
+public interface RecordPredicate {
+    
+    RecordPredicate ALL = (record, base) -> true;
+    
+    boolean test(ByteBuffer record, int base);
+    
+    default RecordPredicate and(RecordPredicate other) {
+        return (record, base) -> test(record, base) && other.test(record, base);
+    }
+    
+    static RecordPredicate notDeleted() {
+        return (record, base) -> record.get(base + RecordFormat.IS_DELETED_OFFSET) == 0;
+    }
+}
@@ -0,0 +1,188 @@
+package storage;
+
+import model.Employee;
+import util.SerializationUtil;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Ленивый просмотр диапазона data.db блоками.
+// Сначала к сырым байтам записи применяется RecordPredicate, в Employee декодируются
+// только прошедшие его записи, затем к ним применяется обычный фильтр.
+// Очередной блок читается только когда потребитель дошел до конца текущего,
+// следующий при этом уже читается в фоне (двойная буферизация).
+// Ошибки ввода-вывода пробрасываются как UncheckedIOException.
+class RecordScanner implements Spliterator<Employee>, AutoCloseable {
+    private final DataFileHandler handler;
+    private final ExecutorService readAheadExecutor;
+    private final RecordPredicate rawFilter;
+    private final Predicate<Employee> filter;
+    private final ByteBuffer[] chunks;
+    private final int chunkSize;
+    private final long endOffset;
+    
+    // Текущий блок
+    private int current;
+    private long chunkOffset;
+    private int recordsInChunk;
+    private int recordIndex;
+    private boolean started;
+    
+    // Смещение следующего блока и его упреждающее чтение
+    private long nextOffset;
+    private Future<Integer> pending;
+    
+    RecordScanner(DataFileHandler handler, ExecutorService readAheadExecutor,
+                  RecordPredicate rawFilter, Predicate<Employee> filter,
+                  ByteBuffer[] chunks, int chunkSize, long startOffset, long endOffset) {
+        this.handler = handler;
+        this.readAheadExecutor = readAheadExecutor;
+        this.rawFilter = rawFilter;
+        this.filter = filter;
+        this.chunks = chunks;
+        this.chunkSize = chunkSize;
+        this.nextOffset = startOffset;
+        this.endOffset = endOffset;
+    }
+    
+    @Override
+    public boolean tryAdvance(Consumer<? super Employee> action) {
+        while (true) {
+            while (recordIndex < recordsInChunk) {
+                int position = recordIndex++ * RecordFormat.RECORD_SIZE;
+                if (!rawFilter.test(chunks[current], position)) {
+                    continue;
+                }
+                Employee employee = decode(position);
+                if (employee != null && filter.test(employee)) {
+                    action.accept(employee);
+                    return true;
+                }
+            }
+            
+            try {
+                if (!nextChunk()) {
+                    return false;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+    
+    // Смещение записи, которую только что вернул tryAdvance
+    long lastOffset() {
+        return chunkOffset + (long) (recordIndex - 1) * RecordFormat.RECORD_SIZE;
+    }
+    
+    private boolean nextChunk() throws IOException {
+        if (nextOffset >= endOffset) {
+            return false;
+        }
+        
+        // Разобранный блок больше не нужен - новый читается во второй буфер
+        int target = started ? 1 - current : current;
+        int bytesRead;
+        if (pending != null) {
+            bytesRead = awaitChunk(pending);
+            pending = null;
+        } else {
+            bytesRead = readChunk(nextOffset, chunks[target]);
+        }
+        
+        started = true;
+        current = target;
+        chunkOffset = nextOffset;
+        recordsInChunk = bytesRead / RecordFormat.RECORD_SIZE;
+        recordIndex = 0;
+        
+        if (bytesRead % RecordFormat.RECORD_SIZE != 0) {
+            System.err.println("Warning: Corrupted record at offset "
+                + (chunkOffset + (long) recordsInChunk * RecordFormat.RECORD_SIZE));
+        }
+        
+        if (bytesRead <= 0) {
+            // Файл оказался короче ожидаемого
+            nextOffset = endOffset;
+            return false;
+        }
+        
+        nextOffset += bytesRead;
+        if (readAheadExecutor != null && nextOffset < endOffset) {
+            long offset = nextOffset;
+            ByteBuffer chunk = chunks[1 - current];
+            pending = readAheadExecutor.submit(() -> readChunk(offset, chunk));
+        }
+        return true;
+    }
+    
+    private Employee decode(int position) {
+        ByteBuffer chunk = chunks[current];
+        try {
+            chunk.position(position);
+            return SerializationUtil.deserializeEmployee(chunk);
+        } catch (Exception e) {
+            // Пропускаем битые записи, но логируем
+            System.err.println("Warning: Corrupted record at offset " + (chunkOffset + position));
+            return null;
+        }
+    }
+    
+    private int readChunk(long offset, ByteBuffer chunk) throws IOException {
+        int length = (int) Math.min(chunkSize, endOffset - offset);
+        return handler.readChunk(offset, chunk, length);
+    }
+    
+    private int awaitChunk(Future<Integer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading ahead", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Read-ahead failed", e.getCause());
+        }
+    }
+    
+    @Override
+    public Spliterator<Employee> trySplit() {
+        return null;
+    }
+    
+    @Override
+    public long estimateSize() {
+        long remaining = Math.max(0, endOffset - nextOffset) / RecordFormat.RECORD_SIZE;
+        return remaining + (recordsInChunk - recordIndex);
+    }
+    
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+    
+    // Буферы могут переиспользоваться после закрытия - дожидаемся фонового чтения
+    @Override
+    public void close() {
+        if (pending != null) {
+            try {
+                awaitChunk(pending);
+            } catch (IOException | RuntimeException e) {
+                // Результат уже не нужен
+            } finally {
+                pending = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Сжатое множество неотрицательных int (номеров записей) в духе Roaring:
+// номер делится на старшие 16 бит (ключ контейнера) и младшие 16 бит (значение в контейнере).
+// Контейнер до 4096 значений - отсортированный массив char, больше - битовая карта на 65536 бит.
+// Операции and/or/andNot не изменяют аргументы и возвращают новое множество.
+public class RoaringBitmap {
+    private static final int ARRAY_MAX = 4096;     // порог перехода массив -> битовая карта
+    private static final int BITMAP_WORDS = 1024;  // 65536 бит
+    private static final byte TYPE_ARRAY = 0;
+    private static final byte TYPE_BITMAP = 1;
+    
+    private char[] keys;            // ключи контейнеров по возрастанию
+    private Container[] containers;
+    private int size;               // число контейнеров
+    
+    private abstract static class Container {
+        int cardinality;
+        
+        abstract boolean contains(char value);
+        
+        // Возвращают контейнер с изменением: тот же или преобразованный в другой тип
+        abstract Container add(char value);
+        
+        abstract Container remove(char value);
+        
+        abstract Container copy();
+        
+        abstract int toArray(int high, int[] target, int position);
+    }
+    
+    private static final class ArrayContainer extends Container {
+        char[] values;
+        
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+        
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+        
+        @Override
+        Container add(char value) {
+            int pos = Arrays.binarySearch(values, 0, cardinality, value);
+            if (pos >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            
+            pos = -pos - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, cardinality * 2)));
+            }
+            System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+            values[pos] = value;
+            cardinality++;
+            return this;
+        }
+        
+        @Override
+        Container remove(char value) {
+            int pos = Arrays.binarySearch(values, 0, cardinality, value);
+            if (pos >= 0) {
+                System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+                cardinality--;
+            }
+            return this;
+        }
+        
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+        }
+        
+        @Override
+        int toArray(int high, int[] target, int position) {
+            for (int i = 0; i < cardinality; i++) {
+                target[position++] = high | values[i];
+            }
+            return position;
+        }
+        
+        BitmapContainer toBitmap() {
+            long[] words = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+    }
+    
+    private static final class BitmapContainer extends Container {
+        final long[] words;
+        
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+        
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+        
+        @Override
+        Container add(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+        
+        @Override
+        Container remove(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) != 0) {
+                words[value >>> 6] &= ~bit;
+                cardinality--;
+                if (cardinality <= ARRAY_MAX) {
+                    return fromWords(words, cardinality);
+                }
+            }
+            return this;
+        }
+        
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+        
+        @Override
+        int toArray(int high, int[] target, int position) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    target[position++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return position;
+        }
+    }
+    
+    public RoaringBitmap() {
+        this.keys = new char[4];
+        this.containers = new Container[4];
+    }
+    
+    public static RoaringBitmap of(int... values) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+    
+    public void add(int value) {
+        char high = (char) (value >>> 16);
+        int index = indexOf(high);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, high, new ArrayContainer(new char[4], 0));
+        }
+        containers[index] = containers[index].add((char) value);
+    }
+    
+    public boolean remove(int value) {
+        int index = indexOf((char) (value >>> 16));
+        if (index < 0 || !containers[index].contains((char) value)) {
+            return false;
+        }
+        
+        containers[index] = containers[index].remove((char) value);
+        if (containers[index].cardinality == 0) {
+            removeContainer(index);
+        }
+        return true;
+    }
+    
+    public boolean contains(int value) {
+        int index = indexOf((char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+    
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality;
+        }
+        return cardinality;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    // Все значения по возрастанию
+    public int[] toArray() {
+        int[] result = new int[getCardinality()];
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            position = containers[i].toArray(keys[i] << 16, result, position);
+        }
+        return result;
+    }
+    
+    public RoaringBitmap and(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.appendNonEmpty(keys[i], and(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+    
+    public RoaringBitmap or(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                result.appendNonEmpty(keys[i], containers[i].copy());
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.appendNonEmpty(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.appendNonEmpty(keys[i], or(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+    
+    public RoaringBitmap andNot(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.size && other.keys[j] == keys[i]) {
+                result.appendNonEmpty(keys[i], andNot(containers[i], other.containers[j]));
+            } else {
+                result.appendNonEmpty(keys[i], containers[i].copy());
+            }
+        }
+        return result;
+    }
+    
+    private static Container and(Container a, Container b) {
+        if (a instanceof ArrayContainer || b instanceof ArrayContainer) {
+            // Массив фильтруется по второму контейнеру - результат не больше массива
+            ArrayContainer array = (ArrayContainer) (a instanceof ArrayContainer ? a : b);
+            Container other = array == a ? b : a;
+            char[] values = new char[array.cardinality];
+            int count = 0;
+            for (int i = 0; i < array.cardinality; i++) {
+                if (other.contains(array.values[i])) {
+                    values[count++] = array.values[i];
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+        
+        long[] words = new long[BITMAP_WORDS];
+        long[] left = ((BitmapContainer) a).words;
+        long[] right = ((BitmapContainer) b).words;
+        int cardinality = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            words[i] = left[i] & right[i];
+            cardinality += Long.bitCount(words[i]);
+        }
+        return fromWords(words, cardinality);
+    }
+    
+    private static Container or(Container a, Container b) {
+        if (a instanceof ArrayContainer && b instanceof ArrayContainer
+                && a.cardinality + b.cardinality <= ARRAY_MAX) {
+            ArrayContainer left = (ArrayContainer) a;
+            ArrayContainer right = (ArrayContainer) b;
+            char[] values = new char[left.cardinality + right.cardinality];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < left.cardinality || j < right.cardinality) {
+                if (j == right.cardinality || (i < left.cardinality && left.values[i] < right.values[j])) {
+                    values[count++] = left.values[i++];
+                } else if (i == left.cardinality || left.values[i] > right.values[j]) {
+                    values[count++] = right.values[j++];
+                } else {
+                    values[count++] = left.values[i++];
+                    j++;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+        
+        long[] words = toWords(a);
+        long[] right = toWords(b);
+        int cardinality = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            words[i] |= right[i];
+            cardinality += Long.bitCount(words[i]);
+        }
+        return fromWords(words, cardinality);
+    }
+    
+    private static Container andNot(Container a, Container b) {
+        if (a instanceof ArrayContainer) {
+            ArrayContainer array = (ArrayContainer) a;
+            char[] values = new char[array.cardinality];
+            int count = 0;
+            for (int i = 0; i < array.cardinality; i++) {
+                if (!b.contains(array.values[i])) {
+                    values[count++] = array.values[i];
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+        
+        long[] words = toWords(a);
+        long[] right = toWords(b);
+        int cardinality = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            words[i] &= ~right[i];
+            cardinality += Long.bitCount(words[i]);
+        }
+        return fromWords(words, cardinality);
+    }
+    
+    // Копия контейнера в виде битовой карты
+    private static long[] toWords(Container container) {
+        if (container instanceof BitmapContainer) {
+            return ((BitmapContainer) container).words.clone();
+        }
+        return ((ArrayContainer) container).toBitmap().words;
+    }
+    
+    // Результат операции над битовыми картами: редкий снова становится массивом
+    private static Container fromWords(long[] words, int cardinality) {
+        if (cardinality > ARRAY_MAX) {
+            return new BitmapContainer(words, cardinality);
+        }
+        
+        char[] values = new char[cardinality];
+        int count = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            long word = words[i];
+            while (word != 0) {
+                values[count++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return new ArrayContainer(values, cardinality);
+    }
+    
+    // Размер в байтах при записи writeTo
+    public int serializedSize() {
+        int bytes = 4;
+        for (int i = 0; i < size; i++) {
+            bytes += 2 + 1 + 4;
+            bytes += containers[i] instanceof BitmapContainer ? BITMAP_WORDS * 8 : containers[i].cardinality * 2;
+        }
+        return bytes;
+    }
+    
+    // Формат: число контейнеров, затем для каждого ключ, тип, мощность и данные
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(size);
+        for (int i = 0; i < size; i++) {
+            Container container = containers[i];
+            buffer.putChar(keys[i]);
+            buffer.putInt(container.cardinality);
+            if (container instanceof BitmapContainer) {
+                buffer.put(TYPE_BITMAP);
+                for (long word : ((BitmapContainer) container).words) {
+                    buffer.putLong(word);
+                }
+            } else {
+                buffer.put(TYPE_ARRAY);
+                char[] values = ((ArrayContainer) container).values;
+                for (int j = 0; j < container.cardinality; j++) {
+                    buffer.putChar(values[j]);
+                }
+            }
+        }
+    }
+    
+    public static RoaringBitmap readFrom(ByteBuffer buffer) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            char key = buffer.getChar();
+            int cardinality = buffer.getInt();
+            if (buffer.get() == TYPE_BITMAP) {
+                long[] words = new long[BITMAP_WORDS];
+                for (int j = 0; j < BITMAP_WORDS; j++) {
+                    words[j] = buffer.getLong();
+                }
+                bitmap.appendNonEmpty(key, new BitmapContainer(words, cardinality));
+            } else {
+                char[] values = new char[cardinality];
+                for (int j = 0; j < cardinality; j++) {
+                    values[j] = buffer.getChar();
+                }
+                bitmap.appendNonEmpty(key, new ArrayContainer(values, cardinality));
+            }
+        }
+        return bitmap;
+    }
+    
+    private int indexOf(char high) {
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+    
+    // Контейнеры добавляются по возрастанию ключей - только в конец
+    private void appendNonEmpty(char key, Container container) {
+        if (container.cardinality > 0) {
+            insertContainer(size, key, container);
+        }
+    }
+    
+    private void insertContainer(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+    
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        size--;
+        containers[size] = null;
+    }
+}
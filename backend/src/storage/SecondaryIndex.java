@@ -0,0 +1,268 @@
+package storage;
+
+import exceptions.DatabaseException;
+import util.SerializationUtil;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// Вторичный индекс по строковому полю записи: значение -> битовая карта номеров записей
+// с этим значением. Битовые карты комбинируются (and/or) без чтения data.db.
+// Индекс целиком находится в памяти и пишется на диск снимком при flush/close.
+// Первое изменение после снимка помечает файл как устаревший (один маленький синхронный
+// write): если база не была закрыта штатно, индекс перестраивается по data.db при открытии,
+// а при наличии журнала загружается снимок и догоняется повтором журнала.
+public class SecondaryIndex implements AutoCloseable {
+    private static final short VERSION = 2; // 1 - списки смещений вместо битовых карт
+    private static final short STATE_DIRTY = 0;
+    private static final short STATE_CLEAN = 1;
+    private static final short STATE_STALE = 2; // снимок цел, но после него были изменения
+    private static final int HEADER_SIZE = 8; // version, state, количество значений
+    private static final int STATE_OFFSET = 2;
+    
+    private final FileManager fileManager;
+    private final int fieldLength;
+    // значение -> номера записей в data.db
+    private final Map<String, RoaringBitmap> postings;
+    private boolean modified;     // есть изменения после последнего снимка
+    private boolean needsRebuild; // файл отсутствовал или не был закрыт штатно
+    private boolean stale;        // загружен снимок последней контрольной точки, изменения после нее потеряны
+    private boolean isOpen;
+    
+    public SecondaryIndex(String filePath, int fieldLength) {
+        this.fileManager = new FileManager(filePath);
+        this.fieldLength = fieldLength;
+        this.postings = new HashMap<>();
+        this.isOpen = false;
+    }
+    
+    // createNew - новая база: индекс создается пустым
+    public void open(boolean createNew) throws IOException {
+        if (isOpen) return;
+        
+        // У баз, созданных до появления индекса, файла нет - он создается и перестраивается
+        fileManager.open(true);
+        isOpen = true;
+        
+        if (createNew) {
+            writeSnapshot();
+        } else if (fileManager.getFileSize() < HEADER_SIZE) {
+            needsRebuild = true;
+        } else {
+            load();
+        }
+    }
+    
+    private void load() throws IOException {
+        byte[] data = fileManager.read(0, (int) fileManager.getFileSize());
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        
+        short version = buffer.getShort();
+        short state = buffer.getShort();
+        if (version != VERSION || (state != STATE_CLEAN && state != STATE_STALE)) {
+            needsRebuild = true;
+            return;
+        }
+        if (state == STATE_STALE) {
+            needsRebuild = true;
+            stale = true;
+        }
+        
+        int valueCount = buffer.getInt();
+        for (int i = 0; i < valueCount; i++) {
+            byte[] valueBytes = new byte[buffer.getShort()];
+            buffer.get(valueBytes);
+            postings.put(new String(valueBytes, StandardCharsets.UTF_8), RoaringBitmap.readFrom(buffer));
+        }
+    }
+    
+    // Снимок пишется с пометкой "грязный", синхронизируется, затем помечается чистым
+    private void writeSnapshot() throws IOException {
+        int size = HEADER_SIZE;
+        for (Map.Entry<String, RoaringBitmap> entry : postings.entrySet()) {
+            size += 2 + entry.getKey().getBytes(StandardCharsets.UTF_8).length + entry.getValue().serializedSize();
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putShort(VERSION);
+        buffer.putShort(STATE_DIRTY);
+        buffer.putInt(postings.size());
+        for (Map.Entry<String, RoaringBitmap> entry : postings.entrySet()) {
+            byte[] valueBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short) valueBytes.length);
+            buffer.put(valueBytes);
+            entry.getValue().writeTo(buffer);
+        }
+        
+        fileManager.write(0, buffer.array());
+        fileManager.setFileSize(size);
+        fileManager.flush();
+        writeState(STATE_CLEAN);
+        fileManager.flush();
+        modified = false;
+    }
+    
+    private void writeState(short state) throws IOException {
+        fileManager.write(STATE_OFFSET, ByteBuffer.allocate(2).putShort(state).array());
+    }
+    
+    // Первое изменение после снимка: файл на диске больше не соответствует индексу,
+    // но сам снимок остается целым
+    private void markModified() throws IOException {
+        if (!modified) {
+            writeState(STATE_STALE);
+            fileManager.flush();
+            modified = true;
+        }
+    }
+    
+    public void add(String value, long offset) throws IOException {
+        checkOpen();
+        markModified();
+        postings.computeIfAbsent(keyOf(value), key -> new RoaringBitmap()).add(slotOf(offset));
+    }
+    
+    public void remove(String value, long offset) throws IOException {
+        checkOpen();
+        RoaringBitmap slots = postings.get(keyOf(value));
+        if (slots == null || !slots.contains(slotOf(offset))) {
+            return;
+        }
+        
+        markModified();
+        slots.remove(slotOf(offset));
+        if (slots.isEmpty()) {
+            postings.remove(keyOf(value));
+        }
+    }
+    
+    // Смещения записей с точно таким значением поля, по возрастанию
+    public long[] find(String value) {
+        checkOpen();
+        RoaringBitmap slots = postings.get(value);
+        return slots == null ? new long[0] : offsetsOf(slots);
+    }
+    
+    // Номера записей с точно таким значением поля. Карта принадлежит индексу - ее нельзя
+    // изменять, только комбинировать операциями and/or/andNot
+    public RoaringBitmap getBitmap(String value) {
+        checkOpen();
+        RoaringBitmap slots = postings.get(value);
+        return slots == null ? new RoaringBitmap() : slots;
+    }
+    
+    public int count(String value) {
+        checkOpen();
+        RoaringBitmap slots = postings.get(value);
+        return slots == null ? 0 : slots.getCardinality();
+    }
+    
+    public int getValueCount() {
+        checkOpen();
+        return postings.size();
+    }
+    
+    public boolean needsRebuild() {
+        return needsRebuild;
+    }
+    
+    // Файл не закрыт штатно, но снимок последней контрольной точки цел
+    public boolean isStale() {
+        return stale;
+    }
+    
+    // Снимок догоняется повтором журнала вместо перестройки по data.db
+    public void acceptStaleSnapshot() {
+        checkOpen();
+        needsRebuild = false;
+        stale = false;
+        modified = true; // на диске уже STATE_STALE
+    }
+    
+    // Перед перестройкой по data.db
+    public void clear() throws IOException {
+        checkOpen();
+        markModified();
+        postings.clear();
+    }
+    
+    // Уплотнение переставило записи: номера переводятся по таблице "старый -> новый"
+    public void remapSlots(int[] newSlotByOldSlot) throws IOException {
+        checkOpen();
+        markModified();
+        for (Map.Entry<String, RoaringBitmap> entry : postings.entrySet()) {
+            entry.setValue(remap(entry.getValue(), newSlotByOldSlot));
+        }
+        postings.values().removeIf(RoaringBitmap::isEmpty);
+    }
+    
+    // Перестройка закончена - индекс снова соответствует data.db
+    public void rebuildFinished() throws IOException {
+        checkOpen();
+        writeSnapshot();
+        needsRebuild = false;
+        stale = false;
+    }
+    
+    public void flush() throws IOException {
+        checkOpen();
+        if (modified) {
+            writeSnapshot();
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (isOpen) {
+            try {
+                // Индекс, который так и не перестроили, остается помеченным на перестройку
+                if (modified && !needsRebuild) {
+                    writeSnapshot();
+                }
+            } finally {
+                fileManager.close();
+                postings.clear();
+                isOpen = false;
+            }
+        }
+    }
+    
+    // Значение в том виде, в котором поле читается из записи
+    private String keyOf(String value) {
+        return SerializationUtil.storedFieldValue(value, fieldLength);
+    }
+    
+    static int slotOf(long offset) {
+        return (int) (offset / RecordFormat.RECORD_SIZE);
+    }
+    
+    // Номера записей по таблице "старый -> новый"; запись без нового номера
+    // (отрицательный или за концом таблицы) выбрасывается
+    static RoaringBitmap remap(RoaringBitmap slots, int[] newSlotByOldSlot) {
+        RoaringBitmap result = new RoaringBitmap();
+        for (int slot : slots.toArray()) {
+            if (slot < newSlotByOldSlot.length && newSlotByOldSlot[slot] >= 0) {
+                result.add(newSlotByOldSlot[slot]);
+            }
+        }
+        return result;
+    }
+    
+    // Номера записей -> смещения в data.db, по возрастанию
+    public static long[] offsetsOf(RoaringBitmap slots) {
+        int[] values = slots.toArray();
+        long[] offsets = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            offsets[i] = (long) values[i] * RecordFormat.RECORD_SIZE;
+        }
+        return offsets;
+    }
+    
+    private void checkOpen() {
+        if (!isOpen) {
+            throw new DatabaseException("INDEX_NOT_OPEN", "Secondary index is not open");
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package storage;
+
+public class StorageConfig {
+    private IOMode ioMode;
+    private int bufferPoolPages; // 0 - без пула страниц
+    private int scanChunkSize;   // размер блока чтения при полном просмотре data.db
+    private boolean scanReadAhead;
+    private int scanParallelism; // число потоков полного просмотра, 1 - последовательно
+    private float compactionThreshold; // доля удаленных записей для автоуплотнения, 0 - выключено
+    private int compactionMinRecords;  // меньшие файлы автоматически не уплотняются
+    private boolean indexOffHeap;      // таблица слотов индекса в памяти - вне кучи
+    private boolean indexLazyLoad;     // индекс загружается в фоне, открытие базы не ждет загрузки
+    private IndexType indexType;       // тип индекса новой базы; у существующей - из заголовка файла
+    private int metaCheckpointInterval; // изменений meta.db между контрольными точками, 1 - каждое
+    private boolean walEnabled;        // журнал упреждающей записи wal.log
+    private long walCheckpointSize;    // размер журнала, после которого делается контрольная точка
+    private Durability durability;     // по умолчанию для операций базы, может быть задана для операции
+    private int batchSyncMillis;       // BATCHED: максимальная задержка fsync
+    private int batchSyncOps;          // BATCHED: число операций, после которого fsync не ждет таймера
+    
+    public StorageConfig() {
+        this.ioMode = IOMode.STANDARD;
+        this.bufferPoolPages = 1024; // 1024 * 8KB = 8MB
+        this.scanChunkSize = 256 * 1024; // 256KB = 1024 записи
+        this.scanReadAhead = true;
+        this.scanParallelism = Runtime.getRuntime().availableProcessors();
+        this.compactionThreshold = 0.5f;
+        this.compactionMinRecords = 1024;
+        this.indexOffHeap = false;
+        this.indexLazyLoad = false;
+        this.indexType = IndexType.HASH;
+        this.metaCheckpointInterval = 1024;
+        this.walEnabled = true;
+        this.walCheckpointSize = 16L * 1024 * 1024; // 16MB
+        this.durability = Durability.SYNC;
+        this.batchSyncMillis = 10;
+        this.batchSyncOps = 1000;
+    }
+    
+    public static StorageConfig defaults() {
+        return new StorageConfig();
+    }
+    
+    // Геттеры и сеттеры
+    public IOMode getIoMode() { return ioMode; }
+    public int getBufferPoolPages() { return bufferPoolPages; }
+    public int getScanChunkSize() { return scanChunkSize; }
+    public boolean isScanReadAhead() { return scanReadAhead; }
+    public int getScanParallelism() { return scanParallelism; }
+    public float getCompactionThreshold() { return compactionThreshold; }
+    public int getCompactionMinRecords() { return compactionMinRecords; }
+    public boolean isIndexOffHeap() { return indexOffHeap; }
+    public boolean isIndexLazyLoad() { return indexLazyLoad; }
+    public IndexType getIndexType() { return indexType; }
+    public int getMetaCheckpointInterval() { return metaCheckpointInterval; }
+    public boolean isWalEnabled() { return walEnabled; }
+    public long getWalCheckpointSize() { return walCheckpointSize; }
+    public Durability getDurability() { return durability; }
+    public int getBatchSyncMillis() { return batchSyncMillis; }
+    public int getBatchSyncOps() { return batchSyncOps; }
+    
+    public void setIoMode(IOMode ioMode) { this.ioMode = ioMode; }
+    public void setBufferPoolPages(int bufferPoolPages) { this.bufferPoolPages = bufferPoolPages; }
+    public void setScanReadAhead(boolean scanReadAhead) { this.scanReadAhead = scanReadAhead; }
+    public void setCompactionMinRecords(int compactionMinRecords) { this.compactionMinRecords = compactionMinRecords; }
+    public void setIndexOffHeap(boolean indexOffHeap) { this.indexOffHeap = indexOffHeap; }
+    public void setIndexLazyLoad(boolean indexLazyLoad) { this.indexLazyLoad = indexLazyLoad; }
+    public void setIndexType(IndexType indexType) { this.indexType = indexType; }
+    public void setWalEnabled(boolean walEnabled) { this.walEnabled = walEnabled; }
+    public void setDurability(Durability durability) { this.durability = durability; }
+    
+    public void setScanChunkSize(int scanChunkSize) {
+        // Блок всегда содержит целое число записей
+        if (scanChunkSize < RecordFormat.RECORD_SIZE) {
+            throw new IllegalArgumentException("Scan chunk size must be at least one record: " + scanChunkSize);
+        }
+        this.scanChunkSize = scanChunkSize - scanChunkSize % RecordFormat.RECORD_SIZE;
+    }
+    
+    public void setScanParallelism(int scanParallelism) {
+        if (scanParallelism < 1) {
+            throw new IllegalArgumentException("Scan parallelism must be at least 1: " + scanParallelism);
+        }
+        this.scanParallelism = scanParallelism;
+    }
+    
+    public void setMetaCheckpointInterval(int metaCheckpointInterval) {
+        if (metaCheckpointInterval < 1) {
+            throw new IllegalArgumentException("Meta checkpoint interval must be at least 1: " + metaCheckpointInterval);
+        }
+        this.metaCheckpointInterval = metaCheckpointInterval;
+    }
+    
+    public void setWalCheckpointSize(long walCheckpointSize) {
+        if (walCheckpointSize < 1) {
+            throw new IllegalArgumentException("WAL checkpoint size must be positive: " + walCheckpointSize);
+        }
+        this.walCheckpointSize = walCheckpointSize;
+    }
+    
+    public void setBatchSyncMillis(int batchSyncMillis) {
+        if (batchSyncMillis < 1) {
+            throw new IllegalArgumentException("Batch sync interval must be at least 1 ms: " + batchSyncMillis);
+        }
+        this.batchSyncMillis = batchSyncMillis;
+    }
+    
+    public void setBatchSyncOps(int batchSyncOps) {
+        if (batchSyncOps < 1) {
+            throw new IllegalArgumentException("Batch sync operations must be at least 1: " + batchSyncOps);
+        }
+        this.batchSyncOps = batchSyncOps;
+    }
+    
+    public void setCompactionThreshold(float compactionThreshold) {
+        if (compactionThreshold < 0 || compactionThreshold > 1) {
+            throw new IllegalArgumentException("Compaction threshold must be between 0 and 1: " + compactionThreshold);
+        }
+        this.compactionThreshold = compactionThreshold;
+    }
+}
@@ -0,0 +1,307 @@
+package storage;
+
+import exceptions.DatabaseException;
+import util.SerializationUtil;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Триграммный инвертированный индекс по имени для поиска по подстроке.
+// Имя приводится к нижнему регистру и дополняется служебным символом с обеих сторон,
+// каждая триграмма ссылается на номера записей (posting list) в RoaringBitmap, как в
+// SecondaryIndex: добавление и удаление меняют один контейнер, а не весь список.
+// Запрос из 3+ символов - пересечение списков его триграмм,
+// запрос из 1-2 символов - объединение списков всех триграмм, которые его содержат.
+// Результат - кандидаты: запись все равно нужно проверить по самому имени.
+// Хранение на диске и перестройка после сбоя - как у SecondaryIndex.
+public class TrigramIndex implements AutoCloseable {
+    private static final short VERSION = 2; // 1 - списки в разностном кодировании varint
+    private static final short STATE_DIRTY = 0;
+    private static final short STATE_CLEAN = 1;
+    private static final short STATE_STALE = 2; // снимок цел, но после него были изменения
+    private static final int HEADER_SIZE = 8; // version, state, количество триграмм
+    private static final int STATE_OFFSET = 2;
+    private static final char PADDING = '\u0000';
+    
+    private final FileManager fileManager;
+    private final int fieldLength;
+    // триграмма (три символа в одном long) -> номера записей в data.db
+    private final Map<Long, RoaringBitmap> postings;
+    private boolean modified;     // есть изменения после последнего снимка
+    private boolean needsRebuild; // файл отсутствовал или не был закрыт штатно
+    private boolean stale;        // загружен снимок последней контрольной точки, изменения после нее потеряны
+    private boolean isOpen;
+    
+    public TrigramIndex(String filePath, int fieldLength) {
+        this.fileManager = new FileManager(filePath);
+        this.fieldLength = fieldLength;
+        this.postings = new HashMap<>();
+        this.isOpen = false;
+    }
+    
+    // createNew - новая база: индекс создается пустым
+    public void open(boolean createNew) throws IOException {
+        if (isOpen) return;
+        
+        // У баз, созданных до появления индекса, файла нет - он создается и перестраивается
+        fileManager.open(true);
+        isOpen = true;
+        
+        if (createNew) {
+            writeSnapshot();
+        } else if (fileManager.getFileSize() < HEADER_SIZE) {
+            needsRebuild = true;
+        } else {
+            load();
+        }
+    }
+    
+    private void load() throws IOException {
+        byte[] data = fileManager.read(0, (int) fileManager.getFileSize());
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        
+        short version = buffer.getShort();
+        short state = buffer.getShort();
+        if (version != VERSION || (state != STATE_CLEAN && state != STATE_STALE)) {
+            needsRebuild = true;
+            return;
+        }
+        if (state == STATE_STALE) {
+            needsRebuild = true;
+            stale = true;
+        }
+        
+        int trigramCount = buffer.getInt();
+        for (int i = 0; i < trigramCount; i++) {
+            long trigram = buffer.getLong();
+            postings.put(trigram, RoaringBitmap.readFrom(buffer));
+        }
+    }
+    
+    // Снимок пишется с пометкой "грязный", синхронизируется, затем помечается чистым
+    private void writeSnapshot() throws IOException {
+        int size = HEADER_SIZE;
+        for (RoaringBitmap slots : postings.values()) {
+            size += 8 + slots.serializedSize();
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putShort(VERSION);
+        buffer.putShort(STATE_DIRTY);
+        buffer.putInt(postings.size());
+        for (Map.Entry<Long, RoaringBitmap> entry : postings.entrySet()) {
+            buffer.putLong(entry.getKey());
+            entry.getValue().writeTo(buffer);
+        }
+        
+        fileManager.write(0, buffer.array());
+        fileManager.setFileSize(size);
+        fileManager.flush();
+        writeState(STATE_CLEAN);
+        fileManager.flush();
+        modified = false;
+    }
+    
+    private void writeState(short state) throws IOException {
+        fileManager.write(STATE_OFFSET, ByteBuffer.allocate(2).putShort(state).array());
+    }
+    
+    // Первое изменение после снимка: файл на диске больше не соответствует индексу
+    private void markModified() throws IOException {
+        if (!modified) {
+            writeState(STATE_STALE);
+            fileManager.flush();
+            modified = true;
+        }
+    }
+    
+    public void add(String name, long offset) throws IOException {
+        checkOpen();
+        markModified();
+        int slot = slotOf(offset);
+        for (long trigram : trigramsOf(keyOf(name))) {
+            postings.computeIfAbsent(trigram, key -> new RoaringBitmap()).add(slot);
+        }
+    }
+    
+    public void remove(String name, long offset) throws IOException {
+        checkOpen();
+        int slot = slotOf(offset);
+        for (long trigram : trigramsOf(keyOf(name))) {
+            RoaringBitmap slots = postings.get(trigram);
+            if (slots == null) {
+                continue;
+            }
+            
+            markModified();
+            if (slots.remove(slot) && slots.isEmpty()) {
+                postings.remove(trigram);
+            }
+        }
+    }
+    
+    // Смещения записей, имя которых может содержать query (без учета регистра), по возрастанию.
+    // Пустой запрос подходит любой записи - его обслуживает полный просмотр, а не индекс.
+    public long[] findCandidates(String query) {
+        checkOpen();
+        String lowerQuery = query.toLowerCase();
+        if (lowerQuery.isEmpty()) {
+            throw new IllegalArgumentException("Query must not be empty");
+        }
+        
+        int[] slots = (lowerQuery.length() < 3 ? unionContaining(lowerQuery) : intersect(lowerQuery)).toArray();
+        long[] offsets = new long[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            offsets[i] = (long) slots[i] * RecordFormat.RECORD_SIZE;
+        }
+        return offsets;
+    }
+    
+    // Пересечение списков триграмм запроса, начиная с самого короткого
+    private RoaringBitmap intersect(String lowerQuery) {
+        int trigramCount = lowerQuery.length() - 2;
+        RoaringBitmap[] lists = new RoaringBitmap[trigramCount];
+        for (int i = 0; i < trigramCount; i++) {
+            lists[i] = postings.get(trigram(lowerQuery.charAt(i), lowerQuery.charAt(i + 1), lowerQuery.charAt(i + 2)));
+            if (lists[i] == null) {
+                return new RoaringBitmap();
+            }
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.getCardinality(), b.getCardinality()));
+        
+        RoaringBitmap candidates = lists[0];
+        for (int i = 1; i < lists.length && !candidates.isEmpty(); i++) {
+            candidates = candidates.and(lists[i]);
+        }
+        return candidates;
+    }
+    
+    // Короткий запрос: объединение списков всех триграмм, в которые он входит
+    private RoaringBitmap unionContaining(String lowerQuery) {
+        RoaringBitmap slots = new RoaringBitmap();
+        for (Map.Entry<Long, RoaringBitmap> entry : postings.entrySet()) {
+            long trigram = entry.getKey();
+            String text = new String(new char[] {
+                (char) (trigram >>> 32), (char) (trigram >>> 16), (char) trigram
+            });
+            if (text.contains(lowerQuery)) {
+                slots = slots.or(entry.getValue());
+            }
+        }
+        return slots;
+    }
+    
+    public int getTrigramCount() {
+        checkOpen();
+        return postings.size();
+    }
+    
+    public boolean needsRebuild() {
+        return needsRebuild;
+    }
+    
+    // Файл не закрыт штатно, но снимок последней контрольной точки цел
+    public boolean isStale() {
+        return stale;
+    }
+    
+    // Снимок догоняется повтором журнала вместо перестройки по data.db
+    public void acceptStaleSnapshot() {
+        checkOpen();
+        needsRebuild = false;
+        stale = false;
+        modified = true; // на диске уже STATE_STALE
+    }
+    
+    // Перед перестройкой по data.db
+    public void clear() throws IOException {
+        checkOpen();
+        markModified();
+        postings.clear();
+    }
+    
+    // Уплотнение переставило записи: номера переводятся по таблице "старый -> новый"
+    public void remapSlots(int[] newSlotByOldSlot) throws IOException {
+        checkOpen();
+        markModified();
+        for (Map.Entry<Long, RoaringBitmap> entry : postings.entrySet()) {
+            entry.setValue(SecondaryIndex.remap(entry.getValue(), newSlotByOldSlot));
+        }
+        postings.values().removeIf(RoaringBitmap::isEmpty);
+    }
+    
+    // Перестройка закончена - индекс снова соответствует data.db
+    public void rebuildFinished() throws IOException {
+        checkOpen();
+        writeSnapshot();
+        needsRebuild = false;
+        stale = false;
+    }
+    
+    public void flush() throws IOException {
+        checkOpen();
+        if (modified) {
+            writeSnapshot();
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (isOpen) {
+            try {
+                // Индекс, который так и не перестроили, остается помеченным на перестройку
+                if (modified && !needsRebuild) {
+                    writeSnapshot();
+                }
+            } finally {
+                fileManager.close();
+                postings.clear();
+                isOpen = false;
+            }
+        }
+    }
+    
+    // Различные триграммы имени, дополненного служебным символом с обеих сторон:
+    // так любая подстрока из 1-2 символов входит хотя бы в одну триграмму
+    private static long[] trigramsOf(String lowerName) {
+        String padded = PADDING + lowerName + PADDING;
+        if (padded.length() < 3) {
+            return new long[0];
+        }
+        
+        long[] trigrams = new long[padded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = trigram(padded.charAt(i), padded.charAt(i + 1), padded.charAt(i + 2));
+        }
+        Arrays.sort(trigrams);
+        
+        int distinct = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+    
+    private static long trigram(char first, char second, char third) {
+        return ((long) first << 32) | ((long) second << 16) | third;
+    }
+    
+    // Имя в том виде, в котором оно читается из записи, в нижнем регистре
+    private String keyOf(String name) {
+        return SerializationUtil.storedFieldValue(name, fieldLength).toLowerCase();
+    }
+    
+    private static int slotOf(long offset) {
+        return (int) (offset / RecordFormat.RECORD_SIZE);
+    }
+    
+    private void checkOpen() {
+        if (!isOpen) {
+            throw new DatabaseException("INDEX_NOT_OPEN", "Trigram index is not open");
+        }
+    }
+}
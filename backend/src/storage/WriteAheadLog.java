@@ -0,0 +1,321 @@
+package storage;
+
+import exceptions.DatabaseException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// Журнал упреждающей записи (wal.log): логические операции дописываются в конец файла
+// до изменения data.db и индексов. Запись считается выполненной после commit(lsn).
+// Групповая фиксация: один из ожидающих потоков пишет накопленные записи всех
+// потоков и делает один fsync, остальные ждут его результата.
+// Контрольная точка (checkpoint) - после синхронизации остальных файлов БД
+// журнал обрезается до заголовка. После сбоя записи журнала повторяются при открытии базы.
+public class WriteAheadLog implements AutoCloseable {
+    // Данные записей всех типов начинаются со смещения записи в data.db
+    public static final byte OP_INSERT = 1;  // смещение, голова списка свободных после операции, запись
+    public static final byte OP_UPDATE = 2;  // смещение, прежняя запись, новая запись
+    public static final byte OP_DELETE = 3;  // смещение, голова списка свободных до операции, прежняя запись
+    
+    // Обработчик записи журнала при повторе
+    public interface RecordHandler {
+        void handle(long lsn, byte type, ByteBuffer data) throws IOException;
+    }
+    
+    private static final String SIGNATURE = "MWAL";
+    private static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;        // сигнатура, версия, резерв, LSN первой записи
+    static final int RECORD_HEADER_SIZE = 17; // длина данных, CRC32, LSN, тип операции
+    
+    private final FileManager fileManager;
+    private final Object lock = new Object();
+    
+    // Доступ к полям ниже - только под lock
+    private byte[] pending;       // записи, еще не переданные в файл
+    private int pendingLength;
+    private long writePosition;   // конец журнала в файле с учетом пишущейся пачки
+    private long nextLsn;
+    private long writtenLsn;      // все записи с LSN <= writtenLsn переданы в файл
+    private long durableLsn;      // все записи с LSN <= durableLsn синхронизированы с диском
+    private boolean syncInProgress;
+    private IOException failure;  // после ошибки записи журнал больше не принимает записей
+    private long syncCount;
+    private boolean isOpen;
+    
+    public WriteAheadLog(String filePath) {
+        this.fileManager = new FileManager(filePath);
+        this.pending = new byte[4096];
+        this.isOpen = false;
+    }
+    
+    // Записи существующего журнала разбирает восстановление; здесь журнал открывается
+    // для дописывания после его последней целой записи
+    public void open() throws IOException {
+        if (isOpen) return;
+        
+        fileManager.open(true);
+        if (fileManager.getFileSize() < HEADER_SIZE) {
+            writeHeader(1);
+            writePosition = HEADER_SIZE;
+            nextLsn = 1;
+        } else {
+            byte[] header = fileManager.read(0, HEADER_SIZE);
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            byte[] signature = new byte[4];
+            buffer.get(signature);
+            if (!SIGNATURE.equals(new String(signature)) || buffer.getShort() != VERSION) {
+                fileManager.close();
+                throw new DatabaseException("INVALID_LOG_FORMAT", "Invalid write-ahead log header");
+            }
+            buffer.getShort();
+            nextLsn = buffer.getLong();
+            writePosition = HEADER_SIZE;
+            
+            // Пропускаем целые записи; оборванный хвост затирается следующими
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            long fileSize = fileManager.getFileSize();
+            while (writePosition + RECORD_HEADER_SIZE <= fileSize) {
+                record.clear();
+                fileManager.read(writePosition, record);
+                int length = record.getInt(0);
+                long lsn = record.getLong(8);
+                if (length < 0 || lsn != nextLsn || writePosition + RECORD_HEADER_SIZE + length > fileSize
+                        || !checksumMatches(writePosition, length, record.getInt(4))) {
+                    break;
+                }
+                writePosition += RECORD_HEADER_SIZE + length;
+                nextLsn++;
+            }
+            fileManager.setFileSize(writePosition);
+        }
+        durableLsn = nextLsn - 1;
+        writtenLsn = durableLsn;
+        isOpen = true;
+    }
+    
+    // Есть записи после последней контрольной точки: база не была закрыта штатно
+    public boolean hasRecords() {
+        synchronized (lock) {
+            return writePosition + pendingLength > HEADER_SIZE;
+        }
+    }
+    
+    // Повторяет записи после последней контрольной точки по возрастанию LSN.
+    // Вызывается при открытии базы до появления новых записей.
+    public void replay(RecordHandler handler) throws IOException {
+        checkOpen();
+        long end;
+        synchronized (lock) {
+            end = writePosition;
+        }
+        
+        // Целостность записей проверена при открытии
+        long position = HEADER_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position < end) {
+            header.clear();
+            fileManager.read(position, header);
+            int length = header.getInt(0);
+            byte[] data = fileManager.read(position + RECORD_HEADER_SIZE, length);
+            handler.handle(header.getLong(8), header.get(16), ByteBuffer.wrap(data));
+            position += RECORD_HEADER_SIZE + length;
+        }
+    }
+    
+    private boolean checksumMatches(long position, int length, int checksum) throws IOException {
+        byte[] body = fileManager.read(position + 8, RECORD_HEADER_SIZE - 8 + length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue() == checksum;
+    }
+    
+    private void writeHeader(long firstLsn) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(SIGNATURE.getBytes());
+        header.putShort(VERSION);
+        header.putShort((short) 0);
+        header.putLong(firstLsn);
+        fileManager.write(0, header.array());
+    }
+    
+    // Добавляет запись в буфер журнала и возвращает ее LSN. Порядок LSN совпадает
+    // с порядком применения операций: вызывается под блокировкой записи базы.
+    public long append(byte type, byte[] data) {
+        checkOpen();
+        synchronized (lock) {
+            checkFailure();
+            long lsn = nextLsn++;
+            
+            int recordSize = RECORD_HEADER_SIZE + data.length;
+            if (pendingLength + recordSize > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + recordSize));
+            }
+            ByteBuffer record = ByteBuffer.wrap(pending, pendingLength, recordSize);
+            record.putInt(data.length);
+            record.putInt(0); // CRC32 - после заполнения
+            record.putLong(lsn);
+            record.put(type);
+            record.put(data);
+            
+            CRC32 crc = new CRC32();
+            crc.update(pending, pendingLength + 8, recordSize - 8);
+            ByteBuffer.wrap(pending, pendingLength + 4, 4).putInt((int) crc.getValue());
+            pendingLength += recordSize;
+            return lsn;
+        }
+    }
+    
+    // Ждет, пока запись lsn и все предыдущие не окажутся на диске.
+    // Вызывается без блокировки базы, чтобы потоки успевали накопить общую пачку.
+    public void commit(long lsn) throws IOException {
+        commit(lsn, true);
+    }
+    
+    // Передает запись lsn и все предыдущие в файл без fsync: переживают падение
+    // процесса, но не отключение питания
+    public void write(long lsn) throws IOException {
+        commit(lsn, false);
+    }
+    
+    private void commit(long lsn, boolean sync) throws IOException {
+        checkOpen();
+        while (true) {
+            byte[] batch;
+            long batchLastLsn;
+            long position;
+            
+            synchronized (lock) {
+                while (syncInProgress && (sync ? durableLsn : writtenLsn) < lsn && failure == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for log commit");
+                    }
+                }
+                checkFailure();
+                if ((sync ? durableLsn : writtenLsn) >= lsn) {
+                    return;
+                }
+                
+                // Этот поток пишет пачку за всех; пачка может быть пустой,
+                // если записи уже в файле и нужен только fsync
+                syncInProgress = true;
+                batch = Arrays.copyOf(pending, pendingLength);
+                pendingLength = 0;
+                batchLastLsn = nextLsn - 1;
+                position = writePosition;
+                writePosition += batch.length;
+            }
+            
+            IOException error = null;
+            try {
+                if (batch.length > 0) {
+                    fileManager.write(position, batch);
+                }
+                if (sync) {
+                    fileManager.flush();
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            
+            synchronized (lock) {
+                syncInProgress = false;
+                if (error == null) {
+                    writtenLsn = batchLastLsn;
+                    if (sync) {
+                        durableLsn = batchLastLsn;
+                        syncCount++;
+                    }
+                } else {
+                    failure = error;
+                }
+                lock.notifyAll();
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+    
+    // Все добавленные записи на диск
+    public void commitAll() throws IOException {
+        long lastLsn;
+        synchronized (lock) {
+            lastLsn = nextLsn - 1;
+        }
+        commit(lastLsn);
+    }
+    
+    // Контрольная точка: остальные файлы БД уже синхронизированы, журнал больше не нужен.
+    // Вызывается под блокировкой записи базы - новых записей во время обрезки нет.
+    public void checkpoint() throws IOException {
+        checkOpen();
+        commitAll();
+        synchronized (lock) {
+            writeHeader(nextLsn);
+            fileManager.setFileSize(HEADER_SIZE);
+            fileManager.flush();
+            writePosition = HEADER_SIZE;
+        }
+    }
+    
+    // Размер журнала с еще не записанными в файл записями
+    public long getSize() {
+        synchronized (lock) {
+            return writePosition + pendingLength;
+        }
+    }
+    
+    public long getLastLsn() {
+        synchronized (lock) {
+            return nextLsn - 1;
+        }
+    }
+    
+    public long getDurableLsn() {
+        synchronized (lock) {
+            return durableLsn;
+        }
+    }
+    
+    // Число fsync журнала: при групповой фиксации меньше числа операций
+    public long getSyncCount() {
+        synchronized (lock) {
+            return syncCount;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (isOpen) {
+            try {
+                if (failure == null) {
+                    commitAll();
+                }
+            } finally {
+                fileManager.close();
+                isOpen = false;
+            }
+        }
+    }
+    
+    public boolean isOpen() {
+        return isOpen;
+    }
+    
+    private void checkFailure() {
+        if (failure != null) {
+            throw new DatabaseException("LOG_WRITE_FAILED", "Write-ahead log failed: " + failure.getMessage());
+        }
+    }
+    
+    private void checkOpen() {
+        if (!isOpen) {
+            throw new DatabaseException("LOG_NOT_OPEN", "Write-ahead log is not open");
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package util;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
@@ -82,6 +85,21 @@ public class JsonUtil {
         return sb.toString();
     }
 
+    // Успешный ответ со списком сотрудников пишется по мере чтения: в памяти одна запись,
+    // а не весь список. Формат тот же, что у SuccessResponse со списком и total;
+    // total идет после data и считается по ходу
+    public static void writeEmployeeList(Writer out, String message,
+                                         Iterator<api.dto.EmployeeResponse> employees) throws IOException {
+        out.write("{\"success\":true,\"message\":\"" + escapeJsonString(message) + "\",\"data\":[");
+        int total = 0;
+        while (employees.hasNext()) {
+            if (total > 0) out.write(",");
+            out.write(employeeResponseToJson(employees.next()));
+            total++;
+        }
+        out.write("],\"total\":" + total + "}");
+    }
+
     // Обновляем successResponseToJson для правильной обработки данных
     private static String successResponseToJson(api.dto.SuccessResponse<?> success) {
         StringBuilder sb = new StringBuilder();
@@ -1,6 +1,7 @@
 package util;
 
 import model.Employee;
+import storage.RecordBuffers;
 import storage.RecordFormat;
 
 import java.nio.ByteBuffer;
@@ -48,31 +49,39 @@ public class SerializationUtil {
             throw new IllegalArgumentException("Invalid record size: " + data.length);
         }
         
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        
-        // ID
-        int id = buffer.getInt();
-        
-        // Name
-        String name = getFixedLengthString(buffer, RecordFormat.MAX_NAME_LENGTH);
-        
-        // Department
-        String department = getFixedLengthString(buffer, RecordFormat.MAX_DEPARTMENT_LENGTH);
-        
-        // Position
-        String position = getFixedLengthString(buffer, RecordFormat.MAX_POSITION_LENGTH);
-        
-        // Salary
-        float salary = buffer.getFloat();
-        
-        // Hire date
-        long hireTimestamp = buffer.getLong();
-        LocalDate hireDate = LocalDate.ofEpochDay(hireTimestamp / (24 * 60 * 60 * 1000));
+        return deserializeEmployee(ByteBuffer.wrap(data));
+    }
+    
+    // Декодирует запись, начинающуюся с текущей позиции буфера (буфер может быть прямым).
+    // Промежуточные массивы не создаются: строки декодируются через потоко-локальный буфер.
+    public static Employee deserializeEmployee(ByteBuffer record) {
+        int base = record.position();
+        if (record.limit() - base < RecordFormat.RECORD_SIZE) {
+            throw new IllegalArgumentException("Invalid record size: " + (record.limit() - base));
+        }
         
-        // Deleted flag
-        boolean isDeleted = buffer.get() != 0;
+        int id = record.getInt(base + RecordFormat.ID_OFFSET);
+        if (id <= 0) {
+            throw new IllegalArgumentException("Corrupted record: invalid id " + id);
+        }
         
-        Employee employee = new Employee(id, name.trim(), department.trim(), position.trim(), salary, hireDate);
+        String name = getFixedLengthString(record, base + RecordFormat.NAME_OFFSET, RecordFormat.MAX_NAME_LENGTH);
+        String department = getFixedLengthString(record, base + RecordFormat.DEPARTMENT_OFFSET,
+            RecordFormat.MAX_DEPARTMENT_LENGTH);
+        String position = getFixedLengthString(record, base + RecordFormat.POSITION_OFFSET,
+            RecordFormat.MAX_POSITION_LENGTH);
+        float salary = record.getFloat(base + RecordFormat.SALARY_OFFSET);
+        long hireTimestamp = record.getLong(base + RecordFormat.HIREDATE_OFFSET);
+        boolean isDeleted = record.get(base + RecordFormat.IS_DELETED_OFFSET) != 0;
+        
+        // Запись уже прошла validate() при сохранении, поэтому собираем объект без повторной проверки
+        Employee employee = new Employee();
+        employee.setId(id);
+        employee.setName(name);
+        employee.setDepartment(department);
+        employee.setPosition(position);
+        employee.setSalary(salary);
+        employee.setHireDate(LocalDate.ofEpochDay(hireTimestamp / (24 * 60 * 60 * 1000)));
         employee.setDeleted(isDeleted);
         
         return employee;
@@ -89,10 +98,35 @@ public class SerializationUtil {
         }
     }
     
-    private static String getFixedLengthString(ByteBuffer buffer, int length) {
-        byte[] bytes = new byte[length];
-        buffer.get(bytes);
-        return new String(bytes, StandardCharsets.UTF_8);
+    // Читает поле фиксированной длины и обрезает пробельные символы по краям (как String.trim)
+    private static String getFixedLengthString(ByteBuffer buffer, int offset, int length) {
+        byte[] scratch = RecordBuffers.stringScratch();
+        buffer.get(offset, scratch, 0, length);
+        
+        int start = 0;
+        int end = length;
+        while (start < end && (scratch[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (scratch[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return new String(scratch, start, end - start, StandardCharsets.UTF_8);
+    }
+    
+    // Значение строкового поля в том виде, в котором оно будет прочитано из записи:
+    // обрезанное до длины поля в байтах и без пробельных символов по краям
+    public static String storedFieldValue(String value, int length) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int start = 0;
+        int end = Math.min(bytes.length, length);
+        while (start < end && (bytes[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (bytes[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
     }
     
     // Вспомогательные методы для работы с отдельными полями
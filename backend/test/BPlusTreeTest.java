@@ -0,0 +1,291 @@
+package backend.test;
+
+import exceptions.DatabaseException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import storage.BPlusTree;
+import storage.BufferPool;
+import storage.RecordFormat;
+
+public class BPlusTreeTest {
+    
+    public static void main(String[] args) {
+        testInsertAndRangeScan();
+        testDelete();
+        testBulkLoadAndReopen();
+        testRemapOffsets();
+        testDuplicateEntry();
+        testStaleSnapshot();
+        System.out.println("✅ Все тесты BPlusTree прошли успешно!");
+    }
+    
+    private static void safeDelete(String filePath) {
+        try {
+            Files.deleteIfExists(Paths.get(filePath));
+        } catch (IOException e) {
+            System.err.println("Warning: Could not delete file " + filePath);
+        }
+    }
+    
+    static void testInsertAndRangeScan() {
+        String testFile = "test_data/bplus_insert.idx";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (BPlusTree tree = new BPlusTree(testFile, new BufferPool(64))) {
+                tree.open(true);
+                
+                // Ключи вставляются в случайном порядке, у каждого ключа по 3 записи
+                int keyCount = 20000;
+                int[] keys = new int[keyCount];
+                for (int i = 0; i < keyCount; i++) {
+                    keys[i] = i;
+                }
+                Random random = new Random(42);
+                for (int i = keyCount - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    int tmp = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = tmp;
+                }
+                for (int key : keys) {
+                    for (int copy = 0; copy < 3; copy++) {
+                        tree.insert(key, key * 1024L + copy);
+                    }
+                }
+                
+                assert tree.getEntryCount() == 3L * keyCount : "Должно быть " + 3 * keyCount + " элементов";
+                assert tree.getHeight() > 2 : "Дерево должно разделиться на несколько уровней";
+                
+                long[] range = tree.rangeScan(100, 199);
+                assert range.length == 300 : "В диапазоне должно быть 300 элементов, найдено " + range.length;
+                for (int i = 0; i < range.length; i++) {
+                    assert range[i] == (100 + i / 3) * 1024L + i % 3 : "Элементы должны идти по возрастанию ключа";
+                }
+                
+                assert tree.rangeScan(-10, -1).length == 0 : "Диапазон до первого ключа должен быть пуст";
+                assert tree.rangeScan(keyCount - 1, Long.MAX_VALUE).length == 3 : "Последний ключ должен находиться";
+                assert tree.rangeScan(Long.MIN_VALUE, Long.MAX_VALUE).length == 3 * keyCount : "Полный диапазон должен вернуть все элементы";
+            }
+            
+            System.out.println("✅ testInsertAndRangeScan - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testInsertAndRangeScan - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testDelete() {
+        String testFile = "test_data/bplus_delete.idx";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (BPlusTree tree = new BPlusTree(testFile)) {
+                tree.open(true);
+                for (int i = 0; i < 5000; i++) {
+                    tree.insert(i % 100, i);
+                }
+                
+                // Удаляется ровно один элемент (ключ, смещение), соседи с тем же ключом остаются
+                assert tree.delete(7, 107) : "Существующий элемент должен удалиться";
+                assert !tree.delete(7, 107) : "Повторное удаление должно вернуть false";
+                assert !tree.delete(7, 108) : "Элемент с чужим смещением не должен удаляться";
+                assert tree.rangeScan(7, 7).length == 49 : "У ключа 7 должно остаться 49 элементов";
+                
+                for (int i = 0; i < 5000; i++) {
+                    if (i % 100 < 50 && i != 107) {
+                        assert tree.delete(i % 100, i) : "Элемент " + i + " должен удалиться";
+                    }
+                }
+                assert tree.getEntryCount() == 2500 : "Должно остаться 2500 элементов";
+                assert tree.rangeScan(0, 49).length == 0 : "Удаленные ключи не должны находиться";
+                assert tree.rangeScan(0, 99).length == 2500 : "Оставшиеся ключи должны находиться";
+            }
+            
+            System.out.println("✅ testDelete - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testDelete - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testBulkLoadAndReopen() {
+        String testFile = "test_data/bplus_bulk.idx";
+        
+        try {
+            safeDelete(testFile);
+            
+            int count = 50000;
+            long[] keys = new long[count];
+            long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = (i * 7919L) % count;
+                offsets[i] = i;
+            }
+            
+            try (BPlusTree tree = new BPlusTree(testFile)) {
+                tree.open(true);
+                tree.insert(-1, -1); // старое содержимое заменяется
+                tree.bulkLoad(keys, offsets, count);
+                tree.rebuildFinished();
+                
+                assert tree.getEntryCount() == count : "Должно быть " + count + " элементов";
+                // После массовой загрузки дерево остается рабочим для вставок
+                tree.insert(count, count);
+            }
+            
+            try (BPlusTree tree = new BPlusTree(testFile)) {
+                tree.open(false);
+                assert !tree.needsRebuild() : "Корректно закрытое дерево не требует перестройки";
+                assert tree.getEntryCount() == count + 1 : "Число элементов должно сохраниться";
+                
+                long[] all = tree.rangeScan(Long.MIN_VALUE, Long.MAX_VALUE);
+                assert all.length == count + 1 : "Полный диапазон должен вернуть все элементы";
+                for (int i = 0; i < count; i++) {
+                    assert keys[(int) all[i]] == i : "Элементы должны идти по возрастанию ключа";
+                }
+                assert tree.rangeScan(-1, -1).length == 0 : "Старое содержимое должно быть заменено";
+            }
+            
+            System.out.println("✅ testBulkLoadAndReopen - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testBulkLoadAndReopen - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    // Уплотнение: смещения переводятся по таблице номеров записей, записи без нового номера выбрасываются
+    static void testRemapOffsets() {
+        String testFile = "test_data/bplus_remap.idx";
+        
+        try {
+            safeDelete(testFile);
+            
+            int count = 5000;
+            int[] newSlotByOldSlot = new int[count - 100]; // последние 100 записей за концом таблицы
+            int newSlots = 0;
+            for (int slot = 0; slot < newSlotByOldSlot.length; slot++) {
+                newSlotByOldSlot[slot] = slot % 3 == 0 ? -1 : newSlots++;
+            }
+            
+            try (BPlusTree tree = new BPlusTree(testFile)) {
+                tree.open(true);
+                for (int slot = 0; slot < count; slot++) {
+                    tree.insert(slot % 10, (long) slot * RecordFormat.RECORD_SIZE);
+                }
+                tree.remapOffsets(newSlotByOldSlot);
+                
+                assert tree.getEntryCount() == newSlots : "Должно остаться " + newSlots + " элементов";
+                for (int key = 0; key < 10; key++) {
+                    long[] offsets = tree.rangeScan(key, key);
+                    int expected = 0;
+                    for (int slot = key; slot < newSlotByOldSlot.length; slot += 10) {
+                        if (newSlotByOldSlot[slot] >= 0) {
+                            assert offsets[expected] == (long) newSlotByOldSlot[slot] * RecordFormat.RECORD_SIZE
+                                : "Смещение должно быть переведено на новый номер записи";
+                            expected++;
+                        }
+                    }
+                    assert offsets.length == expected : "Ключ " + key + " должен сохранить только скопированные записи";
+                }
+            }
+            
+            System.out.println("✅ testRemapOffsets - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testRemapOffsets - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testDuplicateEntry() {
+        String testFile = "test_data/bplus_duplicate.idx";
+        
+        try (BPlusTree tree = new BPlusTree(testFile)) {
+            tree.open(true);
+            tree.insert(5, 100);
+            
+            try {
+                tree.insert(5, 100);
+                assert false : "Повторный элемент должен вызывать исключение";
+            } catch (DatabaseException e) {
+                assert "DUPLICATE_KEY".equals(e.getErrorCode()) : "Код ошибки должен быть DUPLICATE_KEY";
+            }
+            
+            System.out.println("✅ testDuplicateEntry - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testDuplicateEntry - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testStaleSnapshot() {
+        String testFile = "test_data/bplus_stale.idx";
+        String crashCopy = "test_data/bplus_stale_crash.idx";
+        
+        try {
+            safeDelete(testFile);
+            safeDelete(crashCopy);
+            
+            try (BPlusTree tree = new BPlusTree(testFile, new BufferPool(64))) {
+                tree.open(true);
+                for (int i = 0; i < 5000; i++) {
+                    tree.insert(i, (long) i * 256);
+                }
+                tree.flush();
+                
+                // Изменения после flush остаются в памяти, файл только помечается устаревшим
+                for (int i = 5000; i < 10000; i++) {
+                    tree.insert(i, (long) i * 256);
+                }
+                tree.delete(7, 7 * 256);
+                Files.copy(Paths.get(testFile), Paths.get(crashCopy));
+            }
+            
+            try (BPlusTree tree = new BPlusTree(crashCopy)) {
+                tree.open(false);
+                assert tree.needsRebuild() && tree.isStale() : "Дерево должно быть помечено устаревшим";
+                
+                tree.acceptStaleSnapshot();
+                assert tree.getEntryCount() == 5000 : "Должно остаться дерево контрольной точки";
+                assert tree.rangeScan(0, 20000).length == 5000 : "Изменения после flush не должны попасть в файл";
+                assert tree.rangeScan(7, 7).length == 1 : "Удаление после flush не должно попасть в файл";
+                
+                tree.insert(5000, 5000L * 256);
+            }
+            
+            try (BPlusTree tree = new BPlusTree(crashCopy)) {
+                tree.open(false);
+                assert !tree.needsRebuild() : "После штатного закрытия дерево чистое";
+                assert tree.getEntryCount() == 5001 : "Должно быть 5001 элемент";
+            }
+            
+            System.out.println("✅ testStaleSnapshot - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testStaleSnapshot - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+            safeDelete(crashCopy);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package backend.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import storage.BufferPool;
+import storage.FileManager;
+import storage.IOMode;
+import storage.RecordFormat;
+
+public class ConcurrentReadBenchmark {
+    
+    private static final int RECORD_COUNT = 40_000; // ~10MB data.db
+    private static final int READS_PER_THREAD = 200_000;
+    
+    public static void main(String[] args) throws Exception {
+        String testFile = "test_data/concurrent_read_bench.db";
+        Files.createDirectories(Paths.get("test_data"));
+        Files.deleteIfExists(Paths.get(testFile));
+        
+        try (FileManager writer = new FileManager(testFile)) {
+            writer.open(true);
+            byte[] record = new byte[RecordFormat.RECORD_SIZE];
+            for (int i = 0; i < RECORD_COUNT; i++) {
+                record[0] = (byte) i;
+                writer.write((long) i * RecordFormat.RECORD_SIZE, record);
+            }
+        }
+        
+        // Минимум 4 потока, чтобы и на малом числе ядер было видно отсутствие деградации
+        int cores = Math.max(Runtime.getRuntime().availableProcessors(), 4);
+        System.out.println("Ядер " + Runtime.getRuntime().availableProcessors() + ", потоков-читателей до " + cores + ", записей " + RECORD_COUNT);
+        
+        runSeries("pread", testFile, IOMode.STANDARD, null, cores);
+        runSeries("pool", testFile, IOMode.STANDARD, new BufferPool(2048), cores);
+        runSeries("mapped", testFile, IOMode.MAPPED, null, cores);
+        
+        Files.deleteIfExists(Paths.get(testFile));
+    }
+    
+    private static void runSeries(String name, String testFile, IOMode mode, BufferPool pool, int cores)
+            throws Exception {
+        try (FileManager manager = new FileManager(testFile, mode, pool)) {
+            manager.open(false);
+            
+            // Прогрев JIT и кэша страниц ОС
+            measure(manager, 1);
+            
+            double baseline = 0;
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                double opsPerSecond = measure(manager, threads);
+                if (threads == 1) {
+                    baseline = opsPerSecond;
+                }
+                System.out.printf("BENCH %-6s threads=%-3d %,12.0f reads/s  x%.2f%n",
+                    name, threads, opsPerSecond, opsPerSecond / baseline);
+            }
+        }
+    }
+    
+    private static double measure(FileManager manager, int threads) throws Exception {
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    for (int i = 0; i < READS_PER_THREAD; i++) {
+                        int recordIndex = random.nextInt(RECORD_COUNT);
+                        byte[] data = manager.read((long) recordIndex * RecordFormat.RECORD_SIZE,
+                            RecordFormat.RECORD_SIZE);
+                        if (data[0] != (byte) recordIndex) {
+                            throw new IllegalStateException("Wrong record at " + recordIndex);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Concurrent read failed", errors.get(0));
+        }
+        return (double) threads * READS_PER_THREAD / (elapsed / 1_000_000_000.0);
+    }
+}
@@ -3,11 +3,26 @@ package backend.test;
 import exceptions.DatabaseException;
 import model.Employee;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.RandomAccessFile;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import core.DatabaseCompactor;
 import core.DatabaseEngine;
+import core.IndexRebuilder;
+import storage.Durability;
+import storage.IOMode;
+import storage.IndexType;
+import storage.RecordFormat;
+import storage.StorageConfig;
+import storage.WriteAheadLog;
+import util.SerializationUtil;
 
 public class DatabaseEngineTest {
     
@@ -17,6 +32,26 @@ public class DatabaseEngineTest {
         testSearchOperations();
         testBulkOperations();
         testErrorHandling();
+        testChunkedScan();
+        testStreamingScan();
+        testParallelScan();
+        testFreeSpaceReuse();
+        testCompaction();
+        testOnlineCompaction();
+        testInterruptedCompactionSwap();
+        testCloseStopsCompaction();
+        testDenseIndex();
+        testSecondaryIndexes();
+        testRangeIndexes();
+        testNameIndex();
+        testBitmapFilters();
+        testMetaCheckpoints();
+        testWriteAheadLog();
+        testDurabilityModes();
+        testCrashRecovery();
+        testIndexRebuild();
+        testFailedOpenReleasesFiles();
+        testMappedGrowthAfterCrash();
         System.out.println("✅ Все тесты DatabaseEngine прошли успешно!");
     }
     
@@ -216,4 +251,1440 @@ public class DatabaseEngineTest {
             safeDelete(testDb);
         }
     }
+    
+    static void testChunkedScan() {
+        String testDb = "test_data/chunked_scan_test";
+        
+        try {
+            safeDelete(testDb);
+            
+            // Маленький блок (4 записи), чтобы просмотр прошел через много блоков с упреждающим чтением
+            StorageConfig config = new StorageConfig();
+            config.setScanChunkSize(1024);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                
+                String[] departments = {"IT", "HR", "Sales"};
+                for (int i = 1; i <= 50; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", departments[i % 3], "Специалист",
+                                                1000f + i, LocalDate.of(2020, 1, 1)));
+                }
+                db.deleteEmployeeById(7);
+                
+                assert db.getAllEmployees().size() == 49 : "Должно быть 49 активных сотрудников";
+                assert db.findEmployeesByDepartment("IT").size() == 16 : "В IT должно быть 16 сотрудников";
+                
+                // Изменение, которое пока лежит только в пуле страниц, должно быть видно просмотру
+                db.updateEmployee(new Employee(50, "Сотрудник", "Finance", "Специалист",
+                                               2000f, LocalDate.of(2020, 1, 1)));
+                assert db.findEmployeesByDepartment("Finance").size() == 1 : "Обновление должно быть видно при просмотре";
+            }
+            
+            // Тот же результат без упреждающего чтения
+            config.setScanReadAhead(false);
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                assert db.getAllEmployees().size() == 49 : "Без упреждающего чтения результат должен совпадать";
+            }
+            
+            System.out.println("✅ testChunkedScan - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testChunkedScan - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testStreamingScan() {
+        String testDb = "test_data/streaming_scan_test";
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setScanChunkSize(1024);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                
+                String[] departments = {"IT", "HR", "Sales"};
+                for (int i = 1; i <= 40; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", departments[i % 3], "Специалист",
+                                                1000f + i, LocalDate.of(2020, 1, 1)));
+                }
+                db.deleteEmployeeById(3);
+                
+                // Поток возвращает те же записи и в том же порядке, что и список
+                List<Integer> expectedIds = db.findEmployeesByDepartment("IT").stream()
+                    .map(Employee::getId)
+                    .collect(Collectors.toList());
+                try (Stream<Employee> stream = db.streamEmployeesByDepartment("IT")) {
+                    List<Integer> ids = stream.map(Employee::getId).collect(Collectors.toList());
+                    assert ids.equals(expectedIds) : "Поток должен совпадать со списком";
+                }
+                
+                try (Stream<Employee> stream = db.streamAllEmployees()) {
+                    assert stream.count() == 39 : "Поток должен вернуть 39 активных сотрудников";
+                }
+                
+                // Поток можно прервать раньше конца файла
+                try (Stream<Employee> stream = db.streamAllEmployees()) {
+                    List<Employee> firstFive = stream.limit(5).collect(Collectors.toList());
+                    assert firstFive.size() == 5 : "limit(5) должен вернуть 5 записей";
+                    assert firstFive.get(0).getId() == 1 : "Записи должны идти в порядке файла";
+                }
+                
+                // Открытый поток не держит блокировку чтения: писатель из другого потока
+                // не ждет его закрытия, а удаленная запись в еще не прочитанный блок не попадает
+                try (Stream<Employee> stream = db.streamAllEmployees()) {
+                    Iterator<Employee> employees = stream.iterator();
+                    assert employees.next().getId() == 1 : "Записи должны идти в порядке файла";
+                    Thread writer = new Thread(() -> {
+                        try {
+                            db.deleteEmployeeById(40);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    writer.start();
+                    writer.join(5000);
+                    assert !writer.isAlive() : "Писатель не должен ждать закрытия потока";
+                    
+                    int count = 1;
+                    while (employees.hasNext()) {
+                        assert employees.next().getId() != 40 : "Удаленная запись не должна попасть в поток";
+                        count++;
+                    }
+                    assert count == 38 : "Поток должен вернуть 38 активных сотрудников: " + count;
+                }
+                
+                try (Stream<Employee> stream = db.streamEmployeesByDepartment("IT")) {
+                    Iterator<Employee> employees = stream.iterator();
+                    employees.next();
+                    db.deleteEmployeeById(39); // IT, последний блок
+                    db.updateEmployee(new Employee(36, "Сотрудник", "HR", "Специалист",
+                                                   1036f, LocalDate.of(2020, 1, 1)));
+                    while (employees.hasNext()) {
+                        Employee employee = employees.next();
+                        assert employee.getId() != 39 : "Удаленная запись не должна попасть в поток";
+                        assert employee.getDepartment().equals("IT") : "Запись, ушедшая из отдела, не должна попасть в поток";
+                    }
+                }
+                
+                // Уплотнение меняет смещения всех записей - открытый поток это обнаруживает
+                try (Stream<Employee> stream = db.streamAllEmployees()) {
+                    Iterator<Employee> employees = stream.iterator();
+                    employees.next();
+                    db.compact();
+                    try {
+                        while (employees.hasNext()) {
+                            employees.next();
+                        }
+                        assert false : "Поток должен обнаружить подмену data.db";
+                    } catch (DatabaseException e) {
+                        assert e.getErrorCode().equals("STREAM_INVALIDATED") : "Неверный код ошибки: " + e.getErrorCode();
+                    }
+                }
+                
+                db.addEmployee(new Employee(41, "Новый Сотрудник", "IT", "Специалист",
+                                            1500f, LocalDate.of(2021, 1, 1)));
+                try (Stream<Employee> stream = db.streamEmployeesByName("новый")) {
+                    assert stream.count() == 1 : "Новый сотрудник должен находиться потоком";
+                }
+            }
+            
+            System.out.println("✅ testStreamingScan - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testStreamingScan - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testParallelScan() {
+        String testDb = "test_data/parallel_scan_test";
+        
+        try {
+            safeDelete(testDb);
+            
+            // Маленький блок, чтобы 300 записей разбились на много диапазонов
+            StorageConfig parallel = new StorageConfig();
+            parallel.setScanChunkSize(1024);
+            parallel.setScanParallelism(4);
+            
+            StorageConfig sequential = new StorageConfig();
+            sequential.setScanChunkSize(1024);
+            sequential.setScanParallelism(1);
+            
+            List<Integer> parallelIds;
+            String[] departments = {"IT", "HR", "Sales", "Finance"};
+            try (DatabaseEngine db = new DatabaseEngine(testDb, parallel)) {
+                db.open(true);
+                
+                for (int i = 1; i <= 300; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", departments[i % 4], "Специалист",
+                                                1000f + i, LocalDate.of(2020, 1, 1)));
+                }
+                db.deleteEmployeeById(100);
+                
+                List<Employee> all = db.getAllEmployees();
+                assert all.size() == 299 : "Должно быть 299 активных сотрудников";
+                for (int i = 1; i < all.size(); i++) {
+                    assert all.get(i - 1).getId() < all.get(i).getId() : "Результаты должны идти в порядке смещений";
+                }
+                
+                parallelIds = db.findEmployeesByDepartment("HR").stream()
+                    .map(Employee::getId)
+                    .collect(Collectors.toList());
+                assert parallelIds.size() == 75 : "В HR должно быть 75 сотрудников";
+            }
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, sequential)) {
+                db.open(false);
+                List<Integer> sequentialIds = db.findEmployeesByDepartment("HR").stream()
+                    .map(Employee::getId)
+                    .collect(Collectors.toList());
+                assert sequentialIds.equals(parallelIds) : "Параллельный и последовательный просмотр должны совпадать";
+            }
+            
+            System.out.println("✅ testParallelScan - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testParallelScan - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testFreeSpaceReuse() {
+        String testDb = "test_data/free_space_test";
+        
+        try {
+            safeDelete(testDb);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb)) {
+                db.open(true);
+                
+                for (int i = 1; i <= 10; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", "IT", "Специалист",
+                                                1000f + i, LocalDate.of(2020, 1, 1)));
+                }
+                long sizeBefore = db.getDatabaseSize();
+                
+                db.deleteEmployeeById(2);
+                db.deleteEmployeeById(5);
+                db.deleteEmployeeById(8);
+                assert db.getFreeRecordCount() == 3 : "В списке свободных должно быть 3 записи";
+                assert db.getEmployeeCount() == 7 : "Должно остаться 7 сотрудников";
+                
+                // Новые сотрудники занимают места удаленных, файл не растет
+                for (int i = 11; i <= 13; i++) {
+                    db.addEmployee(new Employee(i, "Новый Сотрудник", "HR", "Специалист",
+                                                2000f, LocalDate.of(2021, 1, 1)));
+                }
+                assert db.getDatabaseSize() == sizeBefore : "Размер data.db не должен измениться";
+                assert db.getFreeRecordCount() == 0 : "Список свободных должен опустеть";
+                assert db.getEmployeeCount() == 10 : "Должно быть 10 сотрудников";
+                assert db.findEmployeeById(2) == null : "Удаленный сотрудник не должен находиться";
+                assert db.findEmployeeById(12) != null : "Новый сотрудник должен находиться по ID";
+                assert db.findEmployeesByDepartment("HR").size() == 3 : "В HR должно быть 3 сотрудника";
+                assert db.getAllEmployees().size() == 10 : "Просмотр должен вернуть 10 сотрудников";
+                
+                // Следующий сотрудник уже идет в конец файла
+                db.addEmployee(new Employee(14, "Сотрудник", "IT", "Специалист",
+                                            1000f, LocalDate.of(2020, 1, 1)));
+                assert db.getDatabaseSize() == sizeBefore + RecordFormat.RECORD_SIZE : "Запись должна добавиться в конец";
+                
+                db.deleteEmployeeById(3);
+                db.deleteEmployeeById(14);
+            }
+            
+            // Список свободных записей переживает переоткрытие
+            try (DatabaseEngine db = new DatabaseEngine(testDb)) {
+                db.open(false);
+                assert db.getFreeRecordCount() == 2 : "После переоткрытия в списке должно быть 2 записи";
+                
+                long sizeBefore = db.getDatabaseSize();
+                db.addEmployee(new Employee(15, "Сотрудник", "IT", "Специалист",
+                                            1000f, LocalDate.of(2020, 1, 1)));
+                db.addEmployee(new Employee(16, "Сотрудник", "IT", "Специалист",
+                                            1000f, LocalDate.of(2020, 1, 1)));
+                assert db.getDatabaseSize() == sizeBefore : "После переоткрытия места тоже должны переиспользоваться";
+                assert db.findEmployeeById(15) != null && db.findEmployeeById(16) != null : "Новые сотрудники должны находиться";
+            }
+            
+            System.out.println("✅ testFreeSpaceReuse - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testFreeSpaceReuse - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testCompaction() {
+        String testDb = "test_data/compaction_test";
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0); // только ручное уплотнение
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                
+                for (int i = 1; i <= 100; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", i % 2 == 0 ? "IT" : "HR", "Специалист",
+                                                1000f + i, LocalDate.of(2020, 1, 1)));
+                }
+                for (int i = 1; i <= 100; i += 5) {
+                    db.deleteEmployeeById(i);
+                }
+                
+                DatabaseCompactor.CompactionResult result = db.compact();
+                assert result.getLiveRecords() == 80 : "Должно остаться 80 записей";
+                assert result.getRemovedRecords() == 20 : "Должно быть удалено 20 записей";
+                assert db.getDatabaseSize() == 80L * RecordFormat.RECORD_SIZE : "data.db должен содержать только живые записи";
+                assert db.getFreeRecordCount() == 0 : "После уплотнения свободных записей нет";
+                assert db.getEmployeeCount() == 80 : "Счетчик записей должен совпадать";
+                
+                assert db.findEmployeeById(1) == null : "Удаленный сотрудник не должен находиться";
+                Employee moved = db.findEmployeeById(100);
+                assert moved != null && moved.getSalary() == 1100f : "Сотрудник должен находиться по новому смещению";
+                assert db.getAllEmployees().size() == 80 : "Просмотр должен вернуть 80 сотрудников";
+                
+                db.addEmployee(new Employee(101, "Новый Сотрудник", "IT", "Специалист",
+                                            1000f, LocalDate.of(2021, 1, 1)));
+                assert db.getDatabaseSize() == 81L * RecordFormat.RECORD_SIZE : "Новая запись идет в конец файла";
+            }
+            
+            // Уплотненные файлы переживают переоткрытие
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                assert db.getEmployeeCount() == 81 : "После переоткрытия должна быть 81 запись";
+                assert db.findEmployeeById(50) != null : "Сотрудник 50 должен находиться после переоткрытия";
+                assert db.findEmployeeById(101) != null : "Сотрудник 101 должен находиться после переоткрытия";
+            }
+            
+            // Автоуплотнение при превышении доли удаленных записей
+            config.setCompactionThreshold(0.3f);
+            config.setCompactionMinRecords(10);
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                for (int i = 2; i <= 60; i++) {
+                    db.deleteEmployeeById(i);
+                }
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (db.isCompactionRunning() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assert !db.isCompactionRunning() : "Автоуплотнение должно завершиться";
+                assert db.getDatabaseSize() < 81L * RecordFormat.RECORD_SIZE : "Автоуплотнение должно уменьшить файл";
+                assert db.getAllEmployees().size() == db.getEmployeeCount() : "Счетчик должен совпадать с просмотром";
+            }
+            
+            System.out.println("✅ testCompaction - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testCompaction - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    // Изменения, сделанные во время копирования, должны попасть в уплотненный файл
+    static void testOnlineCompaction() {
+        String testDb = "test_data/online_compaction_test";
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            config.setScanChunkSize(1024);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                
+                for (int i = 1; i <= 2000; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", "IT", "Специалист",
+                                                1000f, LocalDate.of(2020, 1, 1)));
+                }
+                for (int i = 1; i <= 2000; i += 2) {
+                    db.deleteEmployeeById(i);
+                }
+                
+                // Писатель меняет базу, пока идет уплотнение
+                java.util.Map<Integer, Float> expected = new java.util.concurrent.ConcurrentHashMap<>();
+                for (int i = 2; i <= 2000; i += 2) {
+                    expected.put(i, 1000f);
+                }
+                Thread writer = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 300; i++) {
+                            int id = 2 + (i * 14) % 2000;
+                            if (i % 3 == 0 && expected.containsKey(id)) {
+                                db.deleteEmployeeById(id);
+                                expected.remove(id);
+                            } else if (expected.containsKey(id)) {
+                                db.updateEmployee(new Employee(id, "Сотрудник", "HR", "Специалист",
+                                                               2000f + i, LocalDate.of(2020, 1, 1)));
+                                expected.put(id, 2000f + i);
+                            } else {
+                                int newId = 3000 + i;
+                                db.addEmployee(new Employee(newId, "Сотрудник", "Sales", "Специалист",
+                                                            500f, LocalDate.of(2020, 1, 1)));
+                                expected.put(newId, 500f);
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                writer.start();
+                db.compact();
+                writer.join();
+                
+                List<Employee> all = db.getAllEmployees();
+                assert all.size() == expected.size() : "Количество сотрудников должно совпадать: " + all.size() + " != " + expected.size();
+                for (Employee emp : all) {
+                    Float salary = expected.get(emp.getId());
+                    assert salary != null && salary == emp.getSalary() : "Неверные данные сотрудника " + emp.getId();
+                    Employee byId = db.findEmployeeById(emp.getId());
+                    assert byId != null && byId.getSalary() == emp.getSalary() : "Индекс должен указывать на актуальную запись " + emp.getId();
+                }
+                assert db.getEmployeeCount() == expected.size() : "Счетчик записей должен совпадать";
+                
+                // Вторичные индексы переведены на новые смещения
+                for (String department : new String[] { "IT", "HR", "Sales" }) {
+                    long count = all.stream().filter(emp -> emp.getDepartment().equals(department)).count();
+                    List<Employee> found = db.findEmployeesByDepartment(department);
+                    assert found.size() == count : "Индекс отделов должен указывать на новые смещения: " + department;
+                    for (Employee emp : found) {
+                        assert emp.getDepartment().equals(department) : "Индекс отделов вернул чужую запись " + emp.getId();
+                    }
+                }
+                assert db.findEmployeesByName("Сотрудник").size() == all.size() : "Триграммный индекс должен покрывать все записи";
+                List<Employee> bySalary = db.findEmployeesBySalaryRange(0f, 1_000_000f);
+                assert bySalary.size() == all.size() : "Индекс зарплат должен покрывать все записи";
+                for (Employee emp : bySalary) {
+                    assert expected.get(emp.getId()) == emp.getSalary() : "Индекс зарплат вернул чужую запись " + emp.getId();
+                }
+                assert db.findEmployeesByHireDateRange(LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 1)).size() == all.size()
+                    : "Индекс дат приема должен покрывать все записи";
+                
+                // Освобожденные после копирования записи занимаются заново
+                long size = db.getDatabaseSize();
+                int free = db.getFreeRecordCount();
+                for (int i = 0; i < free; i++) {
+                    db.addEmployee(new Employee(5000 + i, "Новичок", "IT", "Специалист", 700f, LocalDate.of(2022, 1, 1)));
+                }
+                assert db.getDatabaseSize() == size : "Новые записи должны занять свободные места";
+                assert db.findEmployeesByName("Новичок").size() == free : "Новые записи должны попасть в триграммный индекс";
+                assert db.findEmployeesBySalaryRange(700f, 700f).size() == free : "Новые записи должны попасть в индекс зарплат";
+            }
+            
+            System.out.println("✅ testOnlineCompaction - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testOnlineCompaction - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    // close не возвращается, пока уплотнение (фоновое или из другого потока) работает с файлами
+    static void testCloseStopsCompaction() {
+        String testDb = "test_data/close_compaction_test";
+        String[] files = {"meta.db", "data.db", "index.db", "department.idx", "position.idx", "deleted.idx",
+                          "name.idx", "salary.idx", "hire_date.idx", "wal.log",
+                          "data.db.compact", "index.db.compact"};
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0.3f);
+            config.setCompactionMinRecords(10);
+            config.setScanChunkSize(1024);
+            config.setDurability(Durability.NONE);
+            
+            // Автоуплотнение запускается удалениями и застает закрытие базы
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                for (int i = 1; i <= 20000; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", "IT", "Специалист",
+                                                1000f, LocalDate.of(2020, 1, 1)));
+                }
+                for (int i = 1; i <= 10000; i++) {
+                    db.deleteEmployeeById(i);
+                }
+            }
+            assert Thread.getAllStackTraces().keySet().stream()
+                .noneMatch(thread -> thread.getName().equals("db-compaction")) : "Поток уплотнения должен завершиться при закрытии";
+            assert !Files.exists(Paths.get(testDb, "data.db.compact")) : "Копия data.db должна быть удалена до возврата из close";
+            assert !Files.exists(Paths.get(testDb, "index.db.compact")) : "Копия index.db должна быть удалена до возврата из close";
+            
+            // Уплотнение, запущенное из другого потока
+            config.setCompactionThreshold(0);
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                Thread compaction = new Thread(() -> {
+                    try {
+                        db.compact();
+                    } catch (IOException | DatabaseException e) {
+                        // прервано закрытием
+                    }
+                });
+                compaction.start();
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (!db.isCompactionRunning() && compaction.isAlive() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+                db.close();
+                assert !db.isCompactionRunning() : "После close уплотнение не должно работать";
+                compaction.join(10_000);
+                assert !compaction.isAlive() : "Уплотнение должно завершиться";
+            }
+            
+            // База после прерванного уплотнения открывается и согласована
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                assert db.getEmployeeCount() == 10000 : "Должно остаться 10000 сотрудников";
+                assert db.getAllEmployees().size() == 10000 : "Просмотр должен вернуть 10000 сотрудников";
+                assert db.findEmployeeById(15000) != null : "Сотрудник 15000 должен находиться";
+            }
+            
+            System.out.println("✅ testCloseStopsCompaction - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testCloseStopsCompaction - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            for (String file : files) {
+                try {
+                    Files.deleteIfExists(Paths.get(testDb, file));
+                } catch (IOException e) {
+                    System.err.println("Warning: Could not delete " + file);
+                }
+            }
+            safeDelete(testDb);
+        }
+    }
+    
+    // Падение между переименованиями data.db и index.db: при открытии подмена доводится до конца
+    static void testInterruptedCompactionSwap() {
+        String testDb = "test_data/interrupted_swap_test";
+        String[] files = {"meta.db", "data.db", "index.db", "department.idx", "position.idx", "deleted.idx",
+                          "name.idx", "salary.idx", "hire_date.idx", "wal.log", "compact.pending",
+                          "data.db.compact", "index.db.compact", "index.db.old"};
+        Path indexPath = Paths.get(testDb, "index.db");
+        
+        try {
+            // Открытый index.db подменяется каталогом - в Windows открытый файл не удалить
+            if (System.getProperty("os.name").startsWith("Windows")) {
+                System.out.println("✅ testInterruptedCompactionSwap - SKIPPED");
+                return;
+            }
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            
+            // Базу не закрываем: после ошибки подмены процесс как будто упал
+            DatabaseEngine crashed = new DatabaseEngine(testDb, config);
+            crashed.open(true);
+            for (int i = 1; i <= 100; i++) {
+                crashed.addEmployee(new Employee(i, "Сотрудник", i % 2 == 0 ? "IT" : "HR", "Специалист",
+                                                 1000f + i, LocalDate.of(2020, 1, 1)));
+            }
+            for (int i = 1; i <= 100; i += 5) {
+                crashed.deleteEmployeeById(i);
+            }
+            crashed.flush();
+            
+            // Каталог на месте index.db: data.db уже подменен, а index.db подменить не удается
+            Files.copy(indexPath, Paths.get(testDb, "index.db.old"));
+            Files.delete(indexPath);
+            Files.createDirectory(indexPath);
+            Files.createFile(indexPath.resolve("blocker"));
+            try {
+                crashed.compact();
+                assert false : "Подмена index.db должна была упасть";
+            } catch (IOException | DatabaseException e) {
+                // ожидаемо
+            }
+            assert Files.exists(Paths.get(testDb, "compact.pending")) : "Незаконченная подмена должна оставить compact.pending";
+            assert Files.exists(Paths.get(testDb, "index.db.compact")) : "Копия index.db должна остаться для завершения подмены";
+            assert !Files.exists(Paths.get(testDb, "data.db.compact")) : "data.db уже должен быть подменен";
+            
+            // На диске: новый data.db, старый index.db и его уплотненная копия
+            Files.delete(indexPath.resolve("blocker"));
+            Files.delete(indexPath);
+            Files.move(Paths.get(testDb, "index.db.old"), indexPath);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                assert !Files.exists(Paths.get(testDb, "compact.pending")) : "compact.pending должен быть удален";
+                assert !Files.exists(Paths.get(testDb, "index.db.compact")) : "Копия index.db должна быть перенесена";
+                assert db.getDatabaseSize() == 80L * RecordFormat.RECORD_SIZE : "data.db должен быть уплотненным";
+                assert db.getEmployeeCount() == 80 : "Метаданные должны соответствовать уплотненной базе";
+                assert db.getFreeRecordCount() == 0 : "После уплотнения свободных записей нет";
+                for (int i = 1; i <= 100; i++) {
+                    Employee employee = db.findEmployeeById(i);
+                    if (i % 5 == 1) {
+                        assert employee == null : "Удаленный сотрудник " + i + " не должен находиться";
+                    } else {
+                        assert employee != null && employee.getSalary() == 1000f + i : "Индекс должен указывать на новое смещение " + i;
+                    }
+                }
+                assert db.findEmployeesByDepartment("IT").size() == 40 : "Вторичные индексы должны быть перестроены";
+            }
+            
+            System.out.println("✅ testInterruptedCompactionSwap - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testInterruptedCompactionSwap - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                if (Files.isDirectory(indexPath)) {
+                    Files.deleteIfExists(indexPath.resolve("blocker"));
+                }
+            } catch (IOException e) {
+                System.err.println("Warning: Could not delete " + indexPath.resolve("blocker"));
+            }
+            for (String file : files) {
+                try {
+                    Files.deleteIfExists(Paths.get(testDb, file));
+                } catch (IOException e) {
+                    System.err.println("Warning: Could not delete " + file);
+                }
+            }
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testDenseIndex() {
+        String testDb = "test_data/dense_index_test";
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig dense = new StorageConfig();
+            dense.setIndexType(IndexType.DENSE);
+            dense.setCompactionThreshold(0);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, dense)) {
+                db.open(true);
+                assert db.getIndexType() == IndexType.DENSE : "Должен использоваться плотный индекс";
+                
+                for (int i = 1; i <= 200; i++) {
+                    db.addEmployee(new Employee(i * 1000, "Сотрудник", "IT", "Специалист",
+                                                1000f + i, LocalDate.of(2020, 1, 1)));
+                }
+                for (int i = 1; i <= 200; i += 2) {
+                    db.deleteEmployeeById(i * 1000);
+                }
+                db.compact();
+                
+                assert db.findEmployeeById(2000) != null : "Сотрудник 2000 должен находиться после уплотнения";
+                assert db.findEmployeeById(1000) == null : "Удаленный сотрудник не должен находиться";
+            }
+            
+            // Тип индекса существующей базы определяется по файлу, а не по настройкам
+            try (DatabaseEngine db = new DatabaseEngine(testDb)) {
+                db.open(false);
+                assert db.getIndexType() == IndexType.DENSE : "Тип индекса должен сохраниться";
+                assert db.getEmployeeCount() == 100 : "Должно быть 100 сотрудников";
+                Employee found = db.findEmployeeById(200000);
+                assert found != null && found.getSalary() == 1200f : "Сотрудник 200000 должен находиться";
+            }
+            
+            System.out.println("✅ testDenseIndex - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testDenseIndex - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testSecondaryIndexes() {
+        String testDb = "test_data/secondary_index_test";
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            String[] departments = {"IT", "HR", "Sales"};
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                for (int i = 1; i <= 90; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", departments[i % 3], i % 2 == 0 ? "Инженер" : "Менеджер",
+                                                1000f + i, LocalDate.of(2020, 1, 1)));
+                }
+                
+                // Перевод между отделами и удаление
+                Employee moved = db.findEmployeeById(3);
+                moved.setDepartment("HR");
+                db.updateEmployee(moved);
+                db.deleteEmployeeById(6);
+                
+                List<Employee> it = db.findEmployeesByDepartment("IT");
+                assert it.size() == 28 : "В IT должно остаться 28 сотрудников, найдено " + it.size();
+                assert it.stream().allMatch(emp -> "IT".equals(emp.getDepartment())) : "Найдены сотрудники другого отдела";
+                assert db.findEmployeesByDepartment("HR").size() == 31 : "В HR должен быть 31 сотрудник";
+                assert db.findEmployeesByPosition("Инженер").size() == 44 : "Инженеров должно быть 44";
+                assert db.findEmployeesByDepartment("Marketing").isEmpty() : "Несуществующий отдел не должен находиться";
+                try (Stream<Employee> stream = db.streamEmployeesByDepartment("HR")) {
+                    assert stream.count() == 31 : "Поток должен вернуть 31 сотрудника";
+                }
+                
+                assert db.deleteEmployeesByDepartment("Sales") == 30 : "Должно быть удалено 30 сотрудников";
+                db.compact();
+                assert db.findEmployeesByDepartment("HR").size() == 31 : "После уплотнения индекс должен указывать на новые смещения";
+                assert db.findEmployeesByDepartment("Sales").isEmpty() : "Удаленные сотрудники не должны находиться";
+            }
+            
+            // Без файла индекса (база из старой версии или сбой) индекс перестраивается по data.db
+            Files.deleteIfExists(Paths.get(testDb, "department.idx"));
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                List<Employee> hr = db.findEmployeesByDepartment("HR");
+                assert hr.size() == 31 : "После перестройки в HR должен быть 31 сотрудник";
+                assert hr.stream().anyMatch(emp -> emp.getId() == 3) : "Переведенный сотрудник должен быть в HR";
+                assert db.findEmployeesByPosition("Менеджер").size() == 30 : "Менеджеров должно быть 30";
+            }
+            
+            System.out.println("✅ testSecondaryIndexes - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testSecondaryIndexes - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testRangeIndexes() {
+        String testDb = "test_data/range_index_test";
+        LocalDate start = LocalDate.of(2020, 1, 1);
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                // Добавляем в обратном порядке, чтобы порядок ключей не совпадал с порядком записей
+                for (int i = 200; i >= 1; i--) {
+                    db.addEmployee(new Employee(i, "Сотрудник", "IT", "Инженер",
+                                                1000f + i * 10, start.plusDays(i)));
+                }
+                
+                List<Employee> range = db.findEmployeesBySalaryRange(1500f, 2000f);
+                assert range.size() == 51 : "В диапазоне должно быть 51 сотрудник, найдено " + range.size();
+                for (int i = 1; i < range.size(); i++) {
+                    assert range.get(i - 1).getSalary() <= range.get(i).getSalary() : "Результат должен быть упорядочен по зарплате";
+                }
+                
+                // Изменение зарплаты переносит запись в другой диапазон, удаление убирает ее из индекса
+                Employee raised = db.findEmployeeById(60);
+                raised.setSalary(5000f);
+                db.updateEmployee(raised);
+                db.deleteEmployeeById(70);
+                
+                assert db.findEmployeesBySalaryRange(1500f, 2000f).size() == 49 : "В диапазоне должно остаться 49 сотрудников";
+                assert db.findEmployeesBySalaryRange(5000f, 5000f).get(0).getId() == 60 : "Повышенный сотрудник должен находиться";
+                assert db.findEmployeesBySalaryRange(2000f, 1500f).isEmpty() : "Пустой диапазон не должен ничего возвращать";
+                try (Stream<Employee> stream = db.streamEmployeesByHireDateRange(start.plusDays(61), start.plusDays(80))) {
+                    assert stream.count() == 19 : "За 20 дней принято 19 оставшихся сотрудников";
+                }
+                
+                db.compact();
+                assert db.findEmployeesBySalaryRange(1500f, 2000f).size() == 49 : "После уплотнения индекс должен указывать на новые смещения";
+            }
+            
+            // Без файла индекса дерево строится заново массовой загрузкой
+            Files.deleteIfExists(Paths.get(testDb, "salary.idx"));
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                assert db.findEmployeesBySalaryRange(1500f, 2000f).size() == 49 : "После перестройки в диапазоне должно быть 49 сотрудников";
+                assert db.findEmployeesBySalaryRange(0f, Float.MAX_VALUE).size() == 199 : "Всего должно быть 199 сотрудников";
+                assert db.findEmployeesByHireDateRange(start, start.plusDays(10)).size() == 10 : "За первые 10 дней принято 10 сотрудников";
+            }
+            
+            System.out.println("✅ testRangeIndexes - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testRangeIndexes - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testNameIndex() {
+        String testDb = "test_data/name_index_test";
+        String[] names = {"Иван Петров", "Петр Иванов", "Мария Сидорова", "Anna Smith"};
+        
+        try {
+            safeDelete(testDb);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb)) {
+                db.open(true);
+                for (int i = 1; i <= 40; i++) {
+                    db.addEmployee(new Employee(i, names[i % 4], "IT", "Инженер", 1000f, LocalDate.of(2020, 1, 1)));
+                }
+                
+                assert db.findEmployeesByName("иван").size() == 20 : "Подстрока 'иван' должна быть у 20 сотрудников";
+                assert db.findEmployeesByName("SMITH").size() == 10 : "Поиск не должен учитывать регистр";
+                // Триграммы "ива", "ван" есть у обоих имен, но "ван п" - только у одного
+                assert db.findEmployeesByName("ван п").size() == 10 : "Кандидаты должны проверяться по имени";
+                assert db.findEmployeesByName("").size() == 40 : "Пустой запрос должен вернуть всех";
+                
+                Employee renamed = db.findEmployeeById(3);
+                renamed.setName("Олег Кузнецов");
+                db.updateEmployee(renamed);
+                db.deleteEmployeeById(7);
+                
+                assert db.findEmployeesByName("smith").size() == 8 : "После изменения и удаления должно остаться 8";
+                try (Stream<Employee> stream = db.streamEmployeesByName("кузн")) {
+                    assert stream.count() == 1 : "Новое имя должно находиться";
+                }
+            }
+            
+            // Без файла индекса триграммы перестраиваются по data.db
+            Files.deleteIfExists(Paths.get(testDb, "name.idx"));
+            try (DatabaseEngine db = new DatabaseEngine(testDb)) {
+                db.open(false);
+                assert db.findEmployeesByName("smith").size() == 8 : "После перестройки должно быть 8";
+                assert db.findEmployeesByName("о").size() == 31 : "Буква 'о' есть у 31 сотрудника";
+            }
+            
+            System.out.println("✅ testNameIndex - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testNameIndex - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testBitmapFilters() {
+        String testDb = "test_data/bitmap_filter_test";
+        String[] departments = {"IT", "HR", "Sales", "Finance"};
+        String[] positions = {"Инженер", "Менеджер", "Аналитик"};
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                for (int i = 1; i <= 1200; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", departments[i % 4], positions[i % 3],
+                                                1000f, LocalDate.of(2020, 1, 1)));
+                }
+                
+                assert db.countEmployees(List.of("IT"), null) == 300 : "В IT должно быть 300 сотрудников";
+                assert db.countEmployees(List.of("IT"), List.of("Инженер")) == 100 : "Инженеров в IT должно быть 100";
+                assert db.countEmployees(List.of("IT", "HR"), List.of("Инженер", "Аналитик")) == 400 :
+                    "ИЛИ по отделам и должностям, И между полями";
+                assert db.countEmployees(List.of("Marketing"), null) == 0 : "Несуществующий отдел не должен находиться";
+                
+                List<Employee> found = db.findEmployees(List.of("Sales"), List.of("Менеджер"));
+                assert found.size() == 100 : "Должно быть найдено 100 сотрудников";
+                assert found.stream().allMatch(emp -> "Sales".equals(emp.getDepartment()) && "Менеджер".equals(emp.getPosition())) :
+                    "Найдены сотрудники, не подходящие под фильтр";
+                
+                // Удаленные записи исключаются, повторно занятые - снова учитываются
+                for (int i = 12; i <= 120; i += 12) {
+                    db.deleteEmployeeById(i);
+                }
+                assert db.countEmployees(List.of("IT"), List.of("Инженер")) == 90 : "После удаления должно остаться 90";
+                db.addEmployee(new Employee(5000, "Новый", "IT", "Инженер", 1000f, LocalDate.of(2021, 1, 1)));
+                assert db.countEmployees(List.of("IT"), List.of("Инженер")) == 91 : "Новый сотрудник должен учитываться";
+                try (Stream<Employee> stream = db.streamEmployees(null, List.of("Аналитик"))) {
+                    assert stream.count() == 400 : "Аналитиков должно быть 400";
+                }
+                
+                try {
+                    db.countEmployees(null, List.of());
+                    assert false : "Фильтр без условий должен вызывать исключение";
+                } catch (DatabaseException e) {
+                    assert "INVALID_CRITERIA".equals(e.getErrorCode()) : "Код ошибки должен быть INVALID_CRITERIA";
+                }
+            }
+            
+            // Без файлов битовых карт они перестраиваются по data.db
+            Files.deleteIfExists(Paths.get(testDb, "department.idx"));
+            Files.deleteIfExists(Paths.get(testDb, "deleted.idx"));
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                assert db.countEmployees(List.of("IT"), List.of("Инженер")) == 91 : "После перестройки должно быть 91";
+                assert db.countEmployees(List.of(departments), null) == 1191 : "Всего должен быть 1191 сотрудник";
+            }
+            
+            System.out.println("✅ testBitmapFilters - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testBitmapFilters - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testMetaCheckpoints() {
+        String testDb = "test_data/meta_checkpoint_test";
+        String crashCopy = "test_data/meta_checkpoint_crash";
+        String[] files = {"meta.db", "data.db", "index.db", "department.idx", "position.idx", "deleted.idx",
+                          "name.idx", "salary.idx", "hire_date.idx", "wal.log"};
+        
+        try {
+            safeDelete(testDb);
+            safeDelete(crashCopy);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            config.setMetaCheckpointInterval(1000);
+            // Без пула страниц и с отображаемым индексом все записи сразу видны в файлах
+            config.setBufferPoolPages(0);
+            config.setIndexType(IndexType.DENSE);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                for (int i = 1; i <= 50; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", "IT", "Инженер", 1000f, LocalDate.of(2020, 1, 1)));
+                }
+                for (int i = 1; i <= 10; i++) {
+                    db.deleteEmployeeById(i * 5);
+                }
+                
+                // Счетчики изменились только в памяти, файл помечен как не соответствующий им
+                byte[] meta = Files.readAllBytes(Paths.get(testDb, "meta.db"));
+                assert meta[RecordFormat.META_STATE_OFFSET + 1] == RecordFormat.META_STATE_DIRTY : "meta.db должен быть помечен грязным";
+                assert db.getEmployeeCount() == 40 : "В памяти должно быть 40 сотрудников";
+                
+                // Снимок файлов открытой базы - то, что осталось бы на диске после сбоя
+                Files.createDirectories(Paths.get(crashCopy));
+                for (String file : files) {
+                    Files.copy(Paths.get(testDb, file), Paths.get(crashCopy, file));
+                }
+            }
+            
+            try (DatabaseEngine db = new DatabaseEngine(crashCopy, config)) {
+                db.open(false);
+                assert db.getEmployeeCount() == 40 : "Число записей должно восстановиться по индексу";
+                assert db.getFreeRecordCount() == 10 : "Список свободных должен восстановиться";
+                
+                long sizeBefore = db.getDatabaseSize();
+                for (int i = 1; i <= 10; i++) {
+                    db.addEmployee(new Employee(100 + i, "Новый", "HR", "Менеджер", 1000f, LocalDate.of(2021, 1, 1)));
+                }
+                assert db.getDatabaseSize() == sizeBefore : "Новые записи должны занять удаленные";
+                assert db.getFreeRecordCount() == 0 : "Список свободных должен опустеть";
+                assert db.findEmployeeById(6).getName().equals("Сотрудник") : "Живые записи не должны затираться";
+            }
+            
+            // Штатное закрытие - контрольная точка
+            try (DatabaseEngine db = new DatabaseEngine(crashCopy, config)) {
+                db.open(false);
+                assert db.getEmployeeCount() == 50 : "После штатного закрытия должно быть 50 сотрудников";
+            }
+            byte[] meta = Files.readAllBytes(Paths.get(crashCopy, "meta.db"));
+            assert meta[RecordFormat.META_STATE_OFFSET + 1] == RecordFormat.META_STATE_CLEAN : "meta.db должен быть чистым";
+            
+            System.out.println("✅ testMetaCheckpoints - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testMetaCheckpoints - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            for (String file : files) {
+                try {
+                    Files.deleteIfExists(Paths.get(crashCopy, file));
+                    Files.deleteIfExists(Paths.get(testDb, file));
+                } catch (IOException e) {
+                    System.err.println("Warning: Could not delete " + file);
+                }
+            }
+            safeDelete(crashCopy);
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testWriteAheadLog() {
+        String testDb = "test_data/wal_engine_test";
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            config.setWalCheckpointSize(64 * 1024);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                for (int i = 1; i <= 100; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", "IT", "Инженер", 1000f, LocalDate.of(2020, 1, 1)));
+                }
+                db.deleteEmployeeById(7);
+                
+                long logSize = Files.size(Paths.get(testDb, "wal.log"));
+                assert logSize > 100 * RecordFormat.RECORD_SIZE : "Каждая операция должна быть в журнале до подтверждения";
+                
+                db.flush();
+                assert Files.size(Paths.get(testDb, "wal.log")) == 16 : "Контрольная точка обрезает журнал";
+                
+                // Журнал больше порога - контрольная точка делается сама
+                for (int i = 101; i <= 400; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", "IT", "Инженер", 1000f, LocalDate.of(2020, 1, 1)));
+                }
+                assert Files.size(Paths.get(testDb, "wal.log")) < 64 * 1024 : "Журнал не должен расти дальше порога";
+            }
+            
+            assert Files.size(Paths.get(testDb, "wal.log")) == 16 : "После штатного закрытия журнал пуст";
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                assert db.getEmployeeCount() == 399 : "Должно быть 399 сотрудников";
+            }
+            
+            System.out.println("✅ testWriteAheadLog - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testWriteAheadLog - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testDurabilityModes() {
+        String testDb = "test_data/durability_test";
+        String noWalDb = "test_data/durability_nowal_test";
+        String crashCopy = "test_data/durability_crash";
+        String[] files = {"meta.db", "data.db", "index.db", "department.idx", "position.idx", "deleted.idx",
+                          "name.idx", "salary.idx", "hire_date.idx"};
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            config.setDurability(Durability.BATCHED);
+            config.setBatchSyncMillis(5);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                WriteAheadLog wal = db.getWriteAheadLog();
+                
+                // BATCHED: подтверждение без fsync, журнал догоняет фоновый поток
+                for (int i = 1; i <= 50; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", "IT", "Инженер", 1000f, LocalDate.of(2020, 1, 1)));
+                }
+                long deadline = System.currentTimeMillis() + 5000;
+                while (wal.getDurableLsn() < wal.getLastLsn() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+                assert wal.getDurableLsn() == wal.getLastLsn() : "Фоновый поток должен синхронизировать журнал";
+                assert wal.getSyncCount() < 50 : "fsync не должен выполняться на каждую операцию";
+            }
+            
+            // Отдельные операции в базе с режимом SYNC (без фонового потока, который
+            // мог бы синхронизировать журнал между проверками)
+            StorageConfig syncConfig = new StorageConfig();
+            syncConfig.setCompactionThreshold(0);
+            try (DatabaseEngine db = new DatabaseEngine(testDb, syncConfig)) {
+                db.open(false);
+                WriteAheadLog wal = db.getWriteAheadLog();
+                
+                // NONE для отдельной операции: запись в файле журнала, но без fsync
+                long durable = wal.getDurableLsn();
+                long logSize = Files.size(Paths.get(testDb, "wal.log"));
+                db.updateEmployee(new Employee(1, "Сотрудник", "HR", "Инженер", 1000f, LocalDate.of(2020, 1, 1)),
+                                  Durability.NONE);
+                assert Files.size(Paths.get(testDb, "wal.log")) > logSize : "NONE передает запись в файл";
+                assert wal.getDurableLsn() == durable : "NONE не делает fsync";
+                
+                // SYNC для отдельной операции: подтверждение после fsync
+                assert db.deleteEmployeeById(2, Durability.SYNC) : "Удаление должно пройти";
+                assert wal.getDurableLsn() == wal.getLastLsn() : "SYNC ждет fsync журнала";
+            }
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                assert db.getEmployeeCount() == 49 : "Должно быть 49 сотрудников";
+                assert db.findEmployeeById(1).getDepartment().equals("HR") : "Обновление должно сохраниться";
+            }
+            
+            // Без журнала SYNC синхронизирует только data.db, index.db и meta.db:
+            // снимок индекса отделов остается помеченным как устаревший
+            StorageConfig noWal = new StorageConfig();
+            noWal.setCompactionThreshold(0);
+            noWal.setWalEnabled(false);
+            try (DatabaseEngine db = new DatabaseEngine(noWalDb, noWal)) {
+                db.open(true);
+                db.flush();
+                db.addEmployee(new Employee(1, "Сотрудник", "IT", "Инженер", 1000f, LocalDate.of(2020, 1, 1)));
+                
+                byte[] header = Files.readAllBytes(Paths.get(noWalDb, "department.idx"));
+                assert header[3] == 2 : "Снимок не должен переписываться при каждом подтверждении";
+                
+                // Снимок файлов открытой базы - то, что осталось бы на диске после сбоя
+                Files.createDirectories(Paths.get(crashCopy));
+                for (String file : files) {
+                    Files.copy(Paths.get(noWalDb, file), Paths.get(crashCopy, file));
+                }
+            }
+            try (DatabaseEngine db = new DatabaseEngine(crashCopy, noWal)) {
+                db.open(false);
+                assert db.getEmployeeCount() == 1 : "Подтвержденная вставка должна сохраниться";
+                assert db.findEmployeesByDepartment("IT").size() == 1 : "Устаревший снимок должен перестроиться";
+            }
+            
+            System.out.println("✅ testDurabilityModes - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testDurabilityModes - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            for (String file : files) {
+                try {
+                    Files.deleteIfExists(Paths.get(crashCopy, file));
+                    Files.deleteIfExists(Paths.get(noWalDb, file));
+                } catch (IOException e) {
+                    System.err.println("Warning: Could not delete " + file);
+                }
+            }
+            safeDelete(crashCopy);
+            safeDelete(noWalDb);
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testCrashRecovery() {
+        String testDb = "test_data/recovery_test";
+        String crashCopy = "test_data/recovery_crash";
+        String[] files = {"meta.db", "data.db", "index.db", "department.idx", "position.idx", "deleted.idx",
+                          "name.idx", "salary.idx", "hire_date.idx", "wal.log"};
+        
+        try {
+            safeDelete(testDb);
+            safeDelete(crashCopy);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                for (int i = 1; i <= 2000; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", i % 2 == 0 ? "IT" : "HR", "Инженер",
+                                                1000f + i, LocalDate.of(2020, 1, 1).plusDays(i % 365)));
+                }
+                db.flush();
+                
+                // Хвост журнала после контрольной точки: вставки, изменения, удаления
+                // и вставки в освободившиеся записи
+                for (int i = 2001; i <= 2030; i++) {
+                    db.addEmployee(new Employee(i, "Новичок", "IT", "Стажер", 500f, LocalDate.of(2024, 1, 1)));
+                }
+                for (int i = 1; i <= 10; i++) {
+                    db.updateEmployee(new Employee(i, "Финансист", "Finance", "Аналитик",
+                                                   9000f, LocalDate.of(2019, 6, 1)));
+                }
+                for (int i = 0; i < 10; i++) {
+                    db.deleteEmployeeById(100 + i);
+                }
+                db.deleteEmployeeById(2030);
+                for (int i = 3001; i <= 3005; i++) {
+                    db.addEmployee(new Employee(i, "Повторный", "Legal", "Юрист", 700f, LocalDate.of(2024, 2, 1)));
+                }
+                
+                // Снимок файлов открытой базы - то, что осталось бы на диске после сбоя
+                Files.createDirectories(Paths.get(crashCopy));
+                for (String file : files) {
+                    Files.copy(Paths.get(testDb, file), Paths.get(crashCopy, file));
+                }
+            }
+            
+            try (DatabaseEngine db = new DatabaseEngine(crashCopy, config)) {
+                db.open(false);
+                assert db.getLastRecovery() != null : "Должно быть восстановление по журналу";
+                assert db.getLastRecovery().getReplayedOperations() == 56 : "Повторяется только хвост журнала";
+                assert !db.getLastRecovery().isFullRebuild() : "Полная перестройка не нужна";
+                
+                assert db.getEmployeeCount() == 2024 : "Должно быть 2024 сотрудника";
+                assert db.getFreeRecordCount() == 6 : "Должно быть 6 свободных записей";
+                assert db.findEmployeeById(105) == null : "Удаленный сотрудник не должен найтись";
+                assert db.findEmployeeById(2029).getPosition().equals("Стажер") : "Вставка должна восстановиться";
+                assert db.findEmployeesByDepartment("Finance").size() == 10 : "Изменения отдела должны восстановиться";
+                assert db.findEmployeesByDepartment("Legal").size() == 5 : "Вставки в свободные записи должны восстановиться";
+                assert db.findEmployeesBySalaryRange(9000f, 9000f).size() == 10 : "Индекс по зарплате должен догнать журнал";
+                assert db.findEmployeesByName("финансист").size() == 10 : "Индекс имен должен догнать журнал";
+                assert db.findEmployeesByHireDateRange(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 12, 31)).size() == 34
+                    : "Индекс по дате приема должен догнать журнал";
+                
+                long sizeBefore = db.getDatabaseSize();
+                for (int i = 4001; i <= 4006; i++) {
+                    db.addEmployee(new Employee(i, "Еще", "HR", "Менеджер", 800f, LocalDate.of(2025, 1, 1)));
+                }
+                assert db.getDatabaseSize() == sizeBefore : "Список свободных должен восстановиться";
+            }
+            
+            try (DatabaseEngine db = new DatabaseEngine(crashCopy, config)) {
+                db.open(false);
+                assert db.getLastRecovery() == null : "После штатного закрытия восстановление не нужно";
+                assert db.getEmployeeCount() == 2030 : "Должно быть 2030 сотрудников";
+            }
+            
+            System.out.println("✅ testCrashRecovery - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testCrashRecovery - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            for (String file : files) {
+                try {
+                    Files.deleteIfExists(Paths.get(crashCopy, file));
+                    Files.deleteIfExists(Paths.get(testDb, file));
+                } catch (IOException e) {
+                    System.err.println("Warning: Could not delete " + file);
+                }
+            }
+            safeDelete(crashCopy);
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testIndexRebuild() {
+        String testDb = "test_data/rebuild_test";
+        String[] files = {"meta.db", "data.db", "index.db", "department.idx", "position.idx", "deleted.idx",
+                          "name.idx", "salary.idx", "hire_date.idx", "wal.log"};
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            config.setScanParallelism(4);
+            config.setScanChunkSize(16 * 1024);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                for (int i = 1; i <= 3000; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", i % 3 == 0 ? "IT" : "HR", "Инженер",
+                                                1000f + i, LocalDate.of(2020, 1, 1)));
+                }
+                for (int i = 1; i <= 100; i++) {
+                    db.deleteEmployeeById(i * 7);
+                }
+                
+                // Перестройка по запросу: параллельный просмотр data.db
+                IndexRebuilder.RebuildResult result = db.rebuildIndex();
+                assert result.getIndexedRecords() == 2900 : "В индексе должно быть 2900 записей";
+                assert result.getDeletedRecords() == 100 : "Должно быть 100 удаленных записей";
+                assert result.getDuplicateRecords() == 0 : "Повторных ID быть не должно";
+                assert db.getEmployeeCount() == 2900 : "Должно быть 2900 сотрудников";
+                assert db.getFreeRecordCount() == 100 : "Должно быть 100 свободных записей";
+                assert db.findEmployeeById(14) == null : "Удаленный сотрудник не должен найтись";
+                assert db.findEmployeeById(3000).getSalary() == 4000f : "Сотрудник должен находиться по ID";
+            }
+            
+            // Поврежденный заголовок index.db: индекс перестраивается при открытии
+            try (RandomAccessFile file = new RandomAccessFile(testDb + "/index.db", "rw")) {
+                file.writeLong(-1L);
+            }
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                assert db.getEmployeeCount() == 2900 : "Должно быть 2900 сотрудников после перестройки";
+                assert db.getFreeRecordCount() == 100 : "Должно быть 100 свободных записей после перестройки";
+                assert db.findEmployeeById(1501).getDepartment().equals("HR") : "Сотрудник должен находиться по ID";
+                assert db.findEmployeesByDepartment("IT").size() == 1000 - 33 : "Вторичные индексы должны перестроиться";
+                
+                // Список свободных записей связан заново
+                long sizeBefore = db.getDatabaseSize();
+                for (int i = 5001; i <= 5100; i++) {
+                    db.addEmployee(new Employee(i, "Новичок", "IT", "Стажер", 500f, LocalDate.of(2024, 1, 1)));
+                }
+                assert db.getDatabaseSize() == sizeBefore : "Вставки должны занять свободные записи";
+            }
+            
+            // index.db отсутствует
+            Files.delete(Paths.get(testDb, "index.db"));
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                assert db.getEmployeeCount() == 3000 : "Должно быть 3000 сотрудников после перестройки";
+                assert db.findEmployeeById(5100).getPosition().equals("Стажер") : "Сотрудник должен находиться по ID";
+            }
+            assert Files.exists(Paths.get(testDb, "index.db")) : "index.db должен быть создан заново";
+            
+            // Повторная запись с ID 2999 в конце data.db: в индексе остается первая,
+            // поля второй не должны попасть во вторичные индексы
+            try (RandomAccessFile file = new RandomAccessFile(testDb + "/data.db", "rw")) {
+                file.seek(file.length());
+                file.write(SerializationUtil.serializeEmployee(new Employee(2999, "Двойник", "Sales", "Дублер",
+                                                                            99999f, LocalDate.of(2001, 1, 1))));
+            }
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                IndexRebuilder.RebuildResult result = db.rebuildIndex();
+                assert result.getDuplicateRecords() == 1 : "Должен быть найден один повторный ID";
+                assert db.findEmployeeById(2999).getSalary() == 3999f : "В индексе должна остаться первая запись";
+                assert db.findEmployeesBySalaryRange(3999f, 3999f).size() == 1 : "Запись не должна попасть в B+дерево дважды";
+                assert db.findEmployeesBySalaryRange(99999f, 99999f).isEmpty() : "Зарплата повторной записи не индексируется";
+                assert db.findEmployeesByHireDateRange(LocalDate.of(2001, 1, 1), LocalDate.of(2001, 1, 1)).isEmpty()
+                    : "Дата приема повторной записи не индексируется";
+                assert db.findEmployeesByDepartment("Sales").isEmpty() : "Отдел повторной записи не индексируется";
+                assert db.findEmployeesByName("Двойник").isEmpty() : "Имя повторной записи не индексируется";
+            }
+            
+            System.out.println("✅ testIndexRebuild - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testIndexRebuild - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            for (String file : files) {
+                try {
+                    Files.deleteIfExists(Paths.get(testDb, file));
+                } catch (IOException e) {
+                    System.err.println("Warning: Could not delete " + file);
+                }
+            }
+            safeDelete(testDb);
+        }
+    }
+    
+    static void testFailedOpenReleasesFiles() {
+        String testDb = "test_data/failed_open_test";
+        String[] files = {"meta.db", "data.db", "index.db", "department.idx", "position.idx", "deleted.idx",
+                          "name.idx", "salary.idx", "hire_date.idx", "wal.log"};
+        
+        try {
+            safeDelete(testDb);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                db.addEmployee(new Employee(1, "Сотрудник", "IT", "Инженер", 1000f, LocalDate.of(2020, 1, 1)));
+            }
+            // Без meta.db открытие падает, когда data.db и index.db уже открыты
+            Files.delete(Paths.get(testDb, "meta.db"));
+            
+            // Открытые дескрипторы процесса видны только в Linux
+            boolean canCount = Files.isDirectory(Paths.get("/proc/self/fd"));
+            long before = canCount ? countOpenFiles() : 0;
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(false);
+                assert false : "Открытие без meta.db должно завершиться ошибкой";
+            } catch (DatabaseException e) {
+                // ожидаемо
+            }
+            if (canCount) {
+                assert countOpenFiles() == before : "Файлы неудачно открытой базы должны быть закрыты";
+            }
+            
+            System.out.println("✅ testFailedOpenReleasesFiles - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testFailedOpenReleasesFiles - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            for (String file : files) {
+                try {
+                    Files.deleteIfExists(Paths.get(testDb, file));
+                } catch (IOException e) {
+                    System.err.println("Warning: Could not delete " + file);
+                }
+            }
+            safeDelete(testDb);
+        }
+    }
+    
+    private static long countOpenFiles() throws IOException {
+        try (Stream<Path> fds = Files.list(Paths.get("/proc/self/fd"))) {
+            return fds.count();
+        }
+    }
+    
+    static void testMappedGrowthAfterCrash() {
+        String testDb = "test_data/mapped_crash_test";
+        String crashCopy = "test_data/mapped_crash_copy";
+        String[] files = {"meta.db", "data.db", "index.db", "department.idx", "position.idx", "deleted.idx",
+                          "name.idx", "salary.idx", "hire_date.idx", "wal.log"};
+        
+        try {
+            safeDelete(testDb);
+            safeDelete(crashCopy);
+            
+            StorageConfig config = new StorageConfig();
+            config.setCompactionThreshold(0);
+            config.setIoMode(IOMode.MAPPED);
+            
+            try (DatabaseEngine db = new DatabaseEngine(testDb, config)) {
+                db.open(true);
+                for (int i = 1; i <= 20; i++) {
+                    db.addEmployee(new Employee(i, "Сотрудник", "IT", "Инженер", 1000f, LocalDate.of(2020, 1, 1)));
+                }
+                assert Files.size(Paths.get(testDb, "data.db")) > 20 * RecordFormat.RECORD_SIZE
+                    : "Отображенный файл должен расти с запасом";
+                
+                // Снимок файлов открытой базы: запас роста остается нулевым хвостом data.db
+                Files.createDirectories(Paths.get(crashCopy));
+                for (String file : files) {
+                    Files.copy(Paths.get(testDb, file), Paths.get(crashCopy, file));
+                }
+            }
+            assert Files.size(Paths.get(testDb, "data.db")) == 20 * RecordFormat.RECORD_SIZE
+                : "При закрытии data.db должен быть обрезан до логического размера";
+            
+            try (DatabaseEngine db = new DatabaseEngine(crashCopy, config)) {
+                db.open(false);
+                assert db.getDatabaseSize() == 20 * RecordFormat.RECORD_SIZE : "Нулевой хвост должен быть отрезан";
+                db.addEmployee(new Employee(21, "Новичок", "HR", "Стажер", 500f, LocalDate.of(2024, 1, 1)));
+                assert db.getEmployeeCount() == 21 : "Должен быть 21 сотрудник";
+                assert db.getAllEmployees().size() == 21 : "Просмотр не должен находить нулевые записи";
+            }
+            
+            System.out.println("✅ testMappedGrowthAfterCrash - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testMappedGrowthAfterCrash - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            for (String file : files) {
+                try {
+                    Files.deleteIfExists(Paths.get(crashCopy, file));
+                    Files.deleteIfExists(Paths.get(testDb, file));
+                } catch (IOException e) {
+                    System.err.println("Warning: Could not delete " + file);
+                }
+            }
+            safeDelete(crashCopy);
+            safeDelete(testDb);
+        }
+    }
 }
@@ -0,0 +1,191 @@
+package backend.test;
+
+import exceptions.DatabaseException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import storage.DenseIndexManager;
+import storage.IndexManager;
+import storage.IndexType;
+import storage.PrimaryIndex;
+import storage.StorageConfig;
+
+public class DenseIndexManagerTest {
+    
+    public static void main(String[] args) {
+        testAddFindRemove();
+        testPersistenceAfterReopen();
+        testErrorHandling();
+        testTypeDetection();
+        System.out.println("✅ Все тесты DenseIndexManager прошли успешно!");
+    }
+    
+    private static void safeDelete(String filePath) {
+        try {
+            Files.deleteIfExists(Paths.get(filePath));
+        } catch (IOException e) {
+            System.err.println("Warning: Could not delete file " + filePath);
+        }
+    }
+    
+    static void testAddFindRemove() {
+        String testFile = "test_data/dense_index.db";
+        
+        try (DenseIndexManager manager = new DenseIndexManager(testFile)) {
+            manager.open(true);
+            
+            assert manager.getSize() == 0 : "Начальный размер должен быть 0";
+            
+            manager.add(1, 0L);
+            manager.add(2, 256L);
+            manager.add(DenseIndexManager.MAX_KEY, 512L);
+            
+            assert manager.getSize() == 3 : "Размер должен быть 3";
+            assert manager.find(1) == 0L : "Нулевое смещение должно находиться";
+            assert manager.find(2) == 256L : "Ключ 2 должен возвращать 256";
+            assert manager.findOffset(DenseIndexManager.MAX_KEY) == 512L : "Максимальный ключ должен находиться";
+            assert manager.find(3) == null : "Несуществующий ключ должен возвращать null";
+            assert manager.findOffset(DenseIndexManager.MAX_KEY + 1) == PrimaryIndex.NOT_FOUND : 
+                "Ключ вне диапазона не должен находиться";
+            
+            manager.update(2, 768L);
+            manager.remove(1);
+            manager.remove(42); // отсутствующий ключ
+            
+            assert manager.find(2) == 768L : "Смещение должно обновиться";
+            assert !manager.contains(1) : "Ключ 1 должен быть удален";
+            assert manager.getSize() == 2 : "Размер должен быть 2";
+            
+            System.out.println("✅ testAddFindRemove - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testAddFindRemove - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testPersistenceAfterReopen() {
+        String testFile = "test_data/dense_index_reopen.db";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (DenseIndexManager manager = new DenseIndexManager(testFile)) {
+                manager.open(true);
+                for (int i = 1; i <= 100000; i++) {
+                    manager.add(i, i * 256L);
+                }
+                for (int i = 1; i <= 100000; i += 2) {
+                    manager.remove(i);
+                }
+                manager.flush();
+            }
+            
+            try (DenseIndexManager manager = new DenseIndexManager(testFile)) {
+                manager.open(false);
+                assert manager.getSize() == 50000 : "После переоткрытия должно быть 50000 ключей";
+                for (int i = 1; i <= 100000; i++) {
+                    Long offset = manager.find(i);
+                    assert i % 2 == 1 ? offset == null : offset == i * 256L : "Неверное смещение ключа " + i;
+                }
+            }
+            
+            System.out.println("✅ testPersistenceAfterReopen - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testPersistenceAfterReopen - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testErrorHandling() {
+        String testFile = "test_data/dense_index_errors.db";
+        
+        try (DenseIndexManager manager = new DenseIndexManager(testFile)) {
+            manager.open(true);
+            manager.add(7, 100L);
+            
+            try {
+                manager.add(7, 200L);
+                assert false : "Должно быть исключение для дубликата";
+            } catch (DatabaseException e) {
+                assert "DUPLICATE_KEY".equals(e.getErrorCode()) : "Неверный код ошибки";
+            }
+            
+            try {
+                manager.add(DenseIndexManager.MAX_KEY + 1, 200L);
+                assert false : "Должно быть исключение для ключа вне диапазона";
+            } catch (DatabaseException e) {
+                assert "INVALID_KEY".equals(e.getErrorCode()) : "Неверный код ошибки";
+            }
+            
+            try {
+                manager.update(8, 200L);
+                assert false : "Должно быть исключение для отсутствующего ключа";
+            } catch (DatabaseException e) {
+                assert "KEY_NOT_FOUND".equals(e.getErrorCode()) : "Неверный код ошибки";
+            }
+            
+            System.out.println("✅ testErrorHandling - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testErrorHandling - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testTypeDetection() {
+        String denseFile = "test_data/dense_index_type.db";
+        String hashFile = "test_data/hash_index_type.db";
+        
+        try {
+            safeDelete(denseFile);
+            safeDelete(hashFile);
+            
+            StorageConfig dense = new StorageConfig();
+            dense.setIndexType(IndexType.DENSE);
+            try (PrimaryIndex index = PrimaryIndex.forFile(denseFile, dense, null, true)) {
+                index.open(true);
+                index.add(5, 500L);
+            }
+            try (PrimaryIndex index = new IndexManager(hashFile)) {
+                index.open(true);
+                index.add(6, 600L);
+            }
+            
+            // Тип существующего файла берется из заголовка, а не из настроек
+            try (PrimaryIndex index = PrimaryIndex.forFile(denseFile, StorageConfig.defaults(), null, false)) {
+                index.open(false);
+                assert index.getType() == IndexType.DENSE : "Должен открыться плотный индекс";
+                assert index.find(5) == 500L : "Ключ должен находиться";
+            }
+            try (PrimaryIndex index = PrimaryIndex.forFile(hashFile, dense, null, false)) {
+                index.open(false);
+                assert index.getType() == IndexType.HASH : "Должен открыться хэш-индекс";
+                assert index.find(6) == 600L : "Ключ должен находиться";
+            }
+            
+            try (IndexManager index = new IndexManager(denseFile)) {
+                index.open(false);
+                assert false : "Хэш-индекс не должен открывать файл плотного индекса";
+            } catch (DatabaseException e) {
+                assert "INDEX_TYPE_MISMATCH".equals(e.getErrorCode()) : "Неверный код ошибки";
+            }
+            
+            System.out.println("✅ testTypeDetection - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testTypeDetection - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(denseFile);
+            safeDelete(hashFile);
+        }
+    }
+}
@@ -5,7 +5,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import storage.BufferPool;
 import storage.FileManager;
+import storage.IOMode;
 
 public class FileManagerTest {
     
@@ -15,6 +17,9 @@ public class FileManagerTest {
         testBufferedOperations();
         testErrorHandling();
         testFileSizeOperations();
+        testMappedMode();
+        testBufferPool();
+        testZeroAllocationRead();
         System.out.println("✅ Все тесты FileManager прошли успешно!");
     }
     
@@ -216,4 +221,184 @@ public class FileManagerTest {
             e.printStackTrace();
         }
     }
+    
+    static void testMappedMode() {
+        String testFile = "test_data/mapped_test.db";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (FileManager manager = new FileManager(testFile, IOMode.MAPPED)) {
+                manager.open(true);
+                assert manager.getIoMode() == IOMode.MAPPED : "Режим должен быть MAPPED";
+                
+                // Дозапись в конец расширяет файл и отображение
+                byte[] record = new byte[256];
+                for (int i = 0; i < 100; i++) {
+                    java.util.Arrays.fill(record, (byte) i);
+                    manager.write((long) i * 256, record);
+                }
+                assert manager.getFileSize() == 100 * 256 : "Размер файла должен расти при дозаписи";
+                assert Files.size(Paths.get(testFile)) == 1024 * 1024 : "Файл должен расти с запасом, а не на каждую запись";
+                
+                byte[] readRecord = manager.read(42L * 256, 256);
+                assert readRecord[0] == 42 && readRecord[255] == 42 : "Запись должна читаться из отображения";
+                
+                // Перезапись в середине
+                byte[] patch = "patched".getBytes();
+                manager.write(10, patch);
+                assert java.util.Arrays.equals(patch, manager.read(10, patch.length)) : "Перезапись должна быть видна";
+                
+                // Рост через setFileSize
+                manager.setFileSize(100_000);
+                assert manager.getFileSize() == 100_000 : "Размер файла должен быть 100000";
+                assert manager.read(99_990, 10).length == 10 : "Хвост после setFileSize должен читаться";
+                
+                try {
+                    manager.read(100_000, 10);
+                    System.out.println("❌ testMappedMode - FAILED: Должна быть ошибка при чтении за пределами файла");
+                    return;
+                } catch (DatabaseException e) {
+                    // Ожидаемое поведение
+                }
+            }
+            
+            // Данные видны обычному режиму после закрытия
+            try (FileManager manager = new FileManager(testFile)) {
+                manager.open(false);
+                assert manager.read(42L * 256, 1)[0] == 42 : "Данные должны сохраниться на диске";
+            }
+            
+            // При закрытии запас роста обрезается до логического размера
+            try (FileManager manager = new FileManager(testFile, IOMode.MAPPED)) {
+                manager.open(false);
+                manager.write(100_000, new byte[256]);
+                assert manager.getFileSize() == 100_256 : "Логический размер не включает запас";
+            }
+            assert Files.size(Paths.get(testFile)) == 100_256 : "Файл должен быть обрезан при закрытии";
+            
+            safeDelete(testFile);
+            System.out.println("✅ testMappedMode - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testMappedMode - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    static void testBufferPool() {
+        String dataFile = "test_data/pool_data_test.db";
+        String indexFile = "test_data/pool_index_test.db";
+        
+        try {
+            safeDelete(dataFile);
+            safeDelete(indexFile);
+            
+            BufferPool pool = new BufferPool(4);
+            try (FileManager data = new FileManager(dataFile, IOMode.STANDARD, pool);
+                 FileManager index = new FileManager(indexFile, IOMode.STANDARD, pool)) {
+                data.open(true);
+                index.open(true);
+                
+                // Запись через пул: страницы грязные, размер файла учитывает их
+                byte[] record = new byte[256];
+                for (int i = 0; i < 64; i++) {
+                    java.util.Arrays.fill(record, (byte) i);
+                    data.write((long) i * 256, record);
+                }
+                index.write(0, "index header".getBytes());
+                assert data.getFileSize() == 64 * 256 : "Размер должен учитывать грязные страницы";
+                
+                // Повторное чтение горячей записи обслуживается из пула
+                long missesBefore = pool.getMisses();
+                for (int i = 0; i < 10; i++) {
+                    assert data.read(3L * 256, 256)[0] == 3 : "Запись должна читаться из пула";
+                }
+                assert pool.getMisses() == missesBefore : "Горячая страница не должна читаться с диска";
+                
+                // Пул из 4 страниц вытесняет лишнее с записью грязных страниц
+                data.write(10 * BufferPool.PAGE_SIZE, record);
+                data.write(20 * BufferPool.PAGE_SIZE, record);
+                data.write(30 * BufferPool.PAGE_SIZE, record);
+                assert pool.getPageCount() <= 4 : "Пул не должен превышать емкость";
+                assert pool.getEvictions() > 0 : "Должно произойти вытеснение";
+                assert data.read(5L * 256, 256)[0] == 5 : "Вытесненная страница должна перечитываться с диска";
+                
+                // Закрепленная страница не вытесняется
+                BufferPool.Page pinned = pool.pin(index, 0);
+                for (int i = 0; i < 8; i++) {
+                    data.read((long) i * BufferPool.PAGE_SIZE / 2, 16);
+                }
+                assert pinned.getPinCount() == 1 : "Страница должна оставаться закрепленной";
+                pool.unpin(pinned, false);
+                
+                data.flush();
+            }
+            
+            // После закрытия все грязные страницы на диске
+            try (FileManager data = new FileManager(dataFile)) {
+                data.open(false);
+                assert data.read(63L * 256, 1)[0] == 63 : "Данные должны быть записаны при закрытии";
+                assert data.getFileSize() == 30L * BufferPool.PAGE_SIZE + 256 : "Файл не должен расти за логический конец";
+            }
+            
+            safeDelete(dataFile);
+            safeDelete(indexFile);
+            System.out.println("✅ testBufferPool - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testBufferPool - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    static void testZeroAllocationRead() {
+        String testFile = "test_data/zero_alloc_test.db";
+        
+        try {
+            safeDelete(testFile);
+            
+            com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().getId();
+            
+            for (IOMode mode : IOMode.values()) {
+                BufferPool pool = mode == IOMode.STANDARD ? new BufferPool(64) : null;
+                try (FileManager manager = new FileManager(testFile, mode, pool)) {
+                    manager.open(true);
+                    byte[] record = new byte[256];
+                    for (int i = 0; i < 1000; i++) {
+                        record[0] = (byte) i;
+                        manager.write((long) i * 256, record);
+                    }
+                    
+                    java.nio.ByteBuffer buffer = storage.RecordBuffers.recordBuffer();
+                    // Прогрев
+                    for (int i = 0; i < 1000; i++) {
+                        buffer.clear();
+                        manager.read((long) i * 256, buffer);
+                    }
+                    
+                    long before = threads.getThreadAllocatedBytes(threadId);
+                    for (int round = 0; round < 10; round++) {
+                        for (int i = 0; i < 1000; i++) {
+                            buffer.clear();
+                            manager.read((long) i * 256, buffer);
+                            assert buffer.get(0) == (byte) i : "Запись должна читаться в буфер вызывающего";
+                        }
+                    }
+                    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+                    
+                    assert allocated < 64 * 1024 : "10000 чтений в режиме " + mode + " выделили " + allocated + " байт";
+                }
+                safeDelete(testFile);
+            }
+            
+            System.out.println("✅ testZeroAllocationRead - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testZeroAllocationRead - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 }
@@ -2,9 +2,13 @@ package backend.test;
 
 import exceptions.DatabaseException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import storage.IndexManager;
+import storage.RecordFormat;
+import storage.RecordKeys;
+import storage.StorageConfig;
 
 public class IndexManagerTest {
     
@@ -15,6 +19,13 @@ public class IndexManagerTest {
         testRehashing();
         testErrorHandling();
         testPerformance();
+        testOffHeapSlotTable();
+        testPersistenceAfterReopen();
+        testIncrementalRehash();
+        testRobinHoodRemoveAndReopen();
+        testVersion1IndexConversion();
+        testBulkAndLazyLoad();
+        testWriteFile();
         System.out.println("✅ Все тесты IndexManager прошли успешно!");
     }
     
@@ -226,4 +237,360 @@ public class IndexManagerTest {
             safeDelete(testFile);
         }
     }
+    
+    // Таблица слотов вне кучи: поиск во время рехэширования и после повторного открытия
+    static void testOffHeapSlotTable() {
+        String testFile = "test_data/index_off_heap.db";
+        
+        try {
+            safeDelete(testFile);
+            StorageConfig config = new StorageConfig();
+            config.setIndexOffHeap(true);
+            
+            try (IndexManager manager = new IndexManager(testFile, config)) {
+                manager.open(true);
+                boolean sawResize = false;
+                for (int i = 1; i <= 10000; i++) {
+                    manager.add(i, i * 256L);
+                    if (manager.isResizing()) {
+                        sawResize = true;
+                        assert manager.findOffset(1) == 256L : "Во время рехэширования ключ 1 должен находиться";
+                        assert manager.findOffset(i) == i * 256L : "Во время рехэширования ключ " + i + " должен находиться";
+                    }
+                }
+                assert sawResize : "Вставка 10000 ключей должна вызвать рехэширование";
+                
+                for (int i = 1; i <= 10000; i += 2) {
+                    manager.remove(i);
+                }
+                manager.update(10, 999L);
+                assert manager.getSize() == 5000 : "После удаления должно остаться 5000 ключей";
+                assert manager.findOffset(10) == 999L : "Смещение ключа 10 должно обновиться";
+                assert manager.findOffset(11) == IndexManager.NOT_FOUND : "Удаленный ключ не должен находиться";
+                assert manager.find(11) == null : "find должен вернуть null для удаленного ключа";
+                assert !manager.contains(10001) : "Отсутствующий ключ не должен находиться";
+            }
+            
+            try (IndexManager manager = new IndexManager(testFile, config)) {
+                manager.open(false);
+                assert manager.getSize() == 5000 : "После открытия должно быть 5000 ключей";
+                for (int i = 1; i <= 10000; i++) {
+                    long expected = i % 2 == 1 ? IndexManager.NOT_FOUND : (i == 10 ? 999L : i * 256L);
+                    assert manager.findOffset(i) == expected : "Неверное смещение ключа " + i + " после открытия";
+                }
+            }
+            
+            System.out.println("✅ testOffHeapSlotTable - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testOffHeapSlotTable - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    // Изменения копии таблицы в памяти должны доходить до файла
+    static void testPersistenceAfterReopen() {
+        String testFile = "test_data/index_reopen.db";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(true);
+                for (int i = 1; i <= 500; i++) {
+                    manager.add(i, i * 256L);
+                }
+                for (int i = 1; i <= 500; i += 10) {
+                    manager.update(i, i * 512L);
+                }
+                manager.remove(7);
+                manager.remove(499);
+                manager.flush();
+            }
+            
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(false);
+                assert manager.getSize() == 498 : "После переоткрытия должно быть 498 ключей";
+                assert manager.find(7) == null && manager.find(499) == null : "Удаленные ключи не должны находиться";
+                assert manager.find(11) == 11 * 512L : "Обновленное смещение должно сохраниться";
+                assert manager.find(12) == 12 * 256L : "Смещение должно сохраниться";
+                
+                // После переоткрытия индекс продолжает работать
+                manager.add(1000, 1000L);
+                manager.remove(12);
+                assert manager.find(1000) == 1000L : "Новый ключ должен находиться";
+                assert manager.find(12) == null : "Ключ 12 должен быть удален";
+            }
+            
+            System.out.println("✅ testPersistenceAfterReopen - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testPersistenceAfterReopen - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testIncrementalRehash() {
+        String testFile = "test_data/index_incremental.db";
+        
+        try {
+            safeDelete(testFile);
+            
+            boolean sawResizing = false;
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(true);
+                for (int i = 1; i <= 200000; i++) {
+                    manager.add(i, i * 256L);
+                    if (i % 3 == 0) {
+                        manager.update(i - 1, (i - 1) * 512L);
+                    }
+                    if (i % 7 == 0) {
+                        manager.remove(i - 5);
+                    }
+                    if (manager.isResizing()) {
+                        sawResizing = true;
+                        // Во время рехэширования индекс полностью доступен
+                        assert manager.find(i) == i * 256L : "Новый ключ должен находиться во время рехэширования";
+                        assert Files.exists(Paths.get(testFile)) : "Старый файл индекса должен оставаться на месте";
+                    }
+                }
+                assert sawResizing : "Рехэширование больших таблиц должно идти по шагам";
+                manager.flush();
+            }
+            
+            assert !Files.exists(Paths.get(testFile + ".resize")) : "Временный файл рехэширования не должен оставаться";
+            
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(false);
+                for (int i = 1; i <= 200000; i++) {
+                    Long offset = manager.find(i);
+                    boolean removed = (i + 5) % 7 == 0 && i + 5 <= 200000;
+                    if (removed) {
+                        assert offset == null : "Удаленный ключ не должен находиться: " + i;
+                    } else if ((i + 1) % 3 == 0 && i + 1 <= 200000) {
+                        assert offset == i * 512L : "Обновленное смещение должно сохраниться: " + i;
+                    } else {
+                        assert offset == i * 256L : "Смещение должно сохраниться: " + i;
+                    }
+                }
+                assert manager.getLoadFactor() < 0.75f : "Load factor должен быть меньше порога";
+            }
+            
+            System.out.println("✅ testIncrementalRehash - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testIncrementalRehash - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testRobinHoodRemoveAndReopen() {
+        String testFile = "test_data/index_robin_hood.db";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(true);
+                for (int i = 1; i <= 100000; i++) {
+                    manager.add(i, i * 256L);
+                }
+                // Последовательные ID не должны образовывать длинных цепочек
+                assert manager.getMaxProbeDistance() < 64 : 
+                    "Слишком длинное пробирование: " + manager.getMaxProbeDistance();
+                
+                // Удаления посреди цепочек
+                for (int i = 1; i <= 100000; i += 3) {
+                    manager.remove(i);
+                }
+                manager.flush();
+            }
+            
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(false);
+                assert manager.getSize() == 66666 : "После переоткрытия должно быть 66666 ключей";
+                // Каждый оставшийся ключ находится в таблице слотов и обновляется
+                for (int i = 1; i <= 100000; i++) {
+                    if (i % 3 == 1) {
+                        assert manager.find(i) == null : "Удаленный ключ не должен находиться: " + i;
+                    } else {
+                        manager.update(i, i * 512L);
+                    }
+                }
+                manager.flush();
+            }
+            
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(false);
+                for (int i = 2; i <= 100000; i += 3) {
+                    assert manager.find(i) == i * 512L : "Обновленное смещение должно сохраниться: " + i;
+                }
+            }
+            
+            System.out.println("✅ testRobinHoodRemoveAndReopen - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testRobinHoodRemoveAndReopen - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testVersion1IndexConversion() {
+        String testFile = "test_data/index_v1.db";
+        
+        try {
+            safeDelete(testFile);
+            Files.createDirectories(Paths.get(testFile).getParent());
+            
+            // Индекс версии 1 (хэш key * 31 % 16): ключ 1 (слот 15) удален и оставил дыру
+            // перед ключом 17, который тоже начинал со слота 15 и лежит в слоте 0
+            ByteBuffer file = ByteBuffer.allocate(RecordFormat.INDEX_HEADER_SIZE + 16 * RecordFormat.INDEX_SLOT_SIZE);
+            file.putShort((short) 1).putShort((short) 0).putInt(16).putInt(2).putFloat(0.75f);
+            for (int slot = 0; slot < 16; slot++) {
+                int key = slot == 0 ? 17 : slot == 1 ? 16 : -1;
+                file.putInt(key).putLong(key == -1 ? 0 : key * 100L);
+            }
+            Files.write(Paths.get(testFile), file.array());
+            
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(false);
+                assert manager.getSize() == 2 : "Должно быть 2 ключа";
+                assert manager.find(16) == 1600L && manager.find(17) == 1700L : "Ключи версии 1 должны находиться";
+                manager.update(17, 1701L);
+                manager.add(1, 100L);
+            }
+            
+            ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(Paths.get(testFile)));
+            assert header.getShort() == RecordFormat.INDEX_VERSION : "Файл должен быть переписан в новом формате";
+            
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(false);
+                assert manager.find(17) == 1701L : "Обновление должно сохраниться";
+                assert manager.find(1) == 100L : "Новый ключ должен сохраниться";
+                assert manager.find(16) == 1600L : "Ключ 16 должен сохраниться";
+            }
+            
+            System.out.println("✅ testVersion1IndexConversion - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testVersion1IndexConversion - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testBulkAndLazyLoad() {
+        String testFile = "test_data/index_bulk_load.db";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(true);
+                for (int i = 1; i <= 100000; i++) {
+                    manager.add(i, i * 256L);
+                }
+                manager.remove(500);
+            }
+            
+            // Параллельный разбор нескольких блоков слотов
+            StorageConfig parallel = new StorageConfig();
+            parallel.setScanParallelism(4);
+            try (IndexManager manager = new IndexManager(testFile, parallel)) {
+                manager.open(false);
+                assert manager.getSize() == 99999 : "После загрузки должно быть 99999 ключей";
+                assert manager.find(500) == null : "Удаленный ключ не должен находиться";
+                for (int i = 1; i <= 100000; i += 97) {
+                    assert i == 500 || manager.find(i) == i * 256L : "Ключ должен находиться после загрузки: " + i;
+                }
+            }
+            
+            // Ленивая загрузка: open не ждет таблицу, первая операция дожидается ее
+            StorageConfig lazy = new StorageConfig();
+            lazy.setIndexLazyLoad(true);
+            try (IndexManager manager = new IndexManager(testFile, lazy)) {
+                manager.open(false);
+                assert manager.find(100000) == 100000 * 256L : "Ключ должен находиться после фоновой загрузки";
+                assert manager.isLoaded() : "После первой операции индекс должен быть загружен";
+                manager.add(100001, 1L);
+                assert manager.getSize() == 100000 : "Должно быть 100000 ключей";
+            }
+            
+            // Закрытие до завершения фоновой загрузки
+            try (IndexManager manager = new IndexManager(testFile, lazy)) {
+                manager.open(false);
+            }
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(false);
+                assert manager.find(100001) == 1L : "Добавленный ключ должен сохраниться";
+            }
+            
+            System.out.println("✅ testBulkAndLazyLoad - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testBulkAndLazyLoad - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testWriteFile() {
+        String testFile = "test_data/index_write_test.db";
+        
+        try {
+            safeDelete(testFile);
+            
+            RecordKeys keys = new RecordKeys();
+            for (int i = 1; i <= 1000; i++) {
+                keys.add(i, (i - 1) * 256L);
+            }
+            keys.add(500, 999999L); // повторный ID пропускается
+            
+            int indexed = IndexManager.writeFile(testFile, keys);
+            assert indexed == 1000 : "В индексе должно быть 1000 ключей";
+            
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(false);
+                assert manager.getSize() == 1000 : "Должно быть 1000 ключей";
+                assert manager.getCapacity() == 2048 : "Емкость - наименьшая степень двойки ниже порога заполнения";
+                assert manager.find(500) == 499 * 256L : "Остается первое смещение повторного ID";
+                for (int i = 1; i <= 1000; i++) {
+                    assert manager.find(i) == (i - 1) * 256L : "Ключ должен находиться: " + i;
+                }
+                
+                // Дальше индекс работает как обычно
+                manager.add(1001, 1000 * 256L);
+                manager.remove(1);
+                assert manager.getSize() == 1000 : "Должно быть 1000 ключей";
+            }
+            
+            // Поврежденный заголовок: open сообщает о неверном формате
+            Files.write(Paths.get(testFile), ByteBuffer.allocate(16).putShort((short) 2).putShort((short) 0)
+                                                 .putInt(1 << 20).putInt(0).putFloat(0.75f).array());
+            try (IndexManager manager = new IndexManager(testFile)) {
+                manager.open(false);
+                assert false : "Должно быть исключение INVALID_INDEX_FORMAT";
+            } catch (DatabaseException e) {
+                assert "INVALID_INDEX_FORMAT".equals(e.getErrorCode()) : "Неверный код ошибки: " + e.getErrorCode();
+            }
+            
+            System.out.println("✅ testWriteFile - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testWriteFile - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
 }
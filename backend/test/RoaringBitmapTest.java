@@ -0,0 +1,123 @@
+package backend.test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import storage.RoaringBitmap;
+
+public class RoaringBitmapTest {
+    
+    public static void main(String[] args) {
+        testAddRemoveContains();
+        testSetOperations();
+        testSerialization();
+        System.out.println("✅ Все тесты RoaringBitmap прошли успешно!");
+    }
+    
+    // Плотные и разреженные участки, чтобы задействовать оба типа контейнеров
+    private static RoaringBitmap fill(BitSet expected, Random random, int denseStart, int sparseEnd) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int i = denseStart; i < denseStart + 30000; i++) {
+            if (random.nextInt(3) > 0) {
+                bitmap.add(i);
+                expected.set(i);
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            int value = random.nextInt(sparseEnd);
+            bitmap.add(value);
+            expected.set(value);
+        }
+        return bitmap;
+    }
+    
+    private static boolean same(RoaringBitmap bitmap, BitSet expected) {
+        int[] values = bitmap.toArray();
+        return bitmap.getCardinality() == expected.cardinality()
+            && Arrays.equals(values, expected.stream().toArray());
+    }
+    
+    static void testAddRemoveContains() {
+        try {
+            RoaringBitmap bitmap = new RoaringBitmap();
+            assert bitmap.isEmpty() : "Новая карта должна быть пустой";
+            
+            // 10000 значений в одном контейнере - переход массив -> битовая карта
+            for (int i = 0; i < 10000; i++) {
+                bitmap.add(i * 3);
+            }
+            bitmap.add(3); // повтор
+            bitmap.add(1 << 20);
+            assert bitmap.getCardinality() == 10001 : "Мощность должна быть 10001";
+            assert bitmap.contains(29997) && !bitmap.contains(29998) : "Проверка принадлежности";
+            
+            // Обратный переход битовая карта -> массив
+            for (int i = 0; i < 9000; i++) {
+                assert bitmap.remove(i * 3) : "Значение " + i * 3 + " должно удалиться";
+            }
+            assert !bitmap.remove(0) : "Повторное удаление должно вернуть false";
+            assert bitmap.getCardinality() == 1001 : "Мощность должна быть 1001";
+            assert bitmap.toArray()[0] == 27000 : "Наименьшее значение должно быть 27000";
+            
+            bitmap.remove(1 << 20);
+            assert !bitmap.contains(1 << 20) : "Пустой контейнер должен удаляться";
+            
+            System.out.println("✅ testAddRemoveContains - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testAddRemoveContains - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    static void testSetOperations() {
+        try {
+            Random random = new Random(7);
+            BitSet expectedA = new BitSet();
+            BitSet expectedB = new BitSet();
+            RoaringBitmap a = fill(expectedA, random, 50000, 300000);
+            RoaringBitmap b = fill(expectedB, random, 60000, 300000);
+            
+            BitSet and = (BitSet) expectedA.clone();
+            and.and(expectedB);
+            BitSet or = (BitSet) expectedA.clone();
+            or.or(expectedB);
+            BitSet andNot = (BitSet) expectedA.clone();
+            andNot.andNot(expectedB);
+            
+            assert same(a.and(b), and) : "Пересечение должно совпадать с BitSet";
+            assert same(a.or(b), or) : "Объединение должно совпадать с BitSet";
+            assert same(a.andNot(b), andNot) : "Разность должна совпадать с BitSet";
+            assert same(a, expectedA) && same(b, expectedB) : "Операции не должны изменять аргументы";
+            assert a.and(new RoaringBitmap()).isEmpty() : "Пересечение с пустой картой должно быть пустым";
+            
+            System.out.println("✅ testSetOperations - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testSetOperations - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    static void testSerialization() {
+        try {
+            BitSet expected = new BitSet();
+            RoaringBitmap bitmap = fill(expected, new Random(11), 100000, 1000000);
+            
+            ByteBuffer buffer = ByteBuffer.allocate(bitmap.serializedSize());
+            bitmap.writeTo(buffer);
+            assert !buffer.hasRemaining() : "serializedSize должен совпадать с записанным размером";
+            
+            buffer.flip();
+            RoaringBitmap restored = RoaringBitmap.readFrom(buffer);
+            assert same(restored, expected) : "Восстановленная карта должна совпадать";
+            
+            System.out.println("✅ testSerialization - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testSerialization - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -2,7 +2,9 @@ package backend.test;
 
 import model.Employee;
 import storage.RecordFormat;
+import storage.RecordPredicate;
 import util.SerializationUtil;
+import java.nio.ByteBuffer;
 
 
 public class SerializationUtilTest {
@@ -12,6 +14,7 @@ public class SerializationUtilTest {
         testFixedLengthStrings();
         testReadIndividualFields();
         testInvalidRecordSize();
+        testRawRecordPredicates();
         System.out.println("✅ Все тесты SerializationUtil прошли успешно!");
     }
     
@@ -87,4 +90,31 @@ public class SerializationUtilTest {
             System.out.println("✅ testInvalidRecordSize - PASSED: " + e.getMessage());
         }
     }
+    
+    static void testRawRecordPredicates() {
+        try {
+            Employee employee = new Employee(7, "Иван Петров", "Отдел продаж", "Менеджер",
+                                             1000f, java.time.LocalDate.of(2022, 3, 1));
+            // Запись в середине буфера, как в блоке при полном просмотре
+            ByteBuffer chunk = ByteBuffer.allocate(RecordFormat.RECORD_SIZE * 2);
+            chunk.position(RecordFormat.RECORD_SIZE);
+            chunk.put(SerializationUtil.serializeEmployee(employee));
+            int base = RecordFormat.RECORD_SIZE;
+            
+            assert RecordPredicate.notDeleted().test(chunk, base) : "Запись не удалена";
+            RecordPredicate idSeven = (record, position) -> record.getInt(position + RecordFormat.ID_OFFSET) == 7;
+            assert RecordPredicate.notDeleted().and(idSeven).test(chunk, base) : "Живая запись должна проходить фильтр";
+            
+            employee.setDeleted(true);
+            chunk.position(RecordFormat.RECORD_SIZE);
+            chunk.put(SerializationUtil.serializeEmployee(employee));
+            assert !RecordPredicate.notDeleted().test(chunk, base) : "Запись удалена";
+            assert !RecordPredicate.notDeleted().and(idSeven).test(chunk, base) : "Удаленная запись не должна проходить фильтр";
+            
+            System.out.println("✅ testRawRecordPredicates - PASSED");
+        } catch (Exception e) {
+            System.out.println("❌ testRawRecordPredicates - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 }
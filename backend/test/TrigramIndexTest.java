@@ -0,0 +1,141 @@
+package backend.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import storage.RecordFormat;
+import storage.TrigramIndex;
+
+public class TrigramIndexTest {
+    
+    public static void main(String[] args) {
+        testSubstringCandidates();
+        testRemoveAndOutOfOrderAdd();
+        testPersistenceAfterReopen();
+        System.out.println("✅ Все тесты TrigramIndex прошли успешно!");
+    }
+    
+    private static void safeDelete(String filePath) {
+        try {
+            Files.deleteIfExists(Paths.get(filePath));
+        } catch (IOException e) {
+            System.err.println("Warning: Could not delete file " + filePath);
+        }
+    }
+    
+    private static long offset(int slot) {
+        return (long) slot * RecordFormat.RECORD_SIZE;
+    }
+    
+    static void testSubstringCandidates() {
+        String testFile = "test_data/trigram_index.idx";
+        
+        try (TrigramIndex index = new TrigramIndex(testFile, RecordFormat.MAX_NAME_LENGTH)) {
+            index.open(true);
+            index.add("Иван Петров", offset(0));
+            index.add("Петр Иванов", offset(1));
+            index.add("Anna Smith", offset(2));
+            index.add("Ян", offset(3));
+            
+            long[] ivan = index.findCandidates("иван");
+            assert ivan.length == 2 && ivan[0] == offset(0) && ivan[1] == offset(1) : "Подстрока 'иван' есть в двух именах";
+            assert index.findCandidates("ПЕТРОВ").length == 1 : "Поиск не должен учитывать регистр";
+            assert index.findCandidates("smith").length == 1 : "Латиница должна находиться";
+            assert index.findCandidates("xyz").length == 0 : "Отсутствующая триграмма не должна давать кандидатов";
+            
+            // Короткие запросы находят и имена короче трех символов
+            assert index.findCandidates("ян").length == 1 : "Имя из двух букв должно находиться";
+            assert index.findCandidates("н").length == 3 : "Буква 'н' есть в трех именах";
+            assert index.findCandidates("a").length == 1 : "Буква 'a' есть в одном имени";
+            
+            System.out.println("✅ testSubstringCandidates - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testSubstringCandidates - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testRemoveAndOutOfOrderAdd() {
+        String testFile = "test_data/trigram_remove.idx";
+        
+        try (TrigramIndex index = new TrigramIndex(testFile, RecordFormat.MAX_NAME_LENGTH)) {
+            index.open(true);
+            for (int slot = 0; slot < 10000; slot += 2) {
+                index.add("Сотрудник", offset(slot));
+            }
+            // Повторно занятые записи из середины файла
+            for (int slot = 1; slot < 10000; slot += 2) {
+                index.add("Сотрудник", offset(slot));
+            }
+            assert index.findCandidates("трудн").length == 10000 : "Должно быть 10000 кандидатов";
+            
+            for (int slot = 0; slot < 10000; slot += 3) {
+                index.remove("Сотрудник", offset(slot));
+            }
+            long[] left = index.findCandidates("сотрудник");
+            assert left.length == 6666 : "Должно остаться 6666 кандидатов, найдено " + left.length;
+            for (int i = 1; i < left.length; i++) {
+                assert left[i - 1] < left[i] : "Кандидаты должны идти по возрастанию смещений";
+                assert left[i] % (3L * RecordFormat.RECORD_SIZE) != 0 : "Удаленные записи не должны находиться";
+            }
+            
+            index.remove("Сотрудник", offset(1));
+            index.remove("Отсутствующий", offset(2));
+            assert index.findCandidates("отсут").length == 0 : "Удаление отсутствующего имени не должно ничего добавлять";
+            assert index.findCandidates("сот").length == 6665 : "Должно остаться 6665 кандидатов";
+            
+            System.out.println("✅ testRemoveAndOutOfOrderAdd - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testRemoveAndOutOfOrderAdd - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testPersistenceAfterReopen() {
+        String testFile = "test_data/trigram_reopen.idx";
+        
+        try {
+            safeDelete(testFile);
+            int trigramCount;
+            
+            try (TrigramIndex index = new TrigramIndex(testFile, RecordFormat.MAX_NAME_LENGTH)) {
+                index.open(true);
+                for (int slot = 0; slot < 1000; slot++) {
+                    index.add(slot % 2 == 0 ? "Мария Сидорова" : "Олег Кузнецов", offset(slot));
+                }
+                trigramCount = index.getTrigramCount();
+            }
+            
+            try (TrigramIndex index = new TrigramIndex(testFile, RecordFormat.MAX_NAME_LENGTH)) {
+                index.open(false);
+                assert !index.needsRebuild() : "Корректно закрытый индекс не требует перестройки";
+                assert index.getTrigramCount() == trigramCount : "Число триграмм должно сохраниться";
+                assert index.findCandidates("сидор").length == 500 : "Должно быть 500 кандидатов";
+            }
+            
+            // Файл прежнего формата (списки varint, версия 1) не читается, а перестраивается
+            byte[] file = Files.readAllBytes(Paths.get(testFile));
+            ByteBuffer.wrap(file).putShort(0, (short) 1);
+            Files.write(Paths.get(testFile), file);
+            try (TrigramIndex index = new TrigramIndex(testFile, RecordFormat.MAX_NAME_LENGTH)) {
+                index.open(false);
+                assert index.needsRebuild() : "Индекс версии 1 должен требовать перестройки";
+            }
+            
+            System.out.println("✅ testPersistenceAfterReopen - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testPersistenceAfterReopen - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package backend.test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import storage.WriteAheadLog;
+
+public class WriteAheadLogTest {
+    
+    public static void main(String[] args) {
+        testAppendCommitAndReopen();
+        testTornTailIsDropped();
+        testGroupCommit();
+        testWriteWithoutSync();
+        testReplay();
+        System.out.println("✅ Все тесты WriteAheadLog прошли успешно!");
+    }
+    
+    private static void safeDelete(String filePath) {
+        try {
+            Files.deleteIfExists(Paths.get(filePath));
+        } catch (IOException e) {
+            System.err.println("Warning: Could not delete file " + filePath);
+        }
+    }
+    
+    static void testAppendCommitAndReopen() {
+        String testFile = "test_data/wal_basic.log";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (WriteAheadLog wal = new WriteAheadLog(testFile)) {
+                wal.open();
+                long first = wal.append(WriteAheadLog.OP_INSERT, new byte[256]);
+                long second = wal.append(WriteAheadLog.OP_DELETE, new byte[4]);
+                assert first == 1 && second == 2 : "LSN должны идти подряд с 1";
+                assert wal.getDurableLsn() == 0 : "До commit записи не на диске";
+                
+                wal.commit(first);
+                assert wal.getDurableLsn() == 2 : "commit пишет все накопленные записи";
+                assert wal.getSyncCount() == 1 : "Должен быть один fsync";
+                wal.commit(second);
+                assert wal.getSyncCount() == 1 : "Уже записанная запись не требует fsync";
+            }
+            
+            try (WriteAheadLog wal = new WriteAheadLog(testFile)) {
+                wal.open();
+                assert wal.getLastLsn() == 2 : "После открытия журнал продолжается с последней записи";
+                
+                wal.checkpoint();
+                assert Files.size(Paths.get(testFile)) == 16 : "После контрольной точки остается только заголовок";
+                assert wal.append(WriteAheadLog.OP_UPDATE, new byte[256]) == 3 : "LSN не сбрасываются контрольной точкой";
+            }
+            
+            System.out.println("✅ testAppendCommitAndReopen - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testAppendCommitAndReopen - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testTornTailIsDropped() {
+        String testFile = "test_data/wal_torn.log";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (WriteAheadLog wal = new WriteAheadLog(testFile)) {
+                wal.open();
+                for (int i = 0; i < 10; i++) {
+                    wal.append(WriteAheadLog.OP_INSERT, new byte[256]);
+                }
+            }
+            
+            // Последняя запись оборвана посередине, в предпоследней испорчен байт
+            long size = Files.size(Paths.get(testFile));
+            try (RandomAccessFile file = new RandomAccessFile(testFile, "rw")) {
+                file.setLength(size - 100);
+                file.seek(size - 100 - 273 - 50);
+                file.write(0x7F);
+            }
+            
+            try (WriteAheadLog wal = new WriteAheadLog(testFile)) {
+                wal.open();
+                assert wal.getLastLsn() == 8 : "Должны остаться 8 целых записей, осталось " + wal.getLastLsn();
+                assert wal.append(WriteAheadLog.OP_DELETE, new byte[4]) == 9 : "Новая запись занимает место оборванной";
+            }
+            
+            System.out.println("✅ testTornTailIsDropped - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testTornTailIsDropped - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testGroupCommit() {
+        String testFile = "test_data/wal_group.log";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (WriteAheadLog wal = new WriteAheadLog(testFile)) {
+                wal.open();
+                int threadCount = 8;
+                int perThread = 200;
+                AtomicInteger errors = new AtomicInteger();
+                List<Thread> threads = new ArrayList<>();
+                
+                for (int t = 0; t < threadCount; t++) {
+                    Thread thread = new Thread(() -> {
+                        try {
+                            for (int i = 0; i < perThread; i++) {
+                                long lsn = wal.append(WriteAheadLog.OP_INSERT, new byte[256]);
+                                wal.commit(lsn);
+                                if (wal.getDurableLsn() < lsn) {
+                                    errors.incrementAndGet();
+                                }
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        }
+                    });
+                    threads.add(thread);
+                    thread.start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                
+                assert errors.get() == 0 : "commit должен возвращаться только после записи на диск";
+                assert wal.getDurableLsn() == threadCount * perThread : "Все записи должны быть на диске";
+                assert wal.getSyncCount() <= threadCount * perThread : "fsync не больше, чем операций";
+                System.out.println("   fsync на " + threadCount * perThread + " операций: " + wal.getSyncCount());
+            }
+            
+            System.out.println("✅ testGroupCommit - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testGroupCommit - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testWriteWithoutSync() {
+        String testFile = "test_data/wal_nosync.log";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (WriteAheadLog wal = new WriteAheadLog(testFile)) {
+                wal.open();
+                long lsn = wal.append(WriteAheadLog.OP_INSERT, new byte[256]);
+                wal.write(lsn);
+                assert Files.size(Paths.get(testFile)) == 16 + 17 + 256 : "write передает запись в файл";
+                assert wal.getSyncCount() == 0 && wal.getDurableLsn() == 0 : "write не делает fsync";
+                
+                // Записи уже в файле - commit делает только fsync
+                wal.commit(lsn);
+                assert wal.getSyncCount() == 1 && wal.getDurableLsn() == lsn : "commit синхронизирует записанное";
+                assert Files.size(Paths.get(testFile)) == 16 + 17 + 256 : "Запись не должна дублироваться";
+            }
+            
+            System.out.println("✅ testWriteWithoutSync - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testWriteWithoutSync - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+    
+    static void testReplay() {
+        String testFile = "test_data/wal_replay.log";
+        
+        try {
+            safeDelete(testFile);
+            
+            try (WriteAheadLog wal = new WriteAheadLog(testFile)) {
+                wal.open();
+                wal.append(WriteAheadLog.OP_INSERT, new byte[256]);
+                wal.checkpoint();
+                assert !wal.hasRecords() : "После контрольной точки журнал пуст";
+                
+                wal.append(WriteAheadLog.OP_UPDATE, new byte[512]);
+                wal.append(WriteAheadLog.OP_DELETE, ByteBuffer.allocate(8).putLong(42).array());
+                wal.commitAll();
+            }
+            
+            try (WriteAheadLog wal = new WriteAheadLog(testFile)) {
+                wal.open();
+                assert wal.hasRecords() : "Записи после контрольной точки должны остаться";
+                
+                List<Long> lsns = new ArrayList<>();
+                List<Byte> types = new ArrayList<>();
+                wal.replay((lsn, type, data) -> {
+                    lsns.add(lsn);
+                    types.add(type);
+                    if (type == WriteAheadLog.OP_DELETE) {
+                        assert data.getLong(0) == 42 : "Данные записи должны сохраниться";
+                    } else {
+                        assert data.remaining() == 512 : "Длина данных должна сохраниться";
+                    }
+                });
+                assert lsns.equals(List.of(2L, 3L)) : "Повторяются только записи после контрольной точки";
+                assert types.equals(List.of(WriteAheadLog.OP_UPDATE, WriteAheadLog.OP_DELETE)) : "Порядок записей";
+            }
+            
+            System.out.println("✅ testReplay - PASSED");
+            
+        } catch (Exception e) {
+            System.out.println("❌ testReplay - FAILED: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            safeDelete(testFile);
+        }
+    }
+}
@@ -20,6 +20,30 @@ echo.
 echo ===== DatabaseEngineTest =====
 java -cp bin backend.test.DatabaseEngineTest
 
+echo.
+echo ===== ConcurrentReadBenchmark =====
+java -cp bin backend.test.ConcurrentReadBenchmark
+
+echo.
+echo ===== DenseIndexManagerTest =====
+java -cp bin backend.test.DenseIndexManagerTest
+
+echo.
+echo ===== BPlusTreeTest =====
+java -cp bin backend.test.BPlusTreeTest
+
+echo.
+echo ===== TrigramIndexTest =====
+java -cp bin backend.test.TrigramIndexTest
+
+echo.
+echo ===== RoaringBitmapTest =====
+java -cp bin backend.test.RoaringBitmapTest
+
+echo.
+echo ===== WriteAheadLogTest =====
+java -cp bin backend.test.WriteAheadLogTest
+
 echo.
 echo Testing is complete!
 pause
\ No newline at end of file